@@ -10,7 +10,391 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
  */
 @ConfigurationProperties(prefix = "application", ignoreUnknownFields = false)
 public class ApplicationProperties {
+
+    private final Storage storage = new Storage();
+
     // jhipster-needle-application-properties-property
+
+    public Storage getStorage() {
+        return storage;
+    }
+
     // jhipster-needle-application-properties-property-getter
+
+    public static class Storage {
+
+        private Engine engine = Engine.CSV;
+
+        private RecordFormat recordFormat = RecordFormat.CSV;
+
+        private long segmentSizeBytes = 64L * 1024 * 1024;
+
+        private int partitions = 8;
+
+        private FsyncPolicy fsync = FsyncPolicy.EVERY_BATCH;
+
+        private long fsyncIntervalMs = 100;
+
+        private ScanMode scanMode = ScanMode.CHANNEL;
+
+        private int mmapChunkBytes = 256 * 1024 * 1024;
+
+        private IndexType index = IndexType.HEAP;
+
+        private int btreeCachePages = 1024;
+
+        private int idFilterBitsPerKey = 10;
+
+        private boolean emailIndex = true;
+
+        private boolean uniqueEmail = false;
+
+        private boolean nameIndex = true;
+
+        private boolean mobileIndex = true;
+
+        private boolean searchIndex = true;
+
+        private final Compaction compaction = new Compaction();
+
+        private final Lsm lsm = new Lsm();
+
+        public Engine getEngine() {
+            return engine;
+        }
+
+        public void setEngine(Engine engine) {
+            this.engine = engine;
+        }
+
+        public RecordFormat getRecordFormat() {
+            return recordFormat;
+        }
+
+        public void setRecordFormat(RecordFormat recordFormat) {
+            this.recordFormat = recordFormat;
+        }
+
+        public long getSegmentSizeBytes() {
+            return segmentSizeBytes;
+        }
+
+        public void setSegmentSizeBytes(long segmentSizeBytes) {
+            this.segmentSizeBytes = segmentSizeBytes;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public void setPartitions(int partitions) {
+            this.partitions = partitions;
+        }
+
+        public FsyncPolicy getFsync() {
+            return fsync;
+        }
+
+        public void setFsync(FsyncPolicy fsync) {
+            this.fsync = fsync;
+        }
+
+        public long getFsyncIntervalMs() {
+            return fsyncIntervalMs;
+        }
+
+        public void setFsyncIntervalMs(long fsyncIntervalMs) {
+            this.fsyncIntervalMs = fsyncIntervalMs;
+        }
+
+        public ScanMode getScanMode() {
+            return scanMode;
+        }
+
+        public void setScanMode(ScanMode scanMode) {
+            this.scanMode = scanMode;
+        }
+
+        public int getMmapChunkBytes() {
+            return mmapChunkBytes;
+        }
+
+        public void setMmapChunkBytes(int mmapChunkBytes) {
+            this.mmapChunkBytes = mmapChunkBytes;
+        }
+
+        public IndexType getIndex() {
+            return index;
+        }
+
+        public void setIndex(IndexType index) {
+            this.index = index;
+        }
+
+        public int getBtreeCachePages() {
+            return btreeCachePages;
+        }
+
+        public void setBtreeCachePages(int btreeCachePages) {
+            this.btreeCachePages = btreeCachePages;
+        }
+
+        public int getIdFilterBitsPerKey() {
+            return idFilterBitsPerKey;
+        }
+
+        public void setIdFilterBitsPerKey(int idFilterBitsPerKey) {
+            this.idFilterBitsPerKey = idFilterBitsPerKey;
+        }
+
+        public boolean isEmailIndex() {
+            return emailIndex;
+        }
+
+        public void setEmailIndex(boolean emailIndex) {
+            this.emailIndex = emailIndex;
+        }
+
+        public boolean isUniqueEmail() {
+            return uniqueEmail;
+        }
+
+        public void setUniqueEmail(boolean uniqueEmail) {
+            this.uniqueEmail = uniqueEmail;
+        }
+
+        public boolean isNameIndex() {
+            return nameIndex;
+        }
+
+        public void setNameIndex(boolean nameIndex) {
+            this.nameIndex = nameIndex;
+        }
+
+        public boolean isMobileIndex() {
+            return mobileIndex;
+        }
+
+        public void setMobileIndex(boolean mobileIndex) {
+            this.mobileIndex = mobileIndex;
+        }
+
+        public boolean isSearchIndex() {
+            return searchIndex;
+        }
+
+        public void setSearchIndex(boolean searchIndex) {
+            this.searchIndex = searchIndex;
+        }
+
+        public Compaction getCompaction() {
+            return compaction;
+        }
+
+        public Lsm getLsm() {
+            return lsm;
+        }
+
+        public enum Engine {
+            /**
+             * Single CSV file, rewritten on update and delete.
+             */
+            CSV,
+            /**
+             * Append-only log with tombstones, never rewritten on the request path.
+             */
+            LOG,
+            /**
+             * One CSV file per partition, rows spread by id hash, each partition locked and indexed on its own.
+             */
+            PARTITIONED_CSV,
+            /**
+             * Append-only log of binary records, whatever the configured record format.
+             */
+            BINARY_LOG,
+            /**
+             * Rows held in memory only and lost on shutdown, as a baseline for benchmarking the other engines.
+             */
+            IN_MEMORY,
+            /**
+             * Log-structured merge tree: a memtable backed by a write-ahead log, flushed into sorted tables merged by level.
+             */
+            LSM,
+        }
+
+        public enum RecordFormat {
+            /**
+             * Newline delimited CSV rows, a tombstone being a row holding only the identifier.
+             */
+            CSV,
+            /**
+             * Length prefixed binary records with a fixed header, see {@code BinaryRecordFormat}.
+             */
+            BINARY,
+        }
+
+        public enum FsyncPolicy {
+            /**
+             * Never force writes, leaving it to the operating system.
+             */
+            NONE,
+            /**
+             * Force once per group committed batch of writes.
+             */
+            EVERY_BATCH,
+            /**
+             * Force at most once every {@code fsync-interval-ms}, writers waiting for the next force.
+             */
+            INTERVAL_MS,
+        }
+
+        public enum ScanMode {
+            /**
+             * Read full scans through the repository channel, one buffer at a time.
+             */
+            CHANNEL,
+            /**
+             * Read full scans straight from the page cache, mapping the file in chunks of {@code mmap-chunk-bytes}.
+             */
+            MMAP,
+        }
+
+        public enum IndexType {
+            /**
+             * Hold the id index in a heap hash map, growing with the amount of rows.
+             */
+            HEAP,
+            /**
+             * Page the id index from an on-disk B+tree, holding at most {@code btree-cache-pages} pages in heap.
+             */
+            BTREE,
+        }
+
+        public static class Compaction {
+
+            private boolean enabled = true;
+
+            private long intervalMs = 60000;
+
+            private double garbageRatio = 0.5;
+
+            private long bytesPerSecond = 8L * 1024 * 1024;
+
+            public boolean isEnabled() {
+                return enabled;
+            }
+
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+
+            public long getIntervalMs() {
+                return intervalMs;
+            }
+
+            public void setIntervalMs(long intervalMs) {
+                this.intervalMs = intervalMs;
+            }
+
+            public double getGarbageRatio() {
+                return garbageRatio;
+            }
+
+            public void setGarbageRatio(double garbageRatio) {
+                this.garbageRatio = garbageRatio;
+            }
+
+            public long getBytesPerSecond() {
+                return bytesPerSecond;
+            }
+
+            public void setBytesPerSecond(long bytesPerSecond) {
+                this.bytesPerSecond = bytesPerSecond;
+            }
+        }
+
+        public static class Lsm {
+
+            private long memtableBytes = 16L * 1024 * 1024;
+
+            private int maxFrozenMemtables = 4;
+
+            private int indexIntervalBytes = 4096;
+
+            private int bloomBitsPerKey = 10;
+
+            private int level0Tables = 4;
+
+            private long levelBaseBytes = 64L * 1024 * 1024;
+
+            private int levelFanout = 10;
+
+            private long tableBytes = 16L * 1024 * 1024;
+
+            public long getMemtableBytes() {
+                return memtableBytes;
+            }
+
+            public void setMemtableBytes(long memtableBytes) {
+                this.memtableBytes = memtableBytes;
+            }
+
+            public int getMaxFrozenMemtables() {
+                return maxFrozenMemtables;
+            }
+
+            public void setMaxFrozenMemtables(int maxFrozenMemtables) {
+                this.maxFrozenMemtables = maxFrozenMemtables;
+            }
+
+            public int getIndexIntervalBytes() {
+                return indexIntervalBytes;
+            }
+
+            public void setIndexIntervalBytes(int indexIntervalBytes) {
+                this.indexIntervalBytes = indexIntervalBytes;
+            }
+
+            public int getBloomBitsPerKey() {
+                return bloomBitsPerKey;
+            }
+
+            public void setBloomBitsPerKey(int bloomBitsPerKey) {
+                this.bloomBitsPerKey = bloomBitsPerKey;
+            }
+
+            public int getLevel0Tables() {
+                return level0Tables;
+            }
+
+            public void setLevel0Tables(int level0Tables) {
+                this.level0Tables = level0Tables;
+            }
+
+            public long getLevelBaseBytes() {
+                return levelBaseBytes;
+            }
+
+            public void setLevelBaseBytes(long levelBaseBytes) {
+                this.levelBaseBytes = levelBaseBytes;
+            }
+
+            public int getLevelFanout() {
+                return levelFanout;
+            }
+
+            public void setLevelFanout(int levelFanout) {
+                this.levelFanout = levelFanout;
+            }
+
+            public long getTableBytes() {
+                return tableBytes;
+            }
+
+            public void setTableBytes(long tableBytes) {
+                this.tableBytes = tableBytes;
+            }
+        }
+    }
     // jhipster-needle-application-properties-property-class
 }
@@ -0,0 +1,30 @@
+package com.tiagodiogo.radicant.config;
+
+import java.util.concurrent.Executor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Runs asynchronous request processing, such as streamed responses, on the bounded {@code taskExecutor} instead of the
+ * Spring MVC default, which starts a new thread for every request.
+ */
+@Configuration
+public class AsyncWebConfiguration implements WebMvcConfigurer {
+
+    private final Executor taskExecutor;
+
+    public AsyncWebConfiguration(@Qualifier("taskExecutor") Executor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(
+            taskExecutor instanceof AsyncTaskExecutor ? (AsyncTaskExecutor) taskExecutor : new TaskExecutorAdapter(taskExecutor)
+        );
+    }
+}
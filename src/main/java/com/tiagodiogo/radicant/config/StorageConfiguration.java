@@ -0,0 +1,98 @@
+package com.tiagodiogo.radicant.config;
+
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.repository.AppendOnlyLogDatabase;
+import com.tiagodiogo.radicant.repository.EmailIndexedDatabase;
+import com.tiagodiogo.radicant.repository.InMemoryDatabase;
+import com.tiagodiogo.radicant.repository.LsmDatabase;
+import com.tiagodiogo.radicant.repository.MobileIndexedDatabase;
+import com.tiagodiogo.radicant.repository.NameIndexedDatabase;
+import com.tiagodiogo.radicant.repository.PartitionedPhoneBookDatabase;
+import com.tiagodiogo.radicant.repository.PhoneBookDatabase;
+import com.tiagodiogo.radicant.repository.SearchIndexedDatabase;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+/*
+ * Selects the phone book storage engine from the app properties
+ */
+@Configuration
+public class StorageConfiguration {
+
+    private final Logger log = LoggerFactory.getLogger(StorageConfiguration.class);
+
+    /**
+     * Creates the {@link IDatabase} engine matching {@code application.storage.engine}. It is a bean of its own, apart
+     * from the indexes wrapping it, so the container finds its scheduled maintenance, such as log compaction, and
+     * closes it on shutdown.
+     * @param applicationProperties the app properties.
+     * @param meterRegistry the registry for the storage metrics.
+     * @return the phone book storage engine.
+     * @throws IOException in the event of an error opening the underlying files.
+     */
+    @Bean
+    public IDatabase phoneBookStorageEngine(ApplicationProperties applicationProperties, MeterRegistry meterRegistry)
+        throws IOException {
+        return engine(applicationProperties.getStorage(), meterRegistry);
+    }
+
+    /**
+     * Puts the email, name, mobile and search indexes, unless disabled, in front of the storage engine. The engine bean is
+     * closed by the container, so this one is not.
+     * @param engine the phone book storage engine.
+     * @param applicationProperties the app properties.
+     * @param meterRegistry the registry for the index metrics.
+     * @return the phone book database.
+     */
+    @Bean(destroyMethod = "")
+    @Primary
+    public IDatabase phoneBookDatabase(
+        @Qualifier("phoneBookStorageEngine") IDatabase engine,
+        ApplicationProperties applicationProperties,
+        MeterRegistry meterRegistry
+    ) {
+        ApplicationProperties.Storage storage = applicationProperties.getStorage();
+        IDatabase database = engine;
+        if (storage.isEmailIndex() || storage.isUniqueEmail()) {
+            log.debug("Indexing phone book emails, unique: {}", storage.isUniqueEmail());
+            database = new EmailIndexedDatabase(database, storage.isUniqueEmail());
+        }
+        if (storage.isNameIndex()) {
+            log.debug("Indexing phone book names");
+            database = new NameIndexedDatabase(database);
+        }
+        if (storage.isMobileIndex()) {
+            log.debug("Indexing phone book mobiles");
+            database = new MobileIndexedDatabase(database, meterRegistry);
+        }
+        if (storage.isSearchIndex()) {
+            log.debug("Indexing phone book names and emails for search");
+            database = new SearchIndexedDatabase(database);
+        }
+        return database;
+    }
+
+    private IDatabase engine(ApplicationProperties.Storage storage, MeterRegistry meterRegistry) throws IOException {
+        log.debug("Configuring phone book storage engine: {}", storage.getEngine());
+        switch (storage.getEngine()) {
+            case LOG:
+            case BINARY_LOG:
+                return new AppendOnlyLogDatabase(storage, meterRegistry);
+            case IN_MEMORY:
+                return new InMemoryDatabase();
+            case LSM:
+                return new LsmDatabase(storage, meterRegistry);
+            case PARTITIONED_CSV:
+                return new PartitionedPhoneBookDatabase(storage, meterRegistry);
+            case CSV:
+            default:
+                return new PhoneBookDatabase(storage, meterRegistry);
+        }
+    }
+}
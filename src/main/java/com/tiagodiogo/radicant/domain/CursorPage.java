@@ -0,0 +1,90 @@
+package com.tiagodiogo.radicant.domain;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A page of items read from a position of the database onwards, with the opaque cursor of the position right after it.
+ * <p>
+ * Pages of rows come in ascending id order, their cursor being the id of the last row, so the next page starts right
+ * after it whatever was written in between, across restarts and on every engine.
+ * @param <T> the type of the items.
+ */
+public final class CursorPage<T> {
+
+    private final List<T> items;
+    private final String nextCursor;
+
+    /**
+     * @param items the items of the page.
+     * @param nextCursor the cursor of the next page, or null if this page is the last one.
+     */
+    public CursorPage(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @param items the items of the page, along with their id, in ascending id order and one more than the limit if
+     * more items follow.
+     * @param limit the maximum amount of items of the page.
+     * @param <T> the type of the items.
+     * @return the page of up to limit items, with the id of its last item as cursor if more items follow.
+     */
+    public static <T> CursorPage<T> ofIds(List<Map.Entry<Long, T>> items, int limit) {
+        List<Map.Entry<Long, T>> page = items.size() > limit ? items.subList(0, limit) : items;
+        return new CursorPage<>(
+            page.stream().map(Map.Entry::getValue).collect(Collectors.toList()),
+            items.size() > limit ? String.valueOf(page.get(limit - 1).getKey()) : null
+        );
+    }
+
+    /**
+     * @param cursor a cursor of a page of rows, or null for the first page.
+     * @return the id the page starts after, -1 for the first page.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    public static long lastId(String cursor) {
+        if (cursor == null) {
+            return -1;
+        }
+        long id;
+        try {
+            id = Long.parseLong(cursor);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, ex);
+        }
+        if (id < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return id;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @param mapper converts each item.
+     * @param cursorMapper converts the next cursor, only called when there is one.
+     * @param <R> the type of the converted items.
+     * @return the same page with converted items and cursor.
+     */
+    public <R> CursorPage<R> map(Function<? super T, ? extends R> mapper, Function<String, String> cursorMapper) {
+        return new CursorPage<>(
+            items.stream().map(mapper).collect(Collectors.toList()),
+            nextCursor == null ? null : cursorMapper.apply(nextCursor)
+        );
+    }
+
+    @Override
+    public String toString() {
+        return "CursorPage{items=" + items.size() + ", nextCursor=" + nextCursor + "}";
+    }
+}
@@ -0,0 +1,23 @@
+package com.tiagodiogo.radicant.domain;
+
+/**
+ * Thrown by {@link IDatabase} writes that would give a row the email of another row while emails must be unique.
+ */
+public class DuplicateEmailException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String email;
+
+    /**
+     * @param email the email already taken.
+     */
+    public DuplicateEmailException(String email) {
+        super("Email already in use: " + email);
+        this.email = email;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+}
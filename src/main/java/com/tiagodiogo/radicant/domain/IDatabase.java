@@ -1,7 +1,26 @@
 package com.tiagodiogo.radicant.domain;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Storage engine SPI. The four row operations are the contract every engine implements; the capabilities after them
+ * come with defaults built on those operations, which engines override when they can serve them cheaper.
+ */
 public interface IDatabase {
     /**
      * Lookup a specific row in the database, based on its unique id
@@ -37,4 +56,214 @@ public interface IDatabase {
      * hasn' t been found)
      */
     boolean delete(Long id);
+
+    /**
+     * Inserts several rows, generating the unique id of each. Engines batching writes commit them together.
+     * @param rows the rows' data to insert.
+     * @return the generated unique ids, in the order of the rows.
+     */
+    default List<Long> insertAll(List<String> rows) {
+        List<Long> ids = new ArrayList<>(rows.size());
+        for (String row : rows) {
+            ids.add(insert(row));
+        }
+        return ids;
+    }
+
+    /**
+     * Walks all the rows, as a cursor over the database contents that engines may serve without holding every row in
+     * memory at once. The visitor must not write to the database.
+     * @param visitor receives every live row.
+     */
+    default void scan(Consumer<String> visitor) {
+        select(-1L).forEach(visitor);
+    }
+
+    /**
+     * Walks the rows matching a filter. Engines may test rows on their raw bytes within the scan; this default looks
+     * the candidates up through {@link #lookup(RecordFilter.Comparison)} when the filter allows, or tests every row of
+     * {@link #scan(Consumer)}. The visitor must not write to the database.
+     * @param filter the filter to match.
+     * @param visitor receives every matching row, in scan order unless looked up.
+     */
+    default void scan(RecordFilter filter, Consumer<String> visitor) {
+        List<String> candidates = filter.lookup(this::lookup);
+        if (candidates != null) {
+            candidates.stream().filter(filter::test).forEach(visitor);
+            return;
+        }
+        scan(row -> {
+            if (filter.test(row)) {
+                visitor.accept(row);
+            }
+        });
+    }
+
+    /**
+     * Looks up the rows that may satisfy a comparison of a filter, without a scan. Engines and wrappers keeping an
+     * index serve the comparisons it covers; this default serves id equality.
+     * @param comparison the comparison.
+     * @return the candidate rows, a superset of the ones satisfying the comparison, or null if a scan is needed.
+     */
+    default List<String> lookup(RecordFilter.Comparison comparison) {
+        if (!comparison.is(RecordFilter.Field.ID, RecordFilter.Operator.EQUALS)) {
+            return null;
+        }
+        return comparison.getNumber() < 0 ? Collections.emptyList() : select(comparison.getNumber());
+    }
+
+    /**
+     * Opens a lazy cursor over all the rows, which engines may serve by reading rows only as the stream is consumed.
+     * The stream may hold files or buffers of the engine until closed, so callers must close it, e.g. through a
+     * try-with-resources statement. Read errors surface as {@link java.io.UncheckedIOException}.
+     * @return the stream of every live row.
+     */
+    default Stream<String> stream() {
+        return select(-1L).stream();
+    }
+
+    /**
+     * Looks rows up by the email column, ignoring case and surrounding blanks. Engines may keep a secondary index for
+     * it; this default walks every row.
+     * @param email the email to look for.
+     * @return the rows holding the email, empty if none does.
+     */
+    default List<String> selectByEmail(String email) {
+        String wanted = email.trim();
+        List<String> rows = new ArrayList<>();
+        scan(row -> {
+            String rowEmail = PhoneBookRecordCodec.decode(row).getEmail();
+            if (rowEmail != null && rowEmail.trim().equalsIgnoreCase(wanted)) {
+                rows.add(row);
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * Looks rows up by the mobile column. Engines may keep a secondary index for it; this default walks every row.
+     * @param mobile the mobile number to look for.
+     * @return the rows holding the mobile number, empty if none does.
+     */
+    default List<String> selectByMobile(int mobile) {
+        List<String> rows = new ArrayList<>();
+        scan(row -> {
+            Integer rowMobile = PhoneBookRecordCodec.decode(row).getMobile();
+            if (rowMobile != null && rowMobile == mobile) {
+                rows.add(row);
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * Finds the rows whose name starts with a prefix, compared in their {@link NameSuggestion#normalize normalized}
+     * form, for type-ahead. Engines may keep a prefix index for it; this default walks and sorts every match.
+     * @param prefix the start of the name.
+     * @param limit the maximum amount of suggestions.
+     * @return the matching rows, ordered by normalized name then identifier.
+     */
+    default List<NameSuggestion> suggestNames(String prefix, int limit) {
+        String wanted = NameSuggestion.normalize(prefix);
+        List<Map.Entry<String, NameSuggestion>> matches = new ArrayList<>();
+        scan(row -> {
+            PhoneBookRecord record = PhoneBookRecordCodec.decode(row);
+            if (record.getName() != null) {
+                String key = NameSuggestion.normalize(record.getName());
+                if (key.startsWith(wanted)) {
+                    matches.add(new AbstractMap.SimpleImmutableEntry<>(key, new NameSuggestion(record.getId(), record.getName())));
+                }
+            }
+        });
+        return matches
+            .stream()
+            .sorted(Map.Entry.<String, NameSuggestion>comparingByKey().thenComparingLong(match -> match.getValue().getId()))
+            .limit(limit)
+            .map(Map.Entry::getValue)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Finds the rows whose name or email contains a text, compared in their {@link NameSuggestion#normalize normalized}
+     * form, for substring search. Engines may keep a trigram index for it; this default walks every row.
+     * @param text the text to look for.
+     * @param limit the maximum amount of rows.
+     * @return the matching rows.
+     */
+    default List<String> search(String text, int limit) {
+        String needle = NameSuggestion.normalize(text);
+        List<String> rows = new ArrayList<>();
+        try (Stream<String> all = stream()) {
+            all
+                .filter(row -> {
+                    PhoneBookRecord record = PhoneBookRecordCodec.decode(row);
+                    return (
+                        (record.getName() != null && NameSuggestion.normalize(record.getName()).contains(needle)) ||
+                        (record.getEmail() != null && NameSuggestion.normalize(record.getEmail()).contains(needle))
+                    );
+                })
+                .limit(limit)
+                .forEachOrdered(rows::add);
+        }
+        return rows;
+    }
+
+    /**
+     * Reads a page of rows in ascending id order, starting after the id of the last row of the previous page, which
+     * its cursor carries. Engines with an ordered id index seek to it; this default walks every row, keeping the lowest
+     * ids after the cursor.
+     * @param cursor the cursor of the page, or null for the first page.
+     * @param limit the maximum amount of rows of the page, at least 1.
+     * @return the rows of the page, with the cursor of the next page if more rows follow.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    default CursorPage<String> page(String cursor, int limit) {
+        long after = CursorPage.lastId(cursor);
+        // Max heap of the lowest ids after the cursor, one more than the limit to tell whether a next page follows
+        PriorityQueue<Map.Entry<Long, String>> lowest = new PriorityQueue<>(Map.Entry.<Long, String>comparingByKey().reversed());
+        try (Stream<String> rows = stream()) {
+            rows.forEachOrdered(row -> {
+                long id = PhoneBookRecordCodec.decode(row).getId();
+                if (id > after && (lowest.size() <= limit || id < lowest.peek().getKey())) {
+                    lowest.add(new AbstractMap.SimpleImmutableEntry<>(id, row));
+                    if (lowest.size() > limit + 1) {
+                        lowest.poll();
+                    }
+                }
+            });
+        }
+        List<Map.Entry<Long, String>> rows = new ArrayList<>(lowest);
+        rows.sort(Map.Entry.comparingByKey());
+        return CursorPage.ofIds(rows, limit);
+    }
+
+    /**
+     * Writes all the rows as CSV lines in UTF-8, the charset of the CSV files. Engines storing rows as CSV may copy
+     * their files straight to the output instead of decoding and encoding every row.
+     * @param out the output, left open.
+     * @throws IOException in the event of an error reading the rows or writing the output.
+     */
+    default void exportCsv(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try (Stream<String> rows = stream()) {
+            rows.forEachOrdered(row -> {
+                try {
+                    writer.write(row);
+                    writer.write(System.lineSeparator());
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return the current figures of the database.
+     */
+    default StorageStats stats() {
+        return new StorageStats(select(-1L).size(), StorageStats.UNKNOWN);
+    }
 }
@@ -0,0 +1,74 @@
+package com.tiagodiogo.radicant.domain;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A record whose name starts with the prefix being typed, with just what a type-ahead list shows.
+ */
+public final class NameSuggestion {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern BLANKS = Pattern.compile("\\s+");
+
+    private final long id;
+    private final String name;
+
+    /**
+     * @param id the identifier of the record.
+     * @param name the name of the record, as stored.
+     */
+    public NameSuggestion(long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * The form names are matched and ordered by: lower cased, without accents, trimmed, and with runs of blanks as
+     * single spaces.
+     * @param name the name, or a prefix of it.
+     * @return the normalized name.
+     */
+    public static String normalize(String name) {
+        String folded = name;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 0x80) {
+                folded = COMBINING_MARKS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll("");
+                break;
+            }
+        }
+        return BLANKS.matcher(folded.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NameSuggestion)) {
+            return false;
+        }
+        NameSuggestion that = (NameSuggestion) o;
+        return id == that.id && Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, name);
+    }
+
+    @Override
+    public String toString() {
+        return "NameSuggestion{id=" + id + ", name=" + name + "}";
+    }
+}
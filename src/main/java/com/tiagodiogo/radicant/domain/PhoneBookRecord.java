@@ -1,12 +1,18 @@
 package com.tiagodiogo.radicant.domain;
 
 import java.io.Serializable;
+import javax.validation.constraints.Pattern;
 
 public class PhoneBookRecord implements Serializable {
 
     private Long id;
+
+    @Pattern(regexp = "[^\\r\\n]*", message = "must not hold line breaks")
     private String name;
+
+    @Pattern(regexp = "[^\\r\\n]*", message = "must not hold line breaks")
     private String email;
+
     private Integer mobile;
 
     public PhoneBookRecord() {
@@ -28,7 +34,7 @@ public class PhoneBookRecord implements Serializable {
     }
 
     public String toCSV() {
-        return String.format("%d,%s,%s,%d", this.id, this.name, this.email, this.mobile);
+        return PhoneBookRecordCodec.encode(this);
     }
 
     public Long getId() {
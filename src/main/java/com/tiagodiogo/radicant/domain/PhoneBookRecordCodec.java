@@ -0,0 +1,367 @@
+package com.tiagodiogo.radicant.domain;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts {@link PhoneBookRecord} entities from and to their CSV row, {@code id,name,email,mobile}.
+ * <p>
+ * Rows are parsed in a single pass, numeric columns straight from their digits, so the only allocations are the
+ * record and its text fields. Text fields holding a separator or a quote are quoted as per RFC 4180, with embedded
+ * quotes doubled. Line breaks are refused, as every row is one line of the files it is stored in. Missing numeric
+ * columns are written, and read, as empty fields.
+ * <p>
+ * Byte rows are UTF-8, which is all the parser relies on, as no multi-byte sequence contains an ASCII byte.
+ */
+public final class PhoneBookRecordCodec {
+
+    public static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+    private static final int COLUMNS = 4;
+
+    private PhoneBookRecordCodec() {}
+
+    /**
+     * Parses a CSV row.
+     * @param row the row, without its line terminator.
+     * @return the record.
+     * @throws IllegalArgumentException if the row is malformed.
+     */
+    public static PhoneBookRecord decode(CharSequence row) {
+        PhoneBookRecord record = new PhoneBookRecord();
+        int length = row.length();
+        int position = 0;
+        for (int column = 0; column < COLUMNS; column++) {
+            if (position > length) {
+                throw new IllegalArgumentException("Expected " + COLUMNS + " columns in row: " + row);
+            }
+            if (column == 0 || column == 3) {
+                int end = indexOfSeparator(row, position, length);
+                Long value = parseLong(row, position, end);
+                if (column == 0) {
+                    record.setId(value);
+                } else {
+                    record.setMobile(toMobile(value));
+                }
+                position = end + 1;
+            } else {
+                StringBuilder quoted = null;
+                int end;
+                if (position < length && row.charAt(position) == QUOTE) {
+                    quoted = new StringBuilder();
+                    end = unquote(row, position + 1, length, quoted);
+                } else {
+                    end = indexOfSeparator(row, position, length);
+                }
+                String value = quoted != null ? quoted.toString() : row.subSequence(position, end).toString();
+                if (column == 1) {
+                    record.setName(value);
+                } else {
+                    record.setEmail(value);
+                }
+                position = end + 1;
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Parses the UTF-8 CSV row between the buffer position and limit, leaving the position at the limit.
+     * @param row the row bytes, without their line terminator.
+     * @return the record.
+     * @throws IllegalArgumentException if the row is malformed.
+     */
+    public static PhoneBookRecord decode(ByteBuffer row) {
+        byte[] bytes;
+        int offset;
+        int length = row.remaining();
+        if (row.hasArray()) {
+            bytes = row.array();
+            offset = row.arrayOffset() + row.position();
+            row.position(row.limit());
+        } else {
+            bytes = new byte[length];
+            offset = 0;
+            row.get(bytes);
+        }
+        return decode(bytes, offset, length);
+    }
+
+    /**
+     * Parses a UTF-8 CSV row.
+     * @param bytes the array holding the row.
+     * @param offset the index of the first byte of the row.
+     * @param length the length of the row, without its line terminator.
+     * @return the record.
+     * @throws IllegalArgumentException if the row is malformed.
+     */
+    public static PhoneBookRecord decode(byte[] bytes, int offset, int length) {
+        PhoneBookRecord record = new PhoneBookRecord();
+        int limit = offset + length;
+        int position = offset;
+        for (int column = 0; column < COLUMNS; column++) {
+            if (position > limit) {
+                throw new IllegalArgumentException("Expected " + COLUMNS + " columns in row");
+            }
+            int end;
+            if (column == 0 || column == 3) {
+                end = indexOfSeparator(bytes, position, limit);
+                Long value = parseLong(bytes, position, end);
+                if (column == 0) {
+                    record.setId(value);
+                } else {
+                    record.setMobile(toMobile(value));
+                }
+            } else {
+                String value;
+                if (position < limit && bytes[position] == QUOTE) {
+                    end = closingQuote(bytes, position + 1, limit);
+                    value = new String(bytes, position + 1, end - position - 2, StandardCharsets.UTF_8);
+                    if (value.indexOf(QUOTE) >= 0) {
+                        value = value.replace("\"\"", "\"");
+                    }
+                } else {
+                    end = indexOfSeparator(bytes, position, limit);
+                    value = new String(bytes, position, end - position, StandardCharsets.UTF_8);
+                }
+                if (column == 1) {
+                    record.setName(value);
+                } else {
+                    record.setEmail(value);
+                }
+            }
+            position = end + 1;
+        }
+        return record;
+    }
+
+    /**
+     * Formats a record as a CSV row.
+     * @param record the record.
+     * @return the row, without a line terminator.
+     * @throws IllegalArgumentException if a text field holds a line break.
+     */
+    public static String encode(PhoneBookRecord record) {
+        StringBuilder row = new StringBuilder(64);
+        appendNumber(row, record.getId());
+        row.append(SEPARATOR);
+        appendText(row, record.getName());
+        row.append(SEPARATOR);
+        appendText(row, record.getEmail());
+        row.append(SEPARATOR);
+        appendNumber(row, record.getMobile());
+        return row.toString();
+    }
+
+    /**
+     * Formats a record as a UTF-8 CSV row into the buffer.
+     * @param record the record.
+     * @param target the buffer to write the row to, without a line terminator.
+     * @throws java.nio.BufferOverflowException if the row does not fit in the buffer.
+     * @throws IllegalArgumentException if a text field holds a line break.
+     */
+    public static void encode(PhoneBookRecord record, ByteBuffer target) {
+        putNumber(target, record.getId());
+        target.put((byte) SEPARATOR);
+        putText(target, record.getName());
+        target.put((byte) SEPARATOR);
+        putText(target, record.getEmail());
+        target.put((byte) SEPARATOR);
+        putNumber(target, record.getMobile());
+    }
+
+    private static int indexOfSeparator(CharSequence row, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (row.charAt(i) == SEPARATOR) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private static int indexOfSeparator(byte[] bytes, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (bytes[i] == SEPARATOR) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Copies a quoted field into the builder, unescaping doubled quotes.
+     * @return the index of the separator, or limit, following the closing quote.
+     */
+    private static int unquote(CharSequence row, int from, int limit, StringBuilder value) {
+        int i = from;
+        while (i < limit) {
+            char c = row.charAt(i++);
+            if (c != QUOTE) {
+                value.append(c);
+            } else if (i < limit && row.charAt(i) == QUOTE) {
+                value.append(QUOTE);
+                i++;
+            } else {
+                return expectSeparator(i, limit, i < limit ? row.charAt(i) : SEPARATOR);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated quoted field in row: " + row);
+    }
+
+    /**
+     * @return the index of the separator, or limit, following the closing quote of a field.
+     */
+    private static int closingQuote(byte[] bytes, int from, int limit) {
+        int i = from;
+        while (i < limit) {
+            if (bytes[i++] != QUOTE) {
+                continue;
+            }
+            if (i < limit && bytes[i] == QUOTE) {
+                i++;
+            } else {
+                return expectSeparator(i, limit, i < limit ? (char) bytes[i] : SEPARATOR);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated quoted field in row");
+    }
+
+    private static int expectSeparator(int index, int limit, char found) {
+        if (index < limit && found != SEPARATOR) {
+            throw new IllegalArgumentException("Unexpected '" + found + "' after closing quote at index " + index);
+        }
+        return index;
+    }
+
+    private static Long parseLong(CharSequence row, int from, int to) {
+        if (from == to) {
+            return null;
+        }
+        boolean negative = row.charAt(from) == '-';
+        long value = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            value = accumulate(value, row.charAt(i));
+        }
+        return negative ? -value : value;
+    }
+
+    private static Long parseLong(byte[] bytes, int from, int to) {
+        if (from == to) {
+            return null;
+        }
+        boolean negative = bytes[from] == '-';
+        long value = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            value = accumulate(value, (char) bytes[i]);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Overflows are thrown as {@link NumberFormatException}, so malformed rows all fail with an
+     * {@link IllegalArgumentException}, which the startup scans skip.
+     */
+    private static long accumulate(long value, char digit) {
+        if (digit < '0' || digit > '9') {
+            throw new NumberFormatException("Unexpected '" + digit + "' in numeric field");
+        }
+        if (value > (Long.MAX_VALUE - (digit - '0')) / 10) {
+            throw new NumberFormatException("Numeric field out of range");
+        }
+        return value * 10 + (digit - '0');
+    }
+
+    private static Integer toMobile(Long value) {
+        if (value != null && value != value.intValue()) {
+            throw new NumberFormatException("Mobile out of range: " + value);
+        }
+        return value == null ? null : value.intValue();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text holds a line break, which would split the row in two on disk.
+     */
+    private static boolean needsQuotes(String text) {
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                throw new IllegalArgumentException("Line break in text field at index " + i);
+            }
+            quoted |= c == SEPARATOR || c == QUOTE;
+        }
+        return quoted;
+    }
+
+    private static void appendNumber(StringBuilder row, Number value) {
+        if (value != null) {
+            row.append(value.longValue());
+        }
+    }
+
+    private static void appendText(StringBuilder row, String text) {
+        if (text == null) {
+            return;
+        }
+        if (!needsQuotes(text)) {
+            row.append(text);
+            return;
+        }
+        row.append(QUOTE);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == QUOTE) {
+                row.append(QUOTE);
+            }
+            row.append(c);
+        }
+        row.append(QUOTE);
+    }
+
+    private static void putNumber(ByteBuffer target, Number value) {
+        if (value == null) {
+            return;
+        }
+        long number = value.longValue();
+        if (number < 0) {
+            target.put((byte) '-');
+        }
+        long divisor = 1;
+        while (Math.abs(number / divisor) >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            target.put((byte) ('0' + Math.abs(number / divisor % 10)));
+        }
+    }
+
+    private static void putText(ByteBuffer target, String text) {
+        if (text == null) {
+            return;
+        }
+        boolean quoted = needsQuotes(text);
+        if (quoted) {
+            target.put((byte) QUOTE);
+        }
+        for (int i = 0; i < text.length(); i++) {
+            int c = text.codePointAt(i);
+            if (c < 0x80) {
+                if (c == QUOTE) {
+                    target.put((byte) QUOTE);
+                }
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (c < 0x10000) {
+                target.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            } else {
+                target.put((byte) (0xF0 | c >> 18)).put((byte) (0x80 | c >> 12 & 0x3F));
+                target.put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+                i++;
+            }
+        }
+        if (quoted) {
+            target.put((byte) QUOTE);
+        }
+    }
+}
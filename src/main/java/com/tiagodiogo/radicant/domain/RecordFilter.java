@@ -0,0 +1,544 @@
+package com.tiagodiogo.radicant.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A filter over phone book rows, compiled once from a small query language and then evaluated straight on the UTF-8
+ * bytes of each CSV row, so rows are rejected without building a {@link PhoneBookRecord} or even a String.
+ * <p>
+ * The language, keywords and field names being case insensitive:
+ * <pre>
+ * filter   := and ( OR and )*
+ * and      := operand ( AND operand )*
+ * operand  := '(' filter ')' | field operator value
+ * field    := id | name | email | mobile
+ * operator := '=' | '^=' (starts with) | '$=' (ends with) | '&lt;' | '&lt;=' | '&gt;' | '&gt;='
+ * value    := number | 'text' | "text" | text without blanks, quotes nor parentheses
+ * </pre>
+ * Starts and ends with apply to name and email, ranges to id and mobile. Text comparisons are case sensitive; quotes
+ * inside a quoted value are doubled.
+ * <p>
+ * Filters take at most {@value #MAX_LENGTH} characters and {@value #MAX_DEPTH} levels of parentheses, so a request
+ * cannot exhaust the stack of the recursive parser nor make every row pay for a huge filter.
+ */
+public final class RecordFilter {
+
+    /**
+     * The maximum length of a filter, in characters.
+     */
+    public static final int MAX_LENGTH = 4096;
+
+    /**
+     * The maximum nesting of parentheses in a filter.
+     */
+    public static final int MAX_DEPTH = 32;
+
+    private static final byte QUOTE = '"';
+
+    /**
+     * The columns a filter compares.
+     */
+    public enum Field {
+        ID(0, true),
+        NAME(1, false),
+        EMAIL(2, false),
+        MOBILE(3, true);
+
+        private final int column;
+        private final boolean numeric;
+
+        Field(int column, boolean numeric) {
+            this.column = column;
+            this.numeric = numeric;
+        }
+    }
+
+    /**
+     * The comparisons of a field with a value.
+     */
+    public enum Operator {
+        EQUALS("="),
+        STARTS_WITH("^="),
+        ENDS_WITH("$="),
+        LESS("<"),
+        LESS_OR_EQUAL("<="),
+        GREATER(">"),
+        GREATER_OR_EQUAL(">=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    private final String source;
+    private final Node root;
+
+    private RecordFilter(String source, Node root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    /**
+     * Compiles a filter.
+     * @param filter the filter, in the language described above.
+     * @return the compiled filter.
+     * @throws IllegalArgumentException if the filter is malformed, longer than {@value #MAX_LENGTH} characters or nested
+     * deeper than {@value #MAX_DEPTH} levels.
+     */
+    public static RecordFilter parse(String filter) {
+        if (filter.length() > MAX_LENGTH) {
+            throw new IllegalArgumentException("Filters take at most " + MAX_LENGTH + " characters, got " + filter.length());
+        }
+        Parser parser = new Parser(filter);
+        Node root = parser.parseOr();
+        parser.skipBlanks();
+        if (parser.position < filter.length()) {
+            throw parser.error("Unexpected input");
+        }
+        return new RecordFilter(filter, root);
+    }
+
+    /**
+     * @param row the array holding the UTF-8 CSV row.
+     * @param offset the index of the first byte of the row.
+     * @param length the length of the row, without its line terminator.
+     * @return true if the row matches.
+     */
+    public boolean test(byte[] row, int offset, int length) {
+        return root.test(row, offset, offset + length);
+    }
+
+    /**
+     * @param row the CSV row.
+     * @return true if the row matches.
+     */
+    public boolean test(String row) {
+        byte[] bytes = row.getBytes(StandardCharsets.UTF_8);
+        return root.test(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Finds the candidate rows through lookups instead of a scan, when every branch of the top level OR holds, among
+     * the operands of its top level AND, a comparison the lookups serve. The candidates still have to be tested.
+     * @param lookup returns the rows that may satisfy a comparison, or null if it cannot serve it.
+     * @return the candidate rows, each once, or null if the filter needs a scan.
+     */
+    public List<String> lookup(Function<Comparison, List<String>> lookup) {
+        List<Node> branches = root instanceof Any ? ((Any) root).operands : Collections.singletonList(root);
+        Set<String> rows = new LinkedHashSet<>();
+        for (Node branch : branches) {
+            List<Node> operands = branch instanceof All ? ((All) branch).operands : Collections.singletonList(branch);
+            List<String> found = null;
+            for (int i = 0; i < operands.size() && found == null; i++) {
+                if (operands.get(i) instanceof Comparison) {
+                    found = lookup.apply((Comparison) operands.get(i));
+                }
+            }
+            if (found == null) {
+                return null;
+            }
+            rows.addAll(found);
+        }
+        return new ArrayList<>(rows);
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private interface Node {
+        /**
+         * @param bytes the array holding the row.
+         * @param offset the index of the first byte of the row.
+         * @param limit the index right after the last byte of the row.
+         */
+        boolean test(byte[] bytes, int offset, int limit);
+    }
+
+    private static final class All implements Node {
+
+        private final List<Node> operands;
+
+        private All(List<Node> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        public boolean test(byte[] bytes, int offset, int limit) {
+            for (Node operand : operands) {
+                if (!operand.test(bytes, offset, limit)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Any implements Node {
+
+        private final List<Node> operands;
+
+        private Any(List<Node> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        public boolean test(byte[] bytes, int offset, int limit) {
+            for (Node operand : operands) {
+                if (operand.test(bytes, offset, limit)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A field compared with a value, the leaf of a filter.
+     */
+    public static final class Comparison implements Node {
+
+        private final Field field;
+        private final Operator operator;
+        private final String text;
+        private final byte[] textBytes;
+        private final long number;
+
+        private Comparison(Field field, Operator operator, String text, long number) {
+            this.field = field;
+            this.operator = operator;
+            this.text = text;
+            this.textBytes = text.getBytes(StandardCharsets.UTF_8);
+            this.number = number;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        /**
+         * @return the value, as written.
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return the value of a comparison of id or mobile.
+         */
+        public long getNumber() {
+            return number;
+        }
+
+        /**
+         * @return true if this compares the field with the operator.
+         */
+        public boolean is(Field field, Operator operator) {
+            return this.field == field && this.operator == operator;
+        }
+
+        @Override
+        public boolean test(byte[] bytes, int offset, int limit) {
+            int start = offset;
+            for (int column = 0; column < field.column; column++) {
+                start = fieldEnd(bytes, start, limit) + 1;
+                if (start > limit) {
+                    return false;
+                }
+            }
+            int end = fieldEnd(bytes, start, limit);
+            if (field.numeric) {
+                return testNumber(bytes, start, end);
+            }
+            if (start < end && bytes[start] == QUOTE) {
+                return testText(unquote(bytes, start, end));
+            }
+            return testText(bytes, start, end);
+        }
+
+        private boolean testNumber(byte[] bytes, int start, int end) {
+            boolean negative = start < end && bytes[start] == '-';
+            int from = negative ? start + 1 : start;
+            if (from == end) {
+                return false;
+            }
+            // Accumulated below zero, as Long.parseLong does, so Long.MIN_VALUE fits too
+            long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+            long value = 0;
+            boolean overflow = false;
+            for (int i = from; i < end; i++) {
+                int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return false;
+                }
+                if (value < limit / 10 || value * 10 < limit + digit) {
+                    overflow = true;
+                } else {
+                    value = value * 10 - digit;
+                }
+            }
+            // Numbers beyond the range of a long lie beyond every literal, which parses as a long
+            int compared = overflow ? (negative ? -1 : 1) : Long.compare(negative ? value : -value, number);
+            switch (operator) {
+                case EQUALS:
+                    return compared == 0;
+                case LESS:
+                    return compared < 0;
+                case LESS_OR_EQUAL:
+                    return compared <= 0;
+                case GREATER:
+                    return compared > 0;
+                case GREATER_OR_EQUAL:
+                    return compared >= 0;
+                default:
+                    return false;
+            }
+        }
+
+        private boolean testText(byte[] bytes, int start, int end) {
+            int length = end - start;
+            switch (operator) {
+                case EQUALS:
+                    return length == textBytes.length && regionMatches(bytes, start);
+                case STARTS_WITH:
+                    return length >= textBytes.length && regionMatches(bytes, start);
+                case ENDS_WITH:
+                    return length >= textBytes.length && regionMatches(bytes, end - textBytes.length);
+                default:
+                    return false;
+            }
+        }
+
+        private boolean testText(String value) {
+            switch (operator) {
+                case EQUALS:
+                    return value.equals(text);
+                case STARTS_WITH:
+                    return value.startsWith(text);
+                case ENDS_WITH:
+                    return value.endsWith(text);
+                default:
+                    return false;
+            }
+        }
+
+        private boolean regionMatches(byte[] bytes, int from) {
+            for (int i = 0; i < textBytes.length; i++) {
+                if (bytes[from + i] != textBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return field.name().toLowerCase(Locale.ROOT) + " " + operator.symbol + " " + text;
+        }
+    }
+
+    /**
+     * @return the index of the separator, or limit, ending the field starting at the index.
+     */
+    private static int fieldEnd(byte[] bytes, int start, int limit) {
+        int i = start;
+        if (i < limit && bytes[i] == QUOTE) {
+            i++;
+            while (i < limit) {
+                if (bytes[i++] == QUOTE) {
+                    if (i < limit && bytes[i] == QUOTE) {
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+            }
+        }
+        while (i < limit && bytes[i] != PhoneBookRecordCodec.SEPARATOR) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String unquote(byte[] bytes, int start, int end) {
+        int close = end;
+        while (close > start + 1 && bytes[close - 1] != QUOTE) {
+            close--;
+        }
+        String value = new String(bytes, start + 1, Math.max(0, close - start - 2), StandardCharsets.UTF_8);
+        return value.replace("\"\"", "\"");
+    }
+
+    /**
+     * Recursive descent parser of the language, reading the input one character at a time.
+     */
+    private static final class Parser {
+
+        private final String input;
+        private int position;
+        private int depth;
+
+        private Parser(String input) {
+            this.input = input;
+        }
+
+        private Node parseOr() {
+            List<Node> operands = new ArrayList<>();
+            operands.add(parseAnd());
+            while (keyword("OR")) {
+                operands.add(parseAnd());
+            }
+            return operands.size() == 1 ? operands.get(0) : new Any(operands);
+        }
+
+        private Node parseAnd() {
+            List<Node> operands = new ArrayList<>();
+            operands.add(parseOperand());
+            while (keyword("AND")) {
+                operands.add(parseOperand());
+            }
+            return operands.size() == 1 ? operands.get(0) : new All(operands);
+        }
+
+        private Node parseOperand() {
+            skipBlanks();
+            if (position < input.length() && input.charAt(position) == '(') {
+                if (++depth > MAX_DEPTH) {
+                    throw error("Filters nest at most " + MAX_DEPTH + " levels of parentheses");
+                }
+                position++;
+                Node nested = parseOr();
+                skipBlanks();
+                if (position >= input.length() || input.charAt(position) != ')') {
+                    throw error("Expected ')'");
+                }
+                position++;
+                depth--;
+                return nested;
+            }
+            Field field = parseField();
+            Operator operator = parseOperator();
+            String value = parseValue();
+            if (field.numeric) {
+                if (operator == Operator.STARTS_WITH || operator == Operator.ENDS_WITH) {
+                    throw error(operator.symbol + " does not apply to " + field.name().toLowerCase(Locale.ROOT));
+                }
+                try {
+                    return new Comparison(field, operator, value, Long.parseLong(value));
+                } catch (NumberFormatException ex) {
+                    throw error("Expected a number, got '" + value + "'");
+                }
+            }
+            if (operator != Operator.EQUALS && operator != Operator.STARTS_WITH && operator != Operator.ENDS_WITH) {
+                throw error(operator.symbol + " does not apply to " + field.name().toLowerCase(Locale.ROOT));
+            }
+            return new Comparison(field, operator, value, 0);
+        }
+
+        private Field parseField() {
+            skipBlanks();
+            int start = position;
+            while (position < input.length() && Character.isLetter(input.charAt(position))) {
+                position++;
+            }
+            String name = input.substring(start, position);
+            for (Field field : Field.values()) {
+                if (field.name().equalsIgnoreCase(name)) {
+                    return field;
+                }
+            }
+            position = start;
+            throw error("Expected one of id, name, email, mobile");
+        }
+
+        private Operator parseOperator() {
+            skipBlanks();
+            Operator matched = null;
+            for (Operator operator : Operator.values()) {
+                if (
+                    input.startsWith(operator.symbol, position) &&
+                    (matched == null || operator.symbol.length() > matched.symbol.length())
+                ) {
+                    matched = operator;
+                }
+            }
+            if (matched == null) {
+                throw error("Expected one of = ^= $= < <= > >=");
+            }
+            position += matched.symbol.length();
+            return matched;
+        }
+
+        private String parseValue() {
+            skipBlanks();
+            if (position < input.length() && (input.charAt(position) == '\'' || input.charAt(position) == '"')) {
+                char quote = input.charAt(position++);
+                StringBuilder value = new StringBuilder();
+                while (position < input.length()) {
+                    char c = input.charAt(position++);
+                    if (c != quote) {
+                        value.append(c);
+                    } else if (position < input.length() && input.charAt(position) == quote) {
+                        value.append(quote);
+                        position++;
+                    } else {
+                        return value.toString();
+                    }
+                }
+                throw error("Unterminated value");
+            }
+            int start = position;
+            while (position < input.length() && !isDelimiter(input.charAt(position))) {
+                position++;
+            }
+            if (start == position) {
+                throw error("Expected a value");
+            }
+            return input.substring(start, position);
+        }
+
+        /**
+         * Consumes the keyword if it comes next, as a whole word.
+         */
+        private boolean keyword(String keyword) {
+            skipBlanks();
+            int end = position + keyword.length();
+            if (
+                input.regionMatches(true, position, keyword, 0, keyword.length()) &&
+                (end == input.length() || isDelimiter(input.charAt(end)))
+            ) {
+                position = end;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipBlanks() {
+            while (position < input.length() && Character.isWhitespace(input.charAt(position))) {
+                position++;
+            }
+        }
+
+        private static boolean isDelimiter(char c) {
+            return Character.isWhitespace(c) || c == '(' || c == ')' || c == '\'' || c == '"';
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position + " of filter: " + input);
+        }
+    }
+}
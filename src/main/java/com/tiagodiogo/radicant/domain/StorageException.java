@@ -0,0 +1,17 @@
+package com.tiagodiogo.radicant.domain;
+
+/**
+ * Thrown by {@link IDatabase} writes that could not be made durable, the row then not being stored nor visible.
+ */
+public class StorageException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message the failed operation.
+     * @param cause the error of the underlying storage.
+     */
+    public StorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
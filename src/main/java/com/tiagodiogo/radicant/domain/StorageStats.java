@@ -0,0 +1,34 @@
+package com.tiagodiogo.radicant.domain;
+
+/**
+ * Point in time figures of an {@link IDatabase}, to compare storage engines on the same workload.
+ */
+public final class StorageStats {
+
+    public static final long UNKNOWN = -1;
+
+    private final long rows;
+    private final long bytesOnDisk;
+
+    /**
+     * @param rows the amount of live rows.
+     * @param bytesOnDisk the bytes taken by the files of the engine, or {@link #UNKNOWN}.
+     */
+    public StorageStats(long rows, long bytesOnDisk) {
+        this.rows = rows;
+        this.bytesOnDisk = bytesOnDisk;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getBytesOnDisk() {
+        return bytesOnDisk;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageStats{rows=" + rows + ", bytesOnDisk=" + bytesOnDisk + "}";
+    }
+}
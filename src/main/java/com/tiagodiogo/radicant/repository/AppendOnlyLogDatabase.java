@@ -0,0 +1,980 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import com.tiagodiogo.radicant.domain.CursorPage;
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.domain.StorageException;
+import com.tiagodiogo.radicant.domain.StorageStats;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * {@link IDatabase} backed by an append-only log split into numbered segment files.
+ * <p>
+ * Inserts and updates append the full row, deletes append a tombstone holding only the identifier, all of them
+ * group committed through a single writer thread, in the configured {@link RecordFormat}.
+ * The latest version of each row is resolved through an in-memory id to location index, so no segment
+ * is ever rewritten while serving requests. Space held by superseded rows and tombstones is reclaimed by
+ * a scheduled, throttled compaction that copies the live rows of the sealed segments into a fresh segment
+ * and swaps it in.
+ * <p>
+ * Every segment keeps a read channel open for as long as it is in use, so lookups never open a file. Scans and
+ * streams pin a {@link Snapshot} of the segments instead of holding the read lock while they read: it holds a
+ * reference to each segment, so a compaction can retire them meanwhile, and the locations the index held when it
+ * was taken for the rows written since, so each row comes out once, in the version that was live then.
+ */
+public class AppendOnlyLogDatabase implements IDatabase, Closeable {
+
+    public static final String COMPACTION_METER_NAME = "phonebook.storage.compaction";
+    public static final String RECLAIMED_METER_NAME = "phonebook.storage.compaction.reclaimed";
+    public static final String GARBAGE_RATIO_METER_NAME = "phonebook.storage.garbage-ratio";
+
+    private static final String DIRECTORY = "/tmp/phone-book-log";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final String COMPACTED_SUFFIX = ".compacted";
+    private static final Long SELECT_ALL = -1L;
+
+    // A location packs the in-memory segment handle in the high bits and the byte offset in the low bits
+    private static final int SEGMENT_SHIFT = 40;
+    private static final long OFFSET_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final int REMAP_BATCH_SIZE = 1024;
+    private static final int SCAN_BATCH_SIZE = 1024;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+    private final Logger log = LoggerFactory.getLogger(AppendOnlyLogDatabase.class);
+
+    private final Path directory;
+    private final RecordFormat format;
+    private final long segmentSizeBytes;
+    private final ApplicationProperties.Storage.Compaction compaction;
+    private final Lock readLock;
+    private final Lock writeLock;
+    private final Lock compactionLock = new ReentrantLock();
+    private final Lock channelLock = new ReentrantLock();
+    private final HeapIndex index = new HeapIndex(INITIAL_INDEX_CAPACITY);
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<Integer, Segment> segmentsByHandle = new HashMap<>();
+    // Registered under the read lock, walked under the write lock before every index change
+    private final List<Snapshot> snapshots = new CopyOnWriteArrayList<>();
+    private final Timer compactionTimer;
+    private final Counter reclaimedBytesCounter;
+    private final ApplicationProperties.Storage.FsyncPolicy fsyncPolicy;
+    private final GroupCommitWriter groupCommitWriter;
+    private FileChannel activeChannel;
+    private int nextHandle;
+    private long totalRecords;
+
+    /**
+     * Opens the log in the default directory.
+     * @param storage the storage settings.
+     * @param meterRegistry the registry for the compaction metrics.
+     * @throws IOException in the event of an error creating or replaying the segments.
+     */
+    public AppendOnlyLogDatabase(ApplicationProperties.Storage storage, MeterRegistry meterRegistry) throws IOException {
+        this(Paths.get(DIRECTORY), storage, meterRegistry);
+    }
+
+    /**
+     * Initializes the read/write locks, finishes any interrupted compaction and replays the segments to build the index.
+     * @param directory the directory holding the segment files.
+     * @param storage the storage settings.
+     * @param meterRegistry the registry for the compaction metrics.
+     * @throws IOException in the event of an error creating or replaying the segments.
+     */
+    public AppendOnlyLogDatabase(Path directory, ApplicationProperties.Storage storage, MeterRegistry meterRegistry) throws IOException {
+        this.directory = directory;
+        this.format = RecordFormat.of(storage);
+        this.segmentSizeBytes = storage.getSegmentSizeBytes();
+        this.compaction = storage.getCompaction();
+
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        readLock = lock.readLock();
+        writeLock = lock.writeLock();
+
+        compactionTimer = Timer.builder(COMPACTION_METER_NAME).description("Duration of log segment compactions").register(meterRegistry);
+        reclaimedBytesCounter =
+            Counter
+                .builder(RECLAIMED_METER_NAME)
+                .baseUnit("bytes")
+                .description("Bytes reclaimed by log segment compactions")
+                .register(meterRegistry);
+        Gauge
+            .builder(GARBAGE_RATIO_METER_NAME, this, AppendOnlyLogDatabase::garbageRatio)
+            .description("Fraction of log rows that are superseded versions or tombstones")
+            .register(meterRegistry);
+        Gauge
+            .builder(LongLongMap.BYTES_PER_ENTRY_METER_NAME, this, AppendOnlyLogDatabase::indexBytesPerEntry)
+            .baseUnit("bytes")
+            .description("Memory taken by the id index for each record")
+            .register(meterRegistry);
+
+        Files.createDirectories(directory);
+        checkNoForeignSegments();
+        recoverCompaction();
+        for (Path path : listSegmentFiles(format.segmentSuffix())) {
+            Segment segment = registerSegment(sequenceOf(path), path);
+            segments.add(segment);
+            long validSize = format.scanIds(
+                path,
+                (id, offset, tombstone) -> {
+                    segment.records++;
+                    if (tombstone) {
+                        index.remove(id);
+                    } else {
+                        index.put(id, location(segment, offset));
+                    }
+                }
+            );
+            segment.size = validSize;
+            if (validSize < Files.size(path)) {
+                log.warn("Truncating torn write at offset {} of {}", validSize, path);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(validSize);
+                }
+            }
+            totalRecords += segment.records;
+        }
+        if (segments.isEmpty()) {
+            segments.add(createSegment(1));
+        }
+        log.debug("Replayed {} live records from {} segments in {}", index.size(), segments.size(), directory);
+
+        fsyncPolicy = storage.getFsync();
+        activeChannel = FileChannel.open(segments.get(segments.size() - 1).path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        groupCommitWriter =
+            new GroupCommitWriter(
+                "phone-book-log-writer",
+                new SegmentJournal(),
+                GroupCommitWriter.EngineLock.of(writeLock),
+                fsyncPolicy,
+                storage.getFsyncIntervalMs()
+            );
+    }
+
+    /**
+     * Fetches the latest version of rows from the log based on the received identifier.
+     * @param id can be either the row identifier or -1L representing a request to fetch all rows.
+     * @return a List of comma separated values representing the live rows.
+     */
+    @Override
+    public List<String> select(Long id) {
+        List<String> rows = new ArrayList<>();
+        if (id.equals(SELECT_ALL)) {
+            scan(rows::add);
+            return rows;
+        }
+
+        readLock.lock();
+        try {
+            long location = index.get(id);
+            if (location != LongLongMap.NO_VALUE) {
+                log.debug("Found existing record for id: {}", id);
+                rows.add(format.readRow(segmentsByHandle.get(handleOf(location)).channel, offsetOf(location)));
+            }
+        } catch (IOException ex) {
+            log.error(ex.getMessage(), ex);
+        } finally {
+            readLock.unlock();
+        }
+
+        return rows;
+    }
+
+    /**
+     * Walks a snapshot of the segments in order, handing over the rows that were live when it was taken. Rows are
+     * checked against the index a batch at a time, under the read lock, and handed over outside of it.
+     * @param visitor receives the latest version of every live row.
+     */
+    @Override
+    public void scan(Consumer<String> visitor) {
+        try (Snapshot snapshot = snapshot()) {
+            List<String> batch;
+            while ((batch = snapshot.nextBatch()) != null) {
+                batch.forEach(visitor);
+            }
+        } catch (IOException ex) {
+            log.error(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Reads a snapshot of the segments lazily, a batch of rows at a time as the stream is consumed, holding the
+     * snapshot until the stream is closed.
+     * @return the stream of the rows that were live when it was opened, empty if the database is closed.
+     */
+    @Override
+    public Stream<String> stream() {
+        Snapshot snapshot;
+        try {
+            snapshot = snapshot();
+        } catch (ClosedChannelException ex) {
+            log.error("Failed to stream rows of {}: closed", directory);
+            return Stream.empty();
+        }
+        return StreamSupport
+            .stream(
+                new Spliterators.AbstractSpliterator<String>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                    private List<String> batch = new ArrayList<>();
+                    private int next;
+
+                    @Override
+                    public boolean tryAdvance(Consumer<? super String> action) {
+                        while (next == batch.size()) {
+                            try {
+                                batch = snapshot.nextBatch();
+                            } catch (IOException ex) {
+                                throw new UncheckedIOException(ex);
+                            }
+                            next = 0;
+                            if (batch == null) {
+                                batch = new ArrayList<>();
+                                return false;
+                            }
+                        }
+                        action.accept(batch.get(next++));
+                        return true;
+                    }
+                },
+                false
+            )
+            .onClose(snapshot::close);
+    }
+
+    /**
+     * Seeks to the cursor through the ids of the index, which it keeps sorted, and reads the rows of the page at
+     * their location through the open channels of the segments, under the read lock.
+     * @param cursor the cursor of the page, or null for the first page.
+     * @param limit the maximum amount of rows of the page, at least 1.
+     * @return the rows of the page, with the cursor of the next page if more rows follow.
+     */
+    @Override
+    public CursorPage<String> page(String cursor, int limit) {
+        long after = CursorPage.lastId(cursor);
+        readLock.lock();
+        try {
+            List<Map.Entry<Long, String>> rows = new ArrayList<>();
+            for (long id : index.idsAfter(after, limit + 1)) {
+                long location = index.get(id);
+                String row = format.readRow(segmentsByHandle.get(handleOf(location)).channel, offsetOf(location));
+                rows.add(new AbstractMap.SimpleImmutableEntry<>(id, row));
+            }
+            return CursorPage.ofIds(rows, limit);
+        } catch (IOException ex) {
+            log.error(ex.getMessage(), ex);
+            return new CursorPage<>(new ArrayList<>(), null);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Generates a unique identifier and appends a new row with it to the log.
+     * @param row the comma separated values representing a new row.
+     * @return the generated row identifier.
+     */
+    @Override
+    public Long insert(String row) {
+        Long uniqueID = UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE;
+        String newRow = CsvRowFiles.withId(uniqueID, row);
+
+        try {
+            groupCommitWriter.commit(putMutation(uniqueID, newRow, false));
+            log.debug("Inserted new record with id: {}", uniqueID);
+        } catch (IOException ex) {
+            throw new StorageException("Failed to insert record with id " + uniqueID, ex);
+        }
+        return uniqueID;
+    }
+
+    /**
+     * Generates a unique identifier for each row and appends all of them to the log as one group commit.
+     * @param rows the comma separated values representing the new rows.
+     * @return the generated row identifiers.
+     */
+    @Override
+    public List<Long> insertAll(List<String> rows) {
+        List<Long> ids = new ArrayList<>(rows.size());
+        List<GroupCommitWriter.Mutation> mutations = new ArrayList<>(rows.size());
+        for (String row : rows) {
+            long uniqueID = UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE;
+            String newRow = CsvRowFiles.withId(uniqueID, row);
+            ids.add(uniqueID);
+            mutations.add(putMutation(uniqueID, newRow, false));
+        }
+        try {
+            groupCommitWriter.commitAll(mutations);
+            log.debug("Inserted {} new records", ids.size());
+        } catch (IOException ex) {
+            throw new StorageException("Failed to insert " + ids.size() + " records", ex);
+        }
+        return ids;
+    }
+
+    /**
+     * Appends a new version of the row that matches the received identifier, if it is live.
+     * @param id the row identifier.
+     * @param newRow the comma separated values to be persisted.
+     * @return true if the record was updated, false otherwise.
+     */
+    @Override
+    public boolean update(Long id, String newRow) {
+        String row = CsvRowFiles.withId(id, newRow);
+
+        try {
+            boolean updated = groupCommitWriter.commit(putMutation(id, row, true));
+            if (updated) {
+                log.debug("Updated existing record with id: {}", id);
+            }
+            return updated;
+        } catch (IOException ex) {
+            throw new StorageException("Failed to update record with id " + id, ex);
+        }
+    }
+
+    /**
+     * Appends a tombstone for the row that matches the received identifier, if it is live.
+     * @param id the row identifier.
+     * @return true if the record was deleted, false otherwise.
+     */
+    @Override
+    public boolean delete(Long id) {
+        try {
+            boolean deleted = groupCommitWriter.commit(
+                GroupCommitWriter.mutation(
+                    id,
+                    location -> index.containsKey(id) ? format.encodeTombstone(id) : null,
+                    (location, bytes) -> {
+                        count(location);
+                        changing(id);
+                        index.remove(id);
+                    }
+                )
+            );
+            if (deleted) {
+                log.debug("Deleted existing record with id: {}", id);
+            }
+            return deleted;
+        } catch (IOException ex) {
+            throw new StorageException("Failed to delete record with id " + id, ex);
+        }
+    }
+
+    /**
+     * Waits for pending writes to be committed, closes the active segment and releases the read channels, which
+     * streams still open keep until they are closed.
+     * @throws IOException in the event of an error closing the segment.
+     */
+    @Override
+    public void close() throws IOException {
+        groupCommitWriter.close();
+        channelLock.lock();
+        try {
+            activeChannel.close();
+        } finally {
+            channelLock.unlock();
+        }
+        writeLock.lock();
+        try {
+            for (Segment segment : segments) {
+                segment.release();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Counts the rows through the index, and the bytes through the sizes of the segments.
+     * @return the current figures of the database.
+     */
+    @Override
+    public StorageStats stats() {
+        readLock.lock();
+        try {
+            long bytesOnDisk = 0;
+            for (Segment segment : segments) {
+                bytesOnDisk += segment.size;
+            }
+            return new StorageStats(index.size(), bytesOnDisk);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Fraction of the rows held by the segments that are either superseded versions or tombstones.
+     * @return a value between 0 and 1.
+     */
+    public double garbageRatio() {
+        readLock.lock();
+        try {
+            return totalRecords == 0 ? 0 : 1 - (double) index.size() / totalRecords;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Memory taken by the id to location index for each live record.
+     * @return the amount of bytes, or zero while empty.
+     */
+    public double indexBytesPerEntry() {
+        readLock.lock();
+        try {
+            return index.bytesPerEntry();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Compacts the log when compaction is enabled and the garbage ratio reached the configured trigger.
+     */
+    @Scheduled(
+        initialDelayString = "${application.storage.compaction.interval-ms:60000}",
+        fixedDelayString = "${application.storage.compaction.interval-ms:60000}"
+    )
+    public void compactIfNeeded() {
+        if (compaction.isEnabled() && garbageRatio() >= compaction.getGarbageRatio()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rolls over the active segment and rewrites all sealed segments into a single one holding only their live rows.
+     * <p>
+     * Copying happens outside of the locks, within the configured I/O budget. The new segment is then swapped in by
+     * relocating index entries in small batches, so readers and writers only ever wait for a batch.
+     */
+    public void compact() {
+        if (!compactionLock.tryLock()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            List<Segment> sealed = sealSegments();
+            if (sealed.isEmpty()) {
+                return;
+            }
+            Segment last = sealed.get(sealed.size() - 1);
+            Path compacting = directory.resolve(fileName(last.sequence, COMPACTING_SUFFIX));
+            Path compacted = directory.resolve(fileName(last.sequence, COMPACTED_SUFFIX));
+            Relocations relocations = new Relocations();
+            long written = copyLiveRows(sealed, compacting, relocations);
+            Files.move(compacting, compacted, StandardCopyOption.ATOMIC_MOVE);
+
+            Segment target;
+            writeLock.lock();
+            try {
+                target = registerSegment(last.sequence, compacted);
+                target.size = written;
+                target.records = relocations.size;
+                segments.add(0, target);
+                totalRecords += target.records;
+            } finally {
+                writeLock.unlock();
+            }
+            for (int from = 0; from < relocations.size; from += REMAP_BATCH_SIZE) {
+                relocate(relocations, from, Math.min(from + REMAP_BATCH_SIZE, relocations.size), target);
+            }
+
+            long reclaimed = retire(sealed, target);
+            reclaimedBytesCounter.increment(reclaimed);
+            log.info("Compacted {} log segments into {}, reclaiming {} bytes", sealed.size(), target.path, reclaimed);
+        } catch (IOException ex) {
+            log.error("Log compaction failed: {}", ex.getMessage(), ex);
+        } finally {
+            compactionTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new active segment unless the current one is empty.
+     * @return the segments that can no longer be written to.
+     * @throws IOException in the event of an error creating the new segment.
+     */
+    private List<Segment> sealSegments() throws IOException {
+        writeLock.lock();
+        try {
+            if (segments.get(segments.size() - 1).size > 0) {
+                roll();
+            }
+            return new ArrayList<>(segments.subList(0, segments.size() - 1));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Copies the rows of the sealed segments that are still the latest version of their identifier into a new file.
+     * @param sealed the segments to compact, in log order.
+     * @param target the file to write to.
+     * @param relocations receives the old and new location of every copied row, the new offset being relative to the file.
+     * @return the amount of bytes written.
+     * @throws IOException in the event of an error reading or writing the files.
+     */
+    private long copyLiveRows(List<Segment> sealed, Path target, Relocations relocations) throws IOException {
+        IoThrottle throttle = new IoThrottle(compaction.getBytesPerSecond());
+        long[] written = { 0 };
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+            for (Segment segment : sealed) {
+                format.scanRows(
+                    segment.path,
+                    (offset, row) -> {
+                        byte[] bytes = format.encode(row);
+                        // Once per row read, whether copied or dropped, so live rows are not charged twice
+                        throttle.acquire(bytes.length);
+                        long id = CsvRowFiles.idOf(row);
+                        long from = location(segment, offset);
+                        if (isLatest(id, from)) {
+                            out.write(bytes);
+                            relocations.add(id, from, written[0]);
+                            written[0] += bytes.length;
+                        }
+                    }
+                );
+            }
+        }
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        return written[0];
+    }
+
+    private boolean isLatest(long id, long location) {
+        readLock.lock();
+        try {
+            return location == index.get(id);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Points index entries at the compacted segment, unless they were written again since they were copied.
+     */
+    private void relocate(Relocations relocations, int from, int to, Segment target) {
+        writeLock.lock();
+        try {
+            for (int i = from; i < to; i++) {
+                if (relocations.from[i] == index.get(relocations.ids[i])) {
+                    changing(relocations.ids[i]);
+                    index.put(relocations.ids[i], location(target, relocations.to[i]));
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the compacted segments and gives the compacted file its final segment name. Snapshots holding the dropped
+     * segments keep reading them through their channels until released.
+     * @return the amount of bytes reclaimed.
+     */
+    private long retire(List<Segment> sealed, Segment target) throws IOException {
+        writeLock.lock();
+        try {
+            long reclaimed = -target.size;
+            for (Segment segment : sealed) {
+                segments.remove(segment);
+                segmentsByHandle.remove(segment.handle);
+                totalRecords -= segment.records;
+                reclaimed += segment.size;
+                Files.deleteIfExists(segment.path);
+                segment.release();
+            }
+            Path path = directory.resolve(fileName(target.sequence, format.segmentSuffix()));
+            Files.move(target.path, path, StandardCopyOption.ATOMIC_MOVE);
+            target.path = path;
+            return reclaimed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Completes or discards a compaction interrupted by a shutdown. A compacted file is only ever published once fully
+     * written, so it supersedes every segment up to its sequence.
+     */
+    private void recoverCompaction() throws IOException {
+        for (Path path : listSegmentFiles(COMPACTING_SUFFIX)) {
+            Files.delete(path);
+        }
+        for (Path compacted : listSegmentFiles(COMPACTED_SUFFIX)) {
+            long sequence = sequenceOf(compacted);
+            for (Path path : listSegmentFiles(format.segmentSuffix())) {
+                if (sequenceOf(path) <= sequence) {
+                    Files.delete(path);
+                }
+            }
+            Files.move(compacted, directory.resolve(fileName(sequence, format.segmentSuffix())), StandardCopyOption.ATOMIC_MOVE);
+            log.info("Completed interrupted compaction of log segments up to {}", sequence);
+        }
+    }
+
+    /**
+     * Refuses to open a directory holding segments of another record format, which would otherwise be ignored.
+     */
+    private void checkNoForeignSegments() throws IOException {
+        for (RecordFormat other : new RecordFormat[] { CsvRecordFormat.INSTANCE, BinaryRecordFormat.INSTANCE }) {
+            if (other != format && !listSegmentFiles(other.segmentSuffix()).isEmpty()) {
+                throw new IllegalStateException(
+                    "Directory " + directory + " holds segments of another record format, convert them with BinaryLogConverter"
+                );
+            }
+        }
+    }
+
+    /**
+     * @param id the row identifier.
+     * @param row the row.
+     * @param existing true if the row must be live, as for updates.
+     * @return the mutation appending the row, indexed at its location once appended.
+     */
+    private GroupCommitWriter.Mutation putMutation(long id, String row, boolean existing) {
+        return GroupCommitWriter.mutation(
+            id,
+            location -> existing && !index.containsKey(id) ? null : format.encode(row),
+            (location, bytes) -> {
+                count(location);
+                changing(id);
+                index.put(id, location);
+            }
+        );
+    }
+
+    /**
+     * Records, in every open snapshot, where the index pointed for the row before its first change since the
+     * snapshot was taken. Callers must hold the write lock.
+     */
+    private void changing(long id) {
+        for (Snapshot snapshot : snapshots) {
+            snapshot.before.putIfAbsent(id, index.get(id));
+        }
+    }
+
+    /**
+     * Pins every segment at its current size, under the read lock only: writers walk the snapshots under the write
+     * lock, so none misses a change made after it was registered.
+     * @return the snapshot, to be closed once read.
+     * @throws ClosedChannelException if the database is closed.
+     */
+    private Snapshot snapshot() throws ClosedChannelException {
+        readLock.lock();
+        try {
+            List<Segment> pinned = new ArrayList<>(segments.size());
+            long[] sizes = new long[segments.size()];
+            for (Segment segment : segments) {
+                if (!segment.retain()) {
+                    pinned.forEach(Segment::release);
+                    throw new ClosedChannelException();
+                }
+                sizes[pinned.size()] = segment.size;
+                pinned.add(segment);
+            }
+            Snapshot snapshot = new Snapshot(pinned, sizes);
+            snapshots.add(snapshot);
+            return snapshot;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Accounts for a record appended to a segment. Callers must hold the write lock.
+     */
+    private void count(long location) {
+        segmentsByHandle.get(handleOf(location)).records++;
+        totalRecords++;
+    }
+
+    /**
+     * Seals the active segment, forcing it unless fsync is disabled, and starts appending to a new one.
+     * Callers must hold the write lock.
+     * @throws IOException in the event of an error creating the new segment.
+     */
+    private void roll() throws IOException {
+        Segment active = segments.get(segments.size() - 1);
+        Segment next = createSegment(active.sequence + 1);
+        channelLock.lock();
+        try {
+            if (fsyncPolicy != ApplicationProperties.Storage.FsyncPolicy.NONE) {
+                activeChannel.force(false);
+            }
+            activeChannel.close();
+            activeChannel = FileChannel.open(next.path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } finally {
+            channelLock.unlock();
+        }
+        segments.add(next);
+    }
+
+    /**
+     * Appends group committed batches to the active segment, rolling over to a new segment once it is full.
+     */
+    private class SegmentJournal implements GroupCommitWriter.Journal {
+
+        @Override
+        public long position() {
+            Segment active = segments.get(segments.size() - 1);
+            return location(active, active.size);
+        }
+
+        @Override
+        public void append(ByteBuffer[] buffers) throws IOException {
+            Segment active = segments.get(segments.size() - 1);
+            for (ByteBuffer buffer : buffers) {
+                active.size += buffer.remaining();
+            }
+            GroupCommitWriter.writeFully(activeChannel, buffers);
+        }
+
+        @Override
+        public void published() throws IOException {
+            if (segments.get(segments.size() - 1).size >= segmentSizeBytes) {
+                roll();
+            }
+        }
+
+        @Override
+        public void force() throws IOException {
+            channelLock.lock();
+            try {
+                activeChannel.force(false);
+            } finally {
+                channelLock.unlock();
+            }
+        }
+    }
+
+    private Segment createSegment(long sequence) throws IOException {
+        Path path = directory.resolve(fileName(sequence, format.segmentSuffix()));
+        Files.createFile(path);
+        return registerSegment(sequence, path);
+    }
+
+    private Segment registerSegment(long sequence, Path path) throws IOException {
+        Segment segment = new Segment(nextHandle++, sequence, path, FileChannel.open(path, StandardOpenOption.READ));
+        segmentsByHandle.put(segment.handle, segment);
+        return segment;
+    }
+
+    private List<Path> listSegmentFiles(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX) && path.getFileName().toString().endsWith(suffix))
+                .sorted((a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)))
+                .collect(Collectors.toList());
+        }
+    }
+
+    static String fileName(long sequence, String suffix) {
+        return String.format("%s%010d%s", SEGMENT_PREFIX, sequence, suffix);
+    }
+
+    private static long sequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.indexOf('.')));
+    }
+
+    private static long location(Segment segment, long offset) {
+        return ((long) segment.handle << SEGMENT_SHIFT) | offset;
+    }
+
+    private static int handleOf(long location) {
+        return (int) (location >>> SEGMENT_SHIFT);
+    }
+
+    private static long offsetOf(long location) {
+        return location & OFFSET_MASK;
+    }
+
+    /**
+     * A segment file. The handle identifies it in index locations for as long as it is open, independently of the
+     * sequence that orders segments on disk, which a compacted segment shares with the last segment it replaces.
+     * <p>
+     * The read channel stays open until the log and every snapshot holding the segment released it, so it outlives
+     * the file being renamed or deleted by a compaction.
+     */
+    private class Segment {
+
+        private final int handle;
+        private final long sequence;
+        private final FileChannel channel;
+        private final AtomicInteger references = new AtomicInteger(1);
+        private Path path;
+        private long size;
+        private long records;
+
+        Segment(int handle, long sequence, Path path, FileChannel channel) {
+            this.handle = handle;
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        /**
+         * @return true if retained, false if the channel was already closed.
+         */
+        boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() > 0) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                log.warn("Failed to close segment {}: {}", path, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The segments as they were when a scan started, each read up to its size then, along with the locations the
+     * index held then for the rows changed since.
+     */
+    private final class Snapshot implements Closeable {
+
+        private final List<Segment> segments;
+        private final long[] sizes;
+        // Written under the write lock, read under the read lock; NO_VALUE for rows that were not live
+        private final Map<Long, Long> before = new HashMap<>();
+        private int segment;
+        private RecordFormat.Reader reader;
+        private boolean closed;
+
+        private Snapshot(List<Segment> segments, long[] sizes) {
+            this.segments = segments;
+            this.sizes = sizes;
+        }
+
+        /**
+         * Reads a batch of records of a segment, then keeps those the index pointed at when the snapshot was
+         * taken, under the read lock.
+         * @return the next rows, or null once every segment was read.
+         * @throws IOException in the event of an error reading a segment.
+         */
+        private List<String> nextBatch() throws IOException {
+            List<String> rows = new ArrayList<>();
+            long[] locations = new long[SCAN_BATCH_SIZE];
+            while (segment < segments.size()) {
+                Segment current = segments.get(segment);
+                if (reader == null) {
+                    reader = format.reader(current.channel, sizes[segment]);
+                }
+                while (rows.size() < SCAN_BATCH_SIZE && reader.next()) {
+                    locations[rows.size()] = location(current, reader.offset());
+                    rows.add(reader.row());
+                }
+                if (rows.size() < SCAN_BATCH_SIZE) {
+                    reader = null;
+                    segment++;
+                }
+                if (!rows.isEmpty()) {
+                    return live(rows, locations);
+                }
+            }
+            return null;
+        }
+
+        private List<String> live(List<String> rows, long[] locations) {
+            List<String> live = new ArrayList<>(rows.size());
+            readLock.lock();
+            try {
+                for (int i = 0; i < rows.size(); i++) {
+                    long id = CsvRowFiles.idOf(rows.get(i));
+                    Long location = before.get(id);
+                    if (locations[i] == (location != null ? location : index.get(id))) {
+                        live.add(rows.get(i));
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+            return live;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            snapshots.remove(this);
+            segments.forEach(Segment::release);
+        }
+    }
+
+    /**
+     * Growable parallel arrays of the rows moved by a compaction.
+     */
+    private static class Relocations {
+
+        private long[] ids = new long[REMAP_BATCH_SIZE];
+        private long[] from = new long[REMAP_BATCH_SIZE];
+        private long[] to = new long[REMAP_BATCH_SIZE];
+        private int size;
+
+        void add(long id, long fromLocation, long toOffset) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+            }
+            ids[size] = id;
+            from[size] = fromLocation;
+            to[size] = toOffset;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,661 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.LongConsumer;
+
+/**
+ * {@link RowIndex} kept in a B+tree of fixed size pages on disk, read through a {@link PageCache}, so the heap it takes
+ * is bounded by the cache whatever the amount of rows, while a lookup reads at most one page per level.
+ * <pre>
+ * leaf page      int16 type, int16 count, then count times int64 id, int64 offset, sorted by id
+ * internal page  int16 type, int16 count, int32 first child, then count times int64 id, int32 child, sorted by id;
+ *                a child holds the ids from its own id, or from any for the first child, up to the next id
+ * </pre>
+ * The tree is bulk loaded bottom up from a sorted run of entries, packing every page full: the entries of a scan are
+ * sorted by id and offset in bounded runs spilled to disk and merged, the highest offset of an id winning as in a
+ * scan the later row of an id replaces the earlier one. Later inserts split full pages in two. The file only lives as
+ * long as the index and is deleted once closed.
+ */
+final class BTreeIndex implements RowIndex {
+
+    static final int PAGE_SIZE = 4096;
+
+    private static final short LEAF = 1;
+    private static final short INTERNAL = 2;
+    private static final int HEADER_BYTES = 2 * Short.BYTES;
+    private static final int LEAF_ENTRY_BYTES = 2 * Long.BYTES;
+    private static final int LEAF_CAPACITY = (PAGE_SIZE - HEADER_BYTES) / LEAF_ENTRY_BYTES;
+    private static final int INTERNAL_ENTRY_BYTES = Long.BYTES + Integer.BYTES;
+    private static final int INTERNAL_ENTRIES_START = HEADER_BYTES + Integer.BYTES;
+    private static final int INTERNAL_CAPACITY = (PAGE_SIZE - INTERNAL_ENTRIES_START) / INTERNAL_ENTRY_BYTES;
+    private static final int MIN_CACHE_PAGES = 16;
+    private static final int INITIAL_RUN_ENTRIES = 1024;
+    private static final int MAX_RUN_ENTRIES = 1 << 19;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final PageCache cache;
+    private volatile int root;
+    // Levels of pages, 1 while the root is a leaf
+    private volatile int height;
+    private volatile int size;
+    private int pageCount;
+
+    private BTreeIndex(Path path, FileChannel channel, int cachePages, int root, int height, int pageCount, int size) {
+        this.path = path;
+        this.channel = channel;
+        this.cache = new PageCache(channel, PAGE_SIZE, Math.max(MIN_CACHE_PAGES, cachePages));
+        this.root = root;
+        this.height = height;
+        this.pageCount = pageCount;
+        this.size = size;
+    }
+
+    /**
+     * @param path the file to hold the tree, replaced if it exists.
+     * @param cachePages the amount of pages held in memory.
+     * @return a builder of the tree.
+     */
+    static RowIndex.Builder builder(Path path, int cachePages) {
+        return new Builder(path, cachePages);
+    }
+
+    @Override
+    public long get(long id) throws IOException {
+        int page = root;
+        for (int level = height; level > 1; level--) {
+            PageCache.Frame frame = cache.pin(page);
+            try {
+                page = childFor(frame.buffer, id);
+            } finally {
+                cache.unpin(frame, false);
+            }
+        }
+        PageCache.Frame frame = cache.pin(page);
+        try {
+            int entry = searchLeaf(frame.buffer, id);
+            return entry >= 0 ? frame.buffer.getLong(leafEntry(entry) + Long.BYTES) : LongLongMap.NO_VALUE;
+        } finally {
+            cache.unpin(frame, false);
+        }
+    }
+
+    @Override
+    public boolean containsKey(long id) throws IOException {
+        return get(id) != LongLongMap.NO_VALUE;
+    }
+
+    @Override
+    public long put(long id, long offset) throws IOException {
+        int[] parents = new int[height - 1];
+        int page = root;
+        for (int depth = 0; depth < parents.length; depth++) {
+            parents[depth] = page;
+            PageCache.Frame frame = cache.pin(page);
+            try {
+                page = childFor(frame.buffer, id);
+            } finally {
+                cache.unpin(frame, false);
+            }
+        }
+        PageCache.Frame frame = cache.pin(page);
+        try {
+            ByteBuffer leaf = frame.buffer;
+            int count = countOf(leaf, LEAF_CAPACITY);
+            int entry = searchLeaf(leaf, id);
+            if (entry >= 0) {
+                long previous = leaf.getLong(leafEntry(entry) + Long.BYTES);
+                leaf.putLong(leafEntry(entry) + Long.BYTES, offset);
+                return previous;
+            }
+            int position = -entry - 1;
+            if (count < LEAF_CAPACITY) {
+                byte[] bytes = leaf.array();
+                System.arraycopy(bytes, leafEntry(position), bytes, leafEntry(position + 1), (count - position) * LEAF_ENTRY_BYTES);
+                leaf.putLong(leafEntry(position), id).putLong(leafEntry(position) + Long.BYTES, offset);
+                leaf.putShort(Short.BYTES, (short) (count + 1));
+            } else {
+                splitLeaf(leaf, count, position, id, offset, parents);
+            }
+            size++;
+            return LongLongMap.NO_VALUE;
+        } finally {
+            cache.unpin(frame, true);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Walks the tree depth first, so identifiers come in ascending order.
+     */
+    @Override
+    public void forEachId(LongConsumer visitor) throws IOException {
+        forEachId(root, height, visitor);
+    }
+
+    private void forEachId(int page, int level, LongConsumer visitor) throws IOException {
+        PageCache.Frame frame = cache.pin(page);
+        int[] children;
+        try {
+            ByteBuffer node = frame.buffer;
+            if (level == 1) {
+                for (int entry = 0, count = countOf(node, LEAF_CAPACITY); entry < count; entry++) {
+                    visitor.accept(node.getLong(leafEntry(entry)));
+                }
+                return;
+            }
+            // Children are copied out so no page stays pinned during the walk below
+            int count = countOf(node, INTERNAL_CAPACITY);
+            children = new int[count + 1];
+            children[0] = node.getInt(HEADER_BYTES);
+            for (int entry = 0; entry < count; entry++) {
+                children[entry + 1] = node.getInt(internalEntry(entry) + Long.BYTES);
+            }
+        } finally {
+            cache.unpin(frame, false);
+        }
+        for (int child : children) {
+            forEachId(child, level - 1, visitor);
+        }
+    }
+
+    /**
+     * Descends to the leaf that would hold the identifier and walks the tree onwards from there, reading only the
+     * pages holding the identifiers returned.
+     */
+    @Override
+    public long[] idsAfter(long after, int limit) throws IOException {
+        long[] ids = new long[limit];
+        return Arrays.copyOf(ids, idsAfter(root, height, after, ids, 0));
+    }
+
+    private int idsAfter(int page, int level, long after, long[] ids, int count) throws IOException {
+        PageCache.Frame frame = cache.pin(page);
+        int[] children;
+        try {
+            ByteBuffer node = frame.buffer;
+            if (level == 1) {
+                int entry = searchLeaf(node, after);
+                for (entry = entry >= 0 ? entry + 1 : -entry - 1; entry < countOf(node, LEAF_CAPACITY) && count < ids.length; entry++) {
+                    ids[count++] = node.getLong(leafEntry(entry));
+                }
+                return count;
+            }
+            // From the child that would hold the identifier onwards, copied out as in forEachId
+            int entries = countOf(node, INTERNAL_CAPACITY);
+            int first = upperBound(node, entries, after);
+            children = new int[entries + 1 - first];
+            for (int child = first; child <= entries; child++) {
+                children[child - first] = child == 0 ? node.getInt(HEADER_BYTES) : node.getInt(internalEntry(child - 1) + Long.BYTES);
+            }
+        } finally {
+            cache.unpin(frame, false);
+        }
+        for (int child = 0; child < children.length && count < ids.length; child++) {
+            count = idsAfter(children[child], level - 1, after, ids, count);
+        }
+        return count;
+    }
+
+    @Override
+    public double bytesPerEntry() {
+        return size == 0 ? 0 : (double) cache.memoryBytes() / size;
+    }
+
+    /**
+     * Closes and deletes the file.
+     * @throws IOException in the event of an error closing or deleting the file.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Moves the upper half of a full leaf, with the new entry, to a new leaf and adds it to the parent.
+     */
+    private void splitLeaf(ByteBuffer leaf, int count, int position, long id, long offset, int[] parents) throws IOException {
+        long[] ids = new long[count + 1];
+        long[] offsets = new long[count + 1];
+        for (int i = 0, source = 0; i <= count; i++) {
+            if (i == position) {
+                ids[i] = id;
+                offsets[i] = offset;
+            } else {
+                ids[i] = leaf.getLong(leafEntry(source));
+                offsets[i] = leaf.getLong(leafEntry(source++) + Long.BYTES);
+            }
+        }
+        int split = (count + 1) / 2;
+        int rightPage = pageCount++;
+        PageCache.Frame right = cache.pinNew(rightPage);
+        try {
+            writeLeaf(right.buffer, ids, offsets, split, count + 1);
+        } finally {
+            cache.unpin(right, true);
+        }
+        writeLeaf(leaf, ids, offsets, 0, split);
+        insertIntoParent(parents, parents.length - 1, ids[split], rightPage);
+    }
+
+    /**
+     * Adds a child to the parent at the received depth, splitting the parent in turn if full, or grows the tree by a
+     * new root if the split page was the root.
+     */
+    private void insertIntoParent(int[] parents, int depth, long id, int child) throws IOException {
+        if (depth < 0) {
+            int newRoot = pageCount++;
+            PageCache.Frame frame = cache.pinNew(newRoot);
+            try {
+                writeInternal(frame.buffer, new long[] { id }, new int[] { root, child }, 0, 1);
+            } finally {
+                cache.unpin(frame, true);
+            }
+            root = newRoot;
+            height++;
+            return;
+        }
+        PageCache.Frame frame = cache.pin(parents[depth]);
+        try {
+            ByteBuffer node = frame.buffer;
+            int count = countOf(node, INTERNAL_CAPACITY);
+            int position = upperBound(node, count, id);
+            long[] ids = new long[count + 1];
+            int[] children = new int[count + 2];
+            children[0] = node.getInt(HEADER_BYTES);
+            for (int i = 0, source = 0; i <= count; i++) {
+                if (i == position) {
+                    ids[i] = id;
+                    children[i + 1] = child;
+                } else {
+                    ids[i] = node.getLong(internalEntry(source));
+                    children[i + 1] = node.getInt(internalEntry(source++) + Long.BYTES);
+                }
+            }
+            if (count < INTERNAL_CAPACITY) {
+                writeInternal(node, ids, children, 0, count + 1);
+                return;
+            }
+            int middle = (count + 1) / 2;
+            int rightPage = pageCount++;
+            PageCache.Frame right = cache.pinNew(rightPage);
+            try {
+                writeInternal(right.buffer, ids, children, middle + 1, count + 1);
+            } finally {
+                cache.unpin(right, true);
+            }
+            writeInternal(node, ids, children, 0, middle);
+            insertIntoParent(parents, depth - 1, ids[middle], rightPage);
+        } finally {
+            cache.unpin(frame, true);
+        }
+    }
+
+    /**
+     * Writes the entries {@code [from, to)} into a leaf page.
+     */
+    private static void writeLeaf(ByteBuffer page, long[] ids, long[] offsets, int from, int to) {
+        page.putShort(0, LEAF).putShort(Short.BYTES, (short) (to - from));
+        for (int i = from; i < to; i++) {
+            page.putLong(leafEntry(i - from), ids[i]).putLong(leafEntry(i - from) + Long.BYTES, offsets[i]);
+        }
+    }
+
+    /**
+     * Writes the ids {@code [from, to)} into an internal page, along with the children {@code [from, to]}.
+     */
+    private static void writeInternal(ByteBuffer page, long[] ids, int[] children, int from, int to) {
+        page.putShort(0, INTERNAL).putShort(Short.BYTES, (short) (to - from)).putInt(HEADER_BYTES, children[from]);
+        for (int i = from; i < to; i++) {
+            page.putLong(internalEntry(i - from), ids[i]).putInt(internalEntry(i - from) + Long.BYTES, children[i + 1]);
+        }
+    }
+
+    private static int childFor(ByteBuffer node, long id) {
+        int position = upperBound(node, countOf(node, INTERNAL_CAPACITY), id);
+        return position == 0 ? node.getInt(HEADER_BYTES) : node.getInt(internalEntry(position - 1) + Long.BYTES);
+    }
+
+    /**
+     * @return the amount of ids of the internal page lower than or equal to the received one.
+     */
+    private static int upperBound(ByteBuffer node, int count, long id) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (node.getLong(internalEntry(middle)) <= id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the entry of the id in the leaf page, or {@code -(insertion point) - 1} if absent.
+     */
+    private static int searchLeaf(ByteBuffer leaf, long id) {
+        int low = 0;
+        int high = countOf(leaf, LEAF_CAPACITY) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long current = leaf.getLong(leafEntry(middle));
+            if (current < id) {
+                low = middle + 1;
+            } else if (current > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -low - 1;
+    }
+
+    /**
+     * Reads the entry count of a page, bounded by its capacity so a page read while being changed cannot lead
+     * outside of it.
+     */
+    private static int countOf(ByteBuffer page, int capacity) {
+        return Math.max(0, Math.min(capacity, page.getShort(Short.BYTES)));
+    }
+
+    private static int leafEntry(int entry) {
+        return HEADER_BYTES + entry * LEAF_ENTRY_BYTES;
+    }
+
+    private static int internalEntry(int entry) {
+        return INTERNAL_ENTRIES_START + entry * INTERNAL_ENTRY_BYTES;
+    }
+
+    /**
+     * Sorts the entries {@code [from, to)} of both arrays by id then offset, with a quicksort switching to insertion
+     * sort for short ranges.
+     */
+    private static void sort(long[] ids, long[] offsets, int from, int to) {
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            int middle = (from + to) >>> 1;
+            long pivotId = ids[middle];
+            long pivotOffset = offsets[middle];
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (compare(ids[i], offsets[i], pivotId, pivotOffset) < 0) {
+                    i++;
+                }
+                while (compare(ids[j], offsets[j], pivotId, pivotOffset) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(ids, offsets, i++, j--);
+                }
+            }
+            if (j - from < to - i) {
+                sort(ids, offsets, from, j + 1);
+                from = i;
+            } else {
+                sort(ids, offsets, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && compare(ids[j - 1], offsets[j - 1], ids[j], offsets[j]) > 0; j--) {
+                swap(ids, offsets, j - 1, j);
+            }
+        }
+    }
+
+    private static int compare(long id, long offset, long otherId, long otherOffset) {
+        int byId = Long.compare(id, otherId);
+        return byId != 0 ? byId : Long.compare(offset, otherOffset);
+    }
+
+    private static void swap(long[] ids, long[] offsets, int i, int j) {
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        long offset = offsets[i];
+        offsets[i] = offsets[j];
+        offsets[j] = offset;
+    }
+
+    /**
+     * Sorts the entries of a scan in runs of bounded size, spilling each full run to disk, then merges the runs into
+     * a bottom up bulk load.
+     */
+    private static final class Builder implements RowIndex.Builder {
+
+        private final Path path;
+        private final int cachePages;
+        private final List<Path> runs = new ArrayList<>();
+        private long[] ids = new long[INITIAL_RUN_ENTRIES];
+        private long[] offsets = new long[INITIAL_RUN_ENTRIES];
+        private int count;
+
+        private Builder(Path path, int cachePages) {
+            this.path = path;
+            this.cachePages = cachePages;
+        }
+
+        @Override
+        public void add(long id, long offset) throws IOException {
+            if (count == ids.length) {
+                if (count < MAX_RUN_ENTRIES) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                } else {
+                    spill();
+                }
+            }
+            ids[count] = id;
+            offsets[count++] = offset;
+        }
+
+        @Override
+        public RowIndex build() throws IOException {
+            FileChannel channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+            );
+            try {
+                Loader loader = new Loader(channel);
+                if (runs.isEmpty()) {
+                    sort(ids, offsets, 0, count);
+                    for (int i = 0; i < count; i++) {
+                        loader.add(ids[i], offsets[i]);
+                    }
+                } else {
+                    spill();
+                    mergeRuns(loader);
+                }
+                return loader.finish(path, cachePages);
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                Files.deleteIfExists(path);
+                throw ex;
+            } finally {
+                for (Path run : runs) {
+                    Files.deleteIfExists(run);
+                }
+            }
+        }
+
+        private void spill() throws IOException {
+            sort(ids, offsets, 0, count);
+            Path run = path.resolveSibling(path.getFileName() + ".run" + runs.size());
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(ids[i]);
+                    out.writeLong(offsets[i]);
+                }
+            }
+            count = 0;
+        }
+
+        private void mergeRuns(Loader loader) throws IOException {
+            PriorityQueue<Run> queue = new PriorityQueue<>((a, b) -> compare(a.id, a.offset, b.id, b.offset));
+            try {
+                for (Path path : runs) {
+                    Run run = new Run(new DataInputStream(new BufferedInputStream(Files.newInputStream(path))));
+                    if (run.next()) {
+                        queue.add(run);
+                    } else {
+                        run.in.close();
+                    }
+                }
+                Run run;
+                while ((run = queue.poll()) != null) {
+                    loader.add(run.id, run.offset);
+                    if (run.next()) {
+                        queue.add(run);
+                    } else {
+                        run.in.close();
+                    }
+                }
+            } finally {
+                for (Run run : queue) {
+                    run.in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorted entries read back from a spilled run.
+     */
+    private static final class Run {
+
+        private final DataInputStream in;
+        private long id;
+        private long offset;
+
+        private Run(DataInputStream in) {
+            this.in = in;
+        }
+
+        private boolean next() throws IOException {
+            try {
+                id = in.readLong();
+            } catch (EOFException ex) {
+                return false;
+            }
+            offset = in.readLong();
+            return true;
+        }
+    }
+
+    /**
+     * Writes sorted entries into full leaves, one after the other, then each level of internal pages over the level
+     * below until a single root is left.
+     */
+    private static final class Loader {
+
+        private final FileChannel channel;
+        private final ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        private long[] firstIds = new long[64];
+        private int[] pages = new int[64];
+        private int nodes;
+        private int pageCount;
+        private int entries;
+        private int size;
+        private long lastId;
+
+        private Loader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void add(long id, long offset) throws IOException {
+            if (entries > 0 && id == lastId) {
+                // Of the entries of an id, the one at the highest offset, so the latest written, wins
+                page.putLong(leafEntry(entries - 1) + Long.BYTES, offset);
+                return;
+            }
+            if (entries == LEAF_CAPACITY) {
+                flushLeaf();
+            }
+            if (entries == 0) {
+                addNode(id, pageCount);
+            }
+            page.putLong(leafEntry(entries), id).putLong(leafEntry(entries) + Long.BYTES, offset);
+            entries++;
+            size++;
+            lastId = id;
+        }
+
+        private BTreeIndex finish(Path path, int cachePages) throws IOException {
+            if (nodes == 0) {
+                addNode(0, pageCount);
+            }
+            flushLeaf();
+            int height = 1;
+            long[] levelIds = Arrays.copyOf(firstIds, nodes);
+            int[] levelPages = Arrays.copyOf(pages, nodes);
+            while (levelPages.length > 1) {
+                nodes = 0;
+                for (int from = 0; from < levelPages.length; from += INTERNAL_CAPACITY + 1) {
+                    int to = Math.min(levelPages.length, from + INTERNAL_CAPACITY + 1);
+                    addNode(levelIds[from], pageCount);
+                    Arrays.fill(page.array(), (byte) 0);
+                    page.putShort(0, INTERNAL).putShort(Short.BYTES, (short) (to - from - 1)).putInt(HEADER_BYTES, levelPages[from]);
+                    for (int i = from + 1; i < to; i++) {
+                        page.putLong(internalEntry(i - from - 1), levelIds[i]).putInt(internalEntry(i - from - 1) + Long.BYTES, levelPages[i]);
+                    }
+                    writePage();
+                }
+                levelIds = Arrays.copyOf(firstIds, nodes);
+                levelPages = Arrays.copyOf(pages, nodes);
+                height++;
+            }
+            return new BTreeIndex(path, channel, cachePages, levelPages[0], height, pageCount, size);
+        }
+
+        private void addNode(long firstId, int pageNumber) {
+            if (nodes == firstIds.length) {
+                firstIds = Arrays.copyOf(firstIds, nodes * 2);
+                pages = Arrays.copyOf(pages, nodes * 2);
+            }
+            firstIds[nodes] = firstId;
+            pages[nodes++] = pageNumber;
+        }
+
+        private void flushLeaf() throws IOException {
+            page.putShort(0, LEAF).putShort(Short.BYTES, (short) entries);
+            Arrays.fill(page.array(), leafEntry(entries), PAGE_SIZE, (byte) 0);
+            writePage();
+            entries = 0;
+        }
+
+        private void writePage() throws IOException {
+            ByteBuffer buffer = page.duplicate().clear();
+            long position = (long) pageCount++ * PAGE_SIZE;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offline conversion of CSV data into a log directory of binary records, to switch the log engine to the binary
+ * record format. The source is either the file of the CSV engine or a log directory of CSV segments; only the live
+ * rows are converted, into a single segment.
+ * <p>
+ * Run it with the application stopped: {@code BinaryLogConverter <source> <target directory>}.
+ */
+public final class BinaryLogConverter {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryLogConverter.class);
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private BinaryLogConverter() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            log.error("Usage: BinaryLogConverter <csv file or csv log directory> <target directory>");
+            System.exit(1);
+        }
+        long rows = convert(Paths.get(args[0]), Paths.get(args[1]));
+        log.info("Converted {} rows into {}", rows, args[1]);
+    }
+
+    /**
+     * Converts the live rows of the source into a binary segment of the target directory.
+     * @param source the file of the CSV engine or a log directory of CSV segments.
+     * @param targetDirectory the directory to write the binary segment into, created if missing.
+     * @return the amount of rows converted.
+     * @throws IOException in the event of an error reading the source or writing the segment.
+     * @throws IllegalStateException if the target directory already holds segments.
+     */
+    public static long convert(Path source, Path targetDirectory) throws IOException {
+        Files.createDirectories(targetDirectory);
+        try (Stream<Path> files = Files.list(targetDirectory)) {
+            if (files.anyMatch(path -> path.getFileName().toString().startsWith("segment-"))) {
+                throw new IllegalStateException("Directory " + targetDirectory + " already holds segments");
+            }
+        }
+        Path segment = targetDirectory.resolve(AppendOnlyLogDatabase.fileName(1, BinaryRecordFormat.INSTANCE.segmentSuffix()));
+        Path tmp = segment.resolveSibling(segment.getFileName() + TMP_SUFFIX);
+        long rows = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            if (Files.isDirectory(source)) {
+                ApplicationProperties.Storage storage = new ApplicationProperties.Storage();
+                storage.setEngine(ApplicationProperties.Storage.Engine.LOG);
+                storage.setRecordFormat(ApplicationProperties.Storage.RecordFormat.CSV);
+                storage.getCompaction().setEnabled(false);
+                try (AppendOnlyLogDatabase log = new AppendOnlyLogDatabase(source, storage, new SimpleMeterRegistry())) {
+                    for (String row : log.select(-1L)) {
+                        out.write(BinaryRecordFormat.INSTANCE.encode(row));
+                        rows++;
+                    }
+                }
+            } else {
+                long[] count = new long[1];
+                CsvRowFiles.scanRows(
+                    source,
+                    (offset, row) -> {
+                        out.write(BinaryRecordFormat.INSTANCE.encode(row));
+                        count[0]++;
+                    }
+                );
+                rows = count[0];
+            }
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, segment, StandardCopyOption.ATOMIC_MOVE);
+        return rows;
+    }
+}
@@ -0,0 +1,292 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import com.tiagodiogo.radicant.domain.PhoneBookRecordCodec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Length prefixed binary records, all numbers big endian:
+ * <pre>
+ * int32  length of the record after this field
+ * byte   format version, {@value #VERSION}
+ * byte   flags, {@value #TOMBSTONE} for a tombstone, {@value #NO_MOBILE} for a record without mobile
+ * int64  id
+ * -- tombstones end here --
+ * int32  mobile
+ * uint16 name length, then the UTF-8 name
+ * uint16 email length, then the UTF-8 email
+ * </pre>
+ * Scans hop from record to record by length and read the identifier at a fixed offset, so no byte of a row is looked
+ * at unless the row is decoded.
+ */
+final class BinaryRecordFormat implements RecordFormat {
+
+    static final BinaryRecordFormat INSTANCE = new BinaryRecordFormat();
+
+    static final byte VERSION = 1;
+    static final byte TOMBSTONE = 1;
+    static final byte NO_MOBILE = 2;
+
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final int LENGTH_BYTES = Integer.BYTES;
+    // Version, flags and id
+    private static final int TOMBSTONE_BYTES = 2 + Long.BYTES;
+    // Tombstone part, mobile and both text lengths
+    private static final int HEADER_BYTES = TOMBSTONE_BYTES + Integer.BYTES + 2 * Short.BYTES;
+    private static final int MAX_TEXT_BYTES = 0xFFFF;
+    private static final int MAX_RECORD_BYTES = LENGTH_BYTES + HEADER_BYTES + 2 * MAX_TEXT_BYTES;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private BinaryRecordFormat() {}
+
+    @Override
+    public String segmentSuffix() {
+        return SEGMENT_SUFFIX;
+    }
+
+    @Override
+    public long scanIds(Path file, CsvRowFiles.RowIdVisitor visitor) throws IOException {
+        return scan(file, (offset, buffer, start) -> visitor.visit(idOf(buffer, start), offset, isTombstone(buffer, start)));
+    }
+
+    @Override
+    public long scanRows(Path file, CsvRowFiles.RowVisitor visitor) throws IOException {
+        return scan(file, (offset, buffer, start) -> visitor.visit(offset, decode(buffer, start)));
+    }
+
+    @Override
+    public String readRow(FileChannel channel, long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(LENGTH_BYTES);
+        readFully(channel, length, offset);
+        ByteBuffer record = ByteBuffer.allocate(LENGTH_BYTES + length.getInt(0));
+        readFully(channel, record, offset);
+        return decode(record, 0);
+    }
+
+    @Override
+    public Reader reader(FileChannel channel, long size) {
+        return new RecordReader(channel, size);
+    }
+
+    @Override
+    public byte[] encode(String row) {
+        PhoneBookRecord record = PhoneBookRecordCodec.decode(row);
+        byte[] name = textBytes(record.getName());
+        byte[] email = textBytes(record.getEmail());
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_BYTES + HEADER_BYTES + name.length + email.length);
+        buffer.putInt(buffer.capacity() - LENGTH_BYTES);
+        buffer.put(VERSION);
+        buffer.put(record.getMobile() == null ? NO_MOBILE : 0);
+        buffer.putLong(record.getId());
+        buffer.putInt(record.getMobile() == null ? 0 : record.getMobile());
+        buffer.putShort((short) name.length).put(name);
+        buffer.putShort((short) email.length).put(email);
+        return buffer.array();
+    }
+
+    @Override
+    public byte[] encodeTombstone(long id) {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_BYTES + TOMBSTONE_BYTES);
+        buffer.putInt(TOMBSTONE_BYTES).put(VERSION).put(TOMBSTONE).putLong(id);
+        return buffer.array();
+    }
+
+    /**
+     * Decodes the record starting at the received index of the buffer, which must hold all of it.
+     * @param buffer the buffer holding the record.
+     * @param start the index of the record length.
+     * @return the row, or only the identifier for a tombstone.
+     * @throws IOException if the record was written by an unknown version of the format.
+     */
+    static String decode(ByteBuffer buffer, int start) throws IOException {
+        byte version = buffer.get(start + LENGTH_BYTES);
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary record format version " + version);
+        }
+        long id = idOf(buffer, start);
+        if (isTombstone(buffer, start)) {
+            return String.valueOf(id);
+        }
+        byte flags = buffer.get(start + LENGTH_BYTES + 1);
+        int position = start + LENGTH_BYTES + TOMBSTONE_BYTES;
+        Integer mobile = (flags & NO_MOBILE) != 0 ? null : buffer.getInt(position);
+        position += Integer.BYTES;
+        int nameLength = Short.toUnsignedInt(buffer.getShort(position));
+        String name = text(buffer, position + Short.BYTES, nameLength);
+        position += Short.BYTES + nameLength;
+        int emailLength = Short.toUnsignedInt(buffer.getShort(position));
+        String email = text(buffer, position + Short.BYTES, emailLength);
+        return PhoneBookRecordCodec.encode(new PhoneBookRecord(id, name, email, mobile));
+    }
+
+    /**
+     * @return the amount of bytes taken by the record starting at the received index, length field included.
+     */
+    static int recordBytes(ByteBuffer buffer, int start) {
+        return LENGTH_BYTES + buffer.getInt(start);
+    }
+
+    static long idOf(ByteBuffer buffer, int start) {
+        return buffer.getLong(start + LENGTH_BYTES + 2);
+    }
+
+    static boolean isTombstone(ByteBuffer buffer, int start) {
+        return (buffer.get(start + LENGTH_BYTES + 1) & TOMBSTONE) != 0;
+    }
+
+    private static String text(ByteBuffer buffer, int index, int length) {
+        return new String(buffer.array(), buffer.arrayOffset() + index, length, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] textBytes(String text) {
+        byte[] bytes = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_TEXT_BYTES) {
+            throw new IllegalArgumentException("Text field longer than " + MAX_TEXT_BYTES + " bytes");
+        }
+        return bytes;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file reading record at offset " + offset);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(long offset, ByteBuffer buffer, int start) throws IOException;
+    }
+
+    /**
+     * Reads the file through a buffer, grown if a record does not fit, handing each complete record to the visitor.
+     * @return the amount of bytes taken by complete records.
+     */
+    private static long scan(Path file, RecordVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE).flip();
+            long readPosition = 0;
+            long offset = 0;
+            while (true) {
+                if (buffer.remaining() < LENGTH_BYTES) {
+                    buffer = fill(channel, buffer, readPosition, LENGTH_BYTES);
+                    readPosition = offset + buffer.remaining();
+                    if (buffer.remaining() < LENGTH_BYTES) {
+                        return offset;
+                    }
+                }
+                int length = buffer.getInt(buffer.position());
+                if (length == 0) {
+                    // Zeroed space past the last write, left by a crash
+                    return offset;
+                }
+                int recordBytes = LENGTH_BYTES + length;
+                if (length < TOMBSTONE_BYTES || recordBytes > MAX_RECORD_BYTES) {
+                    throw new IOException("Corrupt binary record at offset " + offset + " of " + file);
+                }
+                if (buffer.remaining() < recordBytes) {
+                    buffer = fill(channel, buffer, readPosition, recordBytes);
+                    readPosition = offset + buffer.remaining();
+                    if (buffer.remaining() < recordBytes) {
+                        return offset;
+                    }
+                }
+                visitor.visit(offset, buffer, buffer.position());
+                buffer.position(buffer.position() + recordBytes);
+                offset += recordBytes;
+            }
+        }
+    }
+
+    /**
+     * Pull based counterpart of {@link #scan(Path, RecordVisitor)}, reading the records of the start of a channel
+     * through a buffer grown if a record does not fit.
+     */
+    private static final class RecordReader implements Reader {
+
+        private final FileChannel channel;
+        private final long size;
+        private ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE).flip();
+        private long readPosition;
+        // Byte offset of the next record, and of the current one
+        private long nextOffset;
+        private long offset;
+        private String row;
+
+        private RecordReader(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (nextOffset >= size) {
+                return false;
+            }
+            if (buffer.remaining() < LENGTH_BYTES) {
+                buffer = fill(channel, buffer, readPosition, LENGTH_BYTES);
+                readPosition = nextOffset + buffer.remaining();
+                if (buffer.remaining() < LENGTH_BYTES) {
+                    return false;
+                }
+            }
+            int length = buffer.getInt(buffer.position());
+            if (length == 0) {
+                return false;
+            }
+            int recordBytes = LENGTH_BYTES + length;
+            if (length < TOMBSTONE_BYTES || recordBytes > MAX_RECORD_BYTES) {
+                throw new IOException("Corrupt binary record at offset " + nextOffset);
+            }
+            if (buffer.remaining() < recordBytes) {
+                buffer = fill(channel, buffer, readPosition, recordBytes);
+                readPosition = nextOffset + buffer.remaining();
+                if (buffer.remaining() < recordBytes) {
+                    return false;
+                }
+            }
+            row = decode(buffer, buffer.position());
+            buffer.position(buffer.position() + recordBytes);
+            offset = nextOffset;
+            nextOffset += recordBytes;
+            return true;
+        }
+
+        @Override
+        public long offset() {
+            return offset;
+        }
+
+        @Override
+        public String row() {
+            return row;
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the front of the buffer, growing it if it cannot hold the wanted amount, and reads
+     * more of the file after them.
+     * @return the buffer, in read mode, holding at least the wanted amount of bytes unless the file ended.
+     */
+    private static ByteBuffer fill(FileChannel channel, ByteBuffer buffer, long readPosition, int wanted) throws IOException {
+        ByteBuffer target = buffer;
+        if (wanted > buffer.capacity()) {
+            target = ByteBuffer.allocate(Math.max(wanted, buffer.capacity() * 2));
+            target.put(buffer);
+        } else {
+            target.compact();
+        }
+        long position = readPosition;
+        int read;
+        while (target.position() < wanted && (read = channel.read(target, position)) > 0) {
+            position += read;
+        }
+        return target.flip();
+    }
+}
@@ -0,0 +1,92 @@
+package com.tiagodiogo.radicant.repository;
+
+/**
+ * Bloom filter over row identifiers: answers whether an identifier might have been added, with no false negatives.
+ * <p>
+ * The bits of an identifier are derived from one 64 bit mix of it, split into two halves combined by double hashing.
+ * Not thread safe for concurrent adds.
+ */
+final class BloomFilter {
+
+    private static final int MAX_HASHES = 30;
+
+    private final long[] words;
+    private final long bitCount;
+    private final int hashes;
+
+    /**
+     * @param words the bits, as written by {@link #words()}.
+     * @param hashes the amount of bits set per identifier.
+     */
+    BloomFilter(long[] words, int hashes) {
+        this.words = words;
+        this.bitCount = (long) words.length * Long.SIZE;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Sizes a filter for an expected amount of identifiers.
+     * @param entries the expected amount of identifiers.
+     * @param bitsPerKey the bits to spend per identifier, 10 giving about 1% false positives.
+     * @return an empty filter.
+     */
+    static BloomFilter forEntries(long entries, int bitsPerKey) {
+        long bits = Math.max(Long.SIZE, entries * bitsPerKey);
+        int hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerKey * Math.log(2))));
+        return new BloomFilter(new long[(int) ((bits + Long.SIZE - 1) / Long.SIZE)], hashes);
+    }
+
+    void put(long id) {
+        long hash = mix(id);
+        long h1 = hash >>> 32;
+        long h2 = hash & 0xFFFFFFFFL;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param id the identifier to look for.
+     * @return false if the identifier was never added, true if it might have been.
+     */
+    boolean mightContain(long id) {
+        long hash = mix(id);
+        long h1 = hash >>> 32;
+        long h2 = hash & 0xFFFFFFFFL;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Probability of {@link #mightContain(long)} answering true for an identifier never added.
+     * @param entries the amount of identifiers added.
+     * @return a value between 0 and 1.
+     */
+    double falsePositiveRate(long entries) {
+        return Math.pow(1 - Math.exp(-(double) hashes * entries / bitCount), hashes);
+    }
+
+    long[] words() {
+        return words;
+    }
+
+    int hashes() {
+        return hashes;
+    }
+
+    /**
+     * Stafford variant 13 of the 64 bit finalizer of MurmurHash3, spreading sequential identifiers over all bits.
+     */
+    private static long mix(long id) {
+        long z = id;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,78 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Newline delimited CSV rows, a tombstone being a row holding only the identifier.
+ */
+final class CsvRecordFormat implements RecordFormat {
+
+    static final CsvRecordFormat INSTANCE = new CsvRecordFormat();
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int READ_BUFFER_SIZE = 256;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private CsvRecordFormat() {}
+
+    @Override
+    public String segmentSuffix() {
+        return SEGMENT_SUFFIX;
+    }
+
+    @Override
+    public long scanIds(Path file, CsvRowFiles.RowIdVisitor visitor) throws IOException {
+        CsvRowFiles.scanIds(file, visitor);
+        return Files.size(file);
+    }
+
+    @Override
+    public long scanRows(Path file, CsvRowFiles.RowVisitor visitor) throws IOException {
+        CsvRowFiles.scanRows(file, visitor);
+        return Files.size(file);
+    }
+
+    @Override
+    public String readRow(FileChannel channel, long offset) throws IOException {
+        return CsvRowFiles.readRow(channel, offset, ByteBuffer.allocate(READ_BUFFER_SIZE));
+    }
+
+    @Override
+    public Reader reader(FileChannel channel, long size) {
+        CsvRowFiles.RowReader rows = new CsvRowFiles.RowReader(channel, ByteBuffer.allocate(SCAN_BUFFER_SIZE), size);
+        return new Reader() {
+            private String row;
+
+            @Override
+            public boolean next() throws IOException {
+                row = rows.next();
+                return row != null;
+            }
+
+            @Override
+            public long offset() {
+                return rows.rowOffset();
+            }
+
+            @Override
+            public String row() {
+                return row;
+            }
+        };
+    }
+
+    @Override
+    public byte[] encode(String row) {
+        return (row + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] encodeTombstone(long id) {
+        return encode(String.valueOf(id));
+    }
+}
@@ -0,0 +1,342 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Byte offset aware helpers to scan and read newline delimited CSV rows, shared by the file based storage engines.
+ * <p>
+ * The channel based variants use positional reads only, so a single channel can serve concurrent callers as long as
+ * each brings its own buffer.
+ */
+final class CsvRowFiles {
+
+    static final char CSV_SEPARATOR = ',';
+    private static final int ROW_BUFFER_SIZE = 256;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Receives the identifier of each row found while scanning a file.
+     */
+    @FunctionalInterface
+    interface RowIdVisitor {
+        /**
+         * @param id the row identifier, parsed from the first column.
+         * @param offset the byte offset where the row starts.
+         * @param idOnly true if the row holds no separator after the identifier.
+         * @throws IOException to abort the scan.
+         */
+        void visit(long id, long offset, boolean idOnly) throws IOException;
+    }
+
+    /**
+     * Receives each row found while scanning a file.
+     */
+    @FunctionalInterface
+    interface RowVisitor {
+        /**
+         * @param offset the byte offset where the row starts.
+         * @param row the row without its line terminator.
+         * @throws IOException to abort the scan.
+         */
+        void visit(long offset, String row) throws IOException;
+    }
+
+    /**
+     * Receives the bytes of each row found while scanning a file, for callers able to reject rows before decoding.
+     */
+    @FunctionalInterface
+    interface RowBytesVisitor {
+        /**
+         * @param offset the byte offset where the row starts.
+         * @param row the array holding the row from index 0, reused once this returns.
+         * @param length the length of the row, without its line terminator.
+         * @throws IOException to abort the scan.
+         */
+        void visit(long offset, byte[] row, int length) throws IOException;
+    }
+
+    private CsvRowFiles() {}
+
+    /**
+     * Scans the whole file, parsing only the identifier column of each row.
+     * @param filePath the file to scan.
+     * @param visitor receives the identifier and offset of every non empty row, in file order.
+     * @throws IOException in the event of an error reading the file.
+     */
+    static void scanIds(Path filePath, RowIdVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            scanIds(channel, ByteBuffer.allocate(SCAN_BUFFER_SIZE), visitor);
+        }
+    }
+
+    /**
+     * Scans the whole channel, parsing only the identifier column of each row.
+     * @param channel the channel to scan.
+     * @param buffer the buffer to read through.
+     * @param visitor receives the identifier and offset of every non empty row, in file order.
+     * @throws IOException in the event of an error reading the channel.
+     */
+    static void scanIds(FileChannel channel, ByteBuffer buffer, RowIdVisitor visitor) throws IOException {
+        long offset = 0;
+        long rowStart = 0;
+        long id = 0;
+        boolean readingId = true;
+        buffer.clear();
+        while (channel.read(buffer, offset) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                offset++;
+                if (b == '\n') {
+                    if (offset - 1 > rowStart) {
+                        visitor.visit(id, rowStart, readingId);
+                    }
+                    rowStart = offset;
+                    id = 0;
+                    readingId = true;
+                } else if (readingId && b != '\r') {
+                    if (b == CSV_SEPARATOR) {
+                        readingId = false;
+                    } else {
+                        id = id * 10 + (b - '0');
+                    }
+                }
+            }
+            buffer.clear();
+        }
+        if (offset > rowStart) {
+            visitor.visit(id, rowStart, readingId);
+        }
+    }
+
+    /**
+     * Scans the whole file, decoding every non empty row.
+     * @param filePath the file to scan.
+     * @param visitor receives the offset and content of every row, in file order.
+     * @throws IOException in the event of an error reading the file.
+     */
+    static void scanRows(Path filePath, RowVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            scanRows(channel, ByteBuffer.allocate(SCAN_BUFFER_SIZE), channel.size(), visitor);
+        }
+    }
+
+    /**
+     * Scans the start of the channel, decoding every non empty row, so bytes appended meanwhile are left out.
+     * @param channel the channel to scan.
+     * @param buffer the buffer to read through.
+     * @param size the amount of bytes to scan.
+     * @param visitor receives the offset and content of every row, in file order.
+     * @throws IOException in the event of an error reading the channel.
+     */
+    static void scanRows(FileChannel channel, ByteBuffer buffer, long size, RowVisitor visitor) throws IOException {
+        scanRowBytes(
+            channel,
+            buffer,
+            size,
+            (offset, row, length) -> visitor.visit(offset, new String(row, 0, length, StandardCharsets.UTF_8))
+        );
+    }
+
+    /**
+     * Scans the start of the channel like {@link #scanRows(FileChannel, ByteBuffer, long, RowVisitor)}, handing out
+     * the raw bytes of every non empty row instead of decoding it.
+     * @param channel the channel to scan.
+     * @param buffer the buffer to read through.
+     * @param size the amount of bytes to scan.
+     * @param visitor receives the offset and bytes of every row, in file order.
+     * @throws IOException in the event of an error reading the channel.
+     */
+    static void scanRowBytes(FileChannel channel, ByteBuffer buffer, long size, RowBytesVisitor visitor)
+        throws IOException {
+        byte[] row = new byte[ROW_BUFFER_SIZE];
+        int rowLength = 0;
+        long offset = 0;
+        long rowStart = 0;
+        buffer.clear().limit((int) Math.min(buffer.capacity(), size));
+        while (offset < size && channel.read(buffer, offset) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                offset++;
+                if (b == '\n') {
+                    if (rowLength > 0) {
+                        visitor.visit(rowStart, row, rowLength);
+                        rowLength = 0;
+                    }
+                    rowStart = offset;
+                } else if (b != '\r') {
+                    if (rowLength == row.length) {
+                        row = Arrays.copyOf(row, row.length * 2);
+                    }
+                    row[rowLength++] = b;
+                }
+            }
+            buffer.clear().limit((int) Math.min(buffer.capacity(), size - offset));
+        }
+        if (rowLength > 0) {
+            visitor.visit(rowStart, row, rowLength);
+        }
+    }
+
+    /**
+     * Pull based counterpart of {@link #scanRows(FileChannel, ByteBuffer, long, RowVisitor)}: reads the rows of the
+     * start of a channel one at a time, as they are asked for.
+     */
+    static final class RowReader {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final long size;
+        private final ByteArrayOutputStream row = new ByteArrayOutputStream(ROW_BUFFER_SIZE);
+        // Bytes read into the buffer so far
+        private long offset;
+        // Byte offset where the row being read starts, and where the last returned one did
+        private long rowStart;
+        private long rowOffset;
+
+        /**
+         * @param channel the channel to read.
+         * @param buffer the buffer to read through, owned by the reader until done.
+         * @param size the amount of bytes to read.
+         */
+        RowReader(FileChannel channel, ByteBuffer buffer, long size) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.size = size;
+            buffer.clear().limit(0);
+        }
+
+        /**
+         * @return the next non empty row without its line terminator, or null once all the bytes were read.
+         * @throws IOException in the event of an error reading the channel.
+         */
+        String next() throws IOException {
+            while (true) {
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        long next = offset - buffer.remaining();
+                        if (row.size() > 0) {
+                            String taken = take();
+                            rowStart = next;
+                            return taken;
+                        }
+                        rowStart = next;
+                    } else if (b != '\r') {
+                        row.write(b);
+                    }
+                }
+                if (offset >= size) {
+                    return row.size() > 0 ? take() : null;
+                }
+                buffer.clear().limit((int) Math.min(buffer.capacity(), size - offset));
+                int read = channel.read(buffer, offset);
+                buffer.flip();
+                // The channel ending early, e.g. truncated by a concurrent rewrite, ends the rows
+                offset = read > 0 ? offset + read : size;
+            }
+        }
+
+        /**
+         * @return a sequential stream over the remaining rows, read errors thrown as {@link UncheckedIOException}.
+         */
+        Stream<String> stream() {
+            return StreamSupport.stream(
+                new Spliterators.AbstractSpliterator<String>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                    @Override
+                    public boolean tryAdvance(Consumer<? super String> action) {
+                        String next;
+                        try {
+                            next = next();
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                        if (next == null) {
+                            return false;
+                        }
+                        action.accept(next);
+                        return true;
+                    }
+                },
+                false
+            );
+        }
+
+        /**
+         * @return the byte offset where the row last returned by {@link #next()} starts.
+         */
+        long rowOffset() {
+            return rowOffset;
+        }
+
+        private String take() {
+            String taken = row.toString(StandardCharsets.UTF_8);
+            row.reset();
+            rowOffset = rowStart;
+            return taken;
+        }
+    }
+
+    /**
+     * Reads the single row starting at the received byte offset, in chunks of at most {@value #ROW_BUFFER_SIZE} bytes.
+     * @param channel the channel to read from.
+     * @param offset the byte offset of the row.
+     * @param buffer the buffer to read through.
+     * @return the row without its line terminator.
+     * @throws IOException in the event of an error reading the channel.
+     */
+    static String readRow(FileChannel channel, long offset, ByteBuffer buffer) throws IOException {
+        ByteArrayOutputStream row = new ByteArrayOutputStream(ROW_BUFFER_SIZE);
+        long position = offset;
+        buffer.clear().limit(Math.min(buffer.capacity(), ROW_BUFFER_SIZE));
+        int read;
+        while ((read = channel.read(buffer, position)) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n' || b == '\r') {
+                    return row.toString(StandardCharsets.UTF_8);
+                }
+                row.write(b);
+            }
+            position += read;
+            buffer.clear().limit(Math.min(buffer.capacity(), ROW_BUFFER_SIZE));
+        }
+        return row.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Replaces the identifier column of a row, leaving the other columns untouched.
+     * @param id the new row identifier.
+     * @param row the comma separated values of the row.
+     * @return the row with the new identifier.
+     */
+    static String withId(long id, String row) {
+        int end = row.indexOf(CSV_SEPARATOR);
+        return end < 0 ? String.valueOf(id) : id + row.substring(end);
+    }
+
+    /**
+     * Parses the identifier column of a row.
+     * @param row the comma separated values of the row.
+     * @return the row identifier.
+     */
+    static long idOf(String row) {
+        int end = row.indexOf(CSV_SEPARATOR);
+        return Long.parseLong(end < 0 ? row : row.substring(0, end));
+    }
+}
@@ -0,0 +1,49 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of same sized direct buffers, so channel I/O neither allocates nor copies through a temporary buffer.
+ * Buffers are allocated on demand and, once released, kept for reuse up to the pool capacity.
+ */
+class DirectBufferPool implements Closeable {
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> pooled;
+
+    /**
+     * @param bufferSize the capacity of each buffer.
+     * @param maxPooled the maximum amount of idle buffers kept for reuse.
+     */
+    DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.pooled = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * @return a cleared buffer, which must be handed back through {@link #release(ByteBuffer)}.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = pooled.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool, dropping it if the pool is full.
+     * @param buffer the buffer obtained from {@link #acquire()}.
+     */
+    void release(ByteBuffer buffer) {
+        pooled.offer(buffer);
+    }
+
+    /**
+     * Drops the idle buffers, leaving their memory to be reclaimed with them.
+     */
+    @Override
+    public void close() {
+        pooled.clear();
+    }
+}
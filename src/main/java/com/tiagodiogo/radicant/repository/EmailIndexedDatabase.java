@@ -0,0 +1,280 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.domain.DuplicateEmailException;
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import com.tiagodiogo.radicant.domain.PhoneBookRecordCodec;
+import com.tiagodiogo.radicant.domain.RecordFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IDatabase} keeping an email to identifiers index in front of any engine, so lookups by email, and the unique
+ * email check of writes when enabled, take a hash lookup instead of a scan.
+ * <p>
+ * The index is filled by a scan on startup and then follows the writes made through this class. Emails are keyed
+ * trimmed and lower cased. With unique emails, a write first reserves the email of its row in the index, atomically,
+ * and fails with {@link DuplicateEmailException} if another row holds it. Inserts of different emails still reach the
+ * engine concurrently, and group commit together, while updates and deletes, which look up the email the row held
+ * before, are serialized.
+ */
+public class EmailIndexedDatabase extends ForwardingDatabase {
+
+    // Held by the email of a unique write until the row is written
+    private static final long[] RESERVED = new long[0];
+
+    private final Logger log = LoggerFactory.getLogger(EmailIndexedDatabase.class);
+
+    private final boolean uniqueEmail;
+    // Identifiers by email key, the arrays being replaced rather than changed, so lookups need no lock
+    private final ConcurrentHashMap<String, long[]> index = new ConcurrentHashMap<>();
+    private final Lock rewriteLock = new ReentrantLock();
+
+    /**
+     * Indexes the emails of every row of the engine. Rows sharing an email when emails must be unique are kept, only
+     * later writes being checked.
+     * @param delegate the engine holding the rows.
+     * @param uniqueEmail true to reject writes giving a row the email of another row.
+     */
+    public EmailIndexedDatabase(IDatabase delegate, boolean uniqueEmail) {
+        super(delegate);
+        this.uniqueEmail = uniqueEmail;
+        long[] duplicates = new long[1];
+        delegate.scan(row -> {
+            PhoneBookRecord record;
+            try {
+                record = PhoneBookRecordCodec.decode(row);
+            } catch (IllegalArgumentException ex) {
+                log.warn("Skipped indexing the email of a malformed row: {}", ex.getMessage());
+                return;
+            }
+            String key = keyOf(record.getEmail());
+            if (key != null && add(key, record.getId()) > 1) {
+                duplicates[0]++;
+            }
+        });
+        if (uniqueEmail && duplicates[0] > 0) {
+            log.warn("{} rows share their email with another row, emails are only checked on later writes", duplicates[0]);
+        }
+        log.debug("Indexed {} emails", index.size());
+    }
+
+    /**
+     * Fetches the rows indexed under the email.
+     * @param email the email to look for.
+     * @return the rows holding the email, empty if none does.
+     */
+    @Override
+    public List<String> selectByEmail(String email) {
+        String key = keyOf(email);
+        long[] ids = key == null ? null : index.get(key);
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        List<String> rows = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            rows.addAll(delegate.select(id));
+        }
+        return rows;
+    }
+
+    /**
+     * Serves email equality from the index, which ignores case and surrounding blanks.
+     * @param comparison the comparison.
+     * @return the candidate rows, or the lookup of the delegate if the comparison is not an email equality.
+     */
+    @Override
+    public List<String> lookup(RecordFilter.Comparison comparison) {
+        if (comparison.is(RecordFilter.Field.EMAIL, RecordFilter.Operator.EQUALS)) {
+            return selectByEmail(comparison.getText());
+        }
+        return super.lookup(comparison);
+    }
+
+    /**
+     * Inserts the row, once its email is reserved when emails must be unique, and indexes it.
+     * @param row the comma separated values representing a new row.
+     * @return the generated row identifier.
+     * @throws DuplicateEmailException if emails must be unique and another row holds the email of the row.
+     */
+    @Override
+    public Long insert(String row) {
+        String key = emailKeyOf(row);
+        reserve(key);
+        Long id;
+        try {
+            id = delegate.insert(row);
+        } catch (RuntimeException ex) {
+            release(key);
+            throw ex;
+        }
+        add(key, id);
+        return id;
+    }
+
+    /**
+     * Inserts the rows, once all their emails are reserved when emails must be unique, and indexes them.
+     * @param rows the rows' data to insert.
+     * @return the generated unique ids, in the order of the rows.
+     * @throws DuplicateEmailException if emails must be unique and another row, or another of the rows, holds the
+     * email of one of the rows, in which case none is inserted.
+     */
+    @Override
+    public List<Long> insertAll(List<String> rows) {
+        List<String> keys = new ArrayList<>(rows.size());
+        try {
+            for (String row : rows) {
+                String key = emailKeyOf(row);
+                reserve(key);
+                keys.add(key);
+            }
+        } catch (DuplicateEmailException ex) {
+            keys.forEach(this::release);
+            throw ex;
+        }
+        List<Long> ids;
+        try {
+            ids = delegate.insertAll(rows);
+        } catch (RuntimeException ex) {
+            keys.forEach(this::release);
+            throw ex;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            add(keys.get(i), ids.get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Updates the row and moves it to its new email in the index, reserved first when emails must be unique.
+     * @param id the row identifier.
+     * @param newRow the comma separated values to be persisted.
+     * @return true if the record was updated, false otherwise.
+     * @throws DuplicateEmailException if emails must be unique and another row holds the new email.
+     */
+    @Override
+    public boolean update(Long id, String newRow) {
+        rewriteLock.lock();
+        try {
+            List<String> oldRows = delegate.select(id);
+            if (oldRows.isEmpty()) {
+                return false;
+            }
+            String oldKey = emailKeyOf(oldRows.get(0));
+            String newKey = emailKeyOf(newRow);
+            if (Objects.equals(oldKey, newKey)) {
+                return delegate.update(id, newRow);
+            }
+            reserve(newKey);
+            boolean updated;
+            try {
+                updated = delegate.update(id, newRow);
+            } catch (RuntimeException ex) {
+                release(newKey);
+                throw ex;
+            }
+            if (!updated) {
+                release(newKey);
+                return false;
+            }
+            add(newKey, id);
+            remove(oldKey, id);
+            return true;
+        } finally {
+            rewriteLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the row and drops it from the index.
+     * @param id the row identifier.
+     * @return true if the record was deleted, false otherwise.
+     */
+    @Override
+    public boolean delete(Long id) {
+        rewriteLock.lock();
+        try {
+            List<String> oldRows = delegate.select(id);
+            if (oldRows.isEmpty() || !delegate.delete(id)) {
+                return false;
+            }
+            remove(emailKeyOf(oldRows.get(0)), id);
+            return true;
+        } finally {
+            rewriteLock.unlock();
+        }
+    }
+
+    /**
+     * Claims the email for a write about to happen, when emails must be unique.
+     * @throws DuplicateEmailException if another row, or another write, holds the email.
+     */
+    private void reserve(String key) {
+        if (uniqueEmail && key != null && index.putIfAbsent(key, RESERVED) != null) {
+            throw new DuplicateEmailException(key);
+        }
+    }
+
+    private void release(String key) {
+        if (uniqueEmail && key != null) {
+            index.remove(key, RESERVED);
+        }
+    }
+
+    /**
+     * Indexes the row under the email, taking the place of its reservation if any.
+     * @return the amount of rows indexed under the email.
+     */
+    private int add(String key, long id) {
+        if (key == null) {
+            return 0;
+        }
+        long[] ids = index.compute(
+            key,
+            (k, current) -> {
+                if (current == null || current == RESERVED) {
+                    return new long[] { id };
+                }
+                long[] grown = Arrays.copyOf(current, current.length + 1);
+                grown[current.length] = id;
+                return grown;
+            }
+        );
+        return ids.length;
+    }
+
+    private void remove(String key, long id) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfPresent(
+            key,
+            (k, current) -> {
+                if (current == RESERVED) {
+                    return current;
+                }
+                long[] kept = Arrays.stream(current).filter(indexed -> indexed != id).toArray();
+                return kept.length == 0 ? null : kept;
+            }
+        );
+    }
+
+    private static String emailKeyOf(String row) {
+        return keyOf(PhoneBookRecordCodec.decode(row).getEmail());
+    }
+
+    private static String keyOf(String email) {
+        if (email == null || email.isBlank()) {
+            return null;
+        }
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,128 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.domain.CursorPage;
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.domain.NameSuggestion;
+import com.tiagodiogo.radicant.domain.RecordFilter;
+import com.tiagodiogo.radicant.domain.StorageStats;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * {@link IDatabase} handing every operation to another one, for the indexes kept in front of an engine to override
+ * just what they serve or follow. Stacked instances keep the capabilities of each other.
+ */
+public abstract class ForwardingDatabase implements IDatabase, Closeable {
+
+    protected final IDatabase delegate;
+
+    protected ForwardingDatabase(IDatabase delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public List<String> select(Long id) {
+        return delegate.select(id);
+    }
+
+    @Override
+    public Long insert(String row) {
+        return delegate.insert(row);
+    }
+
+    @Override
+    public boolean update(Long id, String newRow) {
+        return delegate.update(id, newRow);
+    }
+
+    @Override
+    public boolean delete(Long id) {
+        return delegate.delete(id);
+    }
+
+    @Override
+    public List<Long> insertAll(List<String> rows) {
+        return delegate.insertAll(rows);
+    }
+
+    @Override
+    public void scan(Consumer<String> visitor) {
+        delegate.scan(visitor);
+    }
+
+    /**
+     * Looks the candidates up through the indexes of the whole stack when the filter allows, handing the filter to
+     * the delegate otherwise.
+     * @param filter the filter to match.
+     * @param visitor receives every matching row.
+     */
+    @Override
+    public void scan(RecordFilter filter, Consumer<String> visitor) {
+        List<String> candidates = filter.lookup(this::lookup);
+        if (candidates == null) {
+            delegate.scan(filter, visitor);
+        } else {
+            candidates.stream().filter(filter::test).forEach(visitor);
+        }
+    }
+
+    @Override
+    public List<String> lookup(RecordFilter.Comparison comparison) {
+        return delegate.lookup(comparison);
+    }
+
+    @Override
+    public Stream<String> stream() {
+        return delegate.stream();
+    }
+
+    @Override
+    public List<String> selectByEmail(String email) {
+        return delegate.selectByEmail(email);
+    }
+
+    @Override
+    public List<String> selectByMobile(int mobile) {
+        return delegate.selectByMobile(mobile);
+    }
+
+    @Override
+    public List<NameSuggestion> suggestNames(String prefix, int limit) {
+        return delegate.suggestNames(prefix, limit);
+    }
+
+    @Override
+    public List<String> search(String text, int limit) {
+        return delegate.search(text, limit);
+    }
+
+    @Override
+    public CursorPage<String> page(String cursor, int limit) {
+        return delegate.page(cursor, limit);
+    }
+
+    @Override
+    public void exportCsv(OutputStream out) throws IOException {
+        delegate.exportCsv(out);
+    }
+
+    @Override
+    public StorageStats stats() {
+        return delegate.stats();
+    }
+
+    /**
+     * Closes the database handed to, if it holds resources.
+     * @throws IOException in the event of an error closing it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties.Storage.FsyncPolicy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single writer thread that group commits the mutations of a storage engine.
+ * <p>
+ * Mutations submitted concurrently are drained as one batch, appended to the journal with a single gathering write
+ * and made durable with a single force, according to the {@link FsyncPolicy}. Submitting threads block until their
+ * batch is durable under that policy.
+ * <p>
+ * A mutation reaches the in-memory state of the engine only once its bytes are appended. After a failed append or
+ * force, the writer rejects every further mutation until the engine is reopened from disk. Unchecked exceptions of
+ * the engine callbacks fail the mutations they hit, never the writer thread, so no submitter is left waiting.
+ */
+class GroupCommitWriter implements Closeable {
+
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final long IDLE_POLL_MS = 100;
+
+    /**
+     * The file, or files, a storage engine appends to.
+     */
+    interface Journal {
+        /**
+         * Called with the engine lock held.
+         * @return the location the next appended byte will be written at.
+         * @throws IOException in the event of an error reading the position.
+         */
+        long position() throws IOException;
+
+        /**
+         * Appends the buffers, in order, with as few writes as possible, bytes getting consecutive locations from
+         * {@link #position()}. Called with the engine lock held.
+         * @param buffers the bytes to append.
+         * @throws IOException in the event of an error writing.
+         */
+        void append(ByteBuffer[] buffers) throws IOException;
+
+        /**
+         * Forces everything appended so far to the storage device. Called without the engine lock.
+         * @throws IOException in the event of an error forcing.
+         */
+        void force() throws IOException;
+
+        /**
+         * Called with the engine lock held once the mutations of an append are published, for instance to roll over
+         * to a new file once the current one is full.
+         * @throws IOException in the event of an error, failing the mutations of the append.
+         */
+        default void published() throws IOException {}
+    }
+
+    /**
+     * A single insert, update or delete, in two steps so the in-memory state never runs ahead of the journal.
+     */
+    interface Mutation {
+        /**
+         * @return the identifier of the row the mutation writes. Mutations of the same row are never appended
+         * together, so each one is prepared against the state published by the ones before it.
+         */
+        long id();
+
+        /**
+         * Validates the mutation against the current in-memory state, without changing it. Called with the engine lock
+         * held.
+         * @param location the location the returned bytes will be appended at.
+         * @return the bytes to append, or null if the mutation does not apply.
+         * @throws IOException in the event of an error, failing only this mutation.
+         */
+        byte[] prepare(long location) throws IOException;
+
+        /**
+         * Applies the mutation to the in-memory state, once its bytes are appended. Called with the engine lock held,
+         * in the order of the journal.
+         * @param location the location the bytes were appended at.
+         * @param bytes the bytes returned by {@link #prepare(long)}.
+         * @throws IOException in the event of an error, failing the mutations of the append, whose bytes the journal
+         * holds, so the engine must be reopened to publish them. An unchecked exception fails only this mutation.
+         */
+        void publish(long location, byte[] bytes) throws IOException;
+    }
+
+    /**
+     * The engine lock guarding the journal and the in-memory state, held around each batch. Only the two operations
+     * the writer needs, so engines guarding their state with more than one lock can acquire them together.
+     */
+    interface EngineLock {
+        void lock();
+
+        void unlock();
+
+        /**
+         * @param lock the lock guarding the journal and the in-memory state.
+         * @return the engine lock held through the received lock.
+         */
+        static EngineLock of(Lock lock) {
+            return new EngineLock() {
+                @Override
+                public void lock() {
+                    lock.lock();
+                }
+
+                @Override
+                public void unlock() {
+                    lock.unlock();
+                }
+            };
+        }
+    }
+
+    /**
+     * Encodes a mutation, see {@link Mutation#prepare(long)}.
+     */
+    @FunctionalInterface
+    interface Encoder {
+        byte[] encode(long location) throws IOException;
+    }
+
+    /**
+     * Publishes a mutation, see {@link Mutation#publish(long, byte[])}.
+     */
+    @FunctionalInterface
+    interface Publisher {
+        void publish(long location, byte[] bytes) throws IOException;
+    }
+
+    private final Logger log = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+    private final Journal journal;
+    private final EngineLock lock;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final List<Pending> unsynced = new ArrayList<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Exception failure;
+    private long lastForceNanos = System.nanoTime();
+
+    /**
+     * Starts the writer thread.
+     * @param name the writer thread name.
+     * @param journal the journal to append to.
+     * @param lock the engine lock guarding the journal and the in-memory state.
+     * @param fsyncPolicy when to force appended bytes to the storage device.
+     * @param fsyncIntervalMs the interval between forces for {@link FsyncPolicy#INTERVAL_MS}.
+     */
+    GroupCommitWriter(String name, Journal journal, EngineLock lock, FsyncPolicy fsyncPolicy, long fsyncIntervalMs) {
+        this.journal = journal;
+        this.lock = lock;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs);
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @param id the identifier of the row the mutation writes.
+     * @param encoder validates and encodes the mutation.
+     * @param publisher applies the mutation to the in-memory state once appended.
+     * @return the mutation.
+     */
+    static Mutation mutation(long id, Encoder encoder, Publisher publisher) {
+        return new Mutation() {
+            @Override
+            public long id() {
+                return id;
+            }
+
+            @Override
+            public byte[] prepare(long location) throws IOException {
+                return encoder.encode(location);
+            }
+
+            @Override
+            public void publish(long location, byte[] bytes) throws IOException {
+                publisher.publish(location, bytes);
+            }
+        };
+    }
+
+    /**
+     * Submits a mutation and waits until its batch is durable.
+     * @param mutation the mutation.
+     * @return true if the mutation applied, false if it was rejected by {@link Mutation#prepare(long)}.
+     * @throws IOException in the event of an error preparing, appending or forcing the mutation, which is then only
+     * published if its bytes were appended.
+     */
+    boolean commit(Mutation mutation) throws IOException {
+        Pending pending = new Pending(mutation);
+        enqueue(Collections.singletonList(pending));
+        return await(pending);
+    }
+
+    /**
+     * Submits several mutations at once, so they are appended in as few batches as possible, and waits until all of
+     * them are durable.
+     * @param mutations the mutations, applied in order.
+     * @return for each mutation, true if it applied, false if it was rejected by {@link Mutation#prepare(long)}.
+     * @throws IOException in the event of an error preparing, appending or forcing any of the mutations.
+     */
+    List<Boolean> commitAll(List<Mutation> mutations) throws IOException {
+        List<Pending> pendings = new ArrayList<>(mutations.size());
+        for (Mutation mutation : mutations) {
+            pendings.add(new Pending(mutation));
+        }
+        enqueue(pendings);
+        List<Boolean> results = new ArrayList<>(pendings.size());
+        IOException error = null;
+        for (Pending pending : pendings) {
+            try {
+                results.add(await(pending));
+            } catch (IOException ex) {
+                error = error == null ? ex : error;
+                results.add(false);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return results;
+    }
+
+    /**
+     * Queues mutations unless closed, exclusively with {@link #close()}, so nothing is queued once the writer thread
+     * may have exited.
+     */
+    private synchronized void enqueue(List<Pending> pendings) throws IOException {
+        checkOpen();
+        queue.addAll(pendings);
+    }
+
+    private void checkOpen() throws IOException {
+        if (!running) {
+            throw new IOException("Writer " + thread.getName() + " is closed");
+        }
+        if (failure != null) {
+            throw new IOException("Writer " + thread.getName() + " failed, the database must be reopened", failure);
+        }
+    }
+
+    private boolean await(Pending pending) throws IOException {
+        try {
+            return pending.result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for commit");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Writes all the buffers to the channel, looping over partial writes.
+     * @param channel the channel to write to.
+     * @param buffers the bytes to write.
+     * @throws IOException in the event of an error writing.
+     */
+    static void writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffers);
+            }
+        }
+    }
+
+    /**
+     * Stops the writer thread once every submitted mutation is committed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            running = false;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing writer");
+        }
+        rejectQueued();
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(pollTimeoutMs(), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    write(batch);
+                    unsynced.addAll(batch);
+                    batch.clear();
+                }
+                if (!unsynced.isEmpty() && isForceDue()) {
+                    sync();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (!unsynced.isEmpty()) {
+            sync();
+        }
+        rejectQueued();
+    }
+
+    private void rejectQueued() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(new IOException("Writer " + thread.getName() + " is closed"));
+        }
+    }
+
+    private long pollTimeoutMs() {
+        if (fsyncPolicy == FsyncPolicy.INTERVAL_MS && !unsynced.isEmpty()) {
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(lastForceNanos + fsyncIntervalNanos - System.nanoTime()));
+        }
+        return IDLE_POLL_MS;
+    }
+
+    private boolean isForceDue() {
+        switch (fsyncPolicy) {
+            case INTERVAL_MS:
+                return System.nanoTime() - lastForceNanos >= fsyncIntervalNanos;
+            case NONE:
+            case EVERY_BATCH:
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Prepares, appends and publishes a batch under the engine lock, in as many appends as it holds mutations of the
+     * same row. A failed append leaves its mutations unpublished, and the writer then rejects every further mutation
+     * until the engine is reopened from disk, as the journal may hold part of the bytes.
+     */
+    private void write(List<Pending> batch) {
+        List<Pending> prepared = new ArrayList<>(batch.size());
+        Set<Long> ids = new HashSet<>();
+        int next = 0;
+        lock.lock();
+        try {
+            long location = journal.position();
+            for (; next < batch.size(); next++) {
+                Pending pending = batch.get(next);
+                if (failure != null) {
+                    pending.error = failure;
+                    continue;
+                }
+                if (ids.contains(pending.mutation.id())) {
+                    append(prepared);
+                    ids.clear();
+                    location = journal.position();
+                }
+                try {
+                    pending.bytes = pending.mutation.prepare(location);
+                } catch (IOException | RuntimeException ex) {
+                    pending.error = ex;
+                    continue;
+                }
+                if (pending.bytes != null) {
+                    ids.add(pending.mutation.id());
+                    pending.location = location;
+                    location += pending.bytes.length;
+                    prepared.add(pending);
+                }
+            }
+            append(prepared);
+        } catch (IOException | RuntimeException ex) {
+            fail(ex, prepared);
+            fail(ex, batch.subList(next, batch.size()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the prepared mutations with a single gathering write, then publishes them and clears the list.
+     */
+    private void append(List<Pending> prepared) {
+        if (prepared.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[prepared.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(prepared.get(i).bytes);
+        }
+        try {
+            journal.append(buffers);
+            for (Pending pending : prepared) {
+                publish(pending);
+            }
+            journal.published();
+        } catch (IOException | RuntimeException ex) {
+            fail(ex, prepared);
+        }
+        prepared.clear();
+    }
+
+    /**
+     * Publishes an appended mutation. An unchecked exception fails only that mutation, leaving the journal and the
+     * rest of the batch intact, so the writer carries on.
+     */
+    private void publish(Pending pending) throws IOException {
+        try {
+            pending.mutation.publish(pending.location, pending.bytes);
+        } catch (RuntimeException ex) {
+            log.error("Failed to publish mutation of row {}: {}", pending.mutation.id(), ex.getMessage(), ex);
+            pending.error = ex;
+        }
+    }
+
+    private void fail(Exception ex, List<Pending> pendings) {
+        log.error("Failed to append batch of {} mutations: {}", pendings.size(), ex.getMessage(), ex);
+        failure = ex;
+        for (Pending pending : pendings) {
+            if (pending.error == null) {
+                pending.error = ex;
+            }
+        }
+    }
+
+    /**
+     * Forces the journal unless the policy says otherwise, then releases every waiting submitter.
+     */
+    private void sync() {
+        Exception forceError = null;
+        if (fsyncPolicy != FsyncPolicy.NONE) {
+            try {
+                journal.force();
+            } catch (IOException | RuntimeException ex) {
+                log.error("Failed to force journal: {}", ex.getMessage(), ex);
+                failure = ex;
+                forceError = ex;
+            }
+            lastForceNanos = System.nanoTime();
+        }
+        for (Pending pending : unsynced) {
+            Exception error = pending.error != null ? pending.error : forceError;
+            if (error != null) {
+                pending.result.completeExceptionally(error);
+            } else {
+                pending.result.complete(pending.bytes != null);
+            }
+        }
+        log.trace("Committed batch of {} mutations", unsynced.size());
+        unsynced.clear();
+    }
+
+    private static class Pending {
+
+        private final Mutation mutation;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private byte[] bytes;
+        private long location;
+        private Exception error;
+
+        Pending(Mutation mutation) {
+            this.mutation = mutation;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.util.function.LongConsumer;
+
+/**
+ * {@link RowIndex} held in heap: a {@link LongLongMap} from id to offset for lookups, along with a
+ * {@link SortedLongSet} of the same ids for pages in id order, which seek to the cursor instead of walking the map.
+ * <p>
+ * Only the map serves {@link #getOptimistic(long) optimistic lookups}; the sorted ids are read under the lock only.
+ */
+final class HeapIndex implements RowIndex {
+
+    private final LongLongMap offsets;
+    private final SortedLongSet ids = new SortedLongSet();
+
+    /**
+     * @param expectedSize the amount of entries the index can hold before growing its map.
+     */
+    HeapIndex(int expectedSize) {
+        this.offsets = new LongLongMap(expectedSize);
+    }
+
+    @Override
+    public long get(long id) {
+        return offsets.get(id);
+    }
+
+    @Override
+    public boolean containsKey(long id) {
+        return offsets.containsKey(id);
+    }
+
+    @Override
+    public long getOptimistic(long id) {
+        return offsets.getOptimistic(id);
+    }
+
+    @Override
+    public long put(long id, long offset) {
+        long previous = offsets.put(id, offset);
+        if (previous == LongLongMap.NO_VALUE) {
+            ids.add(id);
+        }
+        return previous;
+    }
+
+    /**
+     * @param id the row identifier.
+     * @return the removed offset of the row, or {@link LongLongMap#NO_VALUE}.
+     */
+    long remove(long id) {
+        long previous = offsets.remove(id);
+        if (previous != LongLongMap.NO_VALUE) {
+            ids.remove(id);
+        }
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return offsets.size();
+    }
+
+    /**
+     * @param visitor receives the identifier of every entry, in ascending order.
+     */
+    @Override
+    public void forEachId(LongConsumer visitor) {
+        ids.forEach(visitor);
+    }
+
+    @Override
+    public long[] idsAfter(long after, int limit) {
+        return ids.after(after, limit);
+    }
+
+    /**
+     * @return the bytes taken by the map and the sorted ids for each entry, or zero while empty.
+     */
+    @Override
+    public double bytesPerEntry() {
+        int entries = offsets.size();
+        return entries == 0 ? 0 : (double) (offsets.memoryBytes() + ids.memoryBytes()) / entries;
+    }
+}
@@ -0,0 +1,168 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.domain.CursorPage;
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.domain.StorageStats;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IDatabase} holding the rows in memory only, in insertion order, so they are lost on shutdown. Serves as the
+ * baseline the persistent engines are benchmarked against, as it does no I/O at all.
+ * <p>
+ * The ids are also kept sorted, so pages in id order seek to their cursor.
+ */
+public class InMemoryDatabase implements IDatabase {
+
+    private static final Long SELECT_ALL = -1L;
+
+    private final Logger log = LoggerFactory.getLogger(InMemoryDatabase.class);
+
+    private final Map<Long, String> rows = new LinkedHashMap<>();
+    private final SortedLongSet ids = new SortedLongSet();
+    private final Lock readLock;
+    private final Lock writeLock;
+
+    public InMemoryDatabase() {
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        readLock = lock.readLock();
+        writeLock = lock.writeLock();
+    }
+
+    /**
+     * Fetches rows based on the received identifier.
+     * @param id can be either the row identifier or -1L representing a request to fetch all rows.
+     * @return a List of comma separated values, in insertion order when fetching all rows.
+     */
+    @Override
+    public List<String> select(Long id) {
+        readLock.lock();
+        try {
+            if (id.equals(SELECT_ALL)) {
+                return new ArrayList<>(rows.values());
+            }
+            List<String> result = new ArrayList<>(1);
+            String row = rows.get(id);
+            if (row != null) {
+                log.debug("Found existing record for id: {}", id);
+                result.add(row);
+            }
+            return result;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Generates a unique identifier and stores a new row with it.
+     * @param row the comma separated values representing a new row.
+     * @return the generated row identifier.
+     */
+    @Override
+    public Long insert(String row) {
+        long uniqueID = UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE;
+        String newRow = CsvRowFiles.withId(uniqueID, row);
+        writeLock.lock();
+        try {
+            rows.put(uniqueID, newRow);
+            ids.add(uniqueID);
+        } finally {
+            writeLock.unlock();
+        }
+        log.debug("Inserted new record: {}", newRow);
+        return uniqueID;
+    }
+
+    /**
+     * Replaces the row that matches the received identifier, keeping its position.
+     * @param id the row identifier.
+     * @param newRow the comma separated values to be stored.
+     * @return true if the record was updated, false otherwise.
+     */
+    @Override
+    public boolean update(Long id, String newRow) {
+        String row = CsvRowFiles.withId(id, newRow);
+        writeLock.lock();
+        try {
+            return rows.replace(id, row) != null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the row that matches the received identifier.
+     * @param id the row identifier.
+     * @return true if the record was deleted, false otherwise.
+     */
+    @Override
+    public boolean delete(Long id) {
+        writeLock.lock();
+        try {
+            if (rows.remove(id) == null) {
+                return false;
+            }
+            ids.remove(id);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Walks the rows under the read lock, without copying them.
+     * @param visitor receives every row, in insertion order.
+     */
+    @Override
+    public void scan(Consumer<String> visitor) {
+        readLock.lock();
+        try {
+            rows.values().forEach(visitor);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Seeks to the cursor through the sorted ids, under the read lock.
+     * @param cursor the cursor of the page, or null for the first page.
+     * @param limit the maximum amount of rows of the page, at least 1.
+     * @return the rows of the page, with the cursor of the next page if more rows follow.
+     */
+    @Override
+    public CursorPage<String> page(String cursor, int limit) {
+        long after = CursorPage.lastId(cursor);
+        readLock.lock();
+        try {
+            List<Map.Entry<Long, String>> page = new ArrayList<>();
+            for (long id : ids.after(after, limit + 1)) {
+                page.add(new AbstractMap.SimpleImmutableEntry<>(id, rows.get(id)));
+            }
+            return CursorPage.ofIds(page, limit);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return the amount of rows, none of them on disk.
+     */
+    @Override
+    public StorageStats stats() {
+        readLock.lock();
+        try {
+            return new StorageStats(rows.size(), 0);
+        } finally {
+            readLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash multimap from primitive {@code int} keys to sets of non negative {@code long} values, used as
+ * the mobile number to identifiers index.
+ * <p>
+ * Keys and values sit in two parallel arrays, probed linearly from a Fibonacci hash of the key. A key holding a single
+ * value, by far the most common case, keeps it inline; a key holding several refers, through a negative value, to a
+ * list of them in an array of lists, whose slots are reused once freed. A record so costs about 12 bytes per slot
+ * instead of the boxed keys, boxed values, nodes and sets of a {@code HashMap<Integer, Set<Long>>}. Removals shift the
+ * following entries back instead of leaving tombstones behind.
+ * <p>
+ * Not thread safe: lookups may run concurrently with each other, but not with a mutation.
+ */
+final class IntLongMultimap {
+
+    private static final int EMPTY = Integer.MIN_VALUE;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+    private static final int MIN_CAPACITY = 16;
+    private static final double MAX_LOAD = 0.75;
+    private static final int MIN_LIST_CAPACITY = 4;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final long[] NO_VALUES = new long[0];
+
+    private int[] keys;
+    private long[] values;
+    private int shift;
+    private int threshold;
+    private int size;
+    private long valueCount;
+    // Lists of the keys holding several values: the amount of values first, then the values
+    private long[][] lists = new long[MIN_CAPACITY][];
+    private int[] freeLists = new int[MIN_CAPACITY];
+    private int freeListCount;
+    private int listCount;
+
+    /**
+     * @param expectedKeys the amount of keys the map can hold before growing.
+     */
+    IntLongMultimap(int expectedKeys) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedKeys) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @return the amount of keys.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the amount of values, over all keys.
+     */
+    long valueCount() {
+        return valueCount;
+    }
+
+    /**
+     * @param key the key, which must not be {@link Integer#MIN_VALUE}.
+     * @return the values of the key, in no particular order, empty if none.
+     */
+    long[] get(int key) {
+        checkKey(key);
+        int slot = find(key);
+        if (slot < 0) {
+            return NO_VALUES;
+        }
+        long value = values[slot];
+        if (value >= 0) {
+            return new long[] { value };
+        }
+        long[] list = lists[listOf(value)];
+        return Arrays.copyOfRange(list, 1, 1 + (int) list[0]);
+    }
+
+    /**
+     * @param key the key, which must not be {@link Integer#MIN_VALUE}.
+     * @param value the value, which must not be negative.
+     * @return true if added, false if the key already held the value.
+     */
+    boolean put(int key, long value) {
+        checkKey(key);
+        if (value < 0) {
+            throw new IllegalArgumentException("Unsupported value: " + value);
+        }
+        int slot = find(key);
+        if (slot < 0) {
+            if (size + 1 > threshold) {
+                rehash(keys.length * 2);
+            }
+            insert(key, value);
+            size++;
+            valueCount++;
+            return true;
+        }
+        long current = values[slot];
+        if (current == value) {
+            return false;
+        }
+        if (current >= 0) {
+            long[] list = new long[1 + MIN_LIST_CAPACITY];
+            list[0] = 2;
+            list[1] = current;
+            list[2] = value;
+            values[slot] = -1L - newList(list);
+            valueCount++;
+            return true;
+        }
+        int listIndex = listOf(current);
+        long[] list = lists[listIndex];
+        int count = (int) list[0];
+        for (int i = 1; i <= count; i++) {
+            if (list[i] == value) {
+                return false;
+            }
+        }
+        if (count + 1 == list.length) {
+            list = Arrays.copyOf(list, 1 + count * 2);
+            lists[listIndex] = list;
+        }
+        list[count + 1] = value;
+        list[0] = count + 1;
+        valueCount++;
+        return true;
+    }
+
+    /**
+     * @param key the key.
+     * @param value the value.
+     * @return true if removed, false if the key did not hold the value.
+     */
+    boolean remove(int key, long value) {
+        checkKey(key);
+        int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+        long current = values[slot];
+        if (current >= 0) {
+            if (current != value) {
+                return false;
+            }
+            shiftBack(slot);
+            size--;
+            valueCount--;
+            return true;
+        }
+        int listIndex = listOf(current);
+        long[] list = lists[listIndex];
+        int count = (int) list[0];
+        for (int i = 1; i <= count; i++) {
+            if (list[i] == value) {
+                list[i] = list[count];
+                list[0] = --count;
+                valueCount--;
+                if (count == 1) {
+                    // Back inline, the list slot being free for the next key holding several values
+                    values[slot] = list[1];
+                    freeList(listIndex);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the bytes taken by the tables and the lists.
+     */
+    long memoryBytes() {
+        long bytes = 2L * ARRAY_HEADER_BYTES + (long) keys.length * (Integer.BYTES + Long.BYTES);
+        bytes += 2L * ARRAY_HEADER_BYTES + (long) lists.length * Long.BYTES + (long) freeLists.length * Integer.BYTES;
+        for (int i = 0; i < listCount; i++) {
+            if (lists[i] != null) {
+                bytes += ARRAY_HEADER_BYTES + (long) lists[i].length * Long.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the bytes taken by the tables and the lists for each value, or zero while empty.
+     */
+    double bytesPerValue() {
+        return valueCount == 0 ? 0 : (double) memoryBytes() / valueCount;
+    }
+
+    private int newList(long[] list) {
+        int listIndex;
+        if (freeListCount > 0) {
+            listIndex = freeLists[--freeListCount];
+        } else {
+            if (listCount == lists.length) {
+                lists = Arrays.copyOf(lists, listCount * 2);
+            }
+            listIndex = listCount++;
+        }
+        lists[listIndex] = list;
+        return listIndex;
+    }
+
+    private void freeList(int listIndex) {
+        lists[listIndex] = null;
+        if (freeListCount == freeLists.length) {
+            freeLists = Arrays.copyOf(freeLists, freeListCount * 2);
+        }
+        freeLists[freeListCount++] = listIndex;
+    }
+
+    private static int listOf(long value) {
+        return (int) (-1L - value);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new long[capacity];
+        shift = Integer.SIZE - Integer.numberOfTrailingZeros(capacity);
+        threshold = (int) (capacity * MAX_LOAD);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != EMPTY) {
+                insert(oldKeys[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    /**
+     * Stores a key known to be absent.
+     */
+    private void insert(int key, long value) {
+        int mask = keys.length - 1;
+        int slot = home(key);
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    /**
+     * Empties a slot, moving back the following entries of the probe run that would otherwise become unreachable.
+     */
+    private void shiftBack(int hole) {
+        int mask = keys.length - 1;
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            int key = keys[slot];
+            if (key == EMPTY) {
+                break;
+            }
+            if (((slot - home(key)) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = key;
+                values[hole] = values[slot];
+                hole = slot;
+            }
+        }
+        keys[hole] = EMPTY;
+    }
+
+    /**
+     * @return the slot of the key, or -1 if absent.
+     */
+    private int find(int key) {
+        int mask = keys.length - 1;
+        for (int slot = home(key);; slot = (slot + 1) & mask) {
+            int candidate = keys[slot];
+            if (candidate == key) {
+                return slot;
+            }
+            if (candidate == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private int home(int key) {
+        return (key * GOLDEN_RATIO) >>> shift;
+    }
+
+    private static void checkKey(int key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Unsupported key: " + key);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a background I/O task within a bytes per second budget by sleeping whenever it gets ahead of it.
+ * Not thread safe, each task run should use its own instance.
+ */
+class IoThrottle {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long bytesPerSecond;
+    private final long startNanos = System.nanoTime();
+    private long consumedBytes;
+
+    /**
+     * @param bytesPerSecond the I/O budget, zero or less meaning unthrottled.
+     */
+    IoThrottle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Accounts for the received amount of bytes, blocking until they fit the budget.
+     * @param bytes the amount of bytes about to be read or written.
+     * @throws InterruptedIOException if the thread is interrupted while waiting.
+     */
+    void acquire(long bytes) throws InterruptedIOException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        consumedBytes += bytes;
+        long aheadNanos = (long) ((double) consumedBytes / bytesPerSecond * NANOS_PER_SECOND) - (System.nanoTime() - startNanos);
+        if (aheadNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling I/O");
+            }
+        }
+    }
+}
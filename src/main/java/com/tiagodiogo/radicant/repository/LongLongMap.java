@@ -0,0 +1,338 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open addressing hash map from primitive {@code long} keys to primitive {@code long} values, used as the id index of
+ * the storage engines, see {@link HeapIndex}.
+ * <p>
+ * Entries are stored inline, key and value side by side in a single array, and probed linearly from a Fibonacci hash
+ * of the key, so an entry costs 16 bytes per slot instead of the boxed keys, values and nodes of a {@code HashMap}.
+ * Removals shift the following entries back instead of leaving tombstones behind.
+ * <p>
+ * Growing does not rehash everything at once: the table is replaced by one twice as large and every later mutation
+ * moves a few slots of the previous table into it, lookups checking both tables meanwhile. The previous table only
+ * ever loses entries, which are marked as moved so its probe chains stay intact.
+ * <p>
+ * Not thread safe: lookups may run concurrently with each other, but not with a mutation, except for
+ * {@link #getOptimistic(long)}, whose probes are bounded. Tables are filled before being published, so they never
+ * hold zeroes in place of empty slots.
+ */
+final class LongLongMap {
+
+    static final String BYTES_PER_ENTRY_METER_NAME = "phonebook.storage.index.bytes-per-entry";
+
+    /**
+     * Returned by lookups and mutations when the key has no value.
+     */
+    static final long NO_VALUE = -1;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final long MOVED = Long.MIN_VALUE + 1;
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+    private static final int MIN_CAPACITY = 16;
+    private static final double MAX_LOAD = 0.75;
+    private static final int MIGRATION_STEP = 16;
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private long[] table;
+    private int shift;
+    private int threshold;
+    private long[] previous;
+    private int previousShift;
+    private int migrated;
+    private int previousSize;
+    private int size;
+
+    /**
+     * @param expectedSize the amount of entries the map can hold before growing.
+     */
+    LongLongMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @return the amount of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param key the key, which must not be {@link Long#MIN_VALUE} nor {@code Long.MIN_VALUE + 1}.
+     * @return the value of the key, or {@link #NO_VALUE} if absent.
+     */
+    public long get(long key) {
+        checkKey(key);
+        int slot = find(table, shift, key);
+        if (slot >= 0) {
+            return table[slot + 1];
+        }
+        if (previous != null) {
+            slot = find(previous, previousShift, key);
+            if (slot >= 0) {
+                return previous[slot + 1];
+            }
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Probes each table at most once around, reading the tables and their shifts as found, so a lookup racing with a
+     * mutation may return a wrong value but always ends.
+     * @param key the key.
+     * @return the value of the key, {@link #NO_VALUE} if absent, or {@link RowIndex#RETRY} if no probe ended.
+     */
+    public long getOptimistic(long key) {
+        if (key == EMPTY || key == MOVED) {
+            return NO_VALUE;
+        }
+        long value = probe(table, shift, key);
+        if (value != NO_VALUE && value != RowIndex.RETRY) {
+            return value;
+        }
+        long[] migrating = previous;
+        if (migrating != null) {
+            long previousValue = probe(migrating, previousShift, key);
+            if (previousValue != NO_VALUE) {
+                return previousValue;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @param key the key.
+     * @return true if the key has a value.
+     */
+    public boolean containsKey(long key) {
+        checkKey(key);
+        return find(table, shift, key) >= 0 || (previous != null && find(previous, previousShift, key) >= 0);
+    }
+
+    /**
+     * @param key the key, which must not be {@link Long#MIN_VALUE} nor {@code Long.MIN_VALUE + 1}.
+     * @param value the value.
+     * @return the previous value of the key, or {@link #NO_VALUE} if absent.
+     */
+    public long put(long key, long value) {
+        checkKey(key);
+        migrateStep();
+        int slot = find(table, shift, key);
+        if (slot >= 0) {
+            long replaced = table[slot + 1];
+            table[slot + 1] = value;
+            return replaced;
+        }
+        long replaced = removePrevious(key);
+        if (size - previousSize + 1 > threshold) {
+            grow();
+        }
+        insert(key, value);
+        size++;
+        return replaced;
+    }
+
+    public void forEachId(LongConsumer visitor) {
+        forEachKey(table, visitor);
+        if (previous != null) {
+            forEachKey(previous, visitor);
+        }
+    }
+
+    private static void forEachKey(long[] table, LongConsumer visitor) {
+        for (int slot = 0; slot < table.length; slot += 2) {
+            long key = table[slot];
+            if (key != EMPTY && key != MOVED) {
+                visitor.accept(key);
+            }
+        }
+    }
+
+    /**
+     * @param key the key.
+     * @return the removed value of the key, or {@link #NO_VALUE} if absent.
+     */
+    long remove(long key) {
+        checkKey(key);
+        migrateStep();
+        int slot = find(table, shift, key);
+        if (slot < 0) {
+            return removePrevious(key);
+        }
+        long removed = table[slot + 1];
+        shiftBack(slot);
+        size--;
+        return removed;
+    }
+
+    /**
+     * Removes every entry, keeping the current capacity.
+     */
+    void clear() {
+        Arrays.fill(table, EMPTY);
+        previous = null;
+        previousSize = 0;
+        size = 0;
+    }
+
+    /**
+     * @return the bytes taken by the tables, including the one being migrated from, if any.
+     */
+    long memoryBytes() {
+        long bytes = ARRAY_HEADER_BYTES + (long) table.length * Long.BYTES;
+        if (previous != null) {
+            bytes += ARRAY_HEADER_BYTES + (long) previous.length * Long.BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the bytes taken by the tables for each entry, or zero while empty.
+     */
+    public double bytesPerEntry() {
+        return size == 0 ? 0 : (double) memoryBytes() / size;
+    }
+
+    private void allocate(int capacity) {
+        long[] allocated = new long[capacity * 2];
+        Arrays.fill(allocated, EMPTY);
+        table = allocated;
+        shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+        threshold = (int) (capacity * MAX_LOAD);
+    }
+
+    /**
+     * Starts migrating into a table twice as large, first finishing any migration still running.
+     */
+    private void grow() {
+        while (previous != null) {
+            migrateStep();
+        }
+        previous = table;
+        previousShift = shift;
+        previousSize = size;
+        migrated = 0;
+        allocate(table.length);
+    }
+
+    private void migrateStep() {
+        if (previous == null) {
+            return;
+        }
+        int end = Math.min(previous.length, migrated + MIGRATION_STEP * 2);
+        for (; migrated < end; migrated += 2) {
+            long key = previous[migrated];
+            if (key != EMPTY && key != MOVED) {
+                insert(key, previous[migrated + 1]);
+                previous[migrated] = MOVED;
+                previousSize--;
+            }
+        }
+        if (migrated == previous.length) {
+            previous = null;
+        }
+    }
+
+    private long removePrevious(long key) {
+        if (previous == null) {
+            return NO_VALUE;
+        }
+        int slot = find(previous, previousShift, key);
+        if (slot < 0) {
+            return NO_VALUE;
+        }
+        previous[slot] = MOVED;
+        previousSize--;
+        size--;
+        return previous[slot + 1];
+    }
+
+    /**
+     * Stores a key known to be absent from the current table.
+     */
+    private void insert(long key, long value) {
+        int mask = table.length - 1;
+        int slot = home(key, shift);
+        while (table[slot] != EMPTY) {
+            slot = (slot + 2) & mask;
+        }
+        table[slot] = key;
+        table[slot + 1] = value;
+    }
+
+    /**
+     * Empties a slot of the current table, moving back the following entries of the probe run that would otherwise
+     * become unreachable.
+     */
+    private void shiftBack(int hole) {
+        int mask = table.length - 1;
+        int slot = hole;
+        while (true) {
+            slot = (slot + 2) & mask;
+            long key = table[slot];
+            if (key == EMPTY) {
+                break;
+            }
+            if (((slot - home(key, shift)) & mask) >= ((slot - hole) & mask)) {
+                table[hole] = key;
+                table[hole + 1] = table[slot + 1];
+                hole = slot;
+            }
+        }
+        table[hole] = EMPTY;
+    }
+
+    /**
+     * @return the array index of the key slot, or -1 if absent.
+     */
+    private static int find(long[] table, int shift, long key) {
+        int mask = table.length - 1;
+        for (int slot = home(key, shift);; slot = (slot + 2) & mask) {
+            long candidate = table[slot];
+            if (candidate == key) {
+                return slot;
+            }
+            if (candidate == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return the value of the key, {@link #NO_VALUE} if absent, or {@link RowIndex#RETRY} once every slot was probed.
+     */
+    private static long probe(long[] table, int shift, long key) {
+        int mask = table.length - 1;
+        int slot = home(key, shift) & mask;
+        for (int probes = table.length >> 1; probes > 0; probes--) {
+            long candidate = table[slot];
+            if (candidate == key) {
+                return table[slot + 1];
+            }
+            if (candidate == EMPTY) {
+                return NO_VALUE;
+            }
+            slot = (slot + 2) & mask;
+        }
+        return RowIndex.RETRY;
+    }
+
+    /**
+     * @return the array index of the first slot probed for the key.
+     */
+    private static int home(long key, int shift) {
+        return (int) ((key * GOLDEN_RATIO) >>> shift) << 1;
+    }
+
+    private static void checkKey(long key) {
+        if (key == EMPTY || key == MOVED) {
+            throw new IllegalArgumentException("Unsupported key: " + key);
+        }
+    }
+}
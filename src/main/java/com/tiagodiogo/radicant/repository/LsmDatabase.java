@@ -0,0 +1,1021 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import com.tiagodiogo.radicant.domain.CursorPage;
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.domain.StorageException;
+import com.tiagodiogo.radicant.domain.StorageStats;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IDatabase} organized as a log-structured merge tree, so writes only ever append and random write throughput
+ * is bound by sequential disk bandwidth.
+ * <p>
+ * Writes are group committed to a write-ahead log and applied to a sorted in-memory memtable. Once the log reaches
+ * {@code memtable-bytes}, the memtable is frozen and a background thread flushes it into an immutable
+ * {@link SortedTable} on level 0. When level 0 holds {@code level0-tables} tables they are merged into level 1, and
+ * whenever a deeper level outgrows its budget one of its tables is merged into the next level, so every level but
+ * level 0 holds tables of disjoint identifier ranges. Tombstones are dropped once merged into the deepest level.
+ * <p>
+ * Reads look an identifier up from the newest data to the oldest: the memtables, then the tables of each level,
+ * skipping tables whose bloom filter rules the identifier out. The live tables are listed in a manifest file,
+ * replaced atomically after every flush and merge.
+ * <p>
+ * At most {@code max-frozen-memtables} memtables wait to be flushed: writes then wait for the background thread, or
+ * fail while it is failing. A failed flush or merge is retried with an exponential backoff.
+ */
+public class LsmDatabase implements IDatabase, Closeable {
+
+    public static final String FLUSH_METER_NAME = "phonebook.storage.lsm.flush";
+    public static final String MERGE_METER_NAME = "phonebook.storage.lsm.merge";
+    public static final String TABLES_METER_NAME = "phonebook.storage.lsm.tables";
+    public static final String FROZEN_METER_NAME = "phonebook.storage.lsm.frozen-memtables";
+
+    private static final String DIRECTORY = "/tmp/phone-book-lsm";
+    private static final String WAL_PREFIX = "wal-";
+    private static final String WAL_SUFFIX = ".log";
+    private static final String TABLE_PREFIX = "table-";
+    private static final String MANIFEST = "MANIFEST";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final Long SELECT_ALL = -1L;
+    private static final long MIN_RETRY_DELAY_MS = 100;
+    private static final long MAX_RETRY_DELAY_MS = 30_000;
+
+    private final Logger log = LoggerFactory.getLogger(LsmDatabase.class);
+
+    private final Path directory;
+    private final ApplicationProperties.Storage.Lsm settings;
+    private final ApplicationProperties.Storage.FsyncPolicy fsyncPolicy;
+    private final Lock viewReadLock;
+    private final Lock viewWriteLock;
+    private final Lock writeLock = new ReentrantLock();
+    private final Lock channelLock = new ReentrantLock();
+    private final AtomicLong nextSequence = new AtomicLong(1);
+    private final Map<Integer, Long> mergePointers = new HashMap<>();
+    private final ScheduledThreadPoolExecutor background;
+    // Notified whenever a frozen memtable is flushed or the background thread fails
+    private final Object flushed = new Object();
+    private final Timer flushTimer;
+    private final Timer mergeTimer;
+    private final GroupCommitWriter groupCommitWriter;
+    private volatile View view;
+    private volatile Exception backgroundFailure;
+    // Changed by the writer thread under the write lock only
+    private volatile long liveRows;
+    // Background thread only
+    private long retryDelayMs = MIN_RETRY_DELAY_MS;
+    private boolean retryScheduled;
+    private FileChannel walChannel;
+    private long walSize;
+
+    /**
+     * Opens the tree in the default directory.
+     * @param storage the storage settings.
+     * @param meterRegistry the registry for the flush and merge metrics.
+     * @throws IOException in the event of an error opening the tables or replaying the write-ahead logs.
+     */
+    public LsmDatabase(ApplicationProperties.Storage storage, MeterRegistry meterRegistry) throws IOException {
+        this(Paths.get(DIRECTORY), storage, meterRegistry);
+    }
+
+    /**
+     * Opens the tables listed in the manifest, flushes whatever the write-ahead logs hold into a new table, counts the
+     * live rows once and starts a fresh write-ahead log.
+     * @param directory the directory holding the tables and write-ahead logs.
+     * @param storage the storage settings.
+     * @param meterRegistry the registry for the flush and merge metrics.
+     * @throws IOException in the event of an error opening the tables or replaying the write-ahead logs.
+     */
+    public LsmDatabase(Path directory, ApplicationProperties.Storage storage, MeterRegistry meterRegistry) throws IOException {
+        this.directory = directory;
+        this.settings = storage.getLsm();
+        this.fsyncPolicy = storage.getFsync();
+
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        viewReadLock = lock.readLock();
+        viewWriteLock = lock.writeLock();
+
+        flushTimer = Timer.builder(FLUSH_METER_NAME).description("Duration of memtable flushes into sorted tables").register(meterRegistry);
+        mergeTimer = Timer.builder(MERGE_METER_NAME).description("Duration of sorted table merges between levels").register(meterRegistry);
+
+        Files.createDirectories(directory);
+        view = new View(null, Collections.emptyList(), openTables());
+        recoverWals();
+        Path wal = directory.resolve(fileName(WAL_PREFIX, nextSequence.getAndIncrement(), WAL_SUFFIX));
+        walChannel = FileChannel.open(wal, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        view = new View(new Memtable(wal), Collections.emptyList(), view.levels);
+        liveRows = countRows();
+        Gauge
+            .builder(TABLES_METER_NAME, this, LsmDatabase::tableCount)
+            .description("Amount of sorted tables across all levels")
+            .register(meterRegistry);
+        Gauge
+            .builder(FROZEN_METER_NAME, this, database -> database.view.frozen.size())
+            .description("Amount of full memtables waiting to be flushed")
+            .register(meterRegistry);
+
+        background =
+            new ScheduledThreadPoolExecutor(
+                1,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "phone-book-lsm-background");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            );
+        // Retries are dropped on close, the frozen memtables being left to their write-ahead logs
+        background.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        background.execute(this::flushAndMerge);
+        groupCommitWriter =
+            new GroupCommitWriter(
+                "phone-book-lsm-writer",
+                new WalJournal(),
+                GroupCommitWriter.EngineLock.of(writeLock),
+                fsyncPolicy,
+                storage.getFsyncIntervalMs()
+            );
+    }
+
+    /**
+     * Fetches the latest version of rows based on the received identifier.
+     * @param id can be either the row identifier or -1L representing a request to fetch all rows.
+     * @return a List of comma separated values, in identifier order when fetching all rows.
+     */
+    @Override
+    public List<String> select(Long id) {
+        List<String> rows = new ArrayList<>();
+        if (id.equals(SELECT_ALL)) {
+            scan(rows::add);
+            return rows;
+        }
+        try {
+            String row = lookup(id);
+            if (row != null) {
+                log.debug("Found existing record for id: {}", id);
+                rows.add(row);
+            }
+        } catch (IOException ex) {
+            log.error(ex.getMessage(), ex);
+        }
+        return rows;
+    }
+
+    /**
+     * Merges the memtables and every table of a pinned view into a single pass in identifier order, so flushes and
+     * merges carry on meanwhile.
+     * @param visitor receives the latest version of every live row.
+     */
+    @Override
+    public void scan(Consumer<String> visitor) {
+        View pinned = pin();
+        try {
+            SortedTable.Cursor cursor = cursorAfter(pinned, Long.MIN_VALUE);
+            while (cursor.next()) {
+                String row = cursor.row();
+                if (!row.isEmpty()) {
+                    visitor.accept(row);
+                }
+            }
+        } catch (IOException ex) {
+            log.error(ex.getMessage(), ex);
+        } finally {
+            unpin(pinned);
+        }
+    }
+
+    /**
+     * Merges the memtables and tables from the cursor on, each of them seeking to it: memtables through their
+     * sorted map and tables through their sparse index, skipping the tables that end before it.
+     * @param cursor the cursor of the page, or null for the first page.
+     * @param limit the maximum amount of rows of the page, at least 1.
+     * @return the rows of the page, with the cursor of the next page if more rows follow.
+     */
+    @Override
+    public CursorPage<String> page(String cursor, int limit) {
+        long after = CursorPage.lastId(cursor);
+        List<Map.Entry<Long, String>> rows = new ArrayList<>();
+        View pinned = pin();
+        try {
+            SortedTable.Cursor merged = cursorAfter(pinned, after);
+            while (rows.size() <= limit && merged.next()) {
+                String row = merged.row();
+                if (!row.isEmpty()) {
+                    rows.add(new AbstractMap.SimpleImmutableEntry<>(merged.id(), row));
+                }
+            }
+        } catch (IOException ex) {
+            log.error(ex.getMessage(), ex);
+            return new CursorPage<>(new ArrayList<>(), null);
+        } finally {
+            unpin(pinned);
+        }
+        return CursorPage.ofIds(rows, limit);
+    }
+
+    /**
+     * Generates a unique identifier and appends a new row with it to the write-ahead log and the memtable.
+     * @param row the comma separated values representing a new row.
+     * @return the generated row identifier.
+     */
+    @Override
+    public Long insert(String row) {
+        long uniqueID = UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE;
+        String newRow = CsvRowFiles.withId(uniqueID, row);
+        try {
+            groupCommitWriter.commit(putMutation(uniqueID, newRow, false));
+            log.debug("Inserted new record with id: {}", uniqueID);
+        } catch (IOException ex) {
+            throw new StorageException("Failed to insert record with id " + uniqueID, ex);
+        }
+        return uniqueID;
+    }
+
+    /**
+     * Generates a unique identifier for each row and appends all of them as one group commit.
+     * @param rows the comma separated values representing the new rows.
+     * @return the generated row identifiers.
+     */
+    @Override
+    public List<Long> insertAll(List<String> rows) {
+        List<Long> ids = new ArrayList<>(rows.size());
+        List<GroupCommitWriter.Mutation> mutations = new ArrayList<>(rows.size());
+        for (String row : rows) {
+            long uniqueID = UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE;
+            String newRow = CsvRowFiles.withId(uniqueID, row);
+            ids.add(uniqueID);
+            mutations.add(putMutation(uniqueID, newRow, false));
+        }
+        try {
+            groupCommitWriter.commitAll(mutations);
+            log.debug("Inserted {} new records", ids.size());
+        } catch (IOException ex) {
+            throw new StorageException("Failed to insert " + ids.size() + " records", ex);
+        }
+        return ids;
+    }
+
+    /**
+     * Appends a new version of the row that matches the received identifier, if it is live.
+     * @param id the row identifier.
+     * @param newRow the comma separated values to be persisted.
+     * @return true if the record was updated, false otherwise.
+     */
+    @Override
+    public boolean update(Long id, String newRow) {
+        String row = CsvRowFiles.withId(id, newRow);
+        try {
+            boolean updated = groupCommitWriter.commit(putMutation(id, row, true));
+            if (updated) {
+                log.debug("Updated existing record with id: {}", id);
+            }
+            return updated;
+        } catch (IOException ex) {
+            throw new StorageException("Failed to update record with id " + id, ex);
+        }
+    }
+
+    /**
+     * Appends a tombstone for the row that matches the received identifier, if it is live.
+     * @param id the row identifier.
+     * @return true if the record was deleted, false otherwise.
+     */
+    @Override
+    public boolean delete(Long id) {
+        try {
+            boolean deleted = groupCommitWriter.commit(putMutation(id, SortedTable.TOMBSTONE, true));
+            if (deleted) {
+                log.debug("Deleted existing record with id: {}", id);
+            }
+            return deleted;
+        } catch (IOException ex) {
+            throw new StorageException("Failed to delete record with id " + id, ex);
+        }
+    }
+
+    /**
+     * Reads the live row count kept up by the writes, and counts the bytes through the sizes of the tables and
+     * write-ahead logs.
+     * @return the current figures of the database.
+     */
+    @Override
+    public StorageStats stats() {
+        View current = view;
+        long bytesOnDisk = current.active.bytes;
+        for (Memtable memtable : current.frozen) {
+            bytesOnDisk += memtable.bytes;
+        }
+        for (List<SortedTable> level : current.levels) {
+            for (SortedTable table : level) {
+                bytesOnDisk += table.sizeBytes();
+            }
+        }
+        return new StorageStats(liveRows, bytesOnDisk);
+    }
+
+    /**
+     * Waits for pending writes to be committed and for the background thread to flush the frozen memtables, then
+     * closes every file. The active memtable is left to its write-ahead log, replayed on the next start.
+     * @throws IOException in the event of an error closing the files.
+     */
+    @Override
+    public void close() throws IOException {
+        groupCommitWriter.close();
+        background.shutdown();
+        try {
+            background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the background thread");
+        }
+        channelLock.lock();
+        try {
+            walChannel.close();
+        } finally {
+            channelLock.unlock();
+        }
+        for (List<SortedTable> level : view.levels) {
+            for (SortedTable table : level) {
+                table.release();
+            }
+        }
+    }
+
+    /**
+     * Amount of tables per level, level 0 first.
+     * @return the table counts.
+     */
+    public int[] tablesPerLevel() {
+        View current = view;
+        return current.levels.stream().mapToInt(List::size).toArray();
+    }
+
+    private double tableCount() {
+        return view.levels.stream().mapToInt(List::size).sum();
+    }
+
+    /**
+     * Takes a reference to every table of the current view, so they stay open however long the caller reads them
+     * without holding off flushes and merges.
+     * @return the view, to be handed to {@link #unpin(View)} once read.
+     */
+    private View pin() {
+        viewReadLock.lock();
+        try {
+            View current = view;
+            for (List<SortedTable> level : current.levels) {
+                for (SortedTable table : level) {
+                    table.retain();
+                }
+            }
+            return current;
+        } finally {
+            viewReadLock.unlock();
+        }
+    }
+
+    private void unpin(View pinned) {
+        for (List<SortedTable> level : pinned.levels) {
+            for (SortedTable table : level) {
+                try {
+                    table.release();
+                } catch (IOException ex) {
+                    log.error("Failed to release table {}: {}", table.path(), ex.getMessage(), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the live rows in one pass over the tables, while nothing else runs yet.
+     */
+    private long countRows() throws IOException {
+        long rows = 0;
+        SortedTable.Cursor cursor = cursorAfter(view, Long.MIN_VALUE);
+        while (cursor.next()) {
+            if (!cursor.row().isEmpty()) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Looks the latest version of a row up, from the newest data to the oldest.
+     * @param id the row identifier.
+     * @return the row, or null if it does not exist or was deleted.
+     * @throws IOException in the event of an error reading a table.
+     */
+    private String lookup(long id) throws IOException {
+        viewReadLock.lock();
+        try {
+            View current = view;
+            String row = current.active.rows.get(id);
+            for (Iterator<Memtable> memtables = current.frozen.iterator(); row == null && memtables.hasNext();) {
+                row = memtables.next().rows.get(id);
+            }
+            for (Iterator<List<SortedTable>> levels = current.levels.iterator(); row == null && levels.hasNext();) {
+                for (Iterator<SortedTable> tables = levels.next().iterator(); row == null && tables.hasNext();) {
+                    row = tables.next().get(id);
+                }
+            }
+            return row == null || row.isEmpty() ? null : row;
+        } finally {
+            viewReadLock.unlock();
+        }
+    }
+
+    /**
+     * @param id the row identifier.
+     * @param row the row, or {@link SortedTable#TOMBSTONE} for a delete.
+     * @param existing true if the row must be live, as for updates and deletes.
+     * @return the mutation appending the row to the write-ahead log, put in the active memtable once appended.
+     */
+    private GroupCommitWriter.Mutation putMutation(long id, String row, boolean existing) {
+        return GroupCommitWriter.mutation(
+            id,
+            location -> {
+                awaitFlushCapacity();
+                if (existing && lookup(id) == null) {
+                    return null;
+                }
+                return row.isEmpty() ? BinaryRecordFormat.INSTANCE.encodeTombstone(id) : BinaryRecordFormat.INSTANCE.encode(row);
+            },
+            (location, bytes) -> {
+                Memtable active = view.active;
+                active.rows.put(id, row);
+                active.bytes += bytes.length;
+                // Inserts get fresh identifiers, updates and deletes were checked to be live
+                liveRows += row.isEmpty() ? -1 : existing ? 0 : 1;
+            }
+        );
+    }
+
+    /**
+     * Holds a write back while as many frozen memtables as allowed wait to be flushed. Called by the writer thread, so
+     * every write waits along.
+     * @throws IOException if the background thread is failing, so writes fail instead of waiting for its retries.
+     */
+    private void awaitFlushCapacity() throws IOException {
+        synchronized (flushed) {
+            while (view.frozen.size() >= settings.getMaxFrozenMemtables()) {
+                Exception failure = backgroundFailure;
+                if (failure != null) {
+                    throw new IOException("Memtables are not being flushed: " + failure.getMessage(), failure);
+                }
+                try {
+                    flushed.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for memtables to be flushed");
+                }
+            }
+        }
+    }
+
+    /**
+     * Freezes the full memtable and starts a new one along with its write-ahead log, handing the frozen one over to
+     * the background thread. Callers must hold the write lock.
+     * @throws IOException in the event of an error creating the new write-ahead log.
+     */
+    private void rotate() throws IOException {
+        Path wal = directory.resolve(fileName(WAL_PREFIX, nextSequence.getAndIncrement(), WAL_SUFFIX));
+        FileChannel next = FileChannel.open(wal, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channelLock.lock();
+        try {
+            if (fsyncPolicy != ApplicationProperties.Storage.FsyncPolicy.NONE) {
+                walChannel.force(false);
+            }
+            walChannel.close();
+            walChannel = next;
+            walSize = 0;
+        } finally {
+            channelLock.unlock();
+        }
+        viewWriteLock.lock();
+        try {
+            List<Memtable> frozen = new ArrayList<>(view.frozen.size() + 1);
+            frozen.add(view.active);
+            frozen.addAll(view.frozen);
+            view = new View(new Memtable(wal), frozen, view.levels);
+        } finally {
+            viewWriteLock.unlock();
+        }
+        background.execute(this::flushAndMerge);
+    }
+
+    /**
+     * Flushes the frozen memtables, oldest first, then merges levels until all of them are within budget. Runs on the
+     * background thread only, which is thus the only one changing tables. After a failure, the frozen memtables stay
+     * in memory and their write-ahead logs on disk, and the run is retried after a delay doubling with every failure.
+     */
+    private void flushAndMerge() {
+        try {
+            List<Memtable> frozen;
+            while (!(frozen = view.frozen).isEmpty()) {
+                flush(frozen.get(frozen.size() - 1));
+            }
+            while (mergeIfNeeded()) {
+                log.trace("Merged sorted tables, now {} per level", tablesPerLevel());
+            }
+            if (backgroundFailure != null) {
+                log.info("Flushes and merges of sorted tables recovered");
+                backgroundFailure = null;
+                retryDelayMs = MIN_RETRY_DELAY_MS;
+            }
+        } catch (IOException | RuntimeException ex) {
+            backgroundFailure = ex;
+            log.error("Failed to flush or merge sorted tables, retrying in {} ms: {}", retryDelayMs, ex.getMessage(), ex);
+            if (!retryScheduled && !background.isShutdown()) {
+                retryScheduled = true;
+                background.schedule(
+                    () -> {
+                        retryScheduled = false;
+                        flushAndMerge();
+                    },
+                    retryDelayMs,
+                    TimeUnit.MILLISECONDS
+                );
+                retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+            }
+        } finally {
+            synchronized (flushed) {
+                flushed.notifyAll();
+            }
+        }
+    }
+
+    private void flush(Memtable memtable) throws IOException {
+        long start = System.nanoTime();
+        List<SortedTable> tables = writeTables(cursorOf(memtable.rows), false, Long.MAX_VALUE);
+        viewWriteLock.lock();
+        try {
+            List<Memtable> frozen = new ArrayList<>(view.frozen);
+            frozen.remove(memtable);
+            List<List<SortedTable>> levels = copyLevels(view.levels);
+            levels.get(0).addAll(0, tables);
+            view = new View(view.active, frozen, levels);
+        } finally {
+            viewWriteLock.unlock();
+        }
+        synchronized (flushed) {
+            flushed.notifyAll();
+        }
+        writeManifest();
+        Files.deleteIfExists(memtable.wal);
+        flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.debug("Flushed memtable of {} rows into level 0", memtable.rows.size());
+    }
+
+    /**
+     * Merges level 0 into level 1 once it holds enough tables, or else one table of the shallowest level over its
+     * budget into the next level, picking tables of each level round robin by identifier range.
+     * @return true if a merge ran.
+     */
+    private boolean mergeIfNeeded() throws IOException {
+        List<List<SortedTable>> levels = view.levels;
+        if (levels.get(0).size() >= settings.getLevel0Tables()) {
+            List<SortedTable> inputs = levels.get(0);
+            long minId = inputs.stream().mapToLong(SortedTable::minId).min().getAsLong();
+            long maxId = inputs.stream().mapToLong(SortedTable::maxId).max().getAsLong();
+            merge(0, inputs, overlapping(levels, 1, minId, maxId));
+            return true;
+        }
+        long budget = settings.getLevelBaseBytes();
+        for (int level = 1; level < levels.size(); level++, budget *= settings.getLevelFanout()) {
+            List<SortedTable> tables = levels.get(level);
+            if (tables.stream().mapToLong(SortedTable::sizeBytes).sum() <= budget) {
+                continue;
+            }
+            long pointer = mergePointers.getOrDefault(level, -1L);
+            SortedTable picked = tables.stream().filter(table -> table.minId() > pointer).findFirst().orElse(tables.get(0));
+            mergePointers.put(level, picked.maxId());
+            merge(level, Collections.singletonList(picked), overlapping(levels, level + 1, picked.minId(), picked.maxId()));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Merges tables of a level with the overlapping tables of the next level into new tables of the next level.
+     * @param level the level of the newer tables.
+     * @param newer the tables of the level, newest first.
+     * @param older the overlapping tables of the next level.
+     */
+    private void merge(int level, List<SortedTable> newer, List<SortedTable> older) throws IOException {
+        long start = System.nanoTime();
+        List<List<SortedTable>> levels = view.levels;
+        boolean bottom = true;
+        for (int deeper = level + 2; deeper < levels.size(); deeper++) {
+            bottom &= levels.get(deeper).isEmpty();
+        }
+        List<SortedTable.Cursor> cursors = new ArrayList<>();
+        for (SortedTable table : newer) {
+            cursors.add(table.cursor());
+        }
+        for (SortedTable table : older) {
+            cursors.add(table.cursor());
+        }
+        List<SortedTable> merged = writeTables(new MergingCursor(cursors), bottom, settings.getTableBytes());
+
+        viewWriteLock.lock();
+        try {
+            List<List<SortedTable>> next = copyLevels(view.levels);
+            next.get(level).removeAll(newer);
+            if (next.size() == level + 1) {
+                next.add(new ArrayList<>());
+            }
+            next.get(level + 1).removeAll(older);
+            next.get(level + 1).addAll(merged);
+            next.get(level + 1).sort(Comparator.comparingLong(SortedTable::minId));
+            view = new View(view.active, view.frozen, next);
+        } finally {
+            viewWriteLock.unlock();
+        }
+        writeManifest();
+        for (SortedTable table : newer) {
+            table.retire();
+        }
+        for (SortedTable table : older) {
+            table.retire();
+        }
+        mergeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.debug("Merged {} tables of level {} with {} of level {} into {}", newer.size(), level, older.size(), level + 1, merged.size());
+    }
+
+    private static List<SortedTable> overlapping(List<List<SortedTable>> levels, int level, long minId, long maxId) {
+        if (level >= levels.size()) {
+            return Collections.emptyList();
+        }
+        return levels.get(level).stream().filter(table -> table.minId() <= maxId && minId <= table.maxId()).collect(Collectors.toList());
+    }
+
+    /**
+     * Writes the rows of the cursor into new tables, starting a new table whenever one reaches the split size.
+     */
+    private List<SortedTable> writeTables(SortedTable.Cursor cursor, boolean dropTombstones, long splitBytes) throws IOException {
+        List<SortedTable> tables = new ArrayList<>();
+        SortedTable.Writer writer = null;
+        long sequence = 0;
+        try {
+            while (cursor.next()) {
+                String row = cursor.row();
+                if (dropTombstones && row.isEmpty()) {
+                    continue;
+                }
+                if (writer == null) {
+                    sequence = nextSequence.getAndIncrement();
+                    Path path = directory.resolve(fileName(TABLE_PREFIX, sequence, SortedTable.SUFFIX));
+                    writer = new SortedTable.Writer(path, settings.getIndexIntervalBytes(), settings.getBloomBitsPerKey());
+                }
+                writer.add(cursor.id(), row);
+                if (writer.position() >= splitBytes) {
+                    tables.add(writer.finish(sequence));
+                    writer.close();
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                tables.add(writer.finish(sequence));
+            }
+        } catch (IOException | RuntimeException ex) {
+            for (SortedTable table : tables) {
+                table.close();
+            }
+            throw ex;
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Replaces the manifest with the list of live tables, one {@code level sequence} line each.
+     */
+    private void writeManifest() throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        List<List<SortedTable>> levels = view.levels;
+        for (int level = 0; level < levels.size(); level++) {
+            for (SortedTable table : levels.get(level)) {
+                manifest.append(level).append(' ').append(table.sequence()).append('\n');
+            }
+        }
+        Path tmp = directory.resolve(MANIFEST + TMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            GroupCommitWriter.writeFully(channel, new ByteBuffer[] { ByteBuffer.wrap(manifest.toString().getBytes(StandardCharsets.US_ASCII)) });
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Opens the tables listed in the manifest and deletes any other table file, left by a flush or merge that did not
+     * complete.
+     */
+    private List<List<SortedTable>> openTables() throws IOException {
+        List<List<SortedTable>> levels = new ArrayList<>();
+        levels.add(new ArrayList<>());
+        Path manifest = directory.resolve(MANIFEST);
+        List<Long> live = new ArrayList<>();
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.US_ASCII)) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int level = Integer.parseInt(line.substring(0, line.indexOf(' ')));
+                long sequence = Long.parseLong(line.substring(line.indexOf(' ') + 1));
+                while (levels.size() <= level) {
+                    levels.add(new ArrayList<>());
+                }
+                levels.get(level).add(SortedTable.open(sequence, directory.resolve(fileName(TABLE_PREFIX, sequence, SortedTable.SUFFIX))));
+                live.add(sequence);
+                nextSequence.accumulateAndGet(sequence + 1, Math::max);
+            }
+        }
+        levels.get(0).sort(Comparator.comparingLong(SortedTable::sequence).reversed());
+        for (Path path : listFiles(TABLE_PREFIX)) {
+            if (!path.toString().endsWith(SortedTable.SUFFIX) || !live.contains(sequenceOf(TABLE_PREFIX, path))) {
+                log.warn("Deleting table {} missing from the manifest", path);
+                Files.delete(path);
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Replays the write-ahead logs, oldest first, into a memtable flushed straight into level 0, and deletes them.
+     */
+    private void recoverWals() throws IOException {
+        List<Path> wals = listFiles(WAL_PREFIX);
+        if (wals.isEmpty()) {
+            return;
+        }
+        Memtable recovered = new Memtable(null);
+        for (Path wal : wals) {
+            nextSequence.accumulateAndGet(sequenceOf(WAL_PREFIX, wal) + 1, Math::max);
+            long validSize = BinaryRecordFormat.INSTANCE.scanRows(
+                wal,
+                (offset, row) ->
+                    recovered.rows.put(
+                        CsvRowFiles.idOf(row),
+                        row.indexOf(CsvRowFiles.CSV_SEPARATOR) < 0 ? SortedTable.TOMBSTONE : row
+                    )
+            );
+            if (validSize < Files.size(wal)) {
+                log.warn("Ignoring torn write at offset {} of {}", validSize, wal);
+            }
+        }
+        if (!recovered.rows.isEmpty()) {
+            List<SortedTable> tables = writeTables(cursorOf(recovered.rows), false, Long.MAX_VALUE);
+            List<List<SortedTable>> levels = copyLevels(view.levels);
+            levels.get(0).addAll(0, tables);
+            view = new View(null, Collections.emptyList(), levels);
+            writeManifest();
+            log.info("Recovered {} rows from {} write-ahead logs", recovered.rows.size(), wals.size());
+        }
+        for (Path wal : wals) {
+            Files.delete(wal);
+        }
+    }
+
+    private List<Path> listFiles(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> path.getFileName().toString().startsWith(prefix))
+                .sorted(Comparator.comparingLong(path -> sequenceOf(prefix, path)))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static List<List<SortedTable>> copyLevels(List<List<SortedTable>> levels) {
+        List<List<SortedTable>> copy = new ArrayList<>(levels.size());
+        for (List<SortedTable> level : levels) {
+            copy.add(new ArrayList<>(level));
+        }
+        return copy;
+    }
+
+    private static String fileName(String prefix, long sequence, String suffix) {
+        return String.format("%s%010d%s", prefix, sequence, suffix);
+    }
+
+    private static long sequenceOf(String prefix, Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.indexOf('.')));
+    }
+
+    /**
+     * @param current the view to read.
+     * @param after the identifier to start after.
+     * @return the latest version of every row after the identifier, tombstones included, in identifier order.
+     * @throws IOException in the event of an error reading the first block of a table.
+     */
+    private static SortedTable.Cursor cursorAfter(View current, long after) throws IOException {
+        List<SortedTable.Cursor> cursors = new ArrayList<>();
+        cursors.add(cursorOf(current.active.rows.tailMap(after, false)));
+        for (Memtable memtable : current.frozen) {
+            cursors.add(cursorOf(memtable.rows.tailMap(after, false)));
+        }
+        for (List<SortedTable> level : current.levels) {
+            for (SortedTable table : level) {
+                if (table.maxId() > after) {
+                    cursors.add(table.cursor(after));
+                }
+            }
+        }
+        return new MergingCursor(cursors);
+    }
+
+    private static SortedTable.Cursor cursorOf(ConcurrentNavigableMap<Long, String> rows) {
+        Iterator<Map.Entry<Long, String>> entries = rows.entrySet().iterator();
+        return new SortedTable.Cursor() {
+            private Map.Entry<Long, String> entry;
+
+            @Override
+            public boolean next() {
+                entry = entries.hasNext() ? entries.next() : null;
+                return entry != null;
+            }
+
+            @Override
+            public long id() {
+                return entry.getKey();
+            }
+
+            @Override
+            public String row() {
+                return entry.getValue();
+            }
+        };
+    }
+
+    /**
+     * Appends group committed batches to the active write-ahead log, rotating the memtable once it is full.
+     */
+    private class WalJournal implements GroupCommitWriter.Journal {
+
+        @Override
+        public long position() {
+            return walSize;
+        }
+
+        @Override
+        public void append(ByteBuffer[] buffers) throws IOException {
+            for (ByteBuffer buffer : buffers) {
+                walSize += buffer.remaining();
+            }
+            GroupCommitWriter.writeFully(walChannel, buffers);
+        }
+
+        @Override
+        public void published() throws IOException {
+            if (view.active.bytes >= settings.getMemtableBytes()) {
+                rotate();
+            }
+        }
+
+        @Override
+        public void force() throws IOException {
+            channelLock.lock();
+            try {
+                walChannel.force(false);
+            } finally {
+                channelLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Rows by identifier, tombstones included, along with the write-ahead log holding them.
+     */
+    private static class Memtable {
+
+        private final ConcurrentSkipListMap<Long, String> rows = new ConcurrentSkipListMap<>();
+        private final Path wal;
+        private volatile long bytes;
+
+        Memtable(Path wal) {
+            this.wal = wal;
+        }
+    }
+
+    /**
+     * Snapshot of the memtables and tables, replaced as a whole under the view write lock.
+     */
+    private static class View {
+
+        private final Memtable active;
+        // Newest first
+        private final List<Memtable> frozen;
+        // Level 0 newest first, deeper levels by identifier range
+        private final List<List<SortedTable>> levels;
+
+        View(Memtable active, List<Memtable> frozen, List<List<SortedTable>> levels) {
+            this.active = active;
+            this.frozen = frozen;
+            this.levels = levels;
+        }
+    }
+
+    /**
+     * Merges cursors in identifier order, keeping for each identifier the row of the first cursor holding it.
+     */
+    private static class MergingCursor implements SortedTable.Cursor {
+
+        private final PriorityQueue<Source> queue = new PriorityQueue<>(
+            Comparator.<Source>comparingLong(source -> source.id).thenComparingInt(source -> source.rank)
+        );
+        private long id;
+        private String row;
+
+        /**
+         * @param cursors the cursors, newest data first.
+         */
+        MergingCursor(List<SortedTable.Cursor> cursors) throws IOException {
+            for (int rank = 0; rank < cursors.size(); rank++) {
+                advance(new Source(cursors.get(rank), rank));
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            Source first = queue.poll();
+            if (first == null) {
+                return false;
+            }
+            id = first.id;
+            row = first.cursor.row();
+            advance(first);
+            while (!queue.isEmpty() && queue.peek().id == id) {
+                advance(queue.poll());
+            }
+            return true;
+        }
+
+        @Override
+        public long id() {
+            return id;
+        }
+
+        @Override
+        public String row() {
+            return row;
+        }
+
+        private void advance(Source source) throws IOException {
+            if (source.cursor.next()) {
+                source.id = source.cursor.id();
+                queue.add(source);
+            }
+        }
+
+        private static class Source {
+
+            private final SortedTable.Cursor cursor;
+            private final int rank;
+            private long id;
+
+            Source(SortedTable.Cursor cursor, int rank) {
+                this.cursor = cursor;
+                this.rank = rank;
+            }
+        }
+    }
+}
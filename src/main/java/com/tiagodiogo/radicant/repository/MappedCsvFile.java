@@ -0,0 +1,126 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Memory-mapped view of a newline delimited CSV file, for full scans served straight from the page cache.
+ * <p>
+ * The file is mapped in fixed size chunks, as a single mapping cannot exceed 2GB. Chunks are mapped lazily when a
+ * scan first needs them and kept for the lifetime of this view, so a growing file only maps its new tail, plus the
+ * last chunk again if it was partial. The file must never shrink, as touching a mapped page past the end of the file
+ * is fatal; the mappings are released once this view is unreachable.
+ */
+class MappedCsvFile {
+
+    private static final int ROW_BUFFER_SIZE = 256;
+    private static final MappedByteBuffer[] UNMAPPED = new MappedByteBuffer[0];
+
+    private final FileChannel channel;
+    private final int chunkBytes;
+    private MappedByteBuffer[] chunks = UNMAPPED;
+    private long mappedSize;
+
+    /**
+     * @param channel a channel open for reading the file.
+     * @param chunkBytes the size of each mapped chunk.
+     */
+    MappedCsvFile(FileChannel channel, int chunkBytes) {
+        this.channel = channel;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Scans the first {@code size} bytes of the file, decoding every non empty row, so bytes appended meanwhile are
+     * left out.
+     * @param size the amount of bytes to scan, at most the file size.
+     * @param visitor receives the offset and content of every row, in file order.
+     * @throws IOException in the event of an error mapping the file.
+     */
+    void scanRows(long size, CsvRowFiles.RowVisitor visitor) throws IOException {
+        scanRowBytes(
+            size,
+            (offset, row, length) -> visitor.visit(offset, new String(row, 0, length, StandardCharsets.UTF_8))
+        );
+    }
+
+    /**
+     * Scans the first {@code size} bytes of the file like {@link #scanRows(long, CsvRowFiles.RowVisitor)}, handing
+     * out the raw bytes of every non empty row instead of decoding it.
+     * @param size the amount of bytes to scan, at most the file size.
+     * @param visitor receives the offset and bytes of every row, in file order.
+     * @throws IOException in the event of an error mapping the file.
+     */
+    void scanRowBytes(long size, CsvRowFiles.RowBytesVisitor visitor) throws IOException {
+        byte[] row = new byte[ROW_BUFFER_SIZE];
+        int rowLength = 0;
+        long rowStart = 0;
+        long chunkStart = 0;
+        for (MappedByteBuffer chunk : map(size)) {
+            if (chunkStart >= size) {
+                break;
+            }
+            ByteBuffer view = chunk.duplicate();
+            int limit = (int) Math.min(view.limit(), size - chunkStart);
+            int start = 0;
+            for (int position = 0; position < limit; position++) {
+                if (view.get(position) != '\n') {
+                    continue;
+                }
+                row = copy(view, start, position, row, rowLength);
+                rowLength += position - start;
+                visit(visitor, rowStart, row, rowLength);
+                rowLength = 0;
+                start = position + 1;
+                rowStart = chunkStart + start;
+            }
+            row = copy(view, start, limit, row, rowLength);
+            rowLength += limit - start;
+            chunkStart += limit;
+        }
+        visit(visitor, rowStart, row, rowLength);
+    }
+
+    /**
+     * Extends the mapped chunks to cover the received size, remapping the last chunk if it was partial.
+     */
+    private synchronized MappedByteBuffer[] map(long size) throws IOException {
+        if (size > mappedSize) {
+            int chunkCount = (int) ((size + chunkBytes - 1) / chunkBytes);
+            MappedByteBuffer[] grown = Arrays.copyOf(chunks, chunkCount);
+            for (int i = (int) (mappedSize / chunkBytes); i < chunkCount; i++) {
+                long position = (long) i * chunkBytes;
+                grown[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunkBytes, size - position));
+            }
+            chunks = grown;
+            mappedSize = size;
+        }
+        return chunks;
+    }
+
+    /**
+     * Appends the bytes in {@code [from, to)} of the view to the row, growing it if needed.
+     */
+    private static byte[] copy(ByteBuffer view, int from, int to, byte[] row, int rowLength) {
+        int length = to - from;
+        if (length == 0) {
+            return row;
+        }
+        byte[] target = rowLength + length <= row.length ? row : Arrays.copyOf(row, Math.max(row.length * 2, rowLength + length));
+        view.position(from);
+        view.get(target, rowLength, length);
+        return target;
+    }
+
+    private static void visit(CsvRowFiles.RowBytesVisitor visitor, long rowStart, byte[] row, int rowLength)
+        throws IOException {
+        int length = rowLength > 0 && row[rowLength - 1] == '\r' ? rowLength - 1 : rowLength;
+        if (length > 0) {
+            visitor.visit(rowStart, row, length);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import com.tiagodiogo.radicant.domain.PhoneBookRecordCodec;
+import com.tiagodiogo.radicant.domain.RecordFilter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IDatabase} keeping an {@link IntLongMultimap} from mobile number to identifiers in front of any engine, so
+ * reverse lookups by mobile take a hash lookup plus one lookup by id per match instead of a scan.
+ * <p>
+ * The index is filled by a scan on startup and then follows the writes made through this class; updates and deletes,
+ * which look up the mobile the row held before, are serialized. Its memory per indexed record is published as the
+ * {@value #BYTES_PER_RECORD_METER_NAME} gauge.
+ */
+public class MobileIndexedDatabase extends ForwardingDatabase {
+
+    public static final String BYTES_PER_RECORD_METER_NAME = "phonebook.storage.mobile-index.bytes-per-record";
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Logger log = LoggerFactory.getLogger(MobileIndexedDatabase.class);
+
+    private final IntLongMultimap index = new IntLongMultimap(INITIAL_CAPACITY);
+    private final Lock readLock;
+    private final Lock writeLock;
+    private final Lock rewriteLock = new ReentrantLock();
+
+    /**
+     * Indexes the mobile numbers of every row of the engine.
+     * @param delegate the engine holding the rows.
+     * @param meterRegistry the registry for the index metrics.
+     */
+    public MobileIndexedDatabase(IDatabase delegate, MeterRegistry meterRegistry) {
+        super(delegate);
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        readLock = lock.readLock();
+        writeLock = lock.writeLock();
+        delegate.scan(row -> {
+            PhoneBookRecord record;
+            try {
+                record = PhoneBookRecordCodec.decode(row);
+            } catch (IllegalArgumentException ex) {
+                log.warn("Skipped indexing the mobile of a malformed row: {}", ex.getMessage());
+                return;
+            }
+            if (indexed(record.getMobile())) {
+                index.put(record.getMobile(), record.getId());
+            }
+        });
+        Gauge
+            .builder(BYTES_PER_RECORD_METER_NAME, this, MobileIndexedDatabase::indexBytesPerRecord)
+            .baseUnit("bytes")
+            .description("Memory taken by the mobile index for each record")
+            .register(meterRegistry);
+        log.debug("Indexed {} mobiles of {} records, {} bytes per record", index.size(), index.valueCount(), indexBytesPerRecord());
+    }
+
+    /**
+     * Fetches the rows indexed under the mobile number.
+     * @param mobile the mobile number to look for.
+     * @return the rows holding the mobile number, empty if none does.
+     */
+    @Override
+    public List<String> selectByMobile(int mobile) {
+        if (!indexed(mobile)) {
+            return delegate.selectByMobile(mobile);
+        }
+        long[] ids;
+        readLock.lock();
+        try {
+            ids = index.get(mobile);
+        } finally {
+            readLock.unlock();
+        }
+        List<String> rows = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            rows.addAll(delegate.select(id));
+        }
+        return rows;
+    }
+
+    /**
+     * Serves mobile equality from the index.
+     * @param comparison the comparison.
+     * @return the candidate rows, or the lookup of the delegate if the comparison is not a mobile equality.
+     */
+    @Override
+    public List<String> lookup(RecordFilter.Comparison comparison) {
+        if (comparison.is(RecordFilter.Field.MOBILE, RecordFilter.Operator.EQUALS)) {
+            long mobile = comparison.getNumber();
+            return mobile == (int) mobile ? selectByMobile((int) mobile) : new ArrayList<>();
+        }
+        return super.lookup(comparison);
+    }
+
+    @Override
+    public Long insert(String row) {
+        Long id = delegate.insert(row);
+        add(id, row);
+        return id;
+    }
+
+    @Override
+    public List<Long> insertAll(List<String> rows) {
+        List<Long> ids = delegate.insertAll(rows);
+        for (int i = 0; i < ids.size(); i++) {
+            add(ids.get(i), rows.get(i));
+        }
+        return ids;
+    }
+
+    @Override
+    public boolean update(Long id, String newRow) {
+        rewriteLock.lock();
+        try {
+            List<String> oldRows = delegate.select(id);
+            if (oldRows.isEmpty() || !delegate.update(id, newRow)) {
+                return false;
+            }
+            remove(id, oldRows.get(0));
+            add(id, newRow);
+            return true;
+        } finally {
+            rewriteLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(Long id) {
+        rewriteLock.lock();
+        try {
+            List<String> oldRows = delegate.select(id);
+            if (oldRows.isEmpty() || !delegate.delete(id)) {
+                return false;
+            }
+            remove(id, oldRows.get(0));
+            return true;
+        } finally {
+            rewriteLock.unlock();
+        }
+    }
+
+    /**
+     * Memory taken by the mobile index for each indexed record.
+     * @return the amount of bytes, or zero while empty.
+     */
+    public double indexBytesPerRecord() {
+        readLock.lock();
+        try {
+            return index.bytesPerValue();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void add(long id, String row) {
+        Integer mobile = PhoneBookRecordCodec.decode(row).getMobile();
+        if (!indexed(mobile)) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            index.put(mobile, id);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void remove(long id, String row) {
+        Integer mobile = PhoneBookRecordCodec.decode(row).getMobile();
+        if (!indexed(mobile)) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            index.remove(mobile, id);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return false for missing mobiles and the one value the index cannot hold, looked up by scan instead.
+     */
+    private static boolean indexed(Integer mobile) {
+        return mobile != null && mobile != Integer.MIN_VALUE;
+    }
+}
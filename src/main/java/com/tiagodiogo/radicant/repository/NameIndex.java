@@ -0,0 +1,334 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.domain.NameSuggestion;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Prefix index over record names, ordered by {@link NameSuggestion#normalize normalized} name then identifier.
+ * <p>
+ * Most names sit in a sorted base of three parallel arrays, normalized names, names and identifiers, searched by
+ * binary search; a normalized name equal to its name shares its string. Writes go to a delta, a concurrent skip list
+ * of added entries and a set of identifiers removed before it. Once a delta reaches a sixteenth of the base it is
+ * frozen and merged with the base into a new base on a background thread, while writes carry on into a fresh delta,
+ * and the new base is then swapped in, so the amortized cost of a write stays constant and no write waits for a
+ * merge. Suggestions walk the base and the deltas side by side without locking.
+ */
+final class NameIndex {
+
+    private static final int MIN_MERGE_ENTRIES = 4096;
+    private static final int MERGE_FRACTION = 16;
+    private static final Comparator<Entry> ORDER = Comparator.comparing((Entry entry) -> entry.key).thenComparingLong(entry -> entry.id);
+    private static final Executor MERGER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "name-index-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Executor merger;
+    private volatile Snapshot snapshot;
+    // Writes to the active delta of the current snapshot, guarded by this
+    private int pending;
+    private CompletableFuture<Void> merging = CompletableFuture.completedFuture(null);
+
+    private NameIndex(Snapshot snapshot, Executor merger) {
+        this.snapshot = snapshot;
+        this.merger = merger;
+    }
+
+    /**
+     * @return a builder of an index over existing records.
+     */
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Indexes the name of a record.
+     * @param id the record identifier.
+     * @param name the name, ignored if null.
+     */
+    synchronized void add(long id, String name) {
+        if (name == null) {
+            return;
+        }
+        snapshot.active.added.add(new Entry(id, name));
+        written();
+    }
+
+    /**
+     * Drops the name of a record.
+     * @param id the record identifier.
+     * @param name the name it was indexed under, ignored if null.
+     */
+    synchronized void remove(long id, String name) {
+        if (name == null) {
+            return;
+        }
+        Delta active = snapshot.active;
+        if (!active.added.remove(new Entry(id, name))) {
+            active.removed.add(id);
+        }
+        written();
+    }
+
+    /**
+     * @param prefix the start of the names, in any form.
+     * @param limit the maximum amount of suggestions.
+     * @return the records whose normalized name starts with the normalized prefix, in index order.
+     */
+    List<NameSuggestion> suggest(String prefix, int limit) {
+        String wanted = NameSuggestion.normalize(prefix);
+        Snapshot current = snapshot;
+        // At most limit matches of each source, merged in index order
+        List<Entry> matches = new ArrayList<>();
+        for (int position = current.lowerBound(wanted), found = 0; position < current.ids.length && found < limit; position++) {
+            if (!current.keys[position].startsWith(wanted)) {
+                break;
+            }
+            if (!current.isRemoved(current.ids[position])) {
+                matches.add(new Entry(current.keys[position], current.ids[position], current.names[position]));
+                found++;
+            }
+        }
+        if (current.frozen != null) {
+            addMatches(current.frozen.added, wanted, limit, current.active.removed, matches);
+        }
+        addMatches(current.active.added, wanted, limit, Collections.emptySet(), matches);
+        matches.sort(ORDER);
+        List<NameSuggestion> suggestions = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            suggestions.add(new NameSuggestion(matches.get(i).id, matches.get(i).name));
+        }
+        return suggestions;
+    }
+
+    /**
+     * @return the amount of indexed names.
+     */
+    synchronized long size() {
+        Snapshot current = snapshot;
+        long size = current.ids.length - current.active.removed.size() + current.active.added.size();
+        if (current.frozen != null) {
+            size += current.frozen.added.size() - current.frozen.removed.size();
+        }
+        return size;
+    }
+
+    /**
+     * Waits for the merge in progress, if any, to be swapped in.
+     */
+    void awaitMerge() {
+        CompletableFuture<Void> current;
+        synchronized (this) {
+            current = merging;
+        }
+        current.join();
+    }
+
+    private static void addMatches(NavigableSet<Entry> added, String prefix, int limit, Set<Long> removed, List<Entry> matches) {
+        int found = 0;
+        for (Entry entry : added.tailSet(new Entry(prefix, Long.MIN_VALUE, null), true)) {
+            if (found == limit || !entry.key.startsWith(prefix)) {
+                return;
+            }
+            if (!removed.contains(entry.id)) {
+                matches.add(entry);
+                found++;
+            }
+        }
+    }
+
+    private static int compare(String key, long id, Entry entry) {
+        int byKey = key.compareTo(entry.key);
+        return byKey != 0 ? byKey : Long.compare(id, entry.id);
+    }
+
+    private void written() {
+        pending++;
+        mergeIfDue();
+    }
+
+    /**
+     * Freezes the active delta once it is large enough, unless the previous one is still being merged, and merges it
+     * off the write path. Callers must hold the lock of the index.
+     */
+    private void mergeIfDue() {
+        Snapshot current = snapshot;
+        if (pending < Math.max(MIN_MERGE_ENTRIES, current.ids.length / MERGE_FRACTION) || current.frozen != null) {
+            return;
+        }
+        Snapshot frozen = new Snapshot(current.keys, current.names, current.ids, current.active, new Delta());
+        snapshot = frozen;
+        pending = 0;
+        merging = CompletableFuture.runAsync(() -> swap(merge(frozen)), merger);
+    }
+
+    /**
+     * Replaces the base and the frozen delta the merge started from with the merged base, keeping the active delta.
+     */
+    private synchronized void swap(Snapshot merged) {
+        snapshot = new Snapshot(merged.keys, merged.names, merged.ids, null, snapshot.active);
+        // Only one delta is frozen at a time, so the active one may be due already
+        mergeIfDue();
+    }
+
+    /**
+     * Builds a new base from the live entries of the base and the added entries of the frozen delta, in one merge
+     * pass. Neither changes once frozen, so the merge needs no lock.
+     */
+    private static Snapshot merge(Snapshot current) {
+        Delta frozen = current.frozen;
+        int capacity = current.ids.length - frozen.removed.size() + frozen.added.size();
+        String[] keys = new String[capacity];
+        String[] names = new String[capacity];
+        long[] ids = new long[capacity];
+        int size = 0;
+        Iterator<Entry> added = frozen.added.iterator();
+        Entry nextAdded = added.hasNext() ? added.next() : null;
+        for (int position = 0; position < current.ids.length; position++) {
+            if (frozen.removed.contains(current.ids[position])) {
+                continue;
+            }
+            while (nextAdded != null && compare(current.keys[position], current.ids[position], nextAdded) > 0) {
+                keys[size] = nextAdded.key;
+                names[size] = nextAdded.name;
+                ids[size++] = nextAdded.id;
+                nextAdded = added.hasNext() ? added.next() : null;
+            }
+            keys[size] = current.keys[position];
+            names[size] = current.names[position];
+            ids[size++] = current.ids[position];
+        }
+        while (nextAdded != null) {
+            keys[size] = nextAdded.key;
+            names[size] = nextAdded.name;
+            ids[size++] = nextAdded.id;
+            nextAdded = added.hasNext() ? added.next() : null;
+        }
+        return new Snapshot(keys, names, ids, null, null);
+    }
+
+    /**
+     * Collects the names of existing records, sorted once they are all known.
+     */
+    static final class Builder {
+
+        private final List<Entry> entries = new ArrayList<>();
+
+        /**
+         * @param id the record identifier.
+         * @param name the name, ignored if null.
+         */
+        void add(long id, String name) {
+            if (name != null) {
+                entries.add(new Entry(id, name));
+            }
+        }
+
+        NameIndex build() {
+            return build(MERGER);
+        }
+
+        /**
+         * @param merger runs the merges of the index.
+         */
+        NameIndex build(Executor merger) {
+            entries.sort(ORDER);
+            String[] keys = new String[entries.size()];
+            String[] names = new String[entries.size()];
+            long[] ids = new long[entries.size()];
+            for (int i = 0; i < names.length; i++) {
+                keys[i] = entries.get(i).key;
+                names[i] = entries.get(i).name;
+                ids[i] = entries.get(i).id;
+            }
+            entries.clear();
+            return new NameIndex(new Snapshot(keys, names, ids, null, new Delta()), merger);
+        }
+    }
+
+    /**
+     * A base, the delta being merged into it if any, and the delta taking the writes.
+     */
+    private static final class Snapshot {
+
+        private final String[] keys;
+        private final String[] names;
+        private final long[] ids;
+        private final Delta frozen;
+        private final Delta active;
+
+        private Snapshot(String[] keys, String[] names, long[] ids, Delta frozen, Delta active) {
+            this.keys = keys;
+            this.names = names;
+            this.ids = ids;
+            this.frozen = frozen;
+            this.active = active;
+        }
+
+        /**
+         * @return true if a delta removed the base entry of the identifier.
+         */
+        private boolean isRemoved(long id) {
+            return active.removed.contains(id) || (frozen != null && frozen.removed.contains(id));
+        }
+
+        /**
+         * @return the position of the first base entry whose normalized name is not before the key.
+         */
+        private int lowerBound(String key) {
+            int low = 0;
+            int high = ids.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (keys[middle].compareTo(key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Writes made since the base was built.
+     */
+    private static final class Delta {
+
+        private final NavigableSet<Entry> added = new ConcurrentSkipListSet<>(ORDER);
+        // Identifiers of entries of the base or an older delta dropped since, each record being indexed once
+        private final Set<Long> removed = ConcurrentHashMap.newKeySet();
+    }
+
+    private static final class Entry {
+
+        private final String key;
+        private final long id;
+        private final String name;
+
+        private Entry(long id, String name) {
+            String normalized = NameSuggestion.normalize(name);
+            this.key = normalized.equals(name) ? name : normalized;
+            this.id = id;
+            this.name = name;
+        }
+
+        private Entry(String key, long id, String name) {
+            this.key = key;
+            this.id = id;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.domain.NameSuggestion;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import com.tiagodiogo.radicant.domain.PhoneBookRecordCodec;
+import com.tiagodiogo.radicant.domain.RecordFilter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IDatabase} keeping a {@link NameIndex} in front of any engine, so name suggestions are served from memory
+ * without reading any row. The index is filled by a scan on startup and then follows the writes made through this
+ * class; updates and deletes, which look up the name the row held before, are serialized.
+ */
+public class NameIndexedDatabase extends ForwardingDatabase {
+
+    private final Logger log = LoggerFactory.getLogger(NameIndexedDatabase.class);
+
+    private final NameIndex index;
+    private final Lock rewriteLock = new ReentrantLock();
+
+    /**
+     * Indexes the names of every row of the engine.
+     * @param delegate the engine holding the rows.
+     */
+    public NameIndexedDatabase(IDatabase delegate) {
+        super(delegate);
+        NameIndex.Builder builder = NameIndex.builder();
+        delegate.scan(row -> {
+            PhoneBookRecord record;
+            try {
+                record = PhoneBookRecordCodec.decode(row);
+            } catch (IllegalArgumentException ex) {
+                log.warn("Skipped indexing the name of a malformed row: {}", ex.getMessage());
+                return;
+            }
+            builder.add(record.getId(), record.getName());
+        });
+        index = builder.build();
+        log.debug("Indexed {} names", index.size());
+    }
+
+    /**
+     * Walks the name index from the prefix onwards.
+     * @param prefix the start of the name.
+     * @param limit the maximum amount of suggestions.
+     * @return the matching records, ordered by normalized name then identifier.
+     */
+    @Override
+    public List<NameSuggestion> suggestNames(String prefix, int limit) {
+        return index.suggest(prefix, limit);
+    }
+
+    /**
+     * Serves name equality and prefixes from the index, whose normalized names make it return a superset of the
+     * rows matching exactly.
+     * @param comparison the comparison.
+     * @return the candidate rows, or the lookup of the delegate if the comparison is not on the start of the name.
+     */
+    @Override
+    public List<String> lookup(RecordFilter.Comparison comparison) {
+        boolean prefix =
+            comparison.is(RecordFilter.Field.NAME, RecordFilter.Operator.EQUALS) ||
+            comparison.is(RecordFilter.Field.NAME, RecordFilter.Operator.STARTS_WITH);
+        if (!prefix || NameSuggestion.normalize(comparison.getText()).isEmpty()) {
+            return super.lookup(comparison);
+        }
+        List<String> rows = new ArrayList<>();
+        for (NameSuggestion suggestion : index.suggest(comparison.getText(), Integer.MAX_VALUE)) {
+            rows.addAll(delegate.select(suggestion.getId()));
+        }
+        return rows;
+    }
+
+    @Override
+    public Long insert(String row) {
+        Long id = delegate.insert(row);
+        index.add(id, nameOf(row));
+        return id;
+    }
+
+    @Override
+    public List<Long> insertAll(List<String> rows) {
+        List<Long> ids = delegate.insertAll(rows);
+        for (int i = 0; i < ids.size(); i++) {
+            index.add(ids.get(i), nameOf(rows.get(i)));
+        }
+        return ids;
+    }
+
+    @Override
+    public boolean update(Long id, String newRow) {
+        rewriteLock.lock();
+        try {
+            List<String> oldRows = delegate.select(id);
+            if (oldRows.isEmpty() || !delegate.update(id, newRow)) {
+                return false;
+            }
+            index.remove(id, nameOf(oldRows.get(0)));
+            index.add(id, nameOf(newRow));
+            return true;
+        } finally {
+            rewriteLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(Long id) {
+        rewriteLock.lock();
+        try {
+            List<String> oldRows = delegate.select(id);
+            if (oldRows.isEmpty() || !delegate.delete(id)) {
+                return false;
+            }
+            index.remove(id, nameOf(oldRows.get(0)));
+            return true;
+        } finally {
+            rewriteLock.unlock();
+        }
+    }
+
+    private static String nameOf(String row) {
+        return PhoneBookRecordCodec.decode(row).getName();
+    }
+}
@@ -0,0 +1,169 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Fixed amount of in-heap frames caching the pages of a file, evicted by the clock algorithm: a hand sweeps the
+ * frames, sparing once each frame referenced since its last pass and evicting the first unpinned one that was not,
+ * writing it back first if dirty.
+ * <p>
+ * Frame bookkeeping is synchronized. The content of a pinned frame is read without locking, so callers must keep
+ * readers and writers of the same pages apart.
+ */
+final class PageCache {
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final Frame[] frames;
+    // Page number to frame number
+    private final LongLongMap pages;
+    private int hand;
+
+    /**
+     * @param channel the file, open for reading and writing.
+     * @param pageSize the size of every page.
+     * @param frameCount the amount of pages held in memory at most.
+     */
+    PageCache(FileChannel channel, int pageSize, int frameCount) {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.frames = new Frame[frameCount];
+        this.pages = new LongLongMap(frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            frames[i] = new Frame(ByteBuffer.allocate(pageSize));
+        }
+    }
+
+    /**
+     * Pins a page, reading it from the file unless cached, so it stays in its frame until unpinned.
+     * @param page the page number.
+     * @return the frame holding the page.
+     * @throws IOException in the event of an error reading the page or writing back the evicted one.
+     */
+    synchronized Frame pin(int page) throws IOException {
+        Frame frame = cached(page);
+        if (frame == null) {
+            frame = evict(page);
+            try {
+                read(frame);
+            } catch (IOException | RuntimeException ex) {
+                pages.remove(page);
+                frame.page = -1;
+                throw ex;
+            }
+        }
+        frame.pins++;
+        return frame;
+    }
+
+    /**
+     * Pins a new page, zeroed and dirty, without reading the file.
+     * @param page the page number, past the end of the file.
+     * @return the frame holding the page.
+     * @throws IOException in the event of an error writing back the evicted page.
+     */
+    synchronized Frame pinNew(int page) throws IOException {
+        Frame frame = evict(page);
+        Arrays.fill(frame.buffer.array(), (byte) 0);
+        frame.dirty = true;
+        frame.pins++;
+        return frame;
+    }
+
+    /**
+     * @param frame a frame pinned by the caller.
+     * @param dirty true if the caller changed the page.
+     */
+    synchronized void unpin(Frame frame, boolean dirty) {
+        frame.pins--;
+        frame.dirty |= dirty;
+        frame.referenced = true;
+    }
+
+    /**
+     * @return the heap taken by the frames.
+     */
+    long memoryBytes() {
+        return (long) frames.length * pageSize;
+    }
+
+    private Frame cached(int page) {
+        long slot = pages.get(page);
+        return slot == LongLongMap.NO_VALUE ? null : frames[(int) slot];
+    }
+
+    private Frame evict(int page) throws IOException {
+        for (int sweeps = 0; sweeps < 2 * frames.length + 1; sweeps++) {
+            int slot = hand;
+            Frame frame = frames[slot];
+            hand = (hand + 1) % frames.length;
+            if (frame.pins > 0) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+            if (frame.page >= 0) {
+                if (frame.dirty) {
+                    write(frame);
+                }
+                pages.remove(frame.page);
+            }
+            frame.page = page;
+            frame.dirty = false;
+            pages.put(page, slot);
+            return frame;
+        }
+        throw new IOException("Every page of the cache is pinned");
+    }
+
+    /**
+     * Writes back every dirty page.
+     * @throws IOException in the event of an error writing a page.
+     */
+    synchronized void flush() throws IOException {
+        for (Frame frame : frames) {
+            if (frame.page >= 0 && frame.dirty) {
+                write(frame);
+                frame.dirty = false;
+            }
+        }
+    }
+
+    private void read(Frame frame) throws IOException {
+        ByteBuffer buffer = frame.buffer.duplicate().clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, (long) frame.page * pageSize + buffer.position()) < 0) {
+                Arrays.fill(frame.buffer.array(), buffer.position(), pageSize, (byte) 0);
+                return;
+            }
+        }
+    }
+
+    private void write(Frame frame) throws IOException {
+        ByteBuffer buffer = frame.buffer.duplicate().clear();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, (long) frame.page * pageSize + buffer.position());
+        }
+    }
+
+    /**
+     * A frame and the page it holds.
+     */
+    static final class Frame {
+
+        final ByteBuffer buffer;
+        private int page = -1;
+        private int pins;
+        private boolean dirty;
+        private boolean referenced;
+
+        private Frame(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import com.tiagodiogo.radicant.domain.CursorPage;
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.domain.RecordFilter;
+import com.tiagodiogo.radicant.domain.StorageStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IDatabase} spreading rows over a fixed amount of {@link PhoneBookDatabase} partition files by id hash.
+ * <p>
+ * Each partition has its own lock, index and writer thread, so writes to different partitions proceed in parallel and
+ * readers of a partition never wait for writers of another. The amount of partitions decides where each row lives,
+ * so it is recorded in a metadata file next to the partition files, and opening the directory with another amount
+ * fails rather than losing track of the rows.
+ */
+public class PartitionedPhoneBookDatabase implements IDatabase, Closeable {
+
+    private static final String DIRECTORY = "/tmp/phone-book-partitions";
+    private static final String PARTITION_FILE_NAME = "partition-%03d.csv";
+    private static final String PARTITION_FILE_GLOB = "partition-[0-9][0-9][0-9].csv";
+    private static final String METADATA_FILE_NAME = "partitions";
+    private static final Long SELECT_ALL = -1L;
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private final Logger log = LoggerFactory.getLogger(PartitionedPhoneBookDatabase.class);
+
+    private final PhoneBookDatabase[] partitions;
+
+    /**
+     * Opens the partitions in the default directory.
+     * @param storage the storage settings.
+     * @param meterRegistry the registry for the index metrics.
+     * @throws IOException in the event of an error creating or indexing the partition files.
+     */
+    public PartitionedPhoneBookDatabase(ApplicationProperties.Storage storage, MeterRegistry meterRegistry) throws IOException {
+        this(Paths.get(DIRECTORY), storage, meterRegistry);
+    }
+
+    /**
+     * Opens, creating them if needed, the {@code storage.partitions} partition files.
+     * @param directory the directory holding the partition files.
+     * @param storage the storage settings.
+     * @param meterRegistry the registry for the index metrics, tagged by partition.
+     * @throws IOException in the event of an error creating or indexing the partition files.
+     * @throws IllegalStateException if the directory holds another amount of partitions.
+     */
+    public PartitionedPhoneBookDatabase(Path directory, ApplicationProperties.Storage storage, MeterRegistry meterRegistry)
+        throws IOException {
+        if (storage.getPartitions() < 1) {
+            throw new IllegalArgumentException("At least one partition is required, got " + storage.getPartitions());
+        }
+        Files.createDirectories(directory);
+        checkPartitionCount(directory, storage.getPartitions());
+        partitions = new PhoneBookDatabase[storage.getPartitions()];
+        try {
+            for (int i = 0; i < partitions.length; i++) {
+                Path file = directory.resolve(String.format(PARTITION_FILE_NAME, i));
+                partitions[i] = new PhoneBookDatabase(file, storage, meterRegistry, Tags.of("partition", String.valueOf(i)));
+            }
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+        log.debug("Opened {} partitions in {}", partitions.length, directory);
+    }
+
+    /**
+     * Refuses to open a directory split into another amount of partitions, whose rows would then be looked up in the
+     * wrong partition, and records the amount of a new directory. Directories predating the metadata file tell their
+     * amount by their partition files, which are all created on open.
+     */
+    private static void checkPartitionCount(Path directory, int count) throws IOException {
+        Path metadata = directory.resolve(METADATA_FILE_NAME);
+        int existing;
+        if (Files.exists(metadata)) {
+            String recorded = Files.readString(metadata, StandardCharsets.UTF_8).trim();
+            try {
+                existing = Integer.parseInt(recorded);
+            } catch (NumberFormatException ex) {
+                throw new IllegalStateException("Invalid partition count in " + metadata + ": " + recorded, ex);
+            }
+        } else {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PARTITION_FILE_GLOB)) {
+                existing = 0;
+                for (Path ignored : files) {
+                    existing++;
+                }
+            }
+        }
+        if (existing != 0 && existing != count) {
+            throw new IllegalStateException(
+                "Directory " + directory + " is split into " + existing + " partitions, not " + count + ", so its rows cannot be found"
+            );
+        }
+        if (!Files.exists(metadata)) {
+            Path staged = directory.resolve(METADATA_FILE_NAME + ".tmp");
+            Files.writeString(staged, count + System.lineSeparator(), StandardCharsets.UTF_8);
+            Files.move(staged, metadata, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Fetches rows from the partition holding the received identifier, or from every partition.
+     * @param id can be either the row identifier or -1L representing a request to fetch all rows.
+     * @return a List of comma separated values, grouped by partition when fetching all rows.
+     */
+    @Override
+    public List<String> select(Long id) {
+        if (!id.equals(SELECT_ALL)) {
+            return partitionOf(id).select(id);
+        }
+        List<String> rows = new ArrayList<>();
+        scan(rows::add);
+        return rows;
+    }
+
+    /**
+     * Walks the rows of every partition in turn.
+     * @param visitor receives every row, grouped by partition.
+     */
+    @Override
+    public void scan(Consumer<String> visitor) {
+        for (PhoneBookDatabase partition : partitions) {
+            partition.scan(visitor);
+        }
+    }
+
+    /**
+     * Looks the candidates up by id when the filter allows, otherwise has every partition in turn test its rows on
+     * their raw bytes.
+     * @param filter the filter to match.
+     * @param visitor receives every matching row, grouped by partition unless looked up.
+     */
+    @Override
+    public void scan(RecordFilter filter, Consumer<String> visitor) {
+        List<String> candidates = filter.lookup(this::lookup);
+        if (candidates != null) {
+            candidates.stream().filter(filter::test).forEach(visitor);
+            return;
+        }
+        for (PhoneBookDatabase partition : partitions) {
+            partition.scan(filter, visitor);
+        }
+    }
+
+    /**
+     * Chains the streams of the partitions, each opened once the previous one is exhausted and closed right after.
+     * @return the stream of every row, grouped by partition.
+     */
+    @Override
+    public Stream<String> stream() {
+        return Stream.of(partitions).flatMap(PhoneBookDatabase::stream);
+    }
+
+    /**
+     * Copies the file of every partition in turn to the output.
+     * @param out the output, left open.
+     * @throws IOException in the event of an error reading a partition or writing the output.
+     */
+    @Override
+    public void exportCsv(OutputStream out) throws IOException {
+        for (PhoneBookDatabase partition : partitions) {
+            partition.exportCsv(out);
+        }
+    }
+
+    /**
+     * Reads a page of rows in id order, merging the pages of every partition after the same cursor, each one more row
+     * than the limit long to tell whether a next page follows.
+     * @param cursor the cursor of the page, or null for the first page.
+     * @param limit the maximum amount of rows of the page, at least 1.
+     * @return the rows of the page, with the cursor of the next page if more rows follow.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    @Override
+    public CursorPage<String> page(String cursor, int limit) {
+        List<Map.Entry<Long, String>> rows = new ArrayList<>();
+        for (PhoneBookDatabase partition : partitions) {
+            for (String row : partition.page(cursor, limit + 1).getItems()) {
+                rows.add(new AbstractMap.SimpleImmutableEntry<>(CsvRowFiles.idOf(row), row));
+            }
+        }
+        rows.sort(Map.Entry.comparingByKey());
+        return CursorPage.ofIds(rows.size() > limit + 1 ? rows.subList(0, limit + 1) : rows, limit);
+    }
+
+    /**
+     * Generates a unique identifier and persists a new row with it into the partition it hashes to.
+     * @param row the comma separated values representing a new row.
+     * @return the generated row identifier.
+     */
+    @Override
+    public Long insert(String row) {
+        long uniqueID = UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE;
+        return partitionOf(uniqueID).insert(uniqueID, row);
+    }
+
+    /**
+     * Generates a unique identifier for each row and appends the rows of each partition as one group commit.
+     * @param rows the comma separated values representing the new rows.
+     * @return the generated row identifiers.
+     */
+    @Override
+    public List<Long> insertAll(List<String> rows) {
+        List<Long> ids = new ArrayList<>(rows.size());
+        Map<PhoneBookDatabase, List<Long>> idsByPartition = new IdentityHashMap<>();
+        Map<PhoneBookDatabase, List<String>> rowsByPartition = new IdentityHashMap<>();
+        for (String row : rows) {
+            long uniqueID = UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE;
+            PhoneBookDatabase partition = partitionOf(uniqueID);
+            ids.add(uniqueID);
+            idsByPartition.computeIfAbsent(partition, key -> new ArrayList<>()).add(uniqueID);
+            rowsByPartition.computeIfAbsent(partition, key -> new ArrayList<>()).add(row);
+        }
+        idsByPartition.forEach((partition, partitionIds) -> partition.insertAll(partitionIds, rowsByPartition.get(partition)));
+        return ids;
+    }
+
+    /**
+     * Updates the row that matches the received identifier in its partition.
+     * @param id the row identifier.
+     * @param newRow the comma separated values to be persisted.
+     * @return true if the record was updated, false otherwise.
+     */
+    @Override
+    public boolean update(Long id, String newRow) {
+        return partitionOf(id).update(id, newRow);
+    }
+
+    /**
+     * Deletes the row that matches the received identifier from its partition.
+     * @param id the row identifier.
+     * @return true if the record was deleted, false otherwise.
+     */
+    @Override
+    public boolean delete(Long id) {
+        return partitionOf(id).delete(id);
+    }
+
+    /**
+     * Sums the figures of every partition.
+     * @return the current figures of the database.
+     */
+    @Override
+    public StorageStats stats() {
+        long rows = 0;
+        long bytesOnDisk = 0;
+        for (PhoneBookDatabase partition : partitions) {
+            StorageStats stats = partition.stats();
+            rows += stats.getRows();
+            bytesOnDisk += stats.getBytesOnDisk();
+        }
+        return new StorageStats(rows, bytesOnDisk);
+    }
+
+    /**
+     * Closes every open partition, even if closing one of them fails.
+     * @throws IOException the first error closing a partition.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (PhoneBookDatabase partition : partitions) {
+            if (partition == null) {
+                continue;
+            }
+            try {
+                partition.close();
+            } catch (IOException ex) {
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private PhoneBookDatabase partitionOf(long id) {
+        return partitions[(int) (((id * GOLDEN_RATIO) >>> 32) % partitions.length)];
+    }
+}
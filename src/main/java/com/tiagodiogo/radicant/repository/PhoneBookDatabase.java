@@ -1,51 +1,172 @@
 package com.tiagodiogo.radicant.repository;
 
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import com.tiagodiogo.radicant.domain.CursorPage;
 import com.tiagodiogo.radicant.domain.IDatabase;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import com.tiagodiogo.radicant.domain.RecordFilter;
+import com.tiagodiogo.radicant.domain.StorageException;
+import com.tiagodiogo.radicant.domain.StorageStats;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.stereotype.Repository;
 
-@Repository
-public class PhoneBookDatabase implements IDatabase {
+/**
+ * {@link IDatabase} backed by a single CSV file, with multi-version reads.
+ * <p>
+ * The file and its id index form a {@link Generation}. Inserts append to the current generation, while updates and
+ * deletes write the next generation to a new file, swapped in place of the current one once complete. Readers pin
+ * the generation current when they start and keep reading it, without locking, even if a rewrite replaces it
+ * meanwhile; a generation is closed once replaced and no longer pinned.
+ * <p>
+ * Each generation also keeps a bloom filter over its identifiers, so lookups, updates and deletes of unknown
+ * identifiers mostly end before reaching the index. The filter is built along with the generation, so rewrites shed
+ * the identifiers they drop, takes the identifiers of inserts, and is rebuilt twice as large whenever inserts outgrow it.
+ * <p>
+ * Pages come in id order, looked up in the index after the id carried by their cursor and read by offset, so cursors
+ * hold whatever rewrites or restarts happen in between.
+ */
+public class PhoneBookDatabase implements IDatabase, Closeable {
+
+    public static final String ID_FILTER_FALSE_POSITIVE_RATE_METER_NAME = "phonebook.storage.id-filter.false-positive-rate";
 
     private static final String FILE_NAME = "/tmp/phone-book.csv";
-    private static final String CSV_SEPARATOR = ",";
+    private static final String NEXT_GENERATION_SUFFIX = ".next";
+    private static final String INDEX_SUFFIX = ".idx";
     private static final Long SELECT_ALL = -1L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 16;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
 
     private final Logger log = LoggerFactory.getLogger(PhoneBookDatabase.class);
 
     private final Path filePath;
-    private final Lock readLock;
-    private final Lock writeLock;
+    private final Path nextGenerationPath;
+    // Guards the index of the current generation against the appends of the group commit writer
+    private final StampedLock lock = new StampedLock();
+    // Serializes the group commit writer batches and the rewrites
+    private final Lock writerLock = new ReentrantLock();
+    private final ApplicationProperties.Storage.FsyncPolicy fsyncPolicy;
+    private final ApplicationProperties.Storage.ScanMode scanMode;
+    private final int mmapChunkBytes;
+    private final ApplicationProperties.Storage.IndexType indexType;
+    private final int btreeCachePages;
+    private final int idFilterBitsPerKey;
+    private final DirectBufferPool bufferPool = new DirectBufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final GroupCommitWriter groupCommitWriter;
+    private volatile Generation current;
+    private volatile boolean closed;
 
     /**
-     * Initializes the read/write locks and ensures the target file exists.
+     * Opens the default CSV file.
+     * @param storage the storage settings.
+     * @param meterRegistry the registry for the index metrics.
      * @throws IOException in the event of an error creating the file.
      */
-    public PhoneBookDatabase() throws IOException {
-        filePath = Paths.get(FILE_NAME);
+    public PhoneBookDatabase(ApplicationProperties.Storage storage, MeterRegistry meterRegistry) throws IOException {
+        this(Paths.get(FILE_NAME), storage, meterRegistry, Tags.empty());
+    }
 
-        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-        readLock = lock.readLock();
-        writeLock = lock.writeLock();
+    /**
+     * Ensures the target file exists, drops any generation, or index file, left behind, opens the first generation
+     * with its id to byte offset index and starts the group commit writer.
+     * @param filePath the CSV file.
+     * @param storage the storage settings.
+     * @param meterRegistry the registry for the index metrics.
+     * @param tags the tags telling the metrics of this file apart from those of other files.
+     * @throws IOException in the event of an error creating the file.
+     */
+    public PhoneBookDatabase(Path filePath, ApplicationProperties.Storage storage, MeterRegistry meterRegistry, Iterable<Tag> tags)
+        throws IOException {
+        this.filePath = filePath;
+        this.nextGenerationPath = filePath.resolveSibling(filePath.getFileName() + NEXT_GENERATION_SUFFIX);
+        this.fsyncPolicy = storage.getFsync();
+        this.scanMode = storage.getScanMode();
+        this.mmapChunkBytes = storage.getMmapChunkBytes();
+        this.indexType = storage.getIndex();
+        this.btreeCachePages = storage.getBtreeCachePages();
+        this.idFilterBitsPerKey = storage.getIdFilterBitsPerKey();
 
         if (Files.notExists(filePath)) {
             Files.createFile(filePath);
         }
+        Files.deleteIfExists(nextGenerationPath);
+        deleteIndexFiles();
+        current = openGeneration(1, buildIndex());
+        Gauge
+            .builder(LongLongMap.BYTES_PER_ENTRY_METER_NAME, this, PhoneBookDatabase::indexBytesPerEntry)
+            .tags(tags)
+            .baseUnit("bytes")
+            .description("Memory taken by the id index for each record")
+            .register(meterRegistry);
+        Gauge
+            .builder(ID_FILTER_FALSE_POSITIVE_RATE_METER_NAME, this, PhoneBookDatabase::idFilterFalsePositiveRate)
+            .tags(tags)
+            .description("Estimated share of lookups of unknown ids the id bloom filter lets through to the index")
+            .register(meterRegistry);
+
+        groupCommitWriter =
+            new GroupCommitWriter(
+                "phone-book-csv-writer-" + filePath.getFileName(),
+                new GroupCommitWriter.Journal() {
+                    @Override
+                    public long position() {
+                        return current.size;
+                    }
+
+                    @Override
+                    public void append(ByteBuffer[] buffers) throws IOException {
+                        Generation generation = current;
+                        long size = generation.size;
+                        for (ByteBuffer buffer : buffers) {
+                            size += buffer.remaining();
+                        }
+                        GroupCommitWriter.writeFully(generation.appendChannel, buffers);
+                        generation.size = size;
+                    }
+
+                    @Override
+                    public void force() throws IOException {
+                        Generation generation = pin();
+                        try {
+                            generation.appendChannel.force(false);
+                        } finally {
+                            generation.release();
+                        }
+                    }
+                },
+                new BatchLock(),
+                storage.getFsync(),
+                storage.getFsyncIntervalMs()
+            );
     }
 
     /**
@@ -55,29 +176,229 @@ public class PhoneBookDatabase implements IDatabase {
      */
     @Override
     public List<String> select(Long id) {
+        if (!id.equals(SELECT_ALL)) {
+            return selectById(id);
+        }
         List<String> rows = new ArrayList<>();
+        scan(rows::add);
+        return rows;
+    }
 
-        readLock.lock();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath.toFile(), Charset.defaultCharset()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (id.equals(SELECT_ALL)) {
-                    rows.add(line);
+    /**
+     * Walks the rows of the current generation straight from the file, up to its size when the walk starts, without
+     * blocking writers.
+     * @param visitor receives every row.
+     */
+    @Override
+    public void scan(Consumer<String> visitor) {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            Generation generation = pin();
+            try {
+                long size = generation.size;
+                if (generation.mappedFile != null) {
+                    generation.mappedFile.scanRows(size, (offset, row) -> visitor.accept(row));
                 } else {
-                    String[] parts = line.split(CSV_SEPARATOR);
-                    if (Long.valueOf(parts[0]).equals(id)) {
-                        log.debug("Found existing record for id: {}", id);
-                        rows.add(line);
-                        return rows;
+                    CsvRowFiles.scanRows(generation.readChannel, buffer, size, (offset, row) -> visitor.accept(row));
+                }
+            } finally {
+                generation.release();
+            }
+        } catch (IOException ex) {
+            log.error(ex.getMessage(), ex);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Walks the rows of the current generation matching a filter, testing each on its raw bytes as read so only the
+     * matching rows are decoded, unless the filter allows looking its candidates up by id.
+     * @param filter the filter to match.
+     * @param visitor receives every matching row.
+     */
+    @Override
+    public void scan(RecordFilter filter, Consumer<String> visitor) {
+        List<String> candidates = filter.lookup(this::lookup);
+        if (candidates != null) {
+            candidates.stream().filter(filter::test).forEach(visitor);
+            return;
+        }
+        CsvRowFiles.RowBytesVisitor matcher = (offset, row, length) -> {
+            if (filter.test(row, 0, length)) {
+                visitor.accept(new String(row, 0, length, StandardCharsets.UTF_8));
+            }
+        };
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            Generation generation = pin();
+            try {
+                long size = generation.size;
+                if (generation.mappedFile != null) {
+                    generation.mappedFile.scanRowBytes(size, matcher);
+                } else {
+                    CsvRowFiles.scanRowBytes(generation.readChannel, buffer, size, matcher);
+                }
+            } finally {
+                generation.release();
+            }
+        } catch (IOException ex) {
+            log.error(ex.getMessage(), ex);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads the rows of the current generation lazily, up to its size when the stream is opened, holding one pooled
+     * buffer and a pin on the generation until the stream is closed. Unlike {@link #scan(Consumer)}, reads always go
+     * through the channel, whatever the scan mode.
+     * @return the stream of every row, empty if the repository is closed.
+     */
+    @Override
+    public Stream<String> stream() {
+        Generation generation;
+        try {
+            generation = pin();
+        } catch (ClosedChannelException ex) {
+            log.error("Failed to stream rows of {}: closed", filePath);
+            return Stream.empty();
+        }
+        ByteBuffer buffer = bufferPool.acquire();
+        return new CsvRowFiles.RowReader(generation.readChannel, buffer, generation.size)
+            .stream()
+            .onClose(() -> {
+                generation.release();
+                bufferPool.release(buffer);
+            });
+    }
+
+    /**
+     * Copies the current generation, up to its size when the export starts, straight from the file to the output
+     * through {@link FileChannel#transferTo}, without decoding any row. A last row missing its line terminator gets
+     * one, so exports can be concatenated.
+     * @param out the output, left open.
+     * @throws IOException in the event of an error reading the file or writing the output.
+     */
+    @Override
+    public void exportCsv(OutputStream out) throws IOException {
+        Generation generation = pin();
+        try {
+            WritableByteChannel target = Channels.newChannel(out);
+            long size = generation.size;
+            long position = 0;
+            while (position < size) {
+                long transferred = generation.readChannel.transferTo(position, size - position, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            if (position > 0 && generation.readChannel.read(last, position - 1) == 1 && last.get(0) != '\n') {
+                out.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            generation.release();
+        }
+    }
+
+    /**
+     * Reads a page of rows in id order, looking the ids after the cursor up in the index of the current generation,
+     * which seeks to them whether held in heap or paged from disk, and reading each row by its offset.
+     * @param cursor the cursor of the page, or null for the first page.
+     * @param limit the maximum amount of rows of the page, at least 1.
+     * @return the rows of the page, with the cursor of the next page if more rows follow.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    @Override
+    public CursorPage<String> page(String cursor, int limit) {
+        long after = CursorPage.lastId(cursor);
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            Generation generation = pin();
+            try {
+                long stamp = lock.readLock();
+                try {
+                    long[] ids = generation.index.idsAfter(after, limit + 1);
+                    List<Map.Entry<Long, String>> rows = new ArrayList<>(ids.length);
+                    for (long id : ids) {
+                        String row = CsvRowFiles.readRow(generation.readChannel, generation.index.get(id), buffer);
+                        rows.add(new AbstractMap.SimpleImmutableEntry<>(id, row));
                     }
+                    return CursorPage.ofIds(rows, limit);
+                } finally {
+                    lock.unlockRead(stamp);
                 }
+            } finally {
+                generation.release();
             }
         } catch (IOException ex) {
             log.error(ex.getMessage(), ex);
+            return new CursorPage<>(new ArrayList<>(), null);
         } finally {
-            readLock.unlock();
+            bufferPool.release(buffer);
         }
+    }
 
+    /**
+     * Looks a row up in the pinned generation without taking the lock, as an optimistic read validated once the row
+     * is read, when the index serves {@link RowIndex#getOptimistic(long) optimistic lookups}. Only when an append got
+     * in meanwhile, possibly leaving the index half changed, or the index is paged from disk, is the lookup done under
+     * the read lock.
+     * @param id the row identifier.
+     * @return the row, or an empty List if none matches the identifier.
+     */
+    private List<String> selectById(long id) {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            Generation generation = pin();
+            try {
+                long stamp = lock.tryOptimisticRead();
+                if (stamp != 0) {
+                    try {
+                        long offset = generation.mightContain(id) ? generation.index.getOptimistic(id) : LongLongMap.NO_VALUE;
+                        if (offset != RowIndex.RETRY) {
+                            String row = offset == LongLongMap.NO_VALUE ? null : CsvRowFiles.readRow(generation.readChannel, offset, buffer);
+                            if (lock.validate(stamp)) {
+                                return rowsOf(id, row);
+                            }
+                        }
+                    } catch (IOException | RuntimeException ex) {
+                        // Inconsistent reads are only possible with a concurrent append, caught by the locked retry
+                    }
+                }
+                stamp = lock.readLock();
+                try {
+                    return rowsOf(id, readById(generation, id, buffer));
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            } finally {
+                generation.release();
+            }
+        } catch (IOException ex) {
+            log.error(ex.getMessage(), ex);
+            return new ArrayList<>();
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private String readById(Generation generation, long id, ByteBuffer buffer) throws IOException {
+        if (!generation.mightContain(id)) {
+            return null;
+        }
+        long offset = generation.index.get(id);
+        return offset == LongLongMap.NO_VALUE ? null : CsvRowFiles.readRow(generation.readChannel, offset, buffer);
+    }
+
+    private List<String> rowsOf(long id, String row) {
+        List<String> rows = new ArrayList<>(1);
+        if (row != null) {
+            log.debug("Found existing record for id: {}", id);
+            rows.add(row);
+        }
         return rows;
     }
 
@@ -89,25 +410,74 @@ public class PhoneBookDatabase implements IDatabase {
     @Override
     public Long insert(String row) {
         // Handle unique id generation
-        Long uniqueID = UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE;
-        String[] parts = row.split(CSV_SEPARATOR);
-        parts[0] = String.valueOf(uniqueID);
-        row = String.join(CSV_SEPARATOR, parts);
+        return insert(UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE, row);
+    }
+
+    /**
+     * Persists a new row with an identifier generated by the caller into the CSV file.
+     * @param uniqueID the new row identifier.
+     * @param row the comma separated values representing a new row.
+     * @return the row identifier.
+     */
+    Long insert(long uniqueID, String row) {
+        String newRow = CsvRowFiles.withId(uniqueID, row);
 
         // Write to File
-        writeLock.lock();
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath.toFile(), Charset.defaultCharset(), true))) {
-            writer.write(row);
-            writer.newLine();
-            log.debug("Inserted new record: {}", row);
+        try {
+            groupCommitWriter.commit(appendMutation(uniqueID, newRow));
+            log.debug("Inserted new record: {}", newRow);
         } catch (IOException ex) {
-            log.error(ex.getMessage(), ex);
-        } finally {
-            writeLock.unlock();
+            throw new StorageException("Failed to insert record with id " + uniqueID, ex);
         }
         return uniqueID;
     }
 
+    /**
+     * Generates a unique identifier for each row and appends all of them to the CSV file as one group commit.
+     * @param rows the comma separated values representing the new rows.
+     * @return the generated row identifiers.
+     */
+    @Override
+    public List<Long> insertAll(List<String> rows) {
+        List<Long> ids = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            ids.add(UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE);
+        }
+        insertAll(ids, rows);
+        return ids;
+    }
+
+    /**
+     * Appends new rows with identifiers generated by the caller to the CSV file as one group commit.
+     * @param ids the new row identifiers.
+     * @param rows the comma separated values representing the new rows, in the order of the identifiers.
+     */
+    void insertAll(List<Long> ids, List<String> rows) {
+        List<GroupCommitWriter.Mutation> mutations = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            long uniqueID = ids.get(i);
+            String newRow = CsvRowFiles.withId(uniqueID, rows.get(i));
+            mutations.add(appendMutation(uniqueID, newRow));
+        }
+        try {
+            groupCommitWriter.commitAll(mutations);
+            log.debug("Inserted {} new records", ids.size());
+        } catch (IOException ex) {
+            throw new StorageException("Failed to insert " + ids.size() + " records", ex);
+        }
+    }
+
+    /**
+     * @return the mutation appending a row, indexed at its offset once appended.
+     */
+    private GroupCommitWriter.Mutation appendMutation(long id, String row) {
+        return GroupCommitWriter.mutation(
+            id,
+            offset -> (row + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+            (offset, bytes) -> current.put(id, offset)
+        );
+    }
+
     /**
      * Updates the row that matches the received identifier if one is found on the CSV file.
      * @param id the row identifier.
@@ -116,26 +486,9 @@ public class PhoneBookDatabase implements IDatabase {
      */
     @Override
     public boolean update(Long id, String newRow) {
-        List<String> entities = select(SELECT_ALL);
-        boolean updated = false;
-        writeLock.lock();
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath.toFile(), Charset.defaultCharset()))) {
-            for (String row : entities) {
-                String[] parts = row.split(CSV_SEPARATOR);
-                if (Long.valueOf(parts[0]).equals(id)) {
-                    String[] newParts = newRow.split(CSV_SEPARATOR);
-                    writer.write(id + "," + newParts[1] + "," + newParts[2] + "," + newParts[3]);
-                    updated = true;
-                    log.debug("Updated existing record with id: {}", id);
-                } else {
-                    writer.write(parts[0] + "," + parts[1] + "," + parts[2] + "," + parts[3]);
-                }
-                writer.newLine();
-            }
-        } catch (IOException ex) {
-            log.error(ex.getMessage(), ex);
-        } finally {
-            writeLock.unlock();
+        boolean updated = rewrite(id, CsvRowFiles.withId(id, newRow));
+        if (updated) {
+            log.debug("Updated existing record with id: {}", id);
         }
         return updated;
     }
@@ -147,25 +500,346 @@ public class PhoneBookDatabase implements IDatabase {
      */
     @Override
     public boolean delete(Long id) {
-        List<String> entities = select(SELECT_ALL);
-        boolean deleted = false;
-        writeLock.lock();
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath.toFile(), Charset.defaultCharset()))) {
-            for (String row : entities) {
-                String[] parts = row.split(CSV_SEPARATOR);
-                if (!Long.valueOf(parts[0]).equals(id)) {
-                    writer.write(parts[0] + "," + parts[1] + "," + parts[2] + "," + parts[3]);
-                    writer.newLine();
-                } else {
-                    deleted = true;
-                    log.debug("Deleted existing record with id: {}", id);
+        boolean deleted = rewrite(id, null);
+        if (deleted) {
+            log.debug("Deleted existing record with id: {}", id);
+        }
+        return deleted;
+    }
+
+    /**
+     * Waits for pending writes to be committed and releases the current generation, closed as soon as its last reader
+     * is done, and the buffers.
+     * @throws IOException in the event of an error closing the file.
+     */
+    @Override
+    public void close() throws IOException {
+        groupCommitWriter.close();
+        closed = true;
+        current.release();
+        bufferPool.close();
+    }
+
+    /**
+     * Counts the rows through the index, and the bytes through the size of the current generation.
+     * @return the current figures of the database.
+     */
+    @Override
+    public StorageStats stats() {
+        long stamp = lock.readLock();
+        try {
+            return new StorageStats(current.index.size(), current.size);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Memory taken by the id to byte offset index for each record.
+     * @return the amount of bytes, or zero while empty.
+     */
+    public double indexBytesPerEntry() {
+        long stamp = lock.readLock();
+        try {
+            return current.index.bytesPerEntry();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Share of lookups of unknown identifiers expected to get past the id filter, from the amount of identifiers in it.
+     * @return a value between 0 and 1, 1 when the filter is disabled.
+     */
+    public double idFilterFalsePositiveRate() {
+        long stamp = lock.readLock();
+        try {
+            Generation generation = current;
+            return generation.idFilter == null ? 1 : generation.idFilter.falsePositiveRate(generation.index.size());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Pins the current generation, which stays open until released.
+     * @return the pinned generation.
+     * @throws ClosedChannelException if the repository is closed.
+     */
+    private Generation pin() throws ClosedChannelException {
+        while (true) {
+            Generation generation = current;
+            if (generation.pin()) {
+                return generation;
+            }
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+
+    /**
+     * Writes the next generation of the CSV file, replacing, or dropping, the row that matches the received
+     * identifier, and swaps it in place of the current one. Holding the writer lock keeps the group commit writer from
+     * appending meanwhile, while readers carry on with the current generation.
+     * @param id the row identifier.
+     * @param replacement the row to write in its place, or null to drop it.
+     * @return true if the row was found, false otherwise.
+     */
+    private boolean rewrite(Long id, String replacement) {
+        writerLock.lock();
+        try {
+            Generation generation = current;
+            if (!generation.mightContain(id) || !generation.index.containsKey(id)) {
+                return false;
+            }
+            RowIndex.Builder index = indexBuilder(generation.number + 1, generation.index.size());
+            ByteBuffer buffer = bufferPool.acquire();
+            ByteBuffer staging = bufferPool.acquire();
+            long[] written = new long[1];
+            try (FileChannel channel = FileChannel.open(nextGenerationPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                CsvRowFiles.scanRows(
+                    generation.readChannel,
+                    buffer,
+                    generation.size,
+                    (offset, row) -> {
+                        long rowId = CsvRowFiles.idOf(row);
+                        String kept = rowId != id ? row : replacement;
+                        if (kept != null) {
+                            index.add(rowId, written[0]);
+                            written[0] += write(channel, kept, staging);
+                        }
+                    }
+                );
+                staging.flip();
+                GroupCommitWriter.writeFully(channel, new ByteBuffer[] { staging });
+                if (fsyncPolicy != ApplicationProperties.Storage.FsyncPolicy.NONE) {
+                    channel.force(false);
                 }
+            } finally {
+                bufferPool.release(staging);
+                bufferPool.release(buffer);
+            }
+            RowIndex nextIndex = index.build();
+            try {
+                Files.move(nextGenerationPath, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                current = openGeneration(generation.number + 1, nextIndex);
+            } catch (IOException ex) {
+                nextIndex.close();
+                throw ex;
             }
+            generation.release();
+            return true;
         } catch (IOException ex) {
             log.error(ex.getMessage(), ex);
+            try {
+                Files.deleteIfExists(nextGenerationPath);
+            } catch (IOException cleanupEx) {
+                log.warn("Failed to delete {}: {}", nextGenerationPath, cleanupEx.getMessage());
+            }
+            return false;
         } finally {
-            writeLock.unlock();
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Stages a row in the buffer, flushing it to the channel whenever it fills up.
+     * @param channel the channel to write to.
+     * @param row the row to write.
+     * @param buffer the staging buffer, in write mode.
+     * @return the amount of bytes taken by the row.
+     * @throws IOException in the event of an error writing the file.
+     */
+    private static int write(FileChannel channel, String row, ByteBuffer buffer) throws IOException {
+        byte[] bytes = (row + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > buffer.remaining()) {
+            buffer.flip();
+            GroupCommitWriter.writeFully(channel, new ByteBuffer[] { buffer, ByteBuffer.wrap(bytes) });
+            buffer.clear();
+        } else {
+            buffer.put(bytes);
+        }
+        return bytes.length;
+    }
+
+    /**
+     * Scans the CSV file once, mapping each row identifier to the byte offset where its row starts.
+     * @return the index.
+     * @throws IOException in the event of an error reading the file.
+     */
+    private RowIndex buildIndex() throws IOException {
+        RowIndex.Builder builder = indexBuilder(1, INITIAL_INDEX_CAPACITY);
+        ByteBuffer buffer = bufferPool.acquire();
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            CsvRowFiles.scanIds(channel, buffer, (id, offset, idOnly) -> builder.add(id, offset));
+        } finally {
+            bufferPool.release(buffer);
+        }
+        RowIndex index = builder.build();
+        log.debug("Indexed {} records from {}", index.size(), filePath);
+        return index;
+    }
+
+    /**
+     * @param generation the number of the generation to index.
+     * @param capacity the expected amount of rows.
+     * @return a builder of the index of the configured type, B+tree files being named after the generation.
+     */
+    private RowIndex.Builder indexBuilder(long generation, int capacity) {
+        if (indexType == ApplicationProperties.Storage.IndexType.BTREE) {
+            return BTreeIndex.builder(filePath.resolveSibling(filePath.getFileName() + "." + generation + INDEX_SUFFIX), btreeCachePages);
+        }
+        return RowIndex.inHeap(capacity);
+    }
+
+    /**
+     * Deletes the B+tree index files of past runs, always rebuilt on startup.
+     * @throws IOException in the event of an error listing or deleting the files.
+     */
+    private void deleteIndexFiles() throws IOException {
+        String prefix = filePath.getFileName() + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(filePath.toAbsolutePath().getParent(), prefix + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(INDEX_SUFFIX) || name.contains(INDEX_SUFFIX + ".run")) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills a bloom filter with the identifiers of an index, sized for twice as many so inserts have room to grow.
+     * @param index the index.
+     * @return the filter, or null if disabled.
+     * @throws IOException in the event of an error reading the index.
+     */
+    private BloomFilter buildIdFilter(RowIndex index) throws IOException {
+        if (idFilterBitsPerKey <= 0) {
+            return null;
+        }
+        BloomFilter filter = BloomFilter.forEntries(Math.max(INITIAL_INDEX_CAPACITY, 2L * index.size()), idFilterBitsPerKey);
+        index.forEachId(filter::put);
+        return filter;
+    }
+
+    private Generation openGeneration(long number, RowIndex index) throws IOException {
+        BloomFilter idFilter = buildIdFilter(index);
+        FileChannel readChannel = FileChannel.open(filePath, StandardOpenOption.READ);
+        try {
+            FileChannel appendChannel = FileChannel.open(filePath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            log.debug("Opened generation {} of {}", number, filePath);
+            return new Generation(number, readChannel, appendChannel, index, idFilter);
+        } catch (IOException ex) {
+            readChannel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * A version of the CSV file and its index. Only the current generation grows, through appends; once replaced it
+     * never changes again. Counts one reference for being current plus one per pinning reader.
+     */
+    private final class Generation {
+
+        private final long number;
+        private final FileChannel readChannel;
+        private final FileChannel appendChannel;
+        private final RowIndex index;
+        private final MappedCsvFile mappedFile;
+        // Replaced under the write lock once outgrown, null if disabled
+        private BloomFilter idFilter;
+        private long idFilterCapacity;
+        private final AtomicInteger references = new AtomicInteger(1);
+        // Bytes of complete rows, written by the group commit writer after each append
+        private volatile long size;
+
+        private Generation(long number, FileChannel readChannel, FileChannel appendChannel, RowIndex index, BloomFilter idFilter)
+            throws IOException {
+            this.number = number;
+            this.readChannel = readChannel;
+            this.appendChannel = appendChannel;
+            this.index = index;
+            this.idFilter = idFilter;
+            this.idFilterCapacity = Math.max(INITIAL_INDEX_CAPACITY, 2L * index.size());
+            this.mappedFile = scanMode == ApplicationProperties.Storage.ScanMode.MMAP ? new MappedCsvFile(readChannel, mmapChunkBytes) : null;
+            this.size = readChannel.size();
+        }
+
+        /**
+         * @param id the row identifier.
+         * @return false if the identifier is surely not indexed, true if it might be.
+         */
+        private boolean mightContain(long id) {
+            BloomFilter filter = idFilter;
+            return filter == null || filter.mightContain(id);
+        }
+
+        /**
+         * Indexes an appended row and adds its identifier to the filter, rebuilding the filter once it holds more
+         * identifiers than it was sized for. Called with the write lock held.
+         */
+        private void put(long id, long offset) throws IOException {
+            index.put(id, offset);
+            if (idFilter == null) {
+                return;
+            }
+            if (index.size() > idFilterCapacity) {
+                idFilter = buildIdFilter(index);
+                idFilterCapacity = 2L * index.size();
+            } else {
+                idFilter.put(id);
+            }
+        }
+
+        /**
+         * @return true if pinned, false if the generation was already closed.
+         */
+        private boolean pin() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() > 0) {
+                return;
+            }
+            try {
+                appendChannel.close();
+                readChannel.close();
+                index.close();
+                log.debug("Closed generation {} of {}", number, filePath);
+            } catch (IOException ex) {
+                log.warn("Failed to close generation {} of {}: {}", number, filePath, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The lock held by the group commit writer for each batch: the writer lock, so no rewrite runs meanwhile, then the
+     * write side of the stamped lock, so lookups see the index change.
+     */
+    private final class BatchLock implements GroupCommitWriter.EngineLock {
+
+        private long stamp;
+
+        @Override
+        public void lock() {
+            writerLock.lock();
+            stamp = lock.writeLock();
+        }
+
+        @Override
+        public void unlock() {
+            lock.unlockWrite(stamp);
+            writerLock.unlock();
         }
-        return deleted;
     }
 }
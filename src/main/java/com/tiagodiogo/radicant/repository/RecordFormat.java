@@ -0,0 +1,98 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * How the rows of a log segment file are laid out. Rows cross this boundary as the comma separated values of the
+ * {@link com.tiagodiogo.radicant.domain.IDatabase} contract, whatever the layout on disk.
+ */
+interface RecordFormat {
+    /**
+     * @param storage the storage settings.
+     * @return the configured implementation, always binary for the {@code BINARY_LOG} engine.
+     */
+    static RecordFormat of(ApplicationProperties.Storage storage) {
+        boolean binary =
+            storage.getEngine() == ApplicationProperties.Storage.Engine.BINARY_LOG ||
+            storage.getRecordFormat() == ApplicationProperties.Storage.RecordFormat.BINARY;
+        return binary ? BinaryRecordFormat.INSTANCE : CsvRecordFormat.INSTANCE;
+    }
+
+    /**
+     * @return the file name suffix of the segments holding this format, telling them apart from other formats.
+     */
+    String segmentSuffix();
+
+    /**
+     * Scans the whole file, reading only the identifier of each record.
+     * @param file the file to scan.
+     * @param visitor receives the identifier and offset of every record, flagged when it is a tombstone.
+     * @return the amount of bytes taken by complete records, less than the file size if it ends with a torn write.
+     * @throws IOException in the event of an error reading the file.
+     */
+    long scanIds(Path file, CsvRowFiles.RowIdVisitor visitor) throws IOException;
+
+    /**
+     * Scans the whole file, decoding every record, tombstones as a row holding only the identifier.
+     * @param file the file to scan.
+     * @param visitor receives the offset and row of every record, in file order.
+     * @return the amount of bytes taken by complete records, less than the file size if it ends with a torn write.
+     * @throws IOException in the event of an error reading the file.
+     */
+    long scanRows(Path file, CsvRowFiles.RowVisitor visitor) throws IOException;
+
+    /**
+     * Reads the single record starting at the received byte offset, through positional reads only, so a single
+     * channel can serve concurrent callers.
+     * @param channel the channel to read from.
+     * @param offset the byte offset of the record.
+     * @return the row.
+     * @throws IOException in the event of an error reading the channel.
+     */
+    String readRow(FileChannel channel, long offset) throws IOException;
+
+    /**
+     * Opens a pull based reader over the records of the start of a channel, through positional reads only.
+     * @param channel the channel to read.
+     * @param size the amount of bytes to read, so records appended meanwhile are left out.
+     * @return the reader, positioned before the first record.
+     */
+    Reader reader(FileChannel channel, long size);
+
+    /**
+     * @param row the comma separated values of a row.
+     * @return the record holding the row.
+     */
+    byte[] encode(String row);
+
+    /**
+     * @param id the identifier of the deleted row.
+     * @return the record marking the row as deleted.
+     */
+    byte[] encodeTombstone(long id);
+
+    /**
+     * Reads records one at a time, as they are asked for.
+     */
+    interface Reader {
+        /**
+         * Moves to the next record.
+         * @return false once no complete record remains.
+         * @throws IOException in the event of an error reading the channel.
+         */
+        boolean next() throws IOException;
+
+        /**
+         * @return the byte offset of the current record.
+         */
+        long offset();
+
+        /**
+         * @return the current record, tombstones as a row holding only the identifier.
+         */
+        String row();
+    }
+}
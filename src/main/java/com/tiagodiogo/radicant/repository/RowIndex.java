@@ -0,0 +1,98 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+/**
+ * Id to byte offset index of a file of rows, either held in heap or paged from disk.
+ * <p>
+ * Not thread safe: lookups may run concurrently with each other, but not with a mutation.
+ */
+interface RowIndex extends Closeable {
+    /**
+     * Returned by {@link #getOptimistic(long)} when the lookup needs the lock.
+     */
+    long RETRY = Long.MIN_VALUE;
+
+    /**
+     * @param id the row identifier.
+     * @return the offset of the row, or {@link LongLongMap#NO_VALUE}.
+     * @throws IOException in the event of an error reading the index.
+     */
+    long get(long id) throws IOException;
+
+    boolean containsKey(long id) throws IOException;
+
+    /**
+     * Looks the identifier up while a mutation may be running, for optimistic reads validated afterwards. The result
+     * may then be wrong, but the lookup never blocks, loops forever nor fails.
+     * @param id the row identifier.
+     * @return the offset of the row, {@link LongLongMap#NO_VALUE}, or {@link #RETRY} if the lookup needs the lock, as
+     * it always does for indexes paged from disk.
+     */
+    default long getOptimistic(long id) {
+        return RETRY;
+    }
+
+    /**
+     * @param id the row identifier.
+     * @param offset the offset of the row.
+     * @return the previous offset of the row, or {@link LongLongMap#NO_VALUE}.
+     * @throws IOException in the event of an error writing the index.
+     */
+    long put(long id, long offset) throws IOException;
+
+    int size();
+
+    /**
+     * @param visitor receives the identifier of every entry, in no particular order.
+     * @throws IOException in the event of an error reading the index.
+     */
+    void forEachId(LongConsumer visitor) throws IOException;
+
+    /**
+     * Seeks to the lowest identifiers after one, for pages in id order, without walking the identifiers before them.
+     * @param after the identifier to start after.
+     * @param limit the maximum amount of identifiers.
+     * @return the identifiers greater than the received one, in ascending order, at most limit of them.
+     * @throws IOException in the event of an error reading the index.
+     */
+    long[] idsAfter(long after, int limit) throws IOException;
+
+    /**
+     * @return the heap taken by the index for each entry, or zero while empty.
+     */
+    double bytesPerEntry();
+
+    @Override
+    default void close() throws IOException {}
+
+    /**
+     * Builds an index from the entries of a full scan, in any order.
+     */
+    interface Builder {
+        void add(long id, long offset) throws IOException;
+
+        RowIndex build() throws IOException;
+    }
+
+    /**
+     * @param capacity the expected amount of entries.
+     * @return a builder of an index held in heap, see {@link HeapIndex}.
+     */
+    static Builder inHeap(int capacity) {
+        HeapIndex index = new HeapIndex(capacity);
+        return new Builder() {
+            @Override
+            public void add(long id, long offset) {
+                index.put(id, offset);
+            }
+
+            @Override
+            public RowIndex build() {
+                return index;
+            }
+        };
+    }
+}
@@ -0,0 +1,158 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.domain.NameSuggestion;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import com.tiagodiogo.radicant.domain.PhoneBookRecordCodec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IDatabase} keeping a {@link TrigramIndex} over the name and email of every row in front of any engine, so
+ * substring searches look up a few candidates by id instead of scanning.
+ * <p>
+ * The index is filled by a scan on startup and then follows the writes made through this class; updates and deletes
+ * are serialized, so the index takes them in the order the engine does.
+ */
+public class SearchIndexedDatabase extends ForwardingDatabase {
+
+    private final Logger log = LoggerFactory.getLogger(SearchIndexedDatabase.class);
+
+    private final TrigramIndex index = new TrigramIndex();
+    private final Lock readLock;
+    private final Lock writeLock;
+    private final Lock rewriteLock = new ReentrantLock();
+
+    /**
+     * Indexes the names and emails of every row of the engine.
+     * @param delegate the engine holding the rows.
+     */
+    public SearchIndexedDatabase(IDatabase delegate) {
+        super(delegate);
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        readLock = lock.readLock();
+        writeLock = lock.writeLock();
+        delegate.scan(row -> {
+            PhoneBookRecord record;
+            try {
+                record = PhoneBookRecordCodec.decode(row);
+            } catch (IllegalArgumentException ex) {
+                log.warn("Skipped indexing a malformed row for search: {}", ex.getMessage());
+                return;
+            }
+            index.put(record.getId(), record.getName(), record.getEmail());
+        });
+        log.debug("Indexed {} records for search in {} bytes of postings", index.size(), index.postingBytes());
+    }
+
+    /**
+     * Walks the candidates holding every trigram of the text in the index, keeping those whose stored row contains it,
+     * and stops the intersection as soon as limit rows are kept. The rows are read under the read lock of the index,
+     * which holds off index updates only, not the writes to the engine.
+     * @param text the text to look for.
+     * @param limit the maximum amount of rows.
+     * @return the matching rows, in index order.
+     */
+    @Override
+    public List<String> search(String text, int limit) {
+        String needle = NameSuggestion.normalize(text);
+        if (needle.length() < TrigramIndex.GRAM_LENGTH) {
+            return delegate.search(text, limit);
+        }
+        List<String> rows = new ArrayList<>();
+        if (limit <= 0) {
+            return rows;
+        }
+        readLock.lock();
+        try {
+            index.forEachCandidate(
+                needle,
+                id -> {
+                    for (String row : delegate.select(id)) {
+                        if (contains(PhoneBookRecordCodec.decode(row), needle)) {
+                            rows.add(row);
+                        }
+                    }
+                    return rows.size() < limit;
+                }
+            );
+        } finally {
+            readLock.unlock();
+        }
+        return rows;
+    }
+
+    @Override
+    public Long insert(String row) {
+        Long id = delegate.insert(row);
+        add(id, row);
+        return id;
+    }
+
+    @Override
+    public List<Long> insertAll(List<String> rows) {
+        List<Long> ids = delegate.insertAll(rows);
+        for (int i = 0; i < ids.size(); i++) {
+            add(ids.get(i), rows.get(i));
+        }
+        return ids;
+    }
+
+    @Override
+    public boolean update(Long id, String newRow) {
+        rewriteLock.lock();
+        try {
+            if (!delegate.update(id, newRow)) {
+                return false;
+            }
+            add(id, newRow);
+            return true;
+        } finally {
+            rewriteLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(Long id) {
+        rewriteLock.lock();
+        try {
+            if (!delegate.delete(id)) {
+                return false;
+            }
+            writeLock.lock();
+            try {
+                index.remove(id);
+            } finally {
+                writeLock.unlock();
+            }
+            return true;
+        } finally {
+            rewriteLock.unlock();
+        }
+    }
+
+    /**
+     * Indexes the row under its identifier, replacing what was indexed for it before.
+     */
+    private void add(long id, String row) {
+        PhoneBookRecord record = PhoneBookRecordCodec.decode(row);
+        writeLock.lock();
+        try {
+            index.put(id, record.getName(), record.getEmail());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static boolean contains(PhoneBookRecord record, String needle) {
+        return (
+            (record.getName() != null && NameSuggestion.normalize(record.getName()).contains(needle)) ||
+            (record.getEmail() != null && NameSuggestion.normalize(record.getEmail()).contains(needle))
+        );
+    }
+}
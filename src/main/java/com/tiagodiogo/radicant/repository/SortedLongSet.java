@@ -0,0 +1,194 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Sorted set of primitive {@code long} values, kept in chunks of up to {@value #CHUNK_SIZE} sorted values found
+ * through a binary search over the first value of every chunk.
+ * <p>
+ * Adding or removing a value moves at most one chunk, and listing the values after one costs two binary searches
+ * before copying them out, so pages in id order never walk the ids before the page. Chunks split in halves once full
+ * and merge with the next one once both fit in half a chunk.
+ * <p>
+ * Not thread safe.
+ */
+final class SortedLongSet {
+
+    static final int CHUNK_SIZE = 512;
+
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private long[][] chunks = new long[4][];
+    private int[] sizes = new int[4];
+    private long[] firsts = new long[4];
+    private int chunkCount;
+    private int size;
+
+    /**
+     * @param value the value.
+     * @return true if added, false if already present.
+     */
+    boolean add(long value) {
+        if (chunkCount == 0) {
+            insertChunk(0, new long[CHUNK_SIZE], 0);
+        }
+        int chunk = chunkOf(value);
+        int position = Arrays.binarySearch(chunks[chunk], 0, sizes[chunk], value);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+        if (sizes[chunk] == CHUNK_SIZE) {
+            split(chunk);
+            if (position > CHUNK_SIZE / 2) {
+                chunk++;
+                position -= CHUNK_SIZE / 2;
+            }
+        }
+        long[] values = chunks[chunk];
+        System.arraycopy(values, position, values, position + 1, sizes[chunk] - position);
+        values[position] = value;
+        sizes[chunk]++;
+        firsts[chunk] = values[0];
+        size++;
+        return true;
+    }
+
+    /**
+     * @param value the value.
+     * @return true if removed, false if absent.
+     */
+    boolean remove(long value) {
+        if (chunkCount == 0) {
+            return false;
+        }
+        int chunk = chunkOf(value);
+        int position = Arrays.binarySearch(chunks[chunk], 0, sizes[chunk], value);
+        if (position < 0) {
+            return false;
+        }
+        long[] values = chunks[chunk];
+        System.arraycopy(values, position + 1, values, position, sizes[chunk] - position - 1);
+        sizes[chunk]--;
+        size--;
+        if (sizes[chunk] == 0) {
+            removeChunk(chunk);
+            return true;
+        }
+        firsts[chunk] = values[0];
+        if (chunk + 1 < chunkCount && sizes[chunk] + sizes[chunk + 1] <= CHUNK_SIZE / 2) {
+            System.arraycopy(chunks[chunk + 1], 0, values, sizes[chunk], sizes[chunk + 1]);
+            sizes[chunk] += sizes[chunk + 1];
+            removeChunk(chunk + 1);
+        }
+        return true;
+    }
+
+    boolean contains(long value) {
+        if (chunkCount == 0) {
+            return false;
+        }
+        int chunk = chunkOf(value);
+        return Arrays.binarySearch(chunks[chunk], 0, sizes[chunk], value) >= 0;
+    }
+
+    /**
+     * Seeks to the first value greater than the received one and copies the values from there on.
+     * @param after the value to start after.
+     * @param limit the maximum amount of values.
+     * @return the values greater than the received one, in ascending order, at most limit of them.
+     */
+    long[] after(long after, int limit) {
+        long[] values = new long[Math.min(limit, size)];
+        if (chunkCount == 0 || values.length == 0) {
+            return values;
+        }
+        int chunk = chunkOf(after);
+        int position = Arrays.binarySearch(chunks[chunk], 0, sizes[chunk], after);
+        position = position >= 0 ? position + 1 : -position - 1;
+        int count = 0;
+        for (; chunk < chunkCount && count < values.length; chunk++, position = 0) {
+            int copied = Math.min(sizes[chunk] - position, values.length - count);
+            System.arraycopy(chunks[chunk], position, values, count, copied);
+            count += copied;
+        }
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    /**
+     * @param visitor receives every value, in ascending order.
+     */
+    void forEach(LongConsumer visitor) {
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            long[] values = chunks[chunk];
+            for (int i = 0; i < sizes[chunk]; i++) {
+                visitor.accept(values[i]);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(chunks, 0, chunkCount, null);
+        chunkCount = 0;
+        size = 0;
+    }
+
+    /**
+     * @return the bytes taken by the chunks and the arrays locating them.
+     */
+    long memoryBytes() {
+        long bytes = 3L * ARRAY_HEADER_BYTES + (long) chunks.length * (Long.BYTES + Integer.BYTES + Long.BYTES);
+        return bytes + chunkCount * (ARRAY_HEADER_BYTES + (long) CHUNK_SIZE * Long.BYTES);
+    }
+
+    /**
+     * @return the last chunk whose first value is not greater than the received one, or the first chunk.
+     */
+    private int chunkOf(long value) {
+        int low = 1;
+        int high = chunkCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (firsts[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low - 1;
+    }
+
+    private void split(int chunk) {
+        long[] upper = new long[CHUNK_SIZE];
+        System.arraycopy(chunks[chunk], CHUNK_SIZE / 2, upper, 0, CHUNK_SIZE / 2);
+        sizes[chunk] = CHUNK_SIZE / 2;
+        insertChunk(chunk + 1, upper, CHUNK_SIZE / 2);
+    }
+
+    private void insertChunk(int chunk, long[] values, int count) {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            sizes = Arrays.copyOf(sizes, chunkCount * 2);
+            firsts = Arrays.copyOf(firsts, chunkCount * 2);
+        }
+        System.arraycopy(chunks, chunk, chunks, chunk + 1, chunkCount - chunk);
+        System.arraycopy(sizes, chunk, sizes, chunk + 1, chunkCount - chunk);
+        System.arraycopy(firsts, chunk, firsts, chunk + 1, chunkCount - chunk);
+        chunks[chunk] = values;
+        sizes[chunk] = count;
+        firsts[chunk] = values[0];
+        chunkCount++;
+    }
+
+    private void removeChunk(int chunk) {
+        System.arraycopy(chunks, chunk + 1, chunks, chunk, chunkCount - chunk - 1);
+        System.arraycopy(sizes, chunk + 1, sizes, chunk, chunkCount - chunk - 1);
+        System.arraycopy(firsts, chunk + 1, firsts, chunk, chunkCount - chunk - 1);
+        chunks[--chunkCount] = null;
+    }
+}
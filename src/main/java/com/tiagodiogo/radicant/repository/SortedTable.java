@@ -0,0 +1,398 @@
+package com.tiagodiogo.radicant.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable file of rows sorted by identifier, written once by a flush or a merge of the {@link LsmDatabase}.
+ * <pre>
+ * records       binary records in identifier order, see {@link BinaryRecordFormat}, tombstones included
+ * sparse index  int64 first id, int64 offset, for each block of about {@code index-interval-bytes} of records
+ * bloom filter  int64 words over the identifiers of all records
+ * footer        int64 index offset, int32 index entries, int32 bloom words, int32 bloom hashes, int64 min id,
+ *               int64 max id, int64 records, int32 magic
+ * </pre>
+ * The sparse index and the bloom filter are held in memory while the table is open, so a lookup of an identifier
+ * the filter rules out does no I/O, and any other lookup reads a single block.
+ * <p>
+ * The view of the database holds a reference to each of its tables, and readers pin the tables they walk with one
+ * more, so a table merged away is only closed, and its file deleted, once the last reader releases it.
+ */
+final class SortedTable implements Closeable {
+
+    static final String SUFFIX = ".sst";
+    /**
+     * Value of an identifier deleted by a tombstone, told apart from a row as rows are never empty.
+     */
+    static final String TOMBSTONE = "";
+
+    private static final int MAGIC = 0x5354424C;
+    private static final int FOOTER_BYTES = 4 * Long.BYTES + 4 * Integer.BYTES;
+    private static final int INDEX_ENTRY_BYTES = 2 * Long.BYTES;
+
+    private final long sequence;
+    private final Path path;
+    private final FileChannel channel;
+    private final long[] indexIds;
+    private final long[] indexOffsets;
+    private final long recordsEnd;
+    private final BloomFilter bloomFilter;
+    private final long minId;
+    private final long maxId;
+    private final long records;
+    private final long sizeBytes;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile boolean obsolete;
+
+    private SortedTable(long sequence, Path path, FileChannel channel) throws IOException {
+        this.sequence = sequence;
+        this.path = path;
+        this.channel = channel;
+        this.sizeBytes = channel.size();
+        ByteBuffer footer = read(sizeBytes - FOOTER_BYTES, FOOTER_BYTES);
+        recordsEnd = footer.getLong();
+        int indexEntries = footer.getInt();
+        int bloomWords = footer.getInt();
+        int bloomHashes = footer.getInt();
+        minId = footer.getLong();
+        maxId = footer.getLong();
+        records = footer.getLong();
+        if (footer.getInt() != MAGIC) {
+            throw new IOException("Not a sorted table: " + path);
+        }
+        ByteBuffer metadata = read(recordsEnd, indexEntries * INDEX_ENTRY_BYTES + bloomWords * Long.BYTES);
+        indexIds = new long[indexEntries];
+        indexOffsets = new long[indexEntries];
+        for (int i = 0; i < indexEntries; i++) {
+            indexIds[i] = metadata.getLong();
+            indexOffsets[i] = metadata.getLong();
+        }
+        long[] words = new long[bloomWords];
+        metadata.asLongBuffer().get(words);
+        bloomFilter = new BloomFilter(words, bloomHashes);
+    }
+
+    /**
+     * @param sequence the sequence the table was written with, ordering it among the tables of level 0.
+     * @param path the table file.
+     * @return the open table.
+     * @throws IOException in the event of an error reading the index, filter or footer.
+     */
+    static SortedTable open(long sequence, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new SortedTable(sequence, path, channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Looks an identifier up, ruling it out through the bloom filter and the identifier range before any read.
+     * @param id the row identifier.
+     * @return the row, {@link #TOMBSTONE} if the table deletes it, or null if the table knows nothing about it.
+     * @throws IOException in the event of an error reading the block.
+     */
+    String get(long id) throws IOException {
+        if (records == 0 || id < minId || id > maxId || !bloomFilter.mightContain(id)) {
+            return null;
+        }
+        int block = Arrays.binarySearch(indexIds, id);
+        if (block < 0) {
+            block = -block - 2;
+        }
+        ByteBuffer buffer = readBlock(block);
+        int start = 0;
+        while (start < buffer.limit()) {
+            long recordId = BinaryRecordFormat.idOf(buffer, start);
+            if (recordId == id) {
+                return BinaryRecordFormat.isTombstone(buffer, start) ? TOMBSTONE : BinaryRecordFormat.decode(buffer, start);
+            }
+            if (recordId > id) {
+                break;
+            }
+            start += BinaryRecordFormat.recordBytes(buffer, start);
+        }
+        return null;
+    }
+
+    /**
+     * @return a cursor over all records, in identifier order, reading one block at a time.
+     */
+    Cursor cursor() {
+        return cursor(Long.MIN_VALUE);
+    }
+
+    /**
+     * Seeks through the sparse index to the block holding the first identifier after the received one, so the blocks
+     * before it are never read.
+     * @param after the identifier to start after.
+     * @return a cursor over the records after the identifier, in identifier order, reading one block at a time.
+     */
+    Cursor cursor(long after) {
+        int first = Arrays.binarySearch(indexIds, after);
+        int firstBlock = first >= 0 ? first : Math.max(-first - 2, 0);
+        return new Cursor() {
+            private int block = firstBlock - 1;
+            private ByteBuffer buffer = ByteBuffer.allocate(0);
+            private int start;
+            private int next;
+
+            @Override
+            public boolean next() throws IOException {
+                do {
+                    while (next >= buffer.limit()) {
+                        if (++block >= indexIds.length) {
+                            return false;
+                        }
+                        buffer = readBlock(block);
+                        next = 0;
+                    }
+                    start = next;
+                    next += BinaryRecordFormat.recordBytes(buffer, start);
+                } while (BinaryRecordFormat.idOf(buffer, start) <= after);
+                return true;
+            }
+
+            @Override
+            public long id() {
+                return BinaryRecordFormat.idOf(buffer, start);
+            }
+
+            @Override
+            public String row() throws IOException {
+                return BinaryRecordFormat.isTombstone(buffer, start) ? TOMBSTONE : BinaryRecordFormat.decode(buffer, start);
+            }
+        };
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long minId() {
+        return minId;
+    }
+
+    long maxId() {
+        return maxId;
+    }
+
+    long records() {
+        return records;
+    }
+
+    long sizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * @param other another table.
+     * @return true if the identifier ranges of both tables intersect.
+     */
+    boolean overlaps(SortedTable other) {
+        return minId <= other.maxId && other.minId <= maxId;
+    }
+
+    /**
+     * Pins the table for a reader, which must {@link #release()} it. Only called for tables of the current view, under
+     * the view lock, so the view still holds its own reference.
+     */
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Drops a reference, closing the table once none is left, and deleting its file if it was merged away.
+     * @throws IOException in the event of an error closing or deleting the file.
+     */
+    void release() throws IOException {
+        if (references.decrementAndGet() == 0) {
+            channel.close();
+            if (obsolete) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Drops the reference of the view, once the table is no longer part of it, deleting the file along with the last
+     * reference.
+     * @throws IOException in the event of an error closing or deleting the file.
+     */
+    void retire() throws IOException {
+        obsolete = true;
+        release();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer readBlock(int block) throws IOException {
+        long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : recordsEnd;
+        return read(indexOffsets[block], (int) (end - indexOffsets[block]));
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of table " + path);
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Rows in identifier order.
+     */
+    interface Cursor {
+        /**
+         * Moves to the next row.
+         * @return false once every row was visited.
+         * @throws IOException in the event of an error reading the rows.
+         */
+        boolean next() throws IOException;
+
+        long id();
+
+        /**
+         * @return the row, or {@link #TOMBSTONE} for a deleted identifier.
+         * @throws IOException in the event of an error decoding the row.
+         */
+        String row() throws IOException;
+    }
+
+    /**
+     * Writes a table to a temporary file, then moves it in place once complete and forced to disk.
+     */
+    static final class Writer implements Closeable {
+
+        private final Path path;
+        private final Path tmp;
+        private final OutputStream out;
+        private final int indexIntervalBytes;
+        private final int bloomBitsPerKey;
+        private long[] ids = new long[1024];
+        private long[] indexIds = new long[64];
+        private long[] indexOffsets = new long[64];
+        private int indexEntries;
+        private long records;
+        private long position;
+        private long blockStart = Long.MIN_VALUE;
+
+        /**
+         * @param path the table file to write.
+         * @param indexIntervalBytes the amount of record bytes covered by each sparse index entry.
+         * @param bloomBitsPerKey the bloom filter bits to spend per identifier.
+         * @throws IOException in the event of an error creating the temporary file.
+         */
+        Writer(Path path, int indexIntervalBytes, int bloomBitsPerKey) throws IOException {
+            this.path = path;
+            this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            this.out = new BufferedOutputStream(Files.newOutputStream(tmp));
+            this.indexIntervalBytes = indexIntervalBytes;
+            this.bloomBitsPerKey = bloomBitsPerKey;
+        }
+
+        /**
+         * Appends a row, which must come after every row added so far in identifier order.
+         * @param id the row identifier.
+         * @param row the row, or {@link #TOMBSTONE}.
+         * @throws IOException in the event of an error writing the record.
+         */
+        void add(long id, String row) throws IOException {
+            if (position - blockStart >= indexIntervalBytes || indexEntries == 0) {
+                if (indexEntries == indexIds.length) {
+                    indexIds = Arrays.copyOf(indexIds, indexEntries * 2);
+                    indexOffsets = Arrays.copyOf(indexOffsets, indexEntries * 2);
+                }
+                indexIds[indexEntries] = id;
+                indexOffsets[indexEntries++] = position;
+                blockStart = position;
+            }
+            if (records == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+            ids[(int) records++] = id;
+            byte[] record = row.isEmpty() ? BinaryRecordFormat.INSTANCE.encodeTombstone(id) : BinaryRecordFormat.INSTANCE.encode(row);
+            out.write(record);
+            position += record.length;
+        }
+
+        /**
+         * @return the amount of bytes of records written so far.
+         */
+        long position() {
+            return position;
+        }
+
+        long records() {
+            return records;
+        }
+
+        /**
+         * Writes the sparse index, the bloom filter and the footer, forces the file and moves it in place.
+         * @param sequence the sequence of the table.
+         * @return the table, open for reading.
+         * @throws IOException in the event of an error writing, forcing or moving the file.
+         */
+        SortedTable finish(long sequence) throws IOException {
+            BloomFilter bloomFilter = BloomFilter.forEntries(records, bloomBitsPerKey);
+            for (int i = 0; i < records; i++) {
+                bloomFilter.put(ids[i]);
+            }
+            long[] words = bloomFilter.words();
+            ByteBuffer metadata = ByteBuffer.allocate(indexEntries * INDEX_ENTRY_BYTES + words.length * Long.BYTES + FOOTER_BYTES);
+            for (int i = 0; i < indexEntries; i++) {
+                metadata.putLong(indexIds[i]).putLong(indexOffsets[i]);
+            }
+            for (long word : words) {
+                metadata.putLong(word);
+            }
+            metadata
+                .putLong(position)
+                .putInt(indexEntries)
+                .putInt(words.length)
+                .putInt(bloomFilter.hashes())
+                .putLong(records == 0 ? 0 : ids[0])
+                .putLong(records == 0 ? 0 : ids[(int) records - 1])
+                .putLong(records)
+                .putInt(MAGIC);
+            out.write(metadata.array());
+            out.close();
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            return open(sequence, path);
+        }
+
+        /**
+         * Drops the temporary file, unless the table was finished.
+         * @throws IOException in the event of an error deleting the file.
+         */
+        @Override
+        public void close() throws IOException {
+            out.close();
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.domain.NameSuggestion;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongPredicate;
+import java.util.stream.LongStream;
+
+/**
+ * Inverted index from the trigrams of record texts, such as name and email, to the records holding them, for substring
+ * search.
+ * <p>
+ * Records are numbered by dense ordinals in the order they are added, so each posting list is an ascending run of
+ * ordinals, stored as varint encoded deltas that mostly take one or two bytes. Adds append to the lists; removes only
+ * mark the ordinal as dead, the lists being rewritten without the dead ordinals, and the live ones renumbered, once
+ * those outnumber the live ones. An update is a remove plus an add under a new ordinal.
+ * <p>
+ * Texts and queries are compared in their {@link NameSuggestion#normalize normalized} form. Queries are answered by
+ * intersecting the lists of their trigrams lazily, smallest first, which yields candidates holding every trigram but
+ * not necessarily in a row, so callers verify candidates against the texts and stop the intersection once they have
+ * enough.
+ * <p>
+ * Not thread safe: lookups may run concurrently with each other, but not with a mutation.
+ */
+public final class TrigramIndex {
+
+    public static final int GRAM_LENGTH = 3;
+
+    private static final int MIN_COMPACTION_DEAD = 1024;
+    private static final int INITIAL_RECORDS = 1024;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final LongLongMap ordinals = new LongLongMap(INITIAL_RECORDS);
+    private long[] ids = new long[INITIAL_RECORDS];
+    private int nextOrdinal;
+    private final BitSet dead = new BitSet();
+    private int deadCount;
+
+    /**
+     * Indexes the trigrams of the texts of a record, replacing those it was indexed with, if any.
+     * @param id the record identifier.
+     * @param texts the texts of the record, null ones being skipped.
+     */
+    public void put(long id, String... texts) {
+        remove(id);
+        Set<String> grams = new HashSet<>();
+        for (String text : texts) {
+            if (text != null) {
+                addGrams(NameSuggestion.normalize(text), grams);
+            }
+        }
+        int ordinal = nextOrdinal++;
+        if (ordinal == ids.length) {
+            ids = Arrays.copyOf(ids, ordinal * 2);
+        }
+        ids[ordinal] = id;
+        ordinals.put(id, ordinal);
+        for (String gram : grams) {
+            postings.computeIfAbsent(gram, g -> new Postings()).append(ordinal);
+        }
+    }
+
+    /**
+     * Drops a record, compacting the lists once dead ordinals outnumber live ones.
+     * @param id the record identifier.
+     */
+    public void remove(long id) {
+        long ordinal = ordinals.remove(id);
+        if (ordinal == LongLongMap.NO_VALUE) {
+            return;
+        }
+        dead.set((int) ordinal);
+        deadCount++;
+        if (deadCount >= MIN_COMPACTION_DEAD && deadCount > ordinals.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * @param query the text to look for, of at least {@value #GRAM_LENGTH} characters once normalized.
+     * @return the identifiers of the records holding every trigram of the query, in the order they were indexed.
+     * @throws IllegalArgumentException if the query is too short to have a trigram.
+     */
+    public long[] candidates(String query) {
+        LongStream.Builder matches = LongStream.builder();
+        forEachCandidate(
+            query,
+            id -> {
+                matches.add(id);
+                return true;
+            }
+        );
+        return matches.build().toArray();
+    }
+
+    /**
+     * Intersects the lists of the trigrams of the query lazily: each ordinal of the smallest list is looked for in the
+     * others, which skip forward to it, and handed to the visitor as soon as every list holds it. Once the visitor has
+     * verified as many candidates as it needs it returns false, and the rest of the lists is never decoded.
+     * @param query the text to look for, of at least {@value #GRAM_LENGTH} characters once normalized.
+     * @param visitor receives the identifiers of the records holding every trigram of the query, in the order they
+     * were indexed, and returns false to stop.
+     * @throws IllegalArgumentException if the query is too short to have a trigram.
+     */
+    public void forEachCandidate(String query, LongPredicate visitor) {
+        Set<String> grams = new HashSet<>();
+        addGrams(NameSuggestion.normalize(query), grams);
+        if (grams.isEmpty()) {
+            throw new IllegalArgumentException("Queries need at least " + GRAM_LENGTH + " characters: " + query);
+        }
+        List<Postings> lists = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            Postings list = postings.get(gram);
+            if (list == null) {
+                return;
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.count));
+        Cursor lead = new Cursor(lists.get(0));
+        Cursor[] others = new Cursor[lists.size() - 1];
+        for (int i = 0; i < others.length; i++) {
+            others[i] = new Cursor(lists.get(i + 1));
+        }
+        while (lead.next()) {
+            int candidate = lead.current;
+            if (dead.get(candidate)) {
+                continue;
+            }
+            boolean held = true;
+            for (Cursor other : others) {
+                if (!other.advanceTo(candidate)) {
+                    return;
+                }
+                if (other.current != candidate) {
+                    held = false;
+                    break;
+                }
+            }
+            if (held && !visitor.test(ids[candidate])) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the amount of indexed records.
+     */
+    public int size() {
+        return ordinals.size();
+    }
+
+    /**
+     * @return the bytes taken by the encoded posting lists.
+     */
+    public long postingBytes() {
+        long bytes = 0;
+        for (Postings list : postings.values()) {
+            bytes += list.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Rewrites every list without the dead ordinals, renumbering the live ones in the same order so deltas stay
+     * positive.
+     */
+    private void compact() {
+        int[] renumbered = new int[nextOrdinal];
+        int live = 0;
+        for (int ordinal = 0; ordinal < nextOrdinal; ordinal++) {
+            if (!dead.get(ordinal)) {
+                renumbered[ordinal] = live;
+                ids[live] = ids[ordinal];
+                ordinals.put(ids[live], live);
+                live++;
+            }
+        }
+        postings
+            .entrySet()
+            .removeIf(entry -> {
+                Postings list = entry.getValue();
+                Postings kept = new Postings();
+                Cursor cursor = new Cursor(list);
+                while (cursor.next()) {
+                    if (!dead.get(cursor.current)) {
+                        kept.append(renumbered[cursor.current]);
+                    }
+                }
+                entry.setValue(kept);
+                return kept.count == 0;
+            });
+        nextOrdinal = live;
+        dead.clear();
+        deadCount = 0;
+    }
+
+    private static void addGrams(String text, Set<String> grams) {
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM_LENGTH));
+        }
+    }
+
+    /**
+     * Ascending ordinals, as the varint encoded difference of each with the previous one.
+     */
+    private static final class Postings {
+
+        private byte[] bytes = new byte[4];
+        private int length;
+        private int last = -1;
+        private int count;
+
+        private void append(int ordinal) {
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+            }
+            int delta = ordinal - last;
+            while ((delta & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            bytes[length++] = (byte) delta;
+            last = ordinal;
+            count++;
+        }
+    }
+
+    /**
+     * Decodes a list forwards.
+     */
+    private static final class Cursor {
+
+        private final Postings list;
+        private int position;
+        private int current = -1;
+
+        private Cursor(Postings list) {
+            this.list = list;
+        }
+
+        private boolean next() {
+            if (position >= list.length) {
+                return false;
+            }
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = list.bytes[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            current += delta;
+            return true;
+        }
+
+        /**
+         * @return false if the list ends before reaching the target.
+         */
+        private boolean advanceTo(int target) {
+            while (current < target) {
+                if (!next()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,7 +1,18 @@
 package com.tiagodiogo.radicant.service;
 
+import com.tiagodiogo.radicant.domain.CursorPage;
+import com.tiagodiogo.radicant.domain.DuplicateEmailException;
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.domain.NameSuggestion;
 import com.tiagodiogo.radicant.domain.PhoneBookRecord;
-import com.tiagodiogo.radicant.repository.PhoneBookDatabase;
+import com.tiagodiogo.radicant.domain.PhoneBookRecordCodec;
+import com.tiagodiogo.radicant.domain.RecordFilter;
+import com.tiagodiogo.radicant.repository.TrigramIndex;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -15,21 +26,42 @@ import org.springframework.stereotype.Service;
 @Service
 public class PhoneBookService {
 
-    public static final long SELECT_ALL = -1L;
-    private static final String CSV_SEPARATOR = ",";
-    private final PhoneBookDatabase phoneBookDatabase;
+    private final IDatabase phoneBookDatabase;
 
-    public PhoneBookService(PhoneBookDatabase phoneBookDatabase) {
+    public PhoneBookService(IDatabase phoneBookDatabase) {
         this.phoneBookDatabase = phoneBookDatabase;
     }
 
     /**
-     * Obtain all {@link PhoneBookRecord} from the CSV file database.
-     * @return the List of {@link PhoneBookRecord}.
+     * Stream all {@link PhoneBookRecord} from the database, decoding each row only as the stream is consumed.
+     * The stream holds database resources until closed, so callers must close it.
+     * @return the lazy Stream of {@link PhoneBookRecord}.
      */
-    public List<PhoneBookRecord> getAllRecords() {
-        List<String> rawRecords = phoneBookDatabase.select(SELECT_ALL);
-        return processRawRecords(rawRecords).collect(Collectors.toList());
+    public Stream<PhoneBookRecord> streamAllRecords() {
+        return phoneBookDatabase.stream().map(PhoneBookRecordCodec::decode);
+    }
+
+    /**
+     * Obtain a page of {@link PhoneBookRecord} in ascending id order, starting after the last record of the previous
+     * page, so cursors stay valid across writes and restarts.
+     * @param cursor the cursor returned with the previous page, or null for the first page.
+     * @param limit the maximum amount of records of the page, at least 1.
+     * @return the page of {@link PhoneBookRecord}, with the cursor of the next page if more records follow.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    public CursorPage<PhoneBookRecord> getRecordPage(String cursor, int limit) {
+        return phoneBookDatabase
+            .page(cursor == null ? null : decodeCursor(cursor), limit)
+            .map(PhoneBookRecordCodec::decode, PhoneBookService::encodeCursor);
+    }
+
+    /**
+     * Write all {@link PhoneBookRecord} as CSV lines in UTF-8, one per record, without a header.
+     * @param out the output, left open.
+     * @throws IOException in the event of an error reading the records or writing the output.
+     */
+    public void exportCsv(OutputStream out) throws IOException {
+        phoneBookDatabase.exportCsv(out);
     }
 
     /**
@@ -42,10 +74,71 @@ public class PhoneBookService {
         return processRawRecords(rawRecords).findFirst();
     }
 
+    /**
+     * Fetch the {@link PhoneBookRecord} holding an email, ignoring case, through the email index when the database
+     * keeps one.
+     * @param email the email.
+     * @return the List of {@link PhoneBookRecord} holding the email, a single one at most when emails are unique.
+     */
+    public List<PhoneBookRecord> getRecordsByEmail(String email) {
+        return processRawRecords(phoneBookDatabase.selectByEmail(email)).collect(Collectors.toList());
+    }
+
+    /**
+     * Fetch the {@link PhoneBookRecord} holding a mobile number, through the mobile index when the database keeps one.
+     * @param mobile the mobile number.
+     * @return the List of {@link PhoneBookRecord} holding the mobile number.
+     */
+    public List<PhoneBookRecord> getRecordsByMobile(int mobile) {
+        return processRawRecords(phoneBookDatabase.selectByMobile(mobile)).collect(Collectors.toList());
+    }
+
+    /**
+     * Fetch the {@link PhoneBookRecord} matching a filter, compiled once and handed down to the database scan, which
+     * rejects rows before decoding them and looks candidates up through its indexes when the filter allows.
+     * @param filter the filter, in the {@link RecordFilter} language.
+     * @return the List of matching {@link PhoneBookRecord}.
+     * @throws IllegalArgumentException if the filter is malformed, too long or nested too deep.
+     */
+    public List<PhoneBookRecord> getRecordsMatching(String filter) {
+        RecordFilter compiled = RecordFilter.parse(filter);
+        List<PhoneBookRecord> matches = new ArrayList<>();
+        phoneBookDatabase.scan(compiled, row -> matches.add(PhoneBookRecordCodec.decode(row)));
+        return matches;
+    }
+
+    /**
+     * Search the {@link PhoneBookRecord} whose name or email contains a text, ignoring case and accents, through the
+     * trigram index when the database keeps one.
+     * @param query the text to look for, of at least {@value TrigramIndex#GRAM_LENGTH} characters.
+     * @param limit the maximum amount of records.
+     * @return the List of matching {@link PhoneBookRecord}.
+     * @throws IllegalArgumentException if the query is too short.
+     */
+    public List<PhoneBookRecord> searchRecords(String query, int limit) {
+        String needle = NameSuggestion.normalize(query);
+        if (needle.length() < TrigramIndex.GRAM_LENGTH) {
+            throw new IllegalArgumentException("Queries need at least " + TrigramIndex.GRAM_LENGTH + " characters: " + query);
+        }
+        return processRawRecords(phoneBookDatabase.search(query, limit)).collect(Collectors.toList());
+    }
+
+    /**
+     * Suggest the {@link PhoneBookRecord} whose name starts with a prefix, ignoring case and accents, served from the
+     * name index when the database keeps one.
+     * @param prefix the start of the name.
+     * @param limit the maximum amount of suggestions.
+     * @return the List of {@link NameSuggestion}, ordered by name.
+     */
+    public List<NameSuggestion> suggestNames(String prefix, int limit) {
+        return phoneBookDatabase.suggestNames(prefix, limit);
+    }
+
     /**
      * Persist a new {@link PhoneBookRecord} into the CSV file database.
      * @param phoneBookRecord the new record to be persisted.
      * @return the new record identifier.
+     * @throws DuplicateEmailException if emails must be unique and another record holds the email.
      */
     public Long addRecord(PhoneBookRecord phoneBookRecord) {
         return phoneBookDatabase.insert(phoneBookRecord.toCSV());
@@ -55,6 +148,7 @@ public class PhoneBookService {
      * Updates an existing {@link PhoneBookRecord} by supplying a new entity to override.
      * @param phoneBookRecord the entity holding de field to override.
      * @return true if the record was updated, false otherwise.
+     * @throws DuplicateEmailException if emails must be unique and another record holds the email.
      */
     public boolean updateRecord(PhoneBookRecord phoneBookRecord) {
         return phoneBookDatabase.update(phoneBookRecord.getId(), phoneBookRecord.toCSV());
@@ -69,12 +163,23 @@ public class PhoneBookService {
         return phoneBookDatabase.delete(id);
     }
 
+    /**
+     * Hides the id the next page starts after behind an URL safe token, so clients treat it as opaque.
+     */
+    private static String encodeCursor(String cursor) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+
     /**
      * Converts a List of raw String records into a stream of PhoneBookRecords.
      * @param rawRecords a list of comma separated strings that represent a raw phone book record.
      * @return a Stream of {@link PhoneBookRecord} obtained from the @rawRecords.
      */
     private Stream<PhoneBookRecord> processRawRecords(List<String> rawRecords) {
-        return rawRecords.stream().map(s -> s.split(CSV_SEPARATOR)).map(PhoneBookRecord::new);
+        return rawRecords.stream().map(PhoneBookRecordCodec::decode);
     }
 }
@@ -1,13 +1,29 @@
 package com.tiagodiogo.radicant.web.rest;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.tiagodiogo.radicant.domain.CursorPage;
+import com.tiagodiogo.radicant.domain.DuplicateEmailException;
+import com.tiagodiogo.radicant.domain.NameSuggestion;
 import com.tiagodiogo.radicant.domain.PhoneBookRecord;
 import com.tiagodiogo.radicant.service.PhoneBookService;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.stream.Stream;
+import javax.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -15,31 +31,219 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import tech.jhipster.web.util.ResponseUtil;
 
 @RestController
 @RequestMapping("/api/phone-book")
 public class PhoneBookResource {
 
+    private static final int FLUSH_EVERY_RECORDS = 512;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_SUGGESTIONS = 100;
+    private static final int MAX_SEARCH_RESULTS = 1000;
+    private static final MediaType TEXT_CSV = new MediaType("text", "csv");
+    private static final String TEXT_CSV_VALUE = "text/csv";
+    private static final String GZIP = "gzip";
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
     private final Logger log = LoggerFactory.getLogger(PhoneBookResource.class);
     private final PhoneBookService phoneBookService;
+    private final ObjectMapper objectMapper;
+    // Flushing is left to the record writers, which flush once per chunk rather than once per record
+    private final ObjectWriter recordWriter;
 
-    public PhoneBookResource(PhoneBookService phoneBookService) {
+    public PhoneBookResource(PhoneBookService phoneBookService, ObjectMapper objectMapper) {
         this.phoneBookService = phoneBookService;
+        this.objectMapper = objectMapper;
+        this.recordWriter = objectMapper.writerFor(PhoneBookRecord.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     }
 
     /**
      * {@code GET /phone-book} : Obtain all the phone book records.
      *
-     * @return the {@link ResponseEntity} with status {@code 200(OK)} and in the body a List of {@link PhoneBookRecord}
+     * @return the {@link ResponseEntity} with status {@code 200(OK)} and in the body a JSON array of
+     * {@link PhoneBookRecord}, written asynchronously as the records are read from storage.
      */
     @GetMapping
-    public ResponseEntity<List<PhoneBookRecord>> getPhoneRecords() {
+    public ResponseEntity<StreamingResponseBody> getPhoneRecords() {
         log.info("REST request to get all phone records");
-        return ResponseEntity.ok().body(phoneBookService.getAllRecords());
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(out -> writeRecords(out, false));
+    }
+
+    /**
+     * {@code GET /phone-book?limit=&cursor=} : Obtain a page of the phone book records, in ascending id order.
+     *
+     * @param limit the maximum amount of records of the page, from 1 to {@value #MAX_PAGE_SIZE}.
+     * @param cursor the cursor from the {@code Link} header of the previous page, absent for the first page.
+     * @return the {@link ResponseEntity} with status {@code 200(OK)} and in the body a JSON array of
+     * {@link PhoneBookRecord}, with a {@code Link} header to the next page if more records follow.
+     * Or, a {@link ResponseStatusException} with status {@code 400(BAD_REQUEST)} if the limit is out of range or the
+     * cursor is invalid.
+     */
+    @GetMapping(params = { "limit", "!filter" })
+    public ResponseEntity<List<PhoneBookRecord>> getPhoneRecordPage(
+        @RequestParam int limit,
+        @RequestParam(required = false) String cursor
+    ) {
+        log.info("REST request to get a page of {} phone records from cursor: {}", limit, cursor);
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        CursorPage<PhoneBookRecord> page;
+        try {
+            page = phoneBookService.getRecordPage(cursor, limit);
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest().replaceQueryParam("cursor", page.getNextCursor()).toUriString();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(page.getItems());
+    }
+
+    /**
+     * {@code GET /phone-book?filter=} : Obtain the phone book records matching a filter, e.g.
+     * {@code email $= '@radicant.com' AND (mobile >= 910000000 OR name ^= 'Ana')}.
+     *
+     * @param filter the filter: comparisons of id, name, email or mobile with {@code = ^= $= < <= > >=}, combined with
+     * {@code AND}, {@code OR} and parentheses.
+     * @return the {@link ResponseEntity} with status {@code 200(OK)} and in the body the matching {@link PhoneBookRecord}.
+     * Or, a {@link ResponseStatusException} with status {@code 400(BAD_REQUEST)} if the filter is malformed, too long or
+     * nested too deep.
+     */
+    @GetMapping(params = "filter")
+    public ResponseEntity<List<PhoneBookRecord>> getPhoneRecordsMatching(@RequestParam String filter) {
+        log.info("REST request to get phone records matching: {}", filter);
+        try {
+            return ResponseEntity.ok(phoneBookService.getRecordsMatching(filter));
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * {@code GET /phone-book/export} : Export all the phone book records, as newline delimited JSON or as CSV
+     * depending on the {@code Accept} header, gzipped if the {@code Accept-Encoding} header allows it.
+     *
+     * @param accept the media types accepted by the client, NDJSON being preferred when both are.
+     * @param acceptEncoding the content codings accepted by the client.
+     * @return the {@link ResponseEntity} with status {@code 200(OK)} and in the body the records, one per line, written
+     * asynchronously as they are read from storage. CSV lines are copied from the storage files when the engine keeps
+     * rows as CSV.
+     */
+    @GetMapping(value = "/export", produces = { MediaType.APPLICATION_NDJSON_VALUE, TEXT_CSV_VALUE })
+    public ResponseEntity<StreamingResponseBody> exportPhoneRecords(
+        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+        @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding
+    ) {
+        boolean csv = TEXT_CSV.equals(exportTypeOf(accept));
+        boolean gzip = acceptsGzip(acceptEncoding);
+        log.info("REST request to export all phone records as {}{}", csv ? "CSV" : "NDJSON", gzip ? ", gzipped" : "");
+        ResponseEntity.BodyBuilder response = ResponseEntity
+            .ok()
+            .contentType(csv ? new MediaType(TEXT_CSV, StandardCharsets.UTF_8) : MediaType.APPLICATION_NDJSON)
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"phone-book." + (csv ? "csv" : "ndjson") + "\"")
+            .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+        }
+        return response.body(out -> {
+            OutputStream body = gzip ? new GZIPOutputStream(out, GZIP_BUFFER_SIZE) : out;
+            if (csv) {
+                phoneBookService.exportCsv(body);
+            } else {
+                writeRecords(body, true);
+            }
+            if (gzip) {
+                ((GZIPOutputStream) body).finish();
+            }
+        });
+    }
+
+    /**
+     * Writes every record as soon as it is read, flushing after the first record, for an early first byte, then every
+     * {@value #FLUSH_EVERY_RECORDS} records, so the response goes out in steady chunks.
+     * @param out the response body.
+     * @param newlineDelimited true to write one JSON object per line, false to write a JSON array.
+     * @throws IOException in the event of an error reading the records or writing the response.
+     */
+    private void writeRecords(OutputStream out, boolean newlineDelimited) throws IOException {
+        try (
+            Stream<PhoneBookRecord> records = phoneBookService.streamAllRecords();
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+        ) {
+            if (newlineDelimited) {
+                generator.setRootValueSeparator(null);
+            } else {
+                generator.writeStartArray();
+            }
+            long[] written = new long[1];
+            records.forEachOrdered(record -> {
+                try {
+                    recordWriter.writeValue(generator, record);
+                    if (newlineDelimited) {
+                        generator.writeRaw('\n');
+                    }
+                    if (written[0]++ % FLUSH_EVERY_RECORDS == 0) {
+                        generator.flush();
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            if (!newlineDelimited) {
+                generator.writeEndArray();
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * @param accept the {@code Accept} header, if any.
+     * @return the export media type the client prefers, NDJSON unless it only accepts CSV.
+     */
+    private static MediaType exportTypeOf(String accept) {
+        if (accept == null) {
+            return MediaType.APPLICATION_NDJSON;
+        }
+        List<MediaType> accepted = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(accepted);
+        for (MediaType type : accepted) {
+            if (type.isCompatibleWith(MediaType.APPLICATION_NDJSON)) {
+                return MediaType.APPLICATION_NDJSON;
+            }
+            if (type.isCompatibleWith(TEXT_CSV)) {
+                return TEXT_CSV;
+            }
+        }
+        return MediaType.APPLICATION_NDJSON;
+    }
+
+    /**
+     * @param acceptEncoding the {@code Accept-Encoding} header, if any.
+     * @return true if gzip is listed without a zero quality.
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            if (GZIP.equalsIgnoreCase(parameters[0].trim())) {
+                return parameters.length < 2 || !parameters[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
     }
 
     /**
@@ -55,17 +259,99 @@ public class PhoneBookResource {
         return ResponseUtil.wrapOrNotFound(phoneBookService.getRecordById(recordId));
     }
 
+    /**
+     * {@code GET /phone-book/by-email/{email}} : Fetch the phone book records holding an email, ignoring case.
+     *
+     * @param email the email.
+     * @return the {@link ResponseEntity} with status {@code 200(OK)} and in the body the {@link PhoneBookRecord} holding
+     * the email, an empty array if none does.
+     */
+    @GetMapping("/by-email/{email:.+}")
+    public ResponseEntity<List<PhoneBookRecord>> getPhoneRecordsByEmail(@PathVariable String email) {
+        log.info("REST request to get phone records by email: {}", email);
+        return ResponseEntity.ok(phoneBookService.getRecordsByEmail(email));
+    }
+
+    /**
+     * {@code GET /phone-book/by-mobile/{mobile}} : Fetch the phone book records holding a mobile number.
+     *
+     * @param mobile the mobile number.
+     * @return the {@link ResponseEntity} with status {@code 200(OK)} and in the body the {@link PhoneBookRecord} holding
+     * the mobile number, an empty array if none does.
+     */
+    @GetMapping("/by-mobile/{mobile}")
+    public ResponseEntity<List<PhoneBookRecord>> getPhoneRecordsByMobile(@PathVariable int mobile) {
+        log.info("REST request to get phone records by mobile: {}", mobile);
+        return ResponseEntity.ok(phoneBookService.getRecordsByMobile(mobile));
+    }
+
+    /**
+     * {@code GET /phone-book/search?q=&limit=} : Search the phone book records whose name or email contains a text,
+     * ignoring case and accents.
+     *
+     * @param q the text to look for, of at least 3 characters.
+     * @param limit the maximum amount of records, from 1 to {@value #MAX_SEARCH_RESULTS}, 50 by default.
+     * @return the {@link ResponseEntity} with status {@code 200(OK)} and in the body the matching {@link PhoneBookRecord}.
+     * Or, a {@link ResponseStatusException} with status {@code 400(BAD_REQUEST)} if the text is too short or the limit
+     * out of range.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<List<PhoneBookRecord>> searchPhoneRecords(@RequestParam String q, @RequestParam(defaultValue = "50") int limit) {
+        log.info("REST request to search {} phone records for: {}", limit, q);
+        if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_SEARCH_RESULTS);
+        }
+        try {
+            return ResponseEntity.ok(phoneBookService.searchRecords(q, limit));
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * {@code GET /phone-book/suggest?prefix=&limit=} : Suggest the phone book records whose name starts with a prefix,
+     * ignoring case and accents, for type-ahead.
+     *
+     * @param prefix the start of the name.
+     * @param limit the maximum amount of suggestions, from 1 to {@value #MAX_SUGGESTIONS}, 10 by default.
+     * @return the {@link ResponseEntity} with status {@code 200(OK)} and in the body the {@link NameSuggestion}, ordered
+     * by name. Or, a {@link ResponseStatusException} with status {@code 400(BAD_REQUEST)} if the prefix is blank or the
+     * limit out of range.
+     */
+    @GetMapping("/suggest")
+    public ResponseEntity<List<NameSuggestion>> suggestPhoneRecordNames(
+        @RequestParam String prefix,
+        @RequestParam(defaultValue = "10") int limit
+    ) {
+        log.debug("REST request to suggest {} phone record names from prefix: {}", limit, prefix);
+        if (prefix.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "prefix must not be blank");
+        }
+        if (limit < 1 || limit > MAX_SUGGESTIONS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_SUGGESTIONS);
+        }
+        return ResponseEntity.ok(phoneBookService.suggestNames(prefix, limit));
+    }
+
     /**
      * {@code POST /phone-book} : Create a new phone book record.
      *
      * @param phoneBookRecord the record to persist.
      * @return the {@link ResponseEntity} with status {@code 201(CREATED)} and in the body the persisted {@link PhoneBookRecord}.
+     * Or, with status {@code 400(BAD_REQUEST)} if the name or email holds a line break.
+     * Or, a {@link ResponseStatusException} with status {@code 409(CONFLICT)} if emails must be unique and another
+     * record holds the email.
      * @throws URISyntaxException in the event of a badly formed URI.
      */
     @PostMapping
-    public ResponseEntity<Long> createPhoneRecord(@RequestBody PhoneBookRecord phoneBookRecord) throws URISyntaxException {
+    public ResponseEntity<Long> createPhoneRecord(@Valid @RequestBody PhoneBookRecord phoneBookRecord) throws URISyntaxException {
         log.info("REST request to create a new phone record defined by: {}", phoneBookRecord);
-        Long newRecordId = phoneBookService.addRecord(phoneBookRecord);
+        Long newRecordId;
+        try {
+            newRecordId = phoneBookService.addRecord(phoneBookRecord);
+        } catch (DuplicateEmailException ex) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, ex.getMessage(), ex);
+        }
         return ResponseEntity.created(new URI("api/phone-book/" + newRecordId)).body(newRecordId);
     }
 
@@ -74,12 +360,21 @@ public class PhoneBookResource {
      *
      * @param phoneBookRecord the record to update.
      * @return the {@link ResponseEntity} with status {@code 204(NO_CONTENT)}.
+     * Or, with status {@code 400(BAD_REQUEST)} if the name or email holds a line break.
      * Or, a {@link ResponseStatusException} with status {@code 404(NOT_FOUND)} if no {@link PhoneBookRecord} matched the provided identifier.
+     * Or, a {@link ResponseStatusException} with status {@code 409(CONFLICT)} if emails must be unique and another
+     * record holds the email.
      */
     @PutMapping
-    public ResponseEntity<Void> updatePhoneRecord(@RequestBody PhoneBookRecord phoneBookRecord) {
+    public ResponseEntity<Void> updatePhoneRecord(@Valid @RequestBody PhoneBookRecord phoneBookRecord) {
         log.info("REST request to update an existing phone record with id: {}", phoneBookRecord.getId());
-        if (phoneBookService.updateRecord(phoneBookRecord)) {
+        boolean updated;
+        try {
+            updated = phoneBookService.updateRecord(phoneBookRecord);
+        } catch (DuplicateEmailException ex) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, ex.getMessage(), ex);
+        }
+        if (updated) {
             return ResponseEntity.noContent().build();
         } else throw new ResponseStatusException(HttpStatus.NOT_FOUND);
     }
@@ -89,6 +384,7 @@ public class PhoneBookResource {
      *
      * @param recordId the phone book record identifier
      * @return the {@link ResponseEntity} with status {@code 204(NO_CONTENT)}.
+     * Or, with status {@code 400(BAD_REQUEST)} if the name or email holds a line break.
      * Or, a {@link ResponseStatusException} with status {@code 404(NOT_FOUND)} if no {@link PhoneBookRecord} matched the provided identifier.
      */
     @DeleteMapping("/{recordId}")
@@ -0,0 +1,72 @@
+package com.tiagodiogo.radicant.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.tiagodiogo.radicant.domain.IDatabase;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import com.tiagodiogo.radicant.repository.AppendOnlyLogDatabase;
+import com.tiagodiogo.radicant.repository.SearchIndexedDatabase;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.util.FileSystemUtils;
+
+class StorageConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+        .withUserConfiguration(TestConfiguration.class, StorageConfiguration.class)
+        .withPropertyValues(
+            "application.storage.engine=LOG",
+            "application.storage.compaction.interval-ms=20",
+            "application.storage.compaction.bytes-per-second=0"
+        );
+
+    @BeforeEach
+    void clearLog() throws IOException {
+        FileSystemUtils.deleteRecursively(Paths.get("/tmp/phone-book-log"));
+    }
+
+    @Test
+    void testCompactsTheLogBehindTheIndexes() {
+        contextRunner.run(context -> {
+            IDatabase database = context.getBean(IDatabase.class);
+            assertThat(database).isInstanceOf(SearchIndexedDatabase.class);
+            assertThat(context.getBean("phoneBookStorageEngine")).isInstanceOf(AppendOnlyLogDatabase.class);
+
+            PhoneBookRecord alice = new PhoneBookRecord(null, "Alice", "alice@gmail.com", 210063423);
+            alice.setId(database.insert(alice.toCSV()));
+            for (int i = 0; i < 3; i++) {
+                alice.setMobile(210063424 + i);
+                database.update(alice.getId(), alice.toCSV());
+            }
+
+            Timer compactions = context.getBean(MeterRegistry.class).get(AppendOnlyLogDatabase.COMPACTION_METER_NAME).timer();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (compactions.count() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(compactions.count()).isPositive();
+            assertThat(database.select(alice.getId())).containsExactly(alice.toCSV());
+        });
+    }
+
+    @Configuration
+    @EnableScheduling
+    @EnableConfigurationProperties(ApplicationProperties.class)
+    static class TestConfiguration {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
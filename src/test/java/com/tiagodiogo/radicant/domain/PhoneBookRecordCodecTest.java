@@ -0,0 +1,82 @@
+package com.tiagodiogo.radicant.domain;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class PhoneBookRecordCodecTest {
+
+    private final PhoneBookRecord alice = new PhoneBookRecord(123L, "Alice", "alice@gmail.com", 210063423);
+
+    @Test
+    void testEncode() {
+        assertThat(PhoneBookRecordCodec.encode(alice)).isEqualTo("123,Alice,alice@gmail.com,210063423");
+    }
+
+    @Test
+    void testDecode() {
+        PhoneBookRecord record = PhoneBookRecordCodec.decode("123,Alice,alice@gmail.com,210063423");
+        assertThat(record).usingRecursiveComparison().isEqualTo(alice);
+    }
+
+    @Test
+    void testQuotesFieldsHoldingSeparatorsAndQuotes() {
+        PhoneBookRecord record = new PhoneBookRecord(1L, "Smith, \"Al\"", "al@x.com", 2);
+        String row = PhoneBookRecordCodec.encode(record);
+
+        assertThat(row).isEqualTo("1,\"Smith, \"\"Al\"\"\",al@x.com,2");
+        assertThat(PhoneBookRecordCodec.decode(row)).usingRecursiveComparison().isEqualTo(record);
+        assertThat(PhoneBookRecordCodec.decode(ByteBuffer.wrap(row.getBytes(StandardCharsets.UTF_8))))
+            .usingRecursiveComparison()
+            .isEqualTo(record);
+    }
+
+    @Test
+    void testEncodeToBufferMatchesString() {
+        PhoneBookRecord record = new PhoneBookRecord(-42L, "Zoë, 日本 😀", "\"q\"@x.com", null);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(128);
+        PhoneBookRecordCodec.encode(record, buffer);
+        buffer.flip();
+
+        ByteBuffer copy = buffer.duplicate();
+        byte[] bytes = new byte[copy.remaining()];
+        copy.get(bytes);
+        assertThat(new String(bytes, StandardCharsets.UTF_8)).isEqualTo(PhoneBookRecordCodec.encode(record));
+        assertThat(PhoneBookRecordCodec.decode(buffer)).usingRecursiveComparison().isEqualTo(record);
+        assertThat(buffer.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void testMissingIdIsEmpty() {
+        String row = PhoneBookRecordCodec.encode(new PhoneBookRecord(null, "Bob", "bob@gmail.com", 1));
+        assertThat(row).isEqualTo(",Bob,bob@gmail.com,1");
+        assertThat(PhoneBookRecordCodec.decode(row).getId()).isNull();
+    }
+
+    @Test
+    void testRejectsMalformedRows() {
+        assertThatThrownBy(() -> PhoneBookRecordCodec.decode("123,Alice")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> PhoneBookRecordCodec.decode("123,\"Alice,a@b.c,1")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> PhoneBookRecordCodec.decode("12x,Alice,a@b.c,1")).isInstanceOf(NumberFormatException.class);
+    }
+
+    @Test
+    void testRejectsOutOfRangeNumbersAsMalformed() {
+        byte[] mobile = "1,Alice,a@b.c,2147483648".getBytes(StandardCharsets.UTF_8);
+        assertThatThrownBy(() -> PhoneBookRecordCodec.decode(mobile, 0, mobile.length)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> PhoneBookRecordCodec.decode("1,Alice,a@b.c,2147483648")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> PhoneBookRecordCodec.decode("99999999999999999999,Alice,a@b.c,1")).isInstanceOf(IllegalArgumentException.class);
+        assertThat(PhoneBookRecordCodec.decode("9223372036854775807,Alice,a@b.c,-2147483648").getMobile()).isEqualTo(Integer.MIN_VALUE);
+    }
+
+    @Test
+    void testRejectsLineBreaksInTextFields() {
+        PhoneBookRecord record = new PhoneBookRecord(1L, "Alice\nSmith", "a@b.c", 2);
+        assertThatThrownBy(() -> PhoneBookRecordCodec.encode(record)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> PhoneBookRecordCodec.encode(new PhoneBookRecord(1L, "Alice", "a@b.c\r", 2), ByteBuffer.allocate(64)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
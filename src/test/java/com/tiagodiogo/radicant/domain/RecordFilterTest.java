@@ -0,0 +1,124 @@
+package com.tiagodiogo.radicant.domain;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RecordFilterTest {
+
+    private final String alice = new PhoneBookRecord(123L, "Alice", "alice@radicant.com", 210063423).toCSV();
+    private final String bob = new PhoneBookRecord(456L, "Bob", "bob@gmail.com", 910000000).toCSV();
+    private final String quoted = new PhoneBookRecord(789L, "Smith, \"Al\"", "al@radicant.com", null).toCSV();
+
+    @Test
+    void testComparesEachField() {
+        assertThat(RecordFilter.parse("id = 123").test(alice)).isTrue();
+        assertThat(RecordFilter.parse("id = 12").test(alice)).isFalse();
+        assertThat(RecordFilter.parse("name = Alice").test(alice)).isTrue();
+        assertThat(RecordFilter.parse("name = alice").test(alice)).isFalse();
+        assertThat(RecordFilter.parse("name ^= Al").test(alice)).isTrue();
+        assertThat(RecordFilter.parse("email $= '@radicant.com'").test(alice)).isTrue();
+        assertThat(RecordFilter.parse("email $= '@radicant.com'").test(bob)).isFalse();
+        assertThat(RecordFilter.parse("mobile >= 910000000").test(bob)).isTrue();
+        assertThat(RecordFilter.parse("mobile < 910000000").test(bob)).isFalse();
+        assertThat(RecordFilter.parse("ID <= 456 and Mobile > 0").test(bob)).isTrue();
+    }
+
+    @Test
+    void testAndBindsTighterThanOr() {
+        RecordFilter filter = RecordFilter.parse("name = Bob OR name = Alice AND mobile = 1");
+        assertThat(filter.test(bob)).isTrue();
+        assertThat(filter.test(alice)).isFalse();
+
+        RecordFilter grouped = RecordFilter.parse("(name = Bob OR name = Alice) AND mobile > 1");
+        assertThat(grouped.test(alice)).isTrue();
+        assertThat(grouped.test(bob)).isTrue();
+        assertThat(grouped.test(quoted)).isFalse();
+    }
+
+    @Test
+    void testMatchesQuotedAndEmptyFields() {
+        assertThat(quoted).startsWith("789,\"Smith, \"\"Al\"\"\",");
+        assertThat(RecordFilter.parse("name = 'Smith, \"Al\"'").test(quoted)).isTrue();
+        assertThat(RecordFilter.parse("name ^= \"Smith, \"\"A\"").test(quoted)).isTrue();
+        assertThat(RecordFilter.parse("email = al@radicant.com").test(quoted)).isTrue();
+        assertThat(RecordFilter.parse("mobile >= 0 OR mobile < 0").test(quoted)).isFalse();
+    }
+
+    @Test
+    void testMatchesRowBytesInPlace() {
+        byte[] bytes = ("xx" + new PhoneBookRecord(1L, "Zoë", "zoe@x.com", 5).toCSV() + "yy").getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length - 4;
+
+        assertThat(RecordFilter.parse("name = Zoë AND mobile = 5").test(bytes, 2, length)).isTrue();
+        assertThat(RecordFilter.parse("name ^= Zo AND email $= x.com").test(bytes, 2, length)).isTrue();
+        assertThat(RecordFilter.parse("mobile = 5 AND email $= x.com").test(bytes, 2, length + 2)).isFalse();
+    }
+
+    @Test
+    void testComparesNumbersBeyondTheRangeOfALong() {
+        String huge = "1,Huge,huge@x.com,99999999999999999999";
+        String tiny = "2,Tiny,tiny@x.com,-99999999999999999999";
+
+        // Would wrap around to a negative value if accumulated blindly
+        assertThat(RecordFilter.parse("mobile > 0").test(huge)).isTrue();
+        assertThat(RecordFilter.parse("mobile = 7766279631452241919").test(huge)).isFalse();
+        assertThat(RecordFilter.parse("mobile < 0").test(tiny)).isTrue();
+        assertThat(RecordFilter.parse("mobile = -9223372036854775808").test("3,Min,min@x.com,-9223372036854775808")).isTrue();
+        assertThatThrownBy(() -> RecordFilter.parse("mobile = 99999999999999999999")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testRejectsMalformedFilters() {
+        List<String> malformed = Arrays.asList("", "age = 1", "id ^= 1", "name > a", "mobile = abc", "name = 'a", "(id = 1", "id = 1 name = a");
+        for (String filter : malformed) {
+            assertThatThrownBy(() -> RecordFilter.parse(filter)).as(filter).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void testRejectsFiltersTooLongOrNestedTooDeep() {
+        String nested = repeat("(", RecordFilter.MAX_DEPTH) + "id = 123" + repeat(")", RecordFilter.MAX_DEPTH);
+        String padded = "name = " + repeat("a", RecordFilter.MAX_LENGTH - 7);
+
+        assertThat(RecordFilter.parse(nested).test(alice)).isTrue();
+        assertThat(RecordFilter.parse(padded).test(alice)).isFalse();
+        assertThatThrownBy(() -> RecordFilter.parse("(" + nested + ")"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("nest at most");
+        assertThatThrownBy(() -> RecordFilter.parse(repeat("(", 2000) + "id = 1" + repeat(")", 2000)))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("nest at most");
+        assertThatThrownBy(() -> RecordFilter.parse(padded + "a"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("at most " + RecordFilter.MAX_LENGTH + " characters");
+    }
+
+    @Test
+    void testLooksUpEveryBranchOrNone() {
+        List<RecordFilter.Comparison> asked = new ArrayList<>();
+        RecordFilter filter = RecordFilter.parse("(mobile > 1 AND id = 123) OR (id = 456 AND name = Bob)");
+
+        List<String> candidates = filter.lookup(comparison -> {
+            asked.add(comparison);
+            return comparison.is(RecordFilter.Field.ID, RecordFilter.Operator.EQUALS)
+                ? Collections.singletonList(comparison.getNumber() == 123 ? alice : bob)
+                : null;
+        });
+
+        assertThat(candidates).containsExactly(alice, bob);
+        assertThat(asked).extracting(Object::toString).containsExactly("mobile > 1", "id = 123", "id = 456");
+        RecordFilter partial = RecordFilter.parse("id = 123 OR mobile > 1");
+        assertThat(partial.lookup(comparison -> comparison.getNumber() == 123 ? Collections.singletonList(alice) : null)).isNull();
+    }
+
+    private static String repeat(String text, int times) {
+        return String.join("", Collections.nCopies(times, text));
+    }
+}
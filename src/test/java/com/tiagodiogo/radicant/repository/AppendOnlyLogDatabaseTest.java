@@ -0,0 +1,323 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import com.tiagodiogo.radicant.domain.CursorPage;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AppendOnlyLogDatabaseTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ApplicationProperties.Storage storage;
+    private MeterRegistry meterRegistry;
+    private AppendOnlyLogDatabase database;
+
+    PhoneBookRecord alice = new PhoneBookRecord(123L, "Alice", "alice@gmail.com", 210063423);
+    PhoneBookRecord bob = new PhoneBookRecord(456L, "Bob", "bob@gmail.com", 210063423);
+    PhoneBookRecord mallory = new PhoneBookRecord(789L, "Mallory", "mallory@gmail.com", 210063423);
+
+    @BeforeEach
+    void setup() throws IOException {
+        storage = new ApplicationProperties().getStorage();
+        storage.getCompaction().setBytesPerSecond(0);
+        meterRegistry = new SimpleMeterRegistry();
+        database = new AppendOnlyLogDatabase(tempDir, storage, meterRegistry);
+        alice.setId(database.insert(alice.toCSV()));
+        bob.setId(database.insert(bob.toCSV()));
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        database.close();
+    }
+
+    @Test
+    void testSelectAll() {
+        assertThat(database.select(-1L)).containsExactly(alice.toCSV(), bob.toCSV());
+    }
+
+    @Test
+    void testSelectById() {
+        assertThat(database.select(alice.getId())).containsExactly(alice.toCSV());
+        assertThat(database.select(mallory.getId())).isEmpty();
+    }
+
+    @Test
+    void testUpdateAppendsNewVersion() throws IOException {
+        long sizeBefore = logSize();
+        assertThat(database.update(alice.getId(), mallory.toCSV())).isTrue();
+        PhoneBookRecord updatedAlice = new PhoneBookRecord(alice.getId(), mallory.getName(), mallory.getEmail(), mallory.getMobile());
+
+        assertThat(logSize()).isGreaterThan(sizeBefore);
+        assertThat(database.select(alice.getId())).containsExactly(updatedAlice.toCSV());
+        assertThat(database.select(-1L)).containsExactly(bob.toCSV(), updatedAlice.toCSV());
+    }
+
+    @Test
+    void testUpdateWhenIdNotExists() {
+        assertThat(database.update(mallory.getId(), bob.toCSV())).isFalse();
+    }
+
+    @Test
+    void testDeleteAppendsTombstone() {
+        assertThat(database.delete(alice.getId())).isTrue();
+        assertThat(database.delete(alice.getId())).isFalse();
+        assertThat(database.select(alice.getId())).isEmpty();
+        assertThat(database.select(-1L)).containsExactly(bob.toCSV());
+    }
+
+    @Test
+    void testReplayResolvesLatestVersions() throws IOException {
+        database.update(bob.getId(), mallory.toCSV());
+        database.delete(alice.getId());
+
+        database.close();
+        database = new AppendOnlyLogDatabase(tempDir, storage, new SimpleMeterRegistry());
+        PhoneBookRecord updatedBob = new PhoneBookRecord(bob.getId(), mallory.getName(), mallory.getEmail(), mallory.getMobile());
+        assertThat(database.select(-1L)).containsExactly(updatedBob.toCSV());
+        assertThat(database.select(alice.getId())).isEmpty();
+    }
+
+    @Test
+    void testPageInIdOrderAfterReplay() throws IOException {
+        mallory.setId(database.insert(mallory.toCSV()));
+        database.delete(alice.getId());
+        database.close();
+        database = new AppendOnlyLogDatabase(tempDir, storage, new SimpleMeterRegistry());
+        PhoneBookRecord lower = bob.getId() < mallory.getId() ? bob : mallory;
+        PhoneBookRecord higher = lower == bob ? mallory : bob;
+
+        CursorPage<String> first = database.page(null, 1);
+        assertThat(first.getItems()).containsExactly(lower.toCSV());
+
+        CursorPage<String> second = database.page(first.getNextCursor(), 1);
+        assertThat(second.getItems()).containsExactly(higher.toCSV());
+        assertThat(second.getNextCursor()).isNull();
+    }
+
+    @Test
+    void testRollsOverToNewSegments() throws IOException {
+        storage.setSegmentSizeBytes(64);
+        database.close();
+        database = new AppendOnlyLogDatabase(tempDir, storage, meterRegistry);
+        mallory.setId(database.insert(mallory.toCSV()));
+        database.update(mallory.getId(), bob.toCSV());
+
+        assertThat(segmentFiles()).hasSizeGreaterThan(1);
+        assertThat(database.select(-1L)).hasSize(3);
+    }
+
+    @Test
+    void testCompactionReclaimsGarbage() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            database.update(alice.getId(), alice.toCSV());
+        }
+        database.delete(bob.getId());
+        long sizeBefore = logSize();
+        assertThat(database.garbageRatio()).isGreaterThan(0.5);
+
+        database.compact();
+
+        assertThat(logSize()).isLessThan(sizeBefore);
+        assertThat(database.garbageRatio()).isZero();
+        assertThat(database.select(-1L)).containsExactly(alice.toCSV());
+        assertThat(database.select(alice.getId())).containsExactly(alice.toCSV());
+        assertThat(meterRegistry.get(AppendOnlyLogDatabase.RECLAIMED_METER_NAME).counter().count()).isEqualTo(sizeBefore - logSize());
+        assertThat(meterRegistry.get(AppendOnlyLogDatabase.COMPACTION_METER_NAME).timer().count()).isEqualTo(1);
+
+        database.insert(mallory.toCSV());
+        database.close();
+        database = new AppendOnlyLogDatabase(tempDir, storage, new SimpleMeterRegistry());
+        assertThat(database.select(-1L)).hasSize(2).contains(alice.toCSV());
+        assertThat(database.select(bob.getId())).isEmpty();
+    }
+
+    @Test
+    void testCompactionIsSkippedBelowGarbageRatio() throws IOException {
+        database.update(alice.getId(), alice.toCSV());
+        database.compactIfNeeded();
+        assertThat(meterRegistry.get(AppendOnlyLogDatabase.COMPACTION_METER_NAME).timer().count()).isZero();
+    }
+
+    @Test
+    void testRecoversInterruptedCompaction() throws IOException {
+        database.update(alice.getId(), alice.toCSV());
+        database.compact();
+        database.close();
+        try (Stream<Path> files = Files.list(tempDir)) {
+            Path compacted = files.filter(path -> path.toString().endsWith(".log")).sorted().findFirst().orElseThrow();
+            Files.move(compacted, tempDir.resolve(compacted.getFileName().toString().replace(".log", ".compacted")));
+        }
+        Files.write(tempDir.resolve("segment-0000000000.log"), "1,Stale,stale@gmail.com,1\n".getBytes());
+
+        database = new AppendOnlyLogDatabase(tempDir, storage, new SimpleMeterRegistry());
+        assertThat(database.select(-1L)).containsExactly(bob.toCSV(), alice.toCSV());
+    }
+
+    @Test
+    void testScanReadsASnapshotWhileWritesAndCompactionsGoOn() {
+        List<Long> ids = database.insertAll(Collections.nCopies(3000, mallory.toCSV()));
+        List<String> before = database.select(-1L);
+        long last = ids.get(ids.size() - 1);
+        List<String> scanned = new ArrayList<>();
+
+        database.scan(row -> {
+            if (scanned.isEmpty()) {
+                // A scan holding the read lock would keep these waiting forever
+                assertThat(database.update(last, bob.toCSV())).isTrue();
+                assertThat(database.delete(ids.get(2000))).isTrue();
+                database.insert(alice.toCSV());
+                // Retires the segment the scan still reads the later batches of
+                database.compact();
+            }
+            scanned.add(row);
+        });
+
+        assertThat(scanned).containsExactlyElementsOf(before);
+        assertThat(database.select(-1L)).hasSize(3002).contains(CsvRowFiles.withId(last, bob.toCSV()));
+        assertThat(database.select(ids.get(2000))).isEmpty();
+    }
+
+    @Test
+    void testStreamIsReadLazilyUntilClosed() throws IOException {
+        try (Stream<String> rows = database.stream()) {
+            Iterator<String> iterator = rows.iterator();
+            assertThat(iterator.next()).isEqualTo(alice.toCSV());
+
+            assertThat(database.delete(bob.getId())).isTrue();
+            mallory.setId(database.insert(mallory.toCSV()));
+
+            assertThat(iterator.next()).isEqualTo(bob.toCSV());
+            assertThat(iterator.hasNext()).isFalse();
+        }
+        assertThat(database.select(-1L)).containsExactly(alice.toCSV(), mallory.toCSV());
+
+        database.close();
+        try (Stream<String> rows = database.stream()) {
+            assertThat(rows).isEmpty();
+        }
+        database = new AppendOnlyLogDatabase(tempDir, storage, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void testInsertAllCommitsTogether() throws IOException {
+        List<Long> ids = database.insertAll(Arrays.asList(mallory.toCSV(), mallory.toCSV()));
+
+        assertThat(ids).hasSize(2).doesNotHaveDuplicates();
+        assertThat(database.select(ids.get(1))).containsExactly(CsvRowFiles.withId(ids.get(1), mallory.toCSV()));
+        assertThat(database.stats().getRows()).isEqualTo(4);
+        assertThat(database.stats().getBytesOnDisk()).isEqualTo(logSize());
+    }
+
+    @Test
+    void testBinaryRecordFormat() throws IOException {
+        PhoneBookRecord quoted = new PhoneBookRecord(null, "Smith, \"Jr\"", "", null);
+        reopen(ApplicationProperties.Storage.RecordFormat.BINARY);
+        quoted.setId(database.insert(quoted.toCSV()));
+        mallory.setId(database.insert(mallory.toCSV()));
+        database.update(mallory.getId(), bob.toCSV());
+        database.update(mallory.getId(), alice.toCSV());
+        database.delete(alice.getId());
+        PhoneBookRecord updatedMallory = new PhoneBookRecord(mallory.getId(), alice.getName(), alice.getEmail(), alice.getMobile());
+
+        assertThat(database.select(quoted.getId())).containsExactly(quoted.toCSV());
+        assertThat(database.select(-1L)).containsExactly(quoted.toCSV(), updatedMallory.toCSV());
+        database.compact();
+        database.close();
+        database = new AppendOnlyLogDatabase(tempDir, storage, new SimpleMeterRegistry());
+        assertThat(database.select(-1L)).containsExactly(quoted.toCSV(), updatedMallory.toCSV());
+        assertThat(database.select(alice.getId())).isEmpty();
+    }
+
+    @Test
+    void testBinaryReplayTruncatesTornWrite() throws IOException {
+        reopen(ApplicationProperties.Storage.RecordFormat.BINARY);
+        mallory.setId(database.insert(mallory.toCSV()));
+        database.close();
+        Path segment = segmentFiles(".bin")[0];
+        long size = Files.size(segment);
+        Files.write(segment, Arrays.copyOf(BinaryRecordFormat.INSTANCE.encode(alice.toCSV()), 12), StandardOpenOption.APPEND);
+
+        database = new AppendOnlyLogDatabase(tempDir, storage, new SimpleMeterRegistry());
+        assertThat(Files.size(segment)).isEqualTo(size);
+        assertThat(database.select(-1L)).containsExactly(mallory.toCSV());
+    }
+
+    @Test
+    void testRefusesSegmentsOfAnotherFormat() throws IOException {
+        database.close();
+        storage.setRecordFormat(ApplicationProperties.Storage.RecordFormat.BINARY);
+        assertThatThrownBy(() -> database = new AppendOnlyLogDatabase(tempDir, storage, new SimpleMeterRegistry()))
+            .isInstanceOf(IllegalStateException.class);
+        database = new AppendOnlyLogDatabase(tempDir.resolve("empty"), new ApplicationProperties().getStorage(), meterRegistry);
+    }
+
+    /**
+     * Starts over on an empty directory with the received record format.
+     */
+    private void reopen(ApplicationProperties.Storage.RecordFormat recordFormat) throws IOException {
+        database.close();
+        tempDir = Files.createDirectory(tempDir.resolve(recordFormat.name()));
+        storage.setRecordFormat(recordFormat);
+        database = new AppendOnlyLogDatabase(tempDir, storage, meterRegistry);
+    }
+
+    private long logSize() throws IOException {
+        long size = 0;
+        for (Path path : segmentFiles()) {
+            size += Files.size(path);
+        }
+        return size;
+    }
+
+    private Path[] segmentFiles() throws IOException {
+        return segmentFiles(".log");
+    }
+
+    private Path[] segmentFiles(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.filter(path -> path.toString().endsWith(suffix)).toArray(Path[]::new);
+        }
+    }
+
+    @Test
+    void testConcurrentWritersAreGroupCommitted() throws Exception {
+        List<Callable<Long>> inserts = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            inserts.add(() -> database.insert(mallory.toCSV()));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(200);
+        try {
+            for (Future<Long> id : executor.invokeAll(inserts)) {
+                assertThat(database.select(id.get())).hasSize(1);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(database.select(-1L)).hasSize(202);
+    }
+}
@@ -0,0 +1,96 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BTreeIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testEmptyTreeGrowsThroughSplits() throws IOException {
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        // A cache smaller than the tree keeps evicting dirty pages while pages split
+        try (RowIndex index = BTreeIndex.builder(tempDir.resolve("index"), 16).build()) {
+            assertThat(index.get(1)).isEqualTo(LongLongMap.NO_VALUE);
+            for (int i = 0; i < 100_000; i++) {
+                long id = random.nextLong() & Long.MAX_VALUE;
+                if (i % 7 == 0 && !expected.isEmpty()) {
+                    id = expected.keySet().iterator().next();
+                }
+                assertThat(index.put(id, i)).isEqualTo(expected.getOrDefault(id, LongLongMap.NO_VALUE));
+                expected.put(id, (long) i);
+            }
+
+            assertThat(index.size()).isEqualTo(expected.size());
+            for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+                assertThat(index.get(entry.getKey())).isEqualTo(entry.getValue());
+            }
+            assertThat(index.containsKey(-2)).isFalse();
+            assertThat(index.bytesPerEntry()).isLessThan(1);
+            List<Long> ids = new ArrayList<>();
+            index.forEachId(ids::add);
+            assertThat(ids).isEqualTo(expected.keySet().stream().sorted().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void testIdsAfterSeeksAcrossPages() throws IOException {
+        RowIndex.Builder builder = BTreeIndex.builder(tempDir.resolve("index"), 16);
+        for (long id = 0; id < 10_000; id += 2) {
+            builder.add(id, id);
+        }
+
+        try (RowIndex index = builder.build()) {
+            // Crossing leaves, starting both on an id present and on one absent
+            assertThat(index.idsAfter(-1, 3)).containsExactly(0, 2, 4);
+            assertThat(index.idsAfter(4_000, 3)).containsExactly(4_002, 4_004, 4_006);
+            assertThat(index.idsAfter(4_001, 3)).containsExactly(4_002, 4_004, 4_006);
+            assertThat(index.idsAfter(9_994, 3)).containsExactly(9_996, 9_998);
+            assertThat(index.idsAfter(9_998, 3)).isEmpty();
+            long[] all = index.idsAfter(-1, 10_000);
+            assertThat(all).hasSize(5_000);
+            assertThat(all).isSorted();
+        }
+    }
+
+    @Test
+    void testBulkLoadsUnsortedScanThroughSpilledRuns() throws IOException {
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(7);
+        RowIndex.Builder builder = BTreeIndex.builder(tempDir.resolve("index"), 64);
+        // More entries than a run holds, with the highest offset of an id winning
+        for (int i = 0; i < 700_000; i++) {
+            long id = random.nextInt(600_000);
+            builder.add(id, i);
+            expected.put(id, (long) i);
+        }
+
+        try (RowIndex index = builder.build()) {
+            assertThat(index.size()).isEqualTo(expected.size());
+            for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+                assertThat(index.get(entry.getKey())).isEqualTo(entry.getValue());
+            }
+            assertThat(index.get(600_000)).isEqualTo(LongLongMap.NO_VALUE);
+            assertThat(index.put(600_000, 1)).isEqualTo(LongLongMap.NO_VALUE);
+            assertThat(index.get(600_000)).isEqualTo(1);
+        }
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertThat(files).isEmpty();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BinaryLogConverterTest {
+
+    @TempDir
+    Path tempDir;
+
+    PhoneBookRecord alice = new PhoneBookRecord(123L, "Alice", "alice@gmail.com", 210063423);
+    PhoneBookRecord bob = new PhoneBookRecord(456L, "Bob, Jr", "bob@gmail.com", null);
+
+    @Test
+    void testConvertsCsvFile() throws IOException {
+        Path csv = Files.write(tempDir.resolve("phone-book.csv"), Arrays.asList(alice.toCSV(), bob.toCSV()));
+
+        assertThat(BinaryLogConverter.convert(csv, tempDir.resolve("log"))).isEqualTo(2);
+        try (AppendOnlyLogDatabase database = openBinary(tempDir.resolve("log"))) {
+            assertThat(database.select(-1L)).containsExactly(alice.toCSV(), bob.toCSV());
+        }
+    }
+
+    @Test
+    void testConvertsLiveRowsOfCsvLog() throws IOException {
+        Path source = tempDir.resolve("csv-log");
+        try (AppendOnlyLogDatabase database = new AppendOnlyLogDatabase(source, new ApplicationProperties().getStorage(), new SimpleMeterRegistry())) {
+            alice.setId(database.insert(alice.toCSV()));
+            bob.setId(database.insert(bob.toCSV()));
+            database.delete(alice.getId());
+        }
+
+        assertThat(BinaryLogConverter.convert(source, tempDir.resolve("log"))).isEqualTo(1);
+        try (AppendOnlyLogDatabase database = openBinary(tempDir.resolve("log"))) {
+            assertThat(database.select(-1L)).containsExactly(bob.toCSV());
+        }
+        assertThatThrownBy(() -> BinaryLogConverter.convert(source, tempDir.resolve("log"))).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static AppendOnlyLogDatabase openBinary(Path directory) throws IOException {
+        ApplicationProperties.Storage storage = new ApplicationProperties().getStorage();
+        storage.setRecordFormat(ApplicationProperties.Storage.RecordFormat.BINARY);
+        return new AppendOnlyLogDatabase(directory, storage, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,141 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.tiagodiogo.radicant.domain.DuplicateEmailException;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import com.tiagodiogo.radicant.domain.RecordFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class EmailIndexedDatabaseTest {
+
+    private InMemoryDatabase engine;
+
+    PhoneBookRecord alice = new PhoneBookRecord(null, "Alice", "alice@gmail.com", 210063423);
+    PhoneBookRecord bob = new PhoneBookRecord(null, "Bob", "bob@gmail.com", 210063423);
+    PhoneBookRecord mallory = new PhoneBookRecord(null, "Mallory", "mallory@gmail.com", 210063423);
+
+    @BeforeEach
+    void setup() {
+        engine = new InMemoryDatabase();
+        alice.setId(engine.insert(alice.toCSV()));
+    }
+
+    @Test
+    void testIndexesExistingRowsAndWrites() {
+        EmailIndexedDatabase database = new EmailIndexedDatabase(engine, false);
+        assertThat(database.selectByEmail(" Alice@Gmail.com")).containsExactly(alice.toCSV());
+
+        bob.setId(database.insert(bob.toCSV()));
+        assertThat(database.selectByEmail(bob.getEmail())).containsExactly(bob.toCSV());
+
+        PhoneBookRecord renamed = new PhoneBookRecord(bob.getId(), "Bob", mallory.getEmail(), bob.getMobile());
+        assertThat(database.update(bob.getId(), renamed.toCSV())).isTrue();
+        assertThat(database.selectByEmail(bob.getEmail())).isEmpty();
+        assertThat(database.selectByEmail(mallory.getEmail())).containsExactly(renamed.toCSV());
+
+        assertThat(database.delete(bob.getId())).isTrue();
+        assertThat(database.selectByEmail(mallory.getEmail())).isEmpty();
+    }
+
+    @Test
+    void testSharedEmailsWhenNotUnique() {
+        EmailIndexedDatabase database = new EmailIndexedDatabase(engine, false);
+        PhoneBookRecord twin = new PhoneBookRecord(null, "Twin", alice.getEmail(), 210063424);
+        twin.setId(database.insert(twin.toCSV()));
+
+        assertThat(database.selectByEmail(alice.getEmail())).containsExactly(alice.toCSV(), twin.toCSV());
+        assertThat(database.delete(alice.getId())).isTrue();
+        assertThat(database.selectByEmail(alice.getEmail())).containsExactly(twin.toCSV());
+    }
+
+    @Test
+    void testUniqueEmailRejectsDuplicates() {
+        EmailIndexedDatabase database = new EmailIndexedDatabase(engine, true);
+        PhoneBookRecord twin = new PhoneBookRecord(null, "Twin", "ALICE@gmail.com", 210063424);
+
+        assertThatThrownBy(() -> database.insert(twin.toCSV())).isInstanceOf(DuplicateEmailException.class);
+        assertThatThrownBy(() -> database.insertAll(Arrays.asList(bob.toCSV(), bob.toCSV())))
+            .isInstanceOf(DuplicateEmailException.class);
+        assertThat(database.select(-1L)).containsExactly(alice.toCSV());
+
+        // The reservations of the rejected batch were released
+        bob.setId(database.insert(bob.toCSV()));
+        PhoneBookRecord taken = new PhoneBookRecord(bob.getId(), "Bob", alice.getEmail(), bob.getMobile());
+        assertThatThrownBy(() -> database.update(bob.getId(), taken.toCSV())).isInstanceOf(DuplicateEmailException.class);
+        assertThat(database.select(bob.getId())).containsExactly(bob.toCSV());
+
+        // Once deleted, the email is free again
+        assertThat(database.delete(alice.getId())).isTrue();
+        assertThat(database.update(bob.getId(), taken.toCSV())).isTrue();
+    }
+
+    @Test
+    void testUniqueEmailUnderConcurrentInserts() throws Exception {
+        EmailIndexedDatabase database = new EmailIndexedDatabase(engine, true);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> inserts = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                inserts.add(
+                    executor.submit(() -> {
+                        try {
+                            database.insert(mallory.toCSV());
+                            return true;
+                        } catch (DuplicateEmailException ex) {
+                            return false;
+                        }
+                    })
+                );
+            }
+            int inserted = 0;
+            for (Future<Boolean> insert : inserts) {
+                inserted += insert.get() ? 1 : 0;
+            }
+            assertThat(inserted).isEqualTo(1);
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(database.selectByEmail(mallory.getEmail())).hasSize(1);
+    }
+
+    @Test
+    void testFilterLooksCandidatesUpInsteadOfScanning() {
+        int[] scans = { 0 };
+        EmailIndexedDatabase database = new EmailIndexedDatabase(
+            new InMemoryDatabase() {
+                @Override
+                public void scan(Consumer<String> visitor) {
+                    scans[0]++;
+                    super.scan(visitor);
+                }
+            },
+            false
+        );
+        alice.setId(database.insert(alice.toCSV()));
+        bob.setId(database.insert(bob.toCSV()));
+        scans[0] = 0;
+
+        List<String> matches = new ArrayList<>();
+        database.scan(RecordFilter.parse("email = 'bob@gmail.com' OR id = " + alice.getId()), matches::add);
+        assertThat(matches).containsExactlyInAnyOrder(alice.toCSV(), bob.toCSV());
+
+        matches.clear();
+        database.scan(RecordFilter.parse("email = 'BOB@gmail.com'"), matches::add);
+        assertThat(matches).isEmpty();
+        assertThat(scans[0]).isZero();
+
+        database.scan(RecordFilter.parse("email $= 'gmail.com' AND name ^= B"), matches::add);
+        assertThat(matches).containsExactly(bob.toCSV());
+        assertThat(scans[0]).isEqualTo(1);
+    }
+}
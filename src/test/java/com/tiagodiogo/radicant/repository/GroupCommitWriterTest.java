@@ -0,0 +1,200 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties.Storage.FsyncPolicy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import org.junit.jupiter.api.Test;
+
+class GroupCommitWriterTest {
+
+    private final CountingJournal journal = new CountingJournal();
+    private final GroupCommitWriter.EngineLock lock = GroupCommitWriter.EngineLock.of(new ReentrantLock());
+
+    @Test
+    void testEveryBatchForcesOncePerAppend() throws Exception {
+        try (GroupCommitWriter writer = new GroupCommitWriter("test-writer", journal, lock, FsyncPolicy.EVERY_BATCH, 0)) {
+            List<Long> locations = commitConcurrently(writer, 200);
+
+            assertThat(locations).doesNotHaveDuplicates().hasSize(200);
+            assertThat(journal.position).isEqualTo(200 * 4);
+            assertThat(journal.forces.get()).isEqualTo(journal.appends.get()).isLessThanOrEqualTo(200);
+        }
+    }
+
+    @Test
+    void testIntervalForcesAtMostOncePerInterval() throws Exception {
+        try (GroupCommitWriter writer = new GroupCommitWriter("test-writer", journal, lock, FsyncPolicy.INTERVAL_MS, 50)) {
+            long start = System.nanoTime();
+            commitConcurrently(writer, 200);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            assertThat(journal.forces.get()).isPositive().isLessThanOrEqualTo((int) (elapsedMs / 50) + 1);
+        }
+    }
+
+    @Test
+    void testNoneNeverForces() throws Exception {
+        try (GroupCommitWriter writer = new GroupCommitWriter("test-writer", journal, lock, FsyncPolicy.NONE, 0)) {
+            commitConcurrently(writer, 20);
+            assertThat(journal.forces.get()).isZero();
+        }
+    }
+
+    @Test
+    void testRejectedMutationsAreNotAppended() throws IOException {
+        try (GroupCommitWriter writer = new GroupCommitWriter("test-writer", journal, lock, FsyncPolicy.EVERY_BATCH, 0)) {
+            assertThat(writer.commit(mutation(1, location -> null))).isFalse();
+            assertThat(journal.appends.get()).isZero();
+        }
+    }
+
+    @Test
+    void testFailedAppendRejectsFurtherMutations() throws IOException {
+        journal.failing = true;
+        List<Long> published = new ArrayList<>();
+        try (GroupCommitWriter writer = new GroupCommitWriter("test-writer", journal, lock, FsyncPolicy.EVERY_BATCH, 0)) {
+            assertThatThrownBy(() -> writer.commit(GroupCommitWriter.mutation(1, location -> new byte[1], (location, bytes) -> published.add(location))))
+                .isInstanceOf(IOException.class);
+            journal.failing = false;
+            assertThatThrownBy(() -> writer.commit(GroupCommitWriter.mutation(2, location -> new byte[1], (location, bytes) -> published.add(location))))
+                .hasMessageContaining("must be reopened");
+        }
+        assertThat(published).isEmpty();
+    }
+
+    @Test
+    void testFailedPublishFailsOnlyItsMutation() throws IOException {
+        List<Long> published = new ArrayList<>();
+        try (GroupCommitWriter writer = new GroupCommitWriter("test-writer", journal, lock, FsyncPolicy.EVERY_BATCH, 0)) {
+            GroupCommitWriter.Mutation broken = GroupCommitWriter.mutation(
+                1,
+                location -> new byte[1],
+                (location, bytes) -> {
+                    throw new IllegalStateException("Broken index");
+                }
+            );
+            assertThatThrownBy(() -> writer.commit(broken)).isInstanceOf(IOException.class).hasRootCauseMessage("Broken index");
+
+            assertThat(writer.commit(GroupCommitWriter.mutation(2, location -> new byte[1], (location, bytes) -> published.add(location))))
+                .isTrue();
+        }
+        assertThat(published).containsExactly(1L);
+    }
+
+    @Test
+    void testMutationsOfTheSameRowSeeEachOther() throws IOException {
+        try (GroupCommitWriter writer = new GroupCommitWriter("test-writer", journal, lock, FsyncPolicy.EVERY_BATCH, 0)) {
+            Set<Long> live = new HashSet<>();
+            List<GroupCommitWriter.Mutation> mutations = Arrays.asList(
+                GroupCommitWriter.mutation(1, location -> live.contains(1L) ? new byte[1] : null, (location, bytes) -> live.remove(1L)),
+                GroupCommitWriter.mutation(2, location -> new byte[1], (location, bytes) -> live.add(2L)),
+                GroupCommitWriter.mutation(1, location -> new byte[1], (location, bytes) -> live.add(1L)),
+                GroupCommitWriter.mutation(1, location -> live.contains(1L) ? new byte[1] : null, (location, bytes) -> live.remove(1L))
+            );
+
+            assertThat(writer.commitAll(mutations)).containsExactly(false, true, true, true);
+            assertThat(live).containsExactly(2L);
+            assertThat(journal.position).isEqualTo(3);
+        }
+    }
+
+    @Test
+    void testCommitAfterCloseFails() throws IOException {
+        GroupCommitWriter writer = new GroupCommitWriter("test-writer", journal, lock, FsyncPolicy.EVERY_BATCH, 0);
+        writer.close();
+
+        assertThatThrownBy(() -> writer.commit(mutation(1, location -> new byte[1]))).hasMessageContaining("is closed");
+    }
+
+    @Test
+    void testCommitAllAppliesMutationsInOrder() throws IOException {
+        try (GroupCommitWriter writer = new GroupCommitWriter("test-writer", journal, lock, FsyncPolicy.EVERY_BATCH, 0)) {
+            List<GroupCommitWriter.Mutation> mutations = new ArrayList<>();
+            List<Long> locations = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                mutations.add(
+                    mutation(
+                        i,
+                        location -> {
+                            locations.add(location);
+                            return locations.size() % 2 == 0 ? null : new byte[4];
+                        }
+                    )
+                );
+            }
+
+            assertThat(writer.commitAll(mutations)).hasSize(100).startsWith(true, false, true).containsOnly(true, false);
+            assertThat(locations).isSorted().startsWith(0L, 4L, 4L);
+            assertThat(journal.position).isEqualTo(50 * 4);
+        }
+    }
+
+    private List<Long> commitConcurrently(GroupCommitWriter writer, int writers) throws Exception {
+        List<Callable<Long>> commits = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            long id = i;
+            commits.add(() -> {
+                long[] applied = new long[1];
+                writer.commit(GroupCommitWriter.mutation(id, location -> new byte[4], (location, bytes) -> applied[0] = location));
+                return applied[0];
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Long> locations = new ArrayList<>();
+            for (Future<Long> location : executor.invokeAll(commits)) {
+                locations.add(location.get());
+            }
+            return locations;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static GroupCommitWriter.Mutation mutation(long id, GroupCommitWriter.Encoder encoder) {
+        return GroupCommitWriter.mutation(id, encoder, (location, bytes) -> {});
+    }
+
+    private static class CountingJournal implements GroupCommitWriter.Journal {
+
+        private final AtomicInteger appends = new AtomicInteger();
+        private final AtomicInteger forces = new AtomicInteger();
+        private volatile long position;
+        private volatile boolean failing;
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public void append(ByteBuffer[] buffers) throws IOException {
+            if (failing) {
+                throw new IOException("Disk full");
+            }
+            appends.incrementAndGet();
+            for (ByteBuffer buffer : buffers) {
+                position += buffer.remaining();
+            }
+        }
+
+        @Override
+        public void force() {
+            forces.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.tiagodiogo.radicant.domain.CursorPage;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class InMemoryDatabaseTest {
+
+    private InMemoryDatabase database;
+
+    PhoneBookRecord alice = new PhoneBookRecord(123L, "Alice", "alice@gmail.com", 210063423);
+    PhoneBookRecord bob = new PhoneBookRecord(456L, "Bob", "bob@gmail.com", 210063423);
+    PhoneBookRecord mallory = new PhoneBookRecord(789L, "Mallory", "mallory@gmail.com", 210063423);
+
+    @BeforeEach
+    void setup() {
+        database = new InMemoryDatabase();
+        List<Long> ids = database.insertAll(Arrays.asList(alice.toCSV(), bob.toCSV()));
+        alice.setId(ids.get(0));
+        bob.setId(ids.get(1));
+    }
+
+    @Test
+    void testSelect() {
+        assertThat(database.select(-1L)).containsExactly(alice.toCSV(), bob.toCSV());
+        assertThat(database.select(alice.getId())).containsExactly(alice.toCSV());
+        assertThat(database.select(mallory.getId())).isEmpty();
+    }
+
+    @Test
+    void testPageInIdOrder() {
+        PhoneBookRecord lower = alice.getId() < bob.getId() ? alice : bob;
+        PhoneBookRecord higher = lower == alice ? bob : alice;
+
+        CursorPage<String> first = database.page(null, 1);
+        assertThat(first.getItems()).containsExactly(lower.toCSV());
+
+        CursorPage<String> second = database.page(first.getNextCursor(), 1);
+        assertThat(second.getItems()).containsExactly(higher.toCSV());
+        assertThat(second.getNextCursor()).isNull();
+    }
+
+    @Test
+    void testExportCsvWritesOneLinePerRow() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        database.exportCsv(out);
+
+        assertThat(out.toString(StandardCharsets.UTF_8))
+            .isEqualTo(alice.toCSV() + System.lineSeparator() + bob.toCSV() + System.lineSeparator());
+    }
+
+    @Test
+    void testUpdateKeepsPosition() {
+        PhoneBookRecord updatedAlice = new PhoneBookRecord(alice.getId(), mallory.getName(), mallory.getEmail(), mallory.getMobile());
+
+        assertThat(database.update(alice.getId(), mallory.toCSV())).isTrue();
+        assertThat(database.update(mallory.getId(), mallory.toCSV())).isFalse();
+        assertThat(database.select(-1L)).containsExactly(updatedAlice.toCSV(), bob.toCSV());
+    }
+
+    @Test
+    void testDelete() {
+        assertThat(database.delete(alice.getId())).isTrue();
+        assertThat(database.delete(alice.getId())).isFalse();
+        assertThat(database.select(-1L)).containsExactly(bob.toCSV());
+    }
+
+    @Test
+    void testScanAndStats() {
+        List<String> rows = new ArrayList<>();
+        database.scan(rows::add);
+
+        assertThat(rows).containsExactly(alice.toCSV(), bob.toCSV());
+        assertThat(database.stats().getRows()).isEqualTo(2);
+        assertThat(database.stats().getBytesOnDisk()).isZero();
+    }
+}
@@ -0,0 +1,82 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class IntLongMultimapTest {
+
+    @Test
+    void testPutGetRemove() {
+        IntLongMultimap map = new IntLongMultimap(0);
+
+        assertThat(map.put(210063423, 1)).isTrue();
+        assertThat(map.put(210063423, 1)).isFalse();
+        assertThat(map.get(210063423)).containsExactly(1);
+        assertThat(map.put(210063423, 2)).isTrue();
+        assertThat(map.put(210063423, 3)).isTrue();
+        assertThat(map.get(210063423)).containsExactlyInAnyOrder(1, 2, 3);
+        assertThat(map.size()).isEqualTo(1);
+        assertThat(map.valueCount()).isEqualTo(3);
+
+        assertThat(map.remove(210063423, 2)).isTrue();
+        assertThat(map.remove(210063423, 2)).isFalse();
+        assertThat(map.remove(210063423, 1)).isTrue();
+        assertThat(map.get(210063423)).containsExactly(3);
+        assertThat(map.remove(210063423, 3)).isTrue();
+        assertThat(map.get(210063423)).isEmpty();
+        assertThat(map.size()).isZero();
+        assertThat(map.bytesPerValue()).isZero();
+    }
+
+    @Test
+    void testRejectsUnsupportedKeysAndValues() {
+        IntLongMultimap map = new IntLongMultimap(0);
+
+        assertThatThrownBy(() -> map.put(Integer.MIN_VALUE, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> map.put(1, -1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testMatchesHashMapThroughGrowthAndCollisions() {
+        IntLongMultimap map = new IntLongMultimap(0);
+        Map<Integer, Set<Long>> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            // A narrow key range makes many keys hold several values, going to and from their lists
+            int key = 210_000_000 + random.nextInt(30_000);
+            long value = random.nextInt(8);
+            Set<Long> values = expected.computeIfAbsent(key, k -> new HashSet<>());
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key, value)).isEqualTo(values.remove(value));
+            } else {
+                assertThat(map.put(key, value)).isEqualTo(values.add(value));
+            }
+            if (values.isEmpty()) {
+                expected.remove(key);
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        assertThat(map.valueCount()).isEqualTo(expected.values().stream().mapToInt(Set::size).sum());
+        expected.forEach((key, values) -> assertThat(map.get(key)).containsExactlyInAnyOrder(values.stream().mapToLong(Long::longValue).toArray()));
+    }
+
+    @Test
+    void testBytesPerValueOfDistinctKeys() {
+        IntLongMultimap map = new IntLongMultimap(0);
+        for (int key = 0; key < 100_000; key++) {
+            map.put(key, key);
+        }
+
+        // 12 bytes per slot at a load between 0.375 and 0.75
+        assertThat(map.bytesPerValue()).isBetween(12.0, 33.0);
+    }
+}
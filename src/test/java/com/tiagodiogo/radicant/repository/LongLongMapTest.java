@@ -0,0 +1,134 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class LongLongMapTest {
+
+    @Test
+    void testPutGetRemove() {
+        LongLongMap map = new LongLongMap(0);
+
+        assertThat(map.put(7, 70)).isEqualTo(LongLongMap.NO_VALUE);
+        assertThat(map.put(7, 71)).isEqualTo(70);
+        assertThat(map.get(7)).isEqualTo(71);
+        assertThat(map.containsKey(7)).isTrue();
+        assertThat(map.remove(7)).isEqualTo(71);
+        assertThat(map.get(7)).isEqualTo(LongLongMap.NO_VALUE);
+        assertThat(map.remove(7)).isEqualTo(LongLongMap.NO_VALUE);
+        assertThat(map.size()).isZero();
+    }
+
+    @Test
+    void testMatchesHashMapThroughIncrementalGrowth() {
+        LongLongMap map = new LongLongMap(0);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            // A narrow key range keeps hitting existing keys, so removals and replacements run mid migration
+            long key = random.nextInt(50_000) + (i % 3 == 0 ? Long.MAX_VALUE - 50_000 : 0);
+            if (random.nextInt(4) == 0) {
+                assertThat(map.remove(key)).isEqualTo(expected.getOrDefault(key, LongLongMap.NO_VALUE));
+                expected.remove(key);
+            } else {
+                assertThat(map.put(key, i)).isEqualTo(expected.getOrDefault(key, LongLongMap.NO_VALUE));
+                expected.put(key, (long) i);
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        expected.forEach((key, value) -> assertThat(map.get(key)).isEqualTo(value));
+    }
+
+    @Test
+    void testOptimisticLookupsMatchGetMidMigration() {
+        LongLongMap map = new LongLongMap(0);
+        for (long key = 0; key < 1000; key++) {
+            map.put(key, key * 10);
+            assertThat(map.getOptimistic(key)).isEqualTo(key * 10);
+            assertThat(map.getOptimistic(key / 2)).isEqualTo(map.get(key / 2));
+        }
+        assertThat(map.getOptimistic(5000)).isEqualTo(LongLongMap.NO_VALUE);
+    }
+
+    @Test
+    @Timeout(30)
+    void testOptimisticLookupsEndWhileMutated() throws Exception {
+        LongLongMap map = new LongLongMap(0);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            Random random = new Random(7);
+            for (int i = 0; i < 2_000_000; i++) {
+                long key = random.nextInt(100_000);
+                if (random.nextInt(3) == 0) {
+                    map.remove(key);
+                } else {
+                    map.put(key, key);
+                }
+            }
+            writing.set(false);
+        });
+        writer.start();
+        long lookups = 0;
+        while (writing.get()) {
+            long value = map.getOptimistic(lookups++ % 100_000);
+            assertThat(value).isBetween(LongLongMap.NO_VALUE, 100_000L);
+        }
+        writer.join();
+        assertThat(lookups).isPositive();
+    }
+
+    @Test
+    void testForEachIdVisitsBothTablesMidMigration() {
+        LongLongMap map = new LongLongMap(0);
+        Set<Long> expected = new HashSet<>();
+        for (long key = 0; key < 100; key++) {
+            map.put(key, key);
+            expected.add(key);
+        }
+        Set<Long> visited = new HashSet<>();
+
+        map.forEachId(visited::add);
+
+        assertThat(visited).isEqualTo(expected);
+    }
+
+    @Test
+    void testClearKeepsWorking() {
+        LongLongMap map = new LongLongMap(0);
+        for (long key = 0; key < 1000; key++) {
+            map.put(key, key);
+        }
+        map.clear();
+
+        assertThat(map.size()).isZero();
+        assertThat(map.get(10)).isEqualTo(LongLongMap.NO_VALUE);
+        map.put(10, 1);
+        assertThat(map.get(10)).isEqualTo(1);
+    }
+
+    @Test
+    void testBytesPerEntry() {
+        LongLongMap map = new LongLongMap(0);
+        for (long key = 0; key < 100_000; key++) {
+            map.put(key, key);
+        }
+        assertThat(map.bytesPerEntry()).isBetween(16.0, 96.0);
+    }
+
+    @Test
+    void testRejectsReservedKeys() {
+        LongLongMap map = new LongLongMap(0);
+        assertThatThrownBy(() -> map.put(Long.MIN_VALUE, 1)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
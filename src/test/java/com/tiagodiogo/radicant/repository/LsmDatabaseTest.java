@@ -0,0 +1,229 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import com.tiagodiogo.radicant.domain.CursorPage;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import com.tiagodiogo.radicant.domain.StorageException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LsmDatabaseTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ApplicationProperties.Storage storage;
+    private MeterRegistry meterRegistry;
+    private LsmDatabase database;
+
+    PhoneBookRecord alice = new PhoneBookRecord(123L, "Alice", "alice@gmail.com", 210063423);
+    PhoneBookRecord bob = new PhoneBookRecord(456L, "Bob", "bob@gmail.com", 210063423);
+    PhoneBookRecord mallory = new PhoneBookRecord(789L, "Mallory", "mallory@gmail.com", 210063423);
+
+    @BeforeEach
+    void setup() throws IOException {
+        storage = new ApplicationProperties().getStorage();
+        storage.getLsm().setMemtableBytes(1024);
+        storage.getLsm().setIndexIntervalBytes(128);
+        storage.getLsm().setLevelBaseBytes(4096);
+        storage.getLsm().setLevelFanout(2);
+        storage.getLsm().setTableBytes(1024);
+        meterRegistry = new SimpleMeterRegistry();
+        database = new LsmDatabase(tempDir, storage, meterRegistry);
+        alice.setId(database.insert(alice.toCSV()));
+        bob.setId(database.insert(bob.toCSV()));
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        database.close();
+    }
+
+    @Test
+    void testSelectUpdateAndDeleteFromMemtable() {
+        PhoneBookRecord updatedAlice = new PhoneBookRecord(alice.getId(), mallory.getName(), mallory.getEmail(), mallory.getMobile());
+
+        assertThat(database.update(alice.getId(), mallory.toCSV())).isTrue();
+        assertThat(database.update(mallory.getId(), mallory.toCSV())).isFalse();
+        assertThat(database.delete(bob.getId())).isTrue();
+        assertThat(database.delete(bob.getId())).isFalse();
+        assertThat(database.select(alice.getId())).containsExactly(updatedAlice.toCSV());
+        assertThat(database.select(bob.getId())).isEmpty();
+        assertThat(database.select(-1L)).containsExactly(updatedAlice.toCSV());
+    }
+
+    @Test
+    void testReplaysWriteAheadLogOnRestart() throws IOException {
+        database.delete(alice.getId());
+        database.close();
+        database = new LsmDatabase(tempDir, storage, new SimpleMeterRegistry());
+
+        assertThat(database.select(-1L)).containsExactly(bob.toCSV());
+        assertThat(database.tablesPerLevel()[0]).isEqualTo(1);
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertThat(files.filter(path -> path.getFileName().toString().startsWith("wal-"))).hasSize(1);
+        }
+    }
+
+    @Test
+    void testFlushesAndMergesLevels() throws IOException {
+        Map<Long, String> expected = new HashMap<>();
+        expected.put(alice.getId(), alice.toCSV());
+        expected.put(bob.getId(), bob.toCSV());
+        for (int i = 0; i < 1000; i++) {
+            PhoneBookRecord record = new PhoneBookRecord(null, "Name " + i, "name" + i + "@gmail.com", 210063400 + i);
+            record.setId(database.insert(record.toCSV()));
+            expected.put(record.getId(), record.toCSV());
+            if (i % 3 == 0) {
+                PhoneBookRecord updated = new PhoneBookRecord(record.getId(), "Renamed " + i, record.getEmail(), record.getMobile());
+                database.update(record.getId(), updated.toCSV());
+                expected.put(record.getId(), updated.toCSV());
+            }
+            if (i % 5 == 0) {
+                database.delete(record.getId());
+                expected.remove(record.getId());
+            }
+        }
+        assertThat(pageAll(7)).containsExactlyElementsOf(database.select(-1L));
+        assertThat(database.stats().getRows()).isEqualTo(expected.size());
+        database.close();
+        database = new LsmDatabase(tempDir, storage, meterRegistry);
+
+        assertThat(meterRegistry.get(LsmDatabase.FLUSH_METER_NAME).timer().count()).isPositive();
+        assertThat(meterRegistry.get(LsmDatabase.MERGE_METER_NAME).timer().count()).isPositive();
+        assertThat(database.tablesPerLevel().length).isGreaterThan(1);
+        assertThat(database.select(-1L)).containsExactlyInAnyOrderElementsOf(expected.values()).isSortedAccordingTo(this::compareIds);
+        for (Map.Entry<Long, String> entry : expected.entrySet()) {
+            assertThat(database.select(entry.getKey())).containsExactly(entry.getValue());
+        }
+        assertThat(database.stats().getRows()).isEqualTo(expected.size());
+        assertThat(pageAll(7)).containsExactlyElementsOf(database.select(-1L));
+    }
+
+    @Test
+    void testScanDoesNotHoldOffFlushesAndMerges() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            database.insert(mallory.toCSV());
+        }
+        database.close();
+        database = new LsmDatabase(tempDir, storage, meterRegistry);
+        List<String> before = database.select(-1L);
+        long merges = meterRegistry.get(LsmDatabase.MERGE_METER_NAME).timer().count();
+        List<String> scanned = new ArrayList<>();
+
+        database.scan(row -> {
+            if (scanned.isEmpty()) {
+                // Flushes and merges swap tables, including the ones being scanned, while the scan waits
+                for (int i = 0; i < 400; i++) {
+                    database.insert(mallory.toCSV());
+                }
+                awaitUntil(() -> meterRegistry.get(LsmDatabase.MERGE_METER_NAME).timer().count() > merges);
+            }
+            scanned.add(row);
+        });
+
+        assertThat(scanned).containsAll(before);
+        assertThat(database.select(-1L)).hasSize(602);
+        assertThat(database.stats().getRows()).isEqualTo(602);
+    }
+
+    @Test
+    void testWritesFailWhileFlushesFailAndRecoverOnRetry() throws IOException {
+        storage.getLsm().setMaxFrozenMemtables(1);
+        database.close();
+        // A fresh registry, as gauges stay bound to the database they were first registered for
+        meterRegistry = new SimpleMeterRegistry();
+        database = new LsmDatabase(tempDir, storage, meterRegistry);
+        // Directories in place of the temporary files of the next tables make every flush fail
+        List<Path> blockers = new ArrayList<>();
+        for (int sequence = 1; sequence <= 200; sequence++) {
+            blockers.add(Files.createDirectory(tempDir.resolve(String.format("table-%010d.sst.tmp", sequence))));
+        }
+        List<Long> inserted = new ArrayList<>();
+        StorageException failure = null;
+        for (int i = 0; i < 1000 && failure == null; i++) {
+            try {
+                inserted.add(database.insert(mallory.toCSV()));
+            } catch (StorageException ex) {
+                failure = ex;
+            }
+        }
+
+        assertThat(failure).isNotNull().hasRootCauseInstanceOf(IOException.class);
+        assertThat(meterRegistry.get(LsmDatabase.FROZEN_METER_NAME).gauge().value()).isEqualTo(1);
+        for (Path blocker : blockers) {
+            Files.delete(blocker);
+        }
+        awaitUntil(() -> meterRegistry.get(LsmDatabase.FROZEN_METER_NAME).gauge().value() == 0);
+        inserted.add(database.insert(mallory.toCSV()));
+        for (Long id : inserted) {
+            assertThat(database.select(id)).hasSize(1);
+        }
+        assertThat(database.stats().getRows()).isEqualTo(inserted.size() + 2);
+    }
+
+    @Test
+    void testConcurrentWritersAreGroupCommitted() throws Exception {
+        List<Callable<Long>> inserts = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            inserts.add(() -> database.insert(mallory.toCSV()));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(50);
+        try {
+            for (Future<Long> id : executor.invokeAll(inserts)) {
+                assertThat(database.select(id.get())).hasSize(1);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(database.select(-1L)).hasSize(202);
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition met in time").isLessThan(deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    private List<String> pageAll(int limit) {
+        List<String> rows = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorPage<String> page = database.page(cursor, limit);
+            rows.addAll(page.getItems());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return rows;
+    }
+
+    private int compareIds(String a, String b) {
+        return Long.compare(CsvRowFiles.idOf(a), CsvRowFiles.idOf(b));
+    }
+}
@@ -0,0 +1,51 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MobileIndexedDatabaseTest {
+
+    private InMemoryDatabase engine;
+    private MeterRegistry meterRegistry;
+
+    PhoneBookRecord alice = new PhoneBookRecord(null, "Alice", "alice@gmail.com", 210063423);
+    PhoneBookRecord bob = new PhoneBookRecord(null, "Bob", "bob@gmail.com", 210063423);
+    PhoneBookRecord mallory = new PhoneBookRecord(null, "Mallory", "mallory@gmail.com", 210063424);
+
+    @BeforeEach
+    void setup() {
+        engine = new InMemoryDatabase();
+        meterRegistry = new SimpleMeterRegistry();
+        alice.setId(engine.insert(alice.toCSV()));
+    }
+
+    @Test
+    void testFollowsWrites() {
+        MobileIndexedDatabase database = new MobileIndexedDatabase(engine, meterRegistry);
+        bob.setId(database.insert(bob.toCSV()));
+        assertThat(database.selectByMobile(210063423)).containsExactlyInAnyOrder(alice.toCSV(), bob.toCSV());
+
+        PhoneBookRecord moved = new PhoneBookRecord(bob.getId(), bob.getName(), bob.getEmail(), mallory.getMobile());
+        assertThat(database.update(bob.getId(), moved.toCSV())).isTrue();
+        assertThat(database.selectByMobile(210063423)).containsExactly(alice.toCSV());
+        assertThat(database.selectByMobile(mallory.getMobile())).containsExactly(moved.toCSV());
+
+        assertThat(database.delete(alice.getId())).isTrue();
+        assertThat(database.selectByMobile(210063423)).isEmpty();
+        assertThat(database.selectByMobile(210063423)).isEqualTo(engine.selectByMobile(210063423));
+    }
+
+    @Test
+    void testReportsBytesPerRecord() {
+        MobileIndexedDatabase database = new MobileIndexedDatabase(engine, meterRegistry);
+
+        assertThat(meterRegistry.get(MobileIndexedDatabase.BYTES_PER_RECORD_METER_NAME).gauge().value())
+            .isPositive()
+            .isEqualTo(database.indexBytesPerRecord());
+    }
+}
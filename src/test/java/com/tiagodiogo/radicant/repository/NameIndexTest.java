@@ -0,0 +1,126 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.tiagodiogo.radicant.domain.NameSuggestion;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class NameIndexTest {
+
+    @Test
+    void testSuggestsByNormalizedPrefix() {
+        NameIndex.Builder builder = NameIndex.builder();
+        builder.add(3, "José  Silva");
+        builder.add(1, "Joana");
+        builder.add(2, "jose silva");
+        builder.add(4, "Maria");
+        builder.add(5, null);
+        NameIndex index = builder.build();
+
+        assertThat(index.suggest("JOSE S", 10))
+            .containsExactly(new NameSuggestion(2, "jose silva"), new NameSuggestion(3, "José  Silva"));
+        assertThat(index.suggest("jo", 2)).containsExactly(new NameSuggestion(1, "Joana"), new NameSuggestion(2, "jose silva"));
+        assertThat(index.suggest("x", 10)).isEmpty();
+        assertThat(index.size()).isEqualTo(4);
+    }
+
+    @Test
+    void testWritesShowUpBeforeAndAfterMerges() {
+        NameIndex index = NameIndex.builder().build();
+        index.add(1, "Bob");
+        index.add(2, "Alice");
+        assertThat(index.suggest("", 10)).containsExactly(new NameSuggestion(2, "Alice"), new NameSuggestion(1, "Bob"));
+        index.remove(2, "Alice");
+        index.add(2, "Bobby");
+        assertThat(index.suggest("bob", 10)).containsExactly(new NameSuggestion(1, "Bob"), new NameSuggestion(2, "Bobby"));
+    }
+
+    @Test
+    void testWritesDuringAMergeSurviveTheSwap() {
+        List<Runnable> merges = new ArrayList<>();
+        NameIndex.Builder builder = NameIndex.builder();
+        builder.add(0, "Zed");
+        NameIndex index = builder.build(merges::add);
+        for (long id = 1; id <= 4096; id++) {
+            index.add(id, "Name " + id);
+        }
+        assertThat(merges).hasSize(1);
+
+        index.remove(0, "Zed");
+        index.remove(1, "Name 1");
+        index.add(5000, "Ana");
+        List<NameSuggestion> whileMerging = index.suggest("name 1", 3);
+        merges.get(0).run();
+
+        assertThat(whileMerging)
+            .containsExactly(new NameSuggestion(10, "Name 10"), new NameSuggestion(100, "Name 100"), new NameSuggestion(1000, "Name 1000"))
+            .isEqualTo(index.suggest("name 1", 3));
+        assertThat(index.suggest("", 1)).containsExactly(new NameSuggestion(5000, "Ana"));
+        assertThat(index.suggest("zed", 1)).isEmpty();
+        assertThat(index.size()).isEqualTo(4096);
+    }
+
+    @Test
+    void testMatchesAScanUnderRandomWrites() {
+        Random random = new Random(42);
+        TreeMap<Long, String> expected = new TreeMap<>();
+        NameIndex.Builder builder = NameIndex.builder();
+        for (long id = 0; id < 20_000; id++) {
+            String name = randomName(random);
+            expected.put(id, name);
+            builder.add(id, name);
+        }
+        NameIndex index = builder.build();
+        // Enough writes for several merges, mixing inserts, renames and deletes of base and added entries
+        for (int i = 0; i < 30_000; i++) {
+            long id = random.nextInt(40_000);
+            String old = expected.remove(id);
+            if (old != null) {
+                index.remove(id, old);
+            }
+            if (random.nextInt(3) > 0) {
+                String name = randomName(random);
+                expected.put(id, name);
+                index.add(id, name);
+            }
+        }
+
+        index.awaitMerge();
+        assertThat(index.size()).isEqualTo(expected.size());
+        for (String prefix : new String[] { "", "a", "ab", "Ba", "ccc" }) {
+            assertThat(index.suggest(prefix, 50))
+                .as(prefix)
+                .containsExactlyElementsOf(
+                    expected
+                        .entrySet()
+                        .stream()
+                        .filter(entry -> NameSuggestion.normalize(entry.getValue()).startsWith(NameSuggestion.normalize(prefix)))
+                        .sorted(
+                            Comparator
+                                .comparing((Map.Entry<Long, String> entry) -> NameSuggestion.normalize(entry.getValue()))
+                                .thenComparing(Map.Entry::getKey)
+                        )
+                        .limit(50)
+                        .map(entry -> new NameSuggestion(entry.getKey(), entry.getValue()))
+                        .collect(Collectors.toList())
+                );
+        }
+    }
+
+    private static String randomName(Random random) {
+        StringBuilder name = new StringBuilder();
+        int length = 2 + random.nextInt(5);
+        for (int i = 0; i < length; i++) {
+            char letter = (char) ('a' + random.nextInt(3));
+            name.append(i == 0 ? Character.toUpperCase(letter) : letter);
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,47 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.tiagodiogo.radicant.domain.NameSuggestion;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class NameIndexedDatabaseTest {
+
+    private InMemoryDatabase engine;
+
+    PhoneBookRecord alice = new PhoneBookRecord(null, "Alice", "alice@gmail.com", 210063423);
+    PhoneBookRecord albert = new PhoneBookRecord(null, "Albert", "albert@gmail.com", 210063423);
+
+    @BeforeEach
+    void setup() {
+        engine = new InMemoryDatabase();
+        alice.setId(engine.insert(alice.toCSV()));
+    }
+
+    @Test
+    void testFollowsWrites() {
+        NameIndexedDatabase database = new NameIndexedDatabase(engine);
+        albert.setId(database.insert(albert.toCSV()));
+        assertThat(database.suggestNames("al", 10))
+            .containsExactly(new NameSuggestion(albert.getId(), "Albert"), new NameSuggestion(alice.getId(), "Alice"));
+
+        PhoneBookRecord renamed = new PhoneBookRecord(albert.getId(), "Bert", albert.getEmail(), albert.getMobile());
+        assertThat(database.update(albert.getId(), renamed.toCSV())).isTrue();
+        assertThat(database.suggestNames("al", 10)).containsExactly(new NameSuggestion(alice.getId(), "Alice"));
+        assertThat(database.suggestNames("b", 10)).containsExactly(new NameSuggestion(albert.getId(), "Bert"));
+
+        assertThat(database.delete(alice.getId())).isTrue();
+        assertThat(database.suggestNames("al", 10)).isEmpty();
+    }
+
+    @Test
+    void testMatchesTheScanningDefault() {
+        engine.insert(albert.toCSV());
+        NameIndexedDatabase database = new NameIndexedDatabase(new EmailIndexedDatabase(engine, false));
+
+        assertThat(database.suggestNames("AL", 10)).isEqualTo(engine.suggestNames("AL", 10)).hasSize(2);
+        assertThat(database.selectByEmail(alice.getEmail())).containsExactly(alice.toCSV());
+    }
+}
@@ -0,0 +1,204 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import com.tiagodiogo.radicant.domain.CursorPage;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PartitionedPhoneBookDatabaseTest {
+
+    private static final int PARTITIONS = 4;
+
+    @TempDir
+    Path tempDir;
+
+    private ApplicationProperties.Storage storage;
+    private MeterRegistry meterRegistry;
+    private PartitionedPhoneBookDatabase database;
+    private final List<PhoneBookRecord> records = new ArrayList<>();
+
+    PhoneBookRecord mallory = new PhoneBookRecord(789L, "Mallory", "mallory@gmail.com", 210063423);
+
+    @BeforeEach
+    void setup() throws IOException {
+        storage = new ApplicationProperties().getStorage();
+        storage.setPartitions(PARTITIONS);
+        meterRegistry = new SimpleMeterRegistry();
+        database = new PartitionedPhoneBookDatabase(tempDir, storage, meterRegistry);
+        for (int i = 0; i < 20; i++) {
+            PhoneBookRecord record = new PhoneBookRecord(null, "Name " + i, "name" + i + "@gmail.com", 210063400 + i);
+            record.setId(database.insert(record.toCSV()));
+            records.add(record);
+        }
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        database.close();
+    }
+
+    @Test
+    void testSpreadsRowsOverPartitionFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertThat(files.filter(file -> file.toString().endsWith(".csv")).filter(this::isNotEmpty))
+                .hasSizeGreaterThan(1)
+                .hasSizeLessThanOrEqualTo(PARTITIONS);
+        }
+        assertThat(meterRegistry.find(LongLongMap.BYTES_PER_ENTRY_METER_NAME).gauges()).hasSize(PARTITIONS);
+    }
+
+    @Test
+    void testRefusesToReopenWithAnotherPartitionCount() throws IOException {
+        database.close();
+        storage.setPartitions(PARTITIONS + 1);
+
+        assertThatThrownBy(() -> new PartitionedPhoneBookDatabase(tempDir, storage, meterRegistry))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining(String.valueOf(PARTITIONS));
+
+        // Directories without the metadata file are checked against their partition files
+        Files.delete(tempDir.resolve("partitions"));
+        assertThatThrownBy(() -> new PartitionedPhoneBookDatabase(tempDir, storage, meterRegistry))
+            .isInstanceOf(IllegalStateException.class);
+
+        storage.setPartitions(PARTITIONS);
+        database = new PartitionedPhoneBookDatabase(tempDir, storage, meterRegistry);
+        assertThat(database.select(-1L)).containsExactlyInAnyOrderElementsOf(csvOf(records));
+        assertThat(Files.readString(tempDir.resolve("partitions")).trim()).isEqualTo(String.valueOf(PARTITIONS));
+    }
+
+    @Test
+    void testSelectAllMergesPartitions() {
+        assertThat(database.select(-1L)).containsExactlyInAnyOrderElementsOf(csvOf(records));
+    }
+
+    @Test
+    void testStreamChainsPartitions() {
+        try (Stream<String> rows = database.stream()) {
+            assertThat(rows).containsExactlyElementsOf(database.select(-1L));
+        }
+        try (Stream<String> rows = database.stream()) {
+            assertThat(rows.limit(3)).hasSize(3);
+        }
+    }
+
+    @Test
+    void testExportCsvChainsPartitionFiles() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        database.exportCsv(out);
+
+        assertThat(out.toString(StandardCharsets.UTF_8).split(System.lineSeparator())).containsExactlyElementsOf(database.select(-1L));
+    }
+
+    @Test
+    void testPagesMergePartitionsInIdOrder() {
+        List<String> rows = new ArrayList<>();
+        CursorPage<String> page = database.page(null, 3);
+        rows.addAll(page.getItems());
+        while (page.getNextCursor() != null) {
+            assertThat(page.getItems()).hasSize(3);
+            page = database.page(page.getNextCursor(), 3);
+            rows.addAll(page.getItems());
+        }
+
+        List<String> byId = new ArrayList<>(database.select(-1L));
+        byId.sort(Comparator.comparingLong(CsvRowFiles::idOf));
+        assertThat(rows).containsExactlyElementsOf(byId);
+    }
+
+    @Test
+    void testSelectUpdateAndDeleteById() {
+        PhoneBookRecord first = records.get(0);
+        PhoneBookRecord second = records.get(1);
+
+        assertThat(database.select(first.getId())).containsExactly(first.toCSV());
+        assertThat(database.select(mallory.getId())).isEmpty();
+
+        assertThat(database.update(first.getId(), mallory.toCSV())).isTrue();
+        PhoneBookRecord updated = new PhoneBookRecord(first.getId(), mallory.getName(), mallory.getEmail(), mallory.getMobile());
+        assertThat(database.select(first.getId())).containsExactly(updated.toCSV());
+
+        assertThat(database.delete(second.getId())).isTrue();
+        assertThat(database.delete(second.getId())).isFalse();
+        assertThat(database.select(second.getId())).isEmpty();
+        assertThat(database.select(-1L)).hasSize(records.size() - 1);
+    }
+
+    @Test
+    void testInsertAllSpreadsRowsOverPartitions() throws IOException {
+        List<Long> ids = database.insertAll(Collections.nCopies(10, mallory.toCSV()));
+        database.close();
+        database = new PartitionedPhoneBookDatabase(tempDir, storage, meterRegistry);
+
+        for (Long id : ids) {
+            assertThat(database.select(id)).hasSize(1);
+        }
+        assertThat(database.stats().getRows()).isEqualTo(30);
+    }
+
+    @Test
+    void testReopenFindsRowsInTheirPartitions() throws IOException {
+        database.close();
+        database = new PartitionedPhoneBookDatabase(tempDir, storage, meterRegistry);
+
+        for (PhoneBookRecord record : records) {
+            assertThat(database.select(record.getId())).containsExactly(record.toCSV());
+        }
+    }
+
+    @Test
+    void testConcurrentWritersAcrossPartitions() throws Exception {
+        List<Callable<Long>> inserts = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            inserts.add(() -> database.insert(mallory.toCSV()));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            for (Future<Long> id : executor.invokeAll(inserts)) {
+                assertThat(database.select(id.get())).hasSize(1);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(database.select(-1L)).hasSize(records.size() + 200);
+    }
+
+    private boolean isNotEmpty(Path file) {
+        try {
+            return Files.size(file) > 0;
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static List<String> csvOf(List<PhoneBookRecord> records) {
+        List<String> rows = new ArrayList<>();
+        for (PhoneBookRecord record : records) {
+            rows.add(record.toCSV());
+        }
+        return rows;
+    }
+}
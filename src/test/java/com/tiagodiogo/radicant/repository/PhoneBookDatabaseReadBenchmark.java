@@ -0,0 +1,108 @@
+package com.tiagodiogo.radicant.repository;
+
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures point lookup throughput of {@link PhoneBookDatabase} from 1 to 32 reader threads, optionally with a
+ * background writer invalidating optimistic reads. Not a unit test, run it with
+ * {@code java -cp <test classpath> com.tiagodiogo.radicant.repository.PhoneBookDatabaseReadBenchmark [records] [seconds] [inserts/s]}.
+ */
+public final class PhoneBookDatabaseReadBenchmark {
+
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+    private PhoneBookDatabaseReadBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int insertsPerSecond = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+        Path file = Files.createTempFile("phone-book-benchmark", ".csv");
+        long[] ids = populate(file, records);
+        ApplicationProperties.Storage storage = new ApplicationProperties().getStorage();
+        storage.setFsync(ApplicationProperties.Storage.FsyncPolicy.NONE);
+
+        try (PhoneBookDatabase database = new PhoneBookDatabase(file, storage, new SimpleMeterRegistry(), Tags.empty())) {
+            System.out.printf("%d records, %d s per run, %d background inserts/s%n", records, seconds, insertsPerSecond);
+            run(database, ids, THREADS[THREADS.length - 1], 1, insertsPerSecond);
+            double singleThreaded = 0;
+            for (int threads : THREADS) {
+                double opsPerSecond = run(database, ids, threads, seconds, insertsPerSecond);
+                if (threads == 1) {
+                    singleThreaded = opsPerSecond;
+                }
+                System.out.printf("%2d threads: %,12.0f lookups/s  %5.2fx%n", threads, opsPerSecond, opsPerSecond / singleThreaded);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static long[] populate(Path file, int records) throws IOException {
+        long[] ids = new long[records];
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < records; i++) {
+                ids[i] = i + 1L;
+                writer.write(new PhoneBookRecord(ids[i], "Name " + i, "name" + i + "@gmail.com", 210000000 + i).toCSV());
+                writer.newLine();
+            }
+        }
+        return ids;
+    }
+
+    private static double run(PhoneBookDatabase database, long[] ids, int threads, int seconds, int insertsPerSecond)
+        throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder lookups = new LongAdder();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(
+                new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (running.get()) {
+                        database.select(ids[random.nextInt(ids.length)]);
+                        lookups.increment();
+                    }
+                })
+            );
+        }
+        if (insertsPerSecond > 0) {
+            workers.add(
+                new Thread(() -> {
+                    long pauseNanos = TimeUnit.SECONDS.toNanos(1) / insertsPerSecond;
+                    while (running.get()) {
+                        database.insert(",Writer,writer@gmail.com,210000000");
+                        long deadline = System.nanoTime() + pauseNanos;
+                        while (System.nanoTime() < deadline && running.get()) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                })
+            );
+        }
+
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        TimeUnit.SECONDS.sleep(seconds);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return lookups.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
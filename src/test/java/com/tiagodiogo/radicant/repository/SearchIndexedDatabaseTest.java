@@ -0,0 +1,84 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SearchIndexedDatabaseTest {
+
+    private InMemoryDatabase engine;
+
+    PhoneBookRecord alice = new PhoneBookRecord(null, "Alice Silva", "alice@radicant.com", 210063423);
+    PhoneBookRecord bob = new PhoneBookRecord(null, "Bob Vasilva", "bob@gmail.com", 210063424);
+
+    @BeforeEach
+    void setup() {
+        engine = new InMemoryDatabase();
+        alice.setId(engine.insert(alice.toCSV()));
+    }
+
+    @Test
+    void testFollowsWrites() {
+        SearchIndexedDatabase database = new SearchIndexedDatabase(engine);
+        assertThat(database.search("@RADI", 10)).containsExactly(alice.toCSV());
+
+        bob.setId(database.insert(bob.toCSV()));
+        assertThat(database.search("silva", 10)).containsExactly(alice.toCSV(), bob.toCSV());
+        assertThat(database.search("silva", 1)).hasSize(1);
+
+        alice.setName("Alice Costa");
+        assertThat(database.update(alice.getId(), alice.toCSV())).isTrue();
+        assertThat(database.search("silva", 10)).containsExactly(bob.toCSV());
+
+        assertThat(database.delete(bob.getId())).isTrue();
+        assertThat(database.search("silva", 10)).isEmpty();
+        assertThat(database.search("costa", 10)).isEqualTo(engine.search("costa", 10));
+    }
+
+    @Test
+    void testVerifiesCandidates() {
+        engine.insert(new PhoneBookRecord(null, "Marco Arcos", "marco@gmail.com", 210063425).toCSV());
+        SearchIndexedDatabase database = new SearchIndexedDatabase(engine);
+
+        // Every trigram of the query is in the name, but not in a row
+        assertThat(database.search("marcos", 10)).isEmpty();
+        assertThat(database.search("o arc", 10)).hasSize(1).allMatch(row -> row.contains("Marco Arcos"));
+    }
+
+    @Test
+    void testConcurrentUpdatesOfARowLeaveTheLastOneIndexed() throws Exception {
+        SearchIndexedDatabase database = new SearchIndexedDatabase(engine);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> updates = IntStream
+                .range(0, 200)
+                .mapToObj(i -> executor.submit(() -> database.update(alice.getId(), renamed(alice, "Name" + i).toCSV())))
+                .collect(Collectors.toList());
+            for (Future<Boolean> update : updates) {
+                assertThat(update.get()).isTrue();
+            }
+        } finally {
+            executor.shutdown();
+            assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        }
+        String stored = engine.select(alice.getId()).get(0);
+
+        // Whatever update landed last in the engine is the one the index holds
+        String name = stored.split(",")[1];
+        assertThat(database.search(name, 10)).containsExactly(stored);
+        assertThat(database.search("alice silva", 10)).isEmpty();
+    }
+
+    private static PhoneBookRecord renamed(PhoneBookRecord record, String name) {
+        return new PhoneBookRecord(record.getId(), name, record.getEmail(), record.getMobile());
+    }
+}
@@ -0,0 +1,70 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+class SortedLongSetTest {
+
+    @Test
+    void testAddRemoveContains() {
+        SortedLongSet set = new SortedLongSet();
+
+        assertThat(set.add(42)).isTrue();
+        assertThat(set.add(42)).isFalse();
+        assertThat(set.add(7)).isTrue();
+        assertThat(set.contains(42)).isTrue();
+        assertThat(set.contains(8)).isFalse();
+        assertThat(set.size()).isEqualTo(2);
+
+        assertThat(set.remove(42)).isTrue();
+        assertThat(set.remove(42)).isFalse();
+        assertThat(set.contains(42)).isFalse();
+        assertThat(set.remove(7)).isTrue();
+        assertThat(set.size()).isZero();
+        assertThat(set.after(-1, 10)).isEmpty();
+    }
+
+    @Test
+    void testMatchesTreeSetAcrossSplitsAndMerges() {
+        SortedLongSet set = new SortedLongSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 50_000; i++) {
+            long value = random.nextInt(20_000);
+            if (random.nextInt(3) == 0) {
+                assertThat(set.remove(value)).isEqualTo(expected.remove(value));
+            } else {
+                assertThat(set.add(value)).isEqualTo(expected.add(value));
+            }
+        }
+        List<Long> visited = new ArrayList<>();
+
+        set.forEach(visited::add);
+
+        assertThat(visited).containsExactlyElementsOf(expected);
+        assertThat(set.size()).isEqualTo(expected.size());
+    }
+
+    @Test
+    void testAfterKeepsTheLowestInOrder() {
+        SortedLongSet set = new SortedLongSet();
+        Random random = new Random(3);
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            long value = random.nextLong() & Long.MAX_VALUE;
+            set.add(value);
+            expected.add(value);
+        }
+
+        for (long after : new long[] { -1, expected.first(), expected.higher(expected.first()) + 1, expected.last() - 1 }) {
+            assertThat(set.after(after, 600))
+                .containsExactly(expected.tailSet(after, false).stream().limit(600).mapToLong(Long::longValue).toArray());
+        }
+        assertThat(set.after(expected.last(), 50)).isEmpty();
+    }
+}
@@ -0,0 +1,82 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SortedTableTest {
+
+    private static final int ROWS = 1000;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testCursorSeeksAfterAnIdentifier() throws IOException {
+        try (SortedTable table = write(tempDir.resolve("table-1.sst"), null)) {
+            assertThat(ids(table.cursor(-1))).hasSize(ROWS);
+            assertThat(ids(table.cursor(10))).startsWith(12L, 14L).hasSize(ROWS - 6);
+            assertThat(ids(table.cursor(11))).startsWith(12L, 14L).hasSize(ROWS - 6);
+            assertThat(ids(table.cursor(2 * ROWS))).isEmpty();
+        }
+    }
+
+    @Test
+    void testPagePastALargePrefixDoesNotReadIt() throws IOException {
+        Path path = tempDir.resolve("table-1.sst");
+        long[] prefixBytes = new long[1];
+        write(path, prefixBytes).close();
+        // Wipe the records of the first 800 rows, leaving the sparse index, filter and footer in place
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate((int) prefixBytes[0]), 0);
+        }
+
+        try (SortedTable table = SortedTable.open(1, path)) {
+            SortedTable.Cursor cursor = table.cursor(2L * 900);
+
+            assertThat(cursor.next()).isTrue();
+            assertThat(cursor.row()).isEqualTo(record(2L * 901).toCSV());
+            assertThat(ids(table.cursor(2L * 900))).hasSize(ROWS - 901);
+            assertThatThrownBy(() -> ids(table.cursor())).isInstanceOf(IOException.class);
+        }
+    }
+
+    /**
+     * Writes rows with even identifiers from 0, in blocks of a few rows.
+     * @param prefixBytes receives the bytes taken by the first 800 rows, if not null.
+     */
+    private SortedTable write(Path path, long[] prefixBytes) throws IOException {
+        try (SortedTable.Writer writer = new SortedTable.Writer(path, 128, 10)) {
+            for (long i = 0; i < ROWS; i++) {
+                if (i == 800 && prefixBytes != null) {
+                    prefixBytes[0] = writer.position();
+                }
+                writer.add(2 * i, i == 5 ? SortedTable.TOMBSTONE : record(2 * i).toCSV());
+            }
+            return writer.finish(1);
+        }
+    }
+
+    private static PhoneBookRecord record(long id) {
+        return new PhoneBookRecord(id, "Name " + id, "name" + id + "@gmail.com", 210063423);
+    }
+
+    private static List<Long> ids(SortedTable.Cursor cursor) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        while (cursor.next()) {
+            cursor.row();
+            ids.add(cursor.id());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,103 @@
+package com.tiagodiogo.radicant.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.tiagodiogo.radicant.domain.NameSuggestion;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TrigramIndexTest {
+
+    @Test
+    void testIntersectsTheTrigramsOfTheQuery() {
+        TrigramIndex index = new TrigramIndex();
+        index.put(1, "Ana Silva", "ana@radicant.com");
+        index.put(2, "João Silvestre", "joao@gmail.com");
+        index.put(3, "Bob", null);
+
+        assertThat(index.candidates("SILV")).containsExactly(1, 2);
+        assertThat(index.candidates("silva")).containsExactly(1);
+        assertThat(index.candidates("@radi")).containsExactly(1);
+        assertThat(index.candidates("joão")).containsExactly(2);
+        assertThat(index.candidates("xyz")).isEmpty();
+        assertThatThrownBy(() -> index.candidates("ab")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testFollowsUpdatesAndRemoves() {
+        TrigramIndex index = new TrigramIndex();
+        index.put(1, "Ana Silva", null);
+        index.put(2, "Rui Silva", null);
+
+        index.put(1, "Ana Costa", null);
+        assertThat(index.candidates("silva")).containsExactly(2);
+        assertThat(index.candidates("costa")).containsExactly(1);
+
+        index.remove(2);
+        assertThat(index.candidates("silva")).isEmpty();
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testStopsOnceTheVisitorHasEnough() {
+        TrigramIndex index = new TrigramIndex();
+        for (long id = 0; id < 1000; id++) {
+            index.put(id, "Silva " + id, id % 2 == 0 ? "costa" : null);
+        }
+        List<Long> visited = new ArrayList<>();
+
+        index.forEachCandidate("silva", id -> visited.add(id) && visited.size() < 3);
+        assertThat(visited).containsExactly(0L, 1L, 2L);
+
+        visited.clear();
+        index.forEachCandidate("costa", id -> visited.add(id) && visited.size() < 3);
+        assertThat(visited).containsExactly(0L, 2L, 4L);
+    }
+
+    @Test
+    void testMatchesAScanThroughCompactions() {
+        Random random = new Random(42);
+        Map<Long, String> expected = new HashMap<>();
+        TrigramIndex index = new TrigramIndex();
+        for (int i = 0; i < 50_000; i++) {
+            long id = random.nextInt(5_000);
+            if (random.nextInt(4) == 0) {
+                expected.remove(id);
+                index.remove(id);
+            } else {
+                String name = randomText(random);
+                expected.put(id, name);
+                index.put(id, name);
+            }
+        }
+
+        assertThat(index.size()).isEqualTo(expected.size());
+        // Queries of a single trigram have no false positives
+        for (String query : new String[] { "aba", "bca", "ccc" }) {
+            assertThat(index.candidates(query))
+                .as(query)
+                .containsExactlyInAnyOrder(
+                    expected
+                        .entrySet()
+                        .stream()
+                        .filter(entry -> NameSuggestion.normalize(entry.getValue()).contains(query))
+                        .mapToLong(Map.Entry::getKey)
+                        .toArray()
+                );
+        }
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int length = 3 + random.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(3)));
+        }
+        return text.toString();
+    }
+}
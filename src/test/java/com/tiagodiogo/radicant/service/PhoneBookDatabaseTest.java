@@ -1,27 +1,37 @@
 package com.tiagodiogo.radicant.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import com.tiagodiogo.radicant.config.ApplicationProperties;
+import com.tiagodiogo.radicant.domain.CursorPage;
 import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import com.tiagodiogo.radicant.domain.RecordFilter;
 import com.tiagodiogo.radicant.repository.PhoneBookDatabase;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
-import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
-import org.mockito.junit.jupiter.MockitoExtension;
 
-@ExtendWith(MockitoExtension.class)
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class PhoneBookDatabaseTest {
 
@@ -33,7 +43,6 @@ class PhoneBookDatabaseTest {
     PhoneBookRecord mallory = new PhoneBookRecord(789L, "Mallory", "mallory@gmail.com", 210063423);
     List<PhoneBookRecord> records = Arrays.asList(alice, bob);
 
-    @InjectMocks
     private PhoneBookDatabase phoneBookDatabase;
 
     @BeforeAll
@@ -48,12 +57,18 @@ class PhoneBookDatabaseTest {
         }
         Files.createFile(filePath);
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath.toFile(), Charset.defaultCharset(), true))) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath.toFile(), StandardCharsets.UTF_8, true))) {
             for (PhoneBookRecord record : records) {
                 writer.write(record.toCSV());
                 writer.newLine();
             }
         }
+        phoneBookDatabase = new PhoneBookDatabase(new ApplicationProperties().getStorage(), new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        phoneBookDatabase.close();
     }
 
     @Test
@@ -62,6 +77,93 @@ class PhoneBookDatabaseTest {
         assertThat(records).hasSize(2).contains(alice.toCSV(), bob.toCSV());
     }
 
+    @Test
+    void testStreamKeepsReadingItsGenerationUntilClosed() {
+        List<String> rows = new ArrayList<>();
+        try (Stream<String> stream = phoneBookDatabase.stream()) {
+            Iterator<String> iterator = stream.iterator();
+            rows.add(iterator.next());
+            // Rewrites and appends after the stream opened are not seen by it
+            phoneBookDatabase.delete(bob.getId());
+            phoneBookDatabase.insert(mallory.toCSV());
+            iterator.forEachRemaining(rows::add);
+        }
+        assertThat(rows).containsExactly(alice.toCSV(), bob.toCSV());
+        assertThat(phoneBookDatabase.select(bob.getId())).isEmpty();
+    }
+
+    @Test
+    void testExportCsvCopiesTheFile() throws IOException {
+        Files.writeString(filePath, "1,Carol,carol@gmail.com,210063423", StandardOpenOption.APPEND);
+        phoneBookDatabase.close();
+        phoneBookDatabase = new PhoneBookDatabase(new ApplicationProperties().getStorage(), new SimpleMeterRegistry());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        phoneBookDatabase.exportCsv(out);
+
+        // The last row, written without a line terminator, gets one
+        assertThat(out.toString(StandardCharsets.UTF_8))
+            .isEqualTo(Files.readString(filePath, StandardCharsets.UTF_8) + System.lineSeparator());
+    }
+
+    @Test
+    void testPageSeeksFromTheCursor() {
+        Long malloryId = phoneBookDatabase.insert(mallory.toCSV());
+        mallory.setId(malloryId);
+
+        CursorPage<String> first = phoneBookDatabase.page(null, 2);
+        assertThat(first.getItems()).containsExactly(alice.toCSV(), bob.toCSV());
+        assertThat(first.getNextCursor()).isNotNull();
+
+        CursorPage<String> second = phoneBookDatabase.page(first.getNextCursor(), 2);
+        assertThat(second.getItems()).containsExactly(mallory.toCSV());
+        assertThat(second.getNextCursor()).isNull();
+
+        // A page ending on the last row has no next page
+        assertThat(phoneBookDatabase.page(null, 3).getNextCursor()).isNull();
+    }
+
+    @Test
+    void testPageCursorFollowsRewrites() {
+        Long malloryId = phoneBookDatabase.insert(mallory.toCSV());
+        mallory.setId(malloryId);
+        CursorPage<String> first = phoneBookDatabase.page(null, 1);
+
+        // Rewrites before the cursor move the remaining rows, which are neither skipped nor repeated
+        PhoneBookRecord renamed = new PhoneBookRecord(alice.getId(), "Alicia", alice.getEmail(), alice.getMobile());
+        assertThat(phoneBookDatabase.update(alice.getId(), renamed.toCSV())).isTrue();
+        CursorPage<String> second = phoneBookDatabase.page(first.getNextCursor(), 1);
+        assertThat(second.getItems()).containsExactly(bob.toCSV());
+
+        assertThat(phoneBookDatabase.delete(alice.getId())).isTrue();
+        assertThat(phoneBookDatabase.page(second.getNextCursor(), 1).getItems()).containsExactly(mallory.toCSV());
+        assertThat(phoneBookDatabase.page(first.getNextCursor(), 2).getItems()).containsExactly(bob.toCSV(), mallory.toCSV());
+    }
+
+    @Test
+    void testPageCursorOutlivesRestartsAndItsRow() throws IOException {
+        // Appended out of id order, yet paged first
+        Files.writeString(filePath, "1,Carol,carol@gmail.com,210063423", StandardOpenOption.APPEND);
+        phoneBookDatabase.close();
+        phoneBookDatabase = new PhoneBookDatabase(new ApplicationProperties().getStorage(), new SimpleMeterRegistry());
+        CursorPage<String> first = phoneBookDatabase.page(null, 2);
+        assertThat(first.getItems()).containsExactly("1,Carol,carol@gmail.com,210063423", alice.toCSV());
+
+        assertThat(phoneBookDatabase.delete(alice.getId())).isTrue();
+        phoneBookDatabase.close();
+        phoneBookDatabase = new PhoneBookDatabase(new ApplicationProperties().getStorage(), new SimpleMeterRegistry());
+
+        CursorPage<String> second = phoneBookDatabase.page(first.getNextCursor(), 2);
+        assertThat(second.getItems()).containsExactly(bob.toCSV());
+        assertThat(second.getNextCursor()).isNull();
+    }
+
+    @Test
+    void testPageRejectsInvalidCursors() {
+        assertThatThrownBy(() -> phoneBookDatabase.page("garbage", 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> phoneBookDatabase.page("-5", 1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
     @Test
     void testSelectByIdExists() {
         List<String> records = phoneBookDatabase.select(alice.getId());
@@ -126,4 +228,194 @@ class PhoneBookDatabaseTest {
         List<String> records = phoneBookDatabase.select(-1L);
         assertThat(records).hasSize(2).contains(alice.toCSV(), bob.toCSV());
     }
+
+    @Test
+    void testSelectByIdAfterDelete() {
+        phoneBookDatabase.delete(alice.getId());
+        List<String> records = phoneBookDatabase.select(bob.getId());
+        assertThat(records).hasSize(1).contains(bob.toCSV());
+    }
+
+    @Test
+    void testSelectAllMappedAcrossChunks() throws IOException {
+        phoneBookDatabase.close();
+        ApplicationProperties.Storage storage = new ApplicationProperties().getStorage();
+        storage.setScanMode(ApplicationProperties.Storage.ScanMode.MMAP);
+        storage.setMmapChunkBytes(16);
+        phoneBookDatabase = new PhoneBookDatabase(storage, new SimpleMeterRegistry());
+
+        assertThat(phoneBookDatabase.select(-1L)).containsExactly(alice.toCSV(), bob.toCSV());
+
+        mallory.setId(phoneBookDatabase.insert(mallory.toCSV()));
+        assertThat(phoneBookDatabase.select(-1L)).containsExactly(alice.toCSV(), bob.toCSV(), mallory.toCSV());
+
+        phoneBookDatabase.delete(alice.getId());
+        assertThat(phoneBookDatabase.select(-1L)).containsExactly(bob.toCSV(), mallory.toCSV());
+    }
+
+    @Test
+    void testScanPushesTheFilterDown() throws IOException {
+        mallory.setId(phoneBookDatabase.insert(mallory.toCSV()));
+        RecordFilter filter = RecordFilter.parse("email ^= 'bob' OR (mobile = 210063423 AND name $= ory)");
+
+        List<String> matches = new ArrayList<>();
+        phoneBookDatabase.scan(filter, matches::add);
+        assertThat(matches).containsExactly(bob.toCSV(), mallory.toCSV());
+
+        phoneBookDatabase.close();
+        ApplicationProperties.Storage storage = new ApplicationProperties().getStorage();
+        storage.setScanMode(ApplicationProperties.Storage.ScanMode.MMAP);
+        storage.setMmapChunkBytes(16);
+        phoneBookDatabase = new PhoneBookDatabase(storage, new SimpleMeterRegistry());
+        List<String> mapped = new ArrayList<>();
+        phoneBookDatabase.scan(filter, mapped::add);
+        assertThat(mapped).containsExactly(bob.toCSV(), mallory.toCSV());
+
+        List<String> byId = new ArrayList<>();
+        phoneBookDatabase.scan(RecordFilter.parse("id = " + alice.getId() + " AND name = Alice"), byId::add);
+        assertThat(byId).containsExactly(alice.toCSV());
+    }
+
+    @Test
+    void testStoresRowsInUtf8() throws IOException {
+        PhoneBookRecord zoe = new PhoneBookRecord(null, "Zoë Ångström", "zoe@gmail.com", 210063424);
+        zoe.setId(phoneBookDatabase.insert(zoe.toCSV()));
+
+        // Whatever the platform charset, as the filters compare UTF-8 bytes
+        assertThat(Files.readString(filePath, StandardCharsets.UTF_8)).contains(zoe.toCSV());
+        List<String> matches = new ArrayList<>();
+        phoneBookDatabase.scan(RecordFilter.parse("name ^= 'Zoë Å'"), matches::add);
+        assertThat(matches).containsExactly(zoe.toCSV());
+        assertThat(phoneBookDatabase.select(zoe.getId())).containsExactly(zoe.toCSV());
+    }
+
+    @Test
+    void testQuotedRowsSurviveReopeningAndLineBreaksAreRefused() throws IOException {
+        PhoneBookRecord smith = new PhoneBookRecord(null, "Smith, \"Al\"", "al@gmail.com", 210063424);
+        smith.setId(phoneBookDatabase.insert(smith.toCSV()));
+        PhoneBookRecord torn = new PhoneBookRecord(null, "Torn\n999,Row", "torn@gmail.com", 210063425);
+        assertThatThrownBy(torn::toCSV).isInstanceOf(IllegalArgumentException.class);
+
+        phoneBookDatabase.close();
+        phoneBookDatabase = new PhoneBookDatabase(new ApplicationProperties().getStorage(), new SimpleMeterRegistry());
+
+        assertThat(phoneBookDatabase.select(-1L)).containsExactlyInAnyOrder(alice.toCSV(), bob.toCSV(), smith.toCSV());
+        assertThat(phoneBookDatabase.select(smith.getId())).containsExactly(smith.toCSV());
+        assertThat(Files.readAllLines(filePath, StandardCharsets.UTF_8)).hasSize(3);
+    }
+
+    @Test
+    void testBTreeIndexServesLookupsAndRewrites() throws IOException {
+        phoneBookDatabase.close();
+        ApplicationProperties.Storage storage = new ApplicationProperties().getStorage();
+        storage.setIndex(ApplicationProperties.Storage.IndexType.BTREE);
+        phoneBookDatabase = new PhoneBookDatabase(storage, new SimpleMeterRegistry());
+
+        mallory.setId(phoneBookDatabase.insert(mallory.toCSV()));
+        assertThat(phoneBookDatabase.select(mallory.getId())).containsExactly(mallory.toCSV());
+        assertThat(phoneBookDatabase.delete(alice.getId())).isTrue();
+        assertThat(phoneBookDatabase.select(alice.getId())).isEmpty();
+        assertThat(phoneBookDatabase.select(bob.getId())).containsExactly(bob.toCSV());
+        assertThat(phoneBookDatabase.stats().getRows()).isEqualTo(2);
+
+        phoneBookDatabase.close();
+        phoneBookDatabase = new PhoneBookDatabase(storage, new SimpleMeterRegistry());
+        assertThat(phoneBookDatabase.select(mallory.getId())).containsExactly(mallory.toCSV());
+        assertThat(Paths.get(FILE_NAME + ".1.idx")).exists();
+        assertThat(Paths.get(FILE_NAME + ".2.idx")).doesNotExist();
+    }
+
+    @Test
+    void testIdFilterKeepsUpWithInserts() throws IOException {
+        phoneBookDatabase.close();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        phoneBookDatabase = new PhoneBookDatabase(new ApplicationProperties().getStorage(), meterRegistry);
+
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            rows.add(new PhoneBookRecord(null, "Name " + i, "name" + i + "@gmail.com", 210063400 + i).toCSV());
+        }
+        // Outgrows the filter sized at startup, rebuilt along the way
+        List<Long> ids = phoneBookDatabase.insertAll(rows);
+
+        for (Long id : ids) {
+            assertThat(phoneBookDatabase.select(id)).hasSize(1);
+        }
+        assertThat(phoneBookDatabase.select(mallory.getId())).isEmpty();
+        assertThat(phoneBookDatabase.delete(mallory.getId())).isFalse();
+        assertThat(meterRegistry.get(PhoneBookDatabase.ID_FILTER_FALSE_POSITIVE_RATE_METER_NAME).gauge().value())
+            .isPositive()
+            .isLessThan(0.05);
+    }
+
+    @Test
+    void testLookupsStayConsistentWhileRowsMove() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> readers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                readers.add(
+                    executor.submit(() -> {
+                        for (int lookup = 0; lookup < 2000; lookup++) {
+                            if (!phoneBookDatabase.select(bob.getId()).equals(List.of(bob.toCSV()))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    })
+                );
+            }
+            // Growing and shrinking the row ahead of Bob keeps moving his offset
+            for (int i = 0; i < 50; i++) {
+                PhoneBookRecord renamed = new PhoneBookRecord(alice.getId(), "Alice".repeat(1 + i % 5), alice.getEmail(), alice.getMobile());
+                phoneBookDatabase.update(alice.getId(), renamed.toCSV());
+            }
+            for (Future<Boolean> reader : readers) {
+                assertThat(reader.get()).isTrue();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testScansSeeWholeGenerationsWhileRowsAreRewritten() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Boolean>> readers = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                readers.add(
+                    executor.submit(() -> {
+                        for (int scan = 0; scan < 500; scan++) {
+                            List<String> rows = phoneBookDatabase.select(-1L);
+                            if (rows.size() != 2 || !rows.contains(bob.toCSV())) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    })
+                );
+            }
+            for (int i = 0; i < 50; i++) {
+                PhoneBookRecord renamed = new PhoneBookRecord(alice.getId(), "Alice " + i, alice.getEmail(), alice.getMobile());
+                assertThat(phoneBookDatabase.update(alice.getId(), renamed.toCSV())).isTrue();
+            }
+            for (Future<Boolean> reader : readers) {
+                assertThat(reader.get()).isTrue();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testDropsHalfWrittenGenerationOnOpen() throws IOException {
+        phoneBookDatabase.close();
+        Path nextGeneration = Paths.get(FILE_NAME + ".next");
+        Files.writeString(nextGeneration, "1,Partial");
+        phoneBookDatabase = new PhoneBookDatabase(new ApplicationProperties().getStorage(), new SimpleMeterRegistry());
+
+        assertThat(nextGeneration).doesNotExist();
+        assertThat(phoneBookDatabase.select(-1L)).containsExactly(alice.toCSV(), bob.toCSV());
+    }
 }
@@ -0,0 +1,50 @@
+package com.tiagodiogo.radicant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import com.tiagodiogo.radicant.repository.InMemoryDatabase;
+import com.tiagodiogo.radicant.repository.SearchIndexedDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PhoneBookServiceTest {
+
+    private InMemoryDatabase database;
+
+    PhoneBookRecord alice = new PhoneBookRecord(null, "Alice Silva", "alice@radicant.com", 210063423);
+    PhoneBookRecord bob = new PhoneBookRecord(null, "Bob Vasilva", "bob@gmail.com", 210063424);
+
+    @BeforeEach
+    void setup() {
+        database = new InMemoryDatabase();
+        alice.setId(database.insert(alice.toCSV()));
+    }
+
+    @Test
+    void testSearchFollowsServiceWrites() {
+        PhoneBookService service = new PhoneBookService(new SearchIndexedDatabase(database));
+        assertThat(service.searchRecords("@RADI", 10)).extracting(PhoneBookRecord::getId).containsExactly(alice.getId());
+
+        bob.setId(service.addRecord(bob));
+        assertThat(service.searchRecords("silva", 10)).extracting(PhoneBookRecord::getId).containsExactly(alice.getId(), bob.getId());
+
+        assertThat(service.deleteRecord(bob.getId())).isTrue();
+        assertThat(service.searchRecords("silva", 10)).extracting(PhoneBookRecord::getId).containsExactly(alice.getId());
+    }
+
+    @Test
+    void testSearchRejectsShortQueries() {
+        PhoneBookService service = new PhoneBookService(database);
+
+        assertThatThrownBy(() -> service.searchRecords(" a ", 10)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testSearchScansWithoutTheIndex() {
+        PhoneBookService service = new PhoneBookService(database);
+
+        assertThat(service.searchRecords("ice sil", 10)).extracting(PhoneBookRecord::getId).containsExactly(alice.getId());
+    }
+}
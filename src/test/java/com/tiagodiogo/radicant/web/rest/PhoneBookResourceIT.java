@@ -0,0 +1,369 @@
+package com.tiagodiogo.radicant.web.rest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import com.tiagodiogo.radicant.IntegrationTest;
+import com.tiagodiogo.radicant.domain.PhoneBookRecord;
+import com.tiagodiogo.radicant.domain.RecordFilter;
+import com.tiagodiogo.radicant.service.PhoneBookService;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+/**
+ * Integration tests for the {@link PhoneBookResource} REST controller.
+ */
+@AutoConfigureMockMvc
+@WithMockUser
+@IntegrationTest
+@TestPropertySource(properties = { "application.storage.engine=in-memory", "application.storage.unique-email=true" })
+class PhoneBookResourceIT {
+
+    private static final String ENTITY_API_URL = "/api/phone-book";
+
+    @Autowired
+    private PhoneBookService phoneBookService;
+
+    @Autowired
+    private MockMvc restPhoneBookMockMvc;
+
+    private final Map<Long, String> emailsById = new TreeMap<>();
+
+    @BeforeEach
+    void initRecords() {
+        addRecord("Ana Silva", "ana@radicant.com", 912345678);
+        addRecord("Bruno Costa", "bruno@radicant.com", 934567890);
+        addRecord("Carla Sousa", "carla@example.com", 965432109);
+    }
+
+    @AfterEach
+    void deleteRecords() {
+        List<Long> ids;
+        try (Stream<PhoneBookRecord> records = phoneBookService.streamAllRecords()) {
+            ids = records.map(PhoneBookRecord::getId).collect(Collectors.toList());
+        }
+        ids.forEach(phoneBookService::deleteRecord);
+        emailsById.clear();
+    }
+
+    @Test
+    void testGetAllRecordsStreamsJsonArray() throws Exception {
+        performAsync(get(ENTITY_API_URL).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+            .andExpect(jsonPath("$", hasSize(3)))
+            .andExpect(jsonPath("$[*].name", containsInAnyOrder("Ana Silva", "Bruno Costa", "Carla Sousa")))
+            .andExpect(jsonPath("$[*].mobile", containsInAnyOrder(912345678, 934567890, 965432109)));
+    }
+
+    @Test
+    void testGetAllRecordsStreamsEmptyArray() throws Exception {
+        deleteRecords();
+
+        performAsync(get(ENTITY_API_URL).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(content().string("[]"));
+    }
+
+    @Test
+    void testGetPageFollowsNextLinks() throws Exception {
+        List<String> emailsInIdOrder = new ArrayList<>(emailsById.values());
+
+        MvcResult first = restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "?limit=2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].email", contains(emailsInIdOrder.get(0), emailsInIdOrder.get(1))))
+            .andExpect(header().string(HttpHeaders.LINK, containsString("rel=\"next\"")))
+            .andReturn();
+        String next = nextLinkOf(first);
+
+        restPhoneBookMockMvc
+            .perform(get(next))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].email", contains(emailsInIdOrder.get(2))))
+            .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    @Test
+    void testGetPageRejectsLimitOutOfRange() throws Exception {
+        restPhoneBookMockMvc.perform(get(ENTITY_API_URL).param("limit", "0")).andExpect(status().isBadRequest());
+        restPhoneBookMockMvc.perform(get(ENTITY_API_URL).param("limit", "1001")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetPageRejectsBadCursor() throws Exception {
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL).param("limit", "2").param("cursor", "not a cursor"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetMatchingRecords() throws Exception {
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL).param("filter", "email $= '@radicant.com' AND mobile > 920000000"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].name", contains("Bruno Costa")));
+    }
+
+    @Test
+    void testFilterTakesPrecedenceOverLimit() throws Exception {
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL).param("limit", "1").param("filter", "email $= '@radicant.com'"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].name", containsInAnyOrder("Ana Silva", "Bruno Costa")))
+            .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    @Test
+    void testGetMatchingRecordsRejectsBadFilter() throws Exception {
+        restPhoneBookMockMvc.perform(get(ENTITY_API_URL).param("filter", "name ~ 'Ana'")).andExpect(status().isBadRequest());
+        restPhoneBookMockMvc.perform(get(ENTITY_API_URL).param("filter", "name = 'Ana' AND")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetMatchingRecordsRejectsFiltersTooLongOrNestedTooDeep() throws Exception {
+        String nested = "(".repeat(RecordFilter.MAX_DEPTH + 1) + "name = 'Ana'" + ")".repeat(RecordFilter.MAX_DEPTH + 1);
+        String padded = "name = " + "a".repeat(RecordFilter.MAX_LENGTH);
+
+        restPhoneBookMockMvc.perform(get(ENTITY_API_URL).param("filter", nested)).andExpect(status().isBadRequest());
+        restPhoneBookMockMvc.perform(get(ENTITY_API_URL).param("filter", padded)).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testExportDefaultsToNdjson() throws Exception {
+        MvcResult result = performAsync(get(ENTITY_API_URL + "/export"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+            .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"phone-book.ndjson\""))
+            .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING)))
+            .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+            .andReturn();
+
+        String[] lines = result.getResponse().getContentAsString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(3).allMatch(line -> line.startsWith("{") && line.endsWith("}"));
+        assertThat(lines).anyMatch(line -> line.contains("\"email\":\"carla@example.com\""));
+    }
+
+    @Test
+    void testExportAsCsv() throws Exception {
+        MvcResult result = performAsync(get(ENTITY_API_URL + "/export").accept("text/csv"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType("text/csv;charset=UTF-8"))
+            .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"phone-book.csv\""))
+            .andReturn();
+
+        assertThat(result.getResponse().getContentAsString(StandardCharsets.UTF_8).split("\n"))
+            .hasSize(3)
+            .anyMatch(line -> line.contains("Ana Silva") && line.contains("ana@radicant.com") && line.contains("912345678"));
+    }
+
+    @Test
+    void testExportFollowsAcceptQuality() throws Exception {
+        performAsync(get(ENTITY_API_URL + "/export").header(HttpHeaders.ACCEPT, "text/csv;q=0.5, application/x-ndjson"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_NDJSON));
+    }
+
+    @Test
+    void testExportGzipped() throws Exception {
+        MvcResult result = performAsync(
+            get(ENTITY_API_URL + "/export").accept("text/csv").header(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=0.8")
+        )
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+            .andReturn();
+
+        String csv;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+            csv = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertThat(csv.split("\n")).hasSize(3).anyMatch(line -> line.contains("Bruno Costa"));
+    }
+
+    @Test
+    void testExportNotGzippedWhenRefused() throws Exception {
+        performAsync(get(ENTITY_API_URL + "/export").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0"))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING));
+    }
+
+    @Test
+    void testGetRecordsByEmail() throws Exception {
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/by-email/{email}", "carla@example.com"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].email", contains("carla@example.com")))
+            .andExpect(jsonPath("$[0].name").value("Carla Sousa"));
+
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/by-email/{email}", "nobody@example.com"))
+            .andExpect(status().isOk())
+            .andExpect(content().string("[]"));
+    }
+
+    @Test
+    void testCreateRecordWithDuplicateEmailConflicts() throws Exception {
+        restPhoneBookMockMvc
+            .perform(
+                post(ENTITY_API_URL)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(TestUtil.convertObjectToJsonBytes(new PhoneBookRecord(null, "Ana Santos", "ana@radicant.com", 919999999)))
+            )
+            .andExpect(status().isConflict());
+
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/by-email/{email}", "ana@radicant.com"))
+            .andExpect(jsonPath("$[*].name", contains("Ana Silva")));
+    }
+
+    @Test
+    void testUpdateRecordWithDuplicateEmailConflicts() throws Exception {
+        restPhoneBookMockMvc
+            .perform(
+                put(ENTITY_API_URL)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(
+                        TestUtil.convertObjectToJsonBytes(
+                            new PhoneBookRecord(idOf("bruno@radicant.com"), "Bruno Costa", "ana@radicant.com", 934567890)
+                        )
+                    )
+            )
+            .andExpect(status().isConflict());
+
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/{id}", idOf("bruno@radicant.com")))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.email").value("bruno@radicant.com"));
+    }
+
+    @Test
+    void testCreateOrUpdateRecordWithLineBreakIsRejected() throws Exception {
+        restPhoneBookMockMvc
+            .perform(
+                post(ENTITY_API_URL)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(TestUtil.convertObjectToJsonBytes(new PhoneBookRecord(null, "Ana\nSantos", "santos@radicant.com", 919999999)))
+            )
+            .andExpect(status().isBadRequest());
+
+        restPhoneBookMockMvc
+            .perform(
+                put(ENTITY_API_URL)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(
+                        TestUtil.convertObjectToJsonBytes(
+                            new PhoneBookRecord(idOf("ana@radicant.com"), "Ana Silva", "ana@radicant.com\r", 912345678)
+                        )
+                    )
+            )
+            .andExpect(status().isBadRequest());
+
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/{id}", idOf("ana@radicant.com")))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.email").value("ana@radicant.com"));
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/by-email/{email}", "santos@radicant.com"))
+            .andExpect(content().string("[]"));
+    }
+
+    @Test
+    void testGetRecordsByMobile() throws Exception {
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/by-mobile/{mobile}", 934567890))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].email", contains("bruno@radicant.com")));
+
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/by-mobile/{mobile}", 900000000))
+            .andExpect(status().isOk())
+            .andExpect(content().string("[]"));
+    }
+
+    @Test
+    void testSearchRecords() throws Exception {
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/search").param("q", "SOUSA"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].email", contains("carla@example.com")));
+
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/search").param("q", "radicant").param("limit", "1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$", hasSize(1)));
+    }
+
+    @Test
+    void testSearchRecordsRejectsBadRequests() throws Exception {
+        restPhoneBookMockMvc.perform(get(ENTITY_API_URL + "/search").param("q", "an")).andExpect(status().isBadRequest());
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/search").param("q", "ana").param("limit", "0"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testSuggestNames() throws Exception {
+        addRecord("Álvaro Bento", "alvaro@example.com", 961111111);
+
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/suggest").param("prefix", "a"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].name", contains("Álvaro Bento", "Ana Silva")));
+
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/suggest").param("prefix", "a").param("limit", "1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].name", contains("Álvaro Bento")));
+    }
+
+    @Test
+    void testSuggestNamesRejectsBadRequests() throws Exception {
+        restPhoneBookMockMvc.perform(get(ENTITY_API_URL + "/suggest").param("prefix", " ")).andExpect(status().isBadRequest());
+        restPhoneBookMockMvc
+            .perform(get(ENTITY_API_URL + "/suggest").param("prefix", "a").param("limit", "101"))
+            .andExpect(status().isBadRequest());
+    }
+
+    private void addRecord(String name, String email, int mobile) {
+        emailsById.put(phoneBookService.addRecord(new PhoneBookRecord(null, name, email, mobile)), email);
+    }
+
+    private Long idOf(String email) {
+        return emailsById.entrySet().stream().filter(entry -> entry.getValue().equals(email)).findFirst().orElseThrow().getKey();
+    }
+
+    /**
+     * Performs a request answered with a {@code StreamingResponseBody}, and dispatches it again once the body is written.
+     */
+    private ResultActions performAsync(MockHttpServletRequestBuilder requestBuilder) throws Exception {
+        MvcResult started = restPhoneBookMockMvc.perform(requestBuilder).andExpect(request().asyncStarted()).andReturn();
+        return restPhoneBookMockMvc.perform(asyncDispatch(started));
+    }
+
+    private static String nextLinkOf(MvcResult result) {
+        String link = result.getResponse().getHeader(HttpHeaders.LINK);
+        return link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+    }
+}